@@ -0,0 +1,107 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Vector;
+
+/**
+ * An aggregate function such as <code>COUNT(*)</code> or <code>SUM(x)</code>.
+ * The values are computed by {@link HashAggregate} for each group, and this
+ * expression only picks the value of the current group from the frame.
+ */
+class AggregateExpression extends Expression {
+
+    static final int COUNT = 0;
+
+    static final int SUM = 1;
+
+    static final int AVG = 2;
+
+    static final int MIN = 3;
+
+    static final int MAX = 4;
+
+    static final int TOTAL = 5;
+
+    static final String[] NAMES = { "COUNT", "SUM", "AVG", "MIN", "MAX",
+	    "TOTAL" };
+
+    private final int function;
+
+    /* The argument, or null for COUNT(*) */
+    private final Expression argument;
+
+    /* Position of the value among the aggregates of the select */
+    private final int slot;
+
+    public AggregateExpression(int function, Expression argument, int slot) {
+	this.function = function;
+	this.argument = argument;
+	this.slot = slot;
+    }
+
+    int getFunction() {
+	return function;
+    }
+
+    Expression getArgument() {
+	return argument;
+    }
+
+    public Object evaluate(Frame frame, Table source, int row) {
+	return frame.getAggregate(slot);
+    }
+
+    @Override
+    public int type(Table source) {
+	switch (function) {
+	case COUNT:
+	    return Table.INTEGER;
+	case AVG:
+	case TOTAL:
+	    return Table.REAL;
+	default:
+	    int type = argument.type(source);
+	    if (function == SUM && type != Table.INTEGER) {
+		return (type == Table.REAL) ? Table.REAL : Table.NONE;
+	    }
+	    return type;
+	}
+    }
+
+    @Override
+    void columns(Vector<ColumnExpression> result) {
+	if (argument != null) {
+	    argument.columns(result);
+	}
+    }
+
+    @Override
+    public String toString() {
+	return NAMES[function] + "(" + ((argument != null) ? argument : "*")
+		+ ")";
+    }
+
+}
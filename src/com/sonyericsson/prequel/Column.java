@@ -0,0 +1,850 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A single column of a table using columnar storage. Numeric values are kept
+ * in primitive arrays together with a validity bitmap, so that no boxing takes
+ * place when the cells are accessed through the primitive getters. The
+ * storage is split into fixed size chunks, which means that a growing column
+ * never has to copy the values it already holds.
+ * <p>
+ * A column can be forked into a new version that shares the chunks with the
+ * old one, see {@link #fork(int)}. Chunks are then copied the first time they
+ * are written through the new version, which leaves the old version intact
+ * for anyone still reading it.
+ */
+abstract class Column implements Cloneable {
+
+    static final int CHUNK_BITS = 10;
+
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /* Kinds of columns in a snapshot, see write() */
+    static final int VALUES = 0;
+
+    static final int INT = 1;
+
+    static final int LONG = 2;
+
+    static final int REAL = 3;
+
+    /* Number of chunks currently allocated */
+    int chunks;
+
+    /* Rows shared with the version this column was forked from */
+    private int frozen;
+
+    /* Chunks holding frozen rows that have been copied since the fork */
+    private boolean[] owned = new boolean[0];
+
+    /**
+     * Creates an empty column suitable for the given type.
+     * 
+     * @param type
+     *            One of the type constants defined in {@link Table}.
+     * @return The column.
+     */
+    static Column create(int type) {
+	switch (type) {
+	case Table.INTEGER:
+	    return new IntColumn();
+	case Table.REAL:
+	    return new RealColumn();
+	default:
+	    return new TextColumn();
+	}
+    }
+
+    /**
+     * Makes sure that the column has room for the given number of rows. Newly
+     * allocated cells are set to NULL.
+     * 
+     * @param rows
+     *            The number of rows.
+     */
+    void ensureCapacity(int rows) {
+	int needed = (rows + CHUNK_MASK) >>> CHUNK_BITS;
+	while (chunks < needed) {
+	    allocate(chunks++);
+	}
+    }
+
+    /**
+     * Allocates the storage for the given chunk.
+     * 
+     * @param chunk
+     *            Index of the chunk, always the one following the previously
+     *            allocated chunk.
+     */
+    abstract void allocate(int chunk);
+
+    /**
+     * Creates a new version of the column. The new version shares all chunks
+     * with this one, and copies a chunk before writing any of the given
+     * number of rows in it. Rows after these are not visible to readers of
+     * this version and are written in place. This version must not be
+     * changed any more.
+     * 
+     * @param rows
+     *            The number of rows in use.
+     * @return The new version.
+     */
+    Column fork(int rows) {
+	Column copy;
+	try {
+	    copy = (Column) clone();
+	} catch (CloneNotSupportedException e) {
+	    throw new IllegalStateException(e);
+	}
+	copy.detach();
+	copy.frozen = rows;
+	copy.owned = new boolean[chunks];
+	return copy;
+    }
+
+    /**
+     * Replaces the arrays referring to the chunks with copies, so that
+     * chunks can be added or replaced without affecting other versions.
+     */
+    abstract void detach();
+
+    /**
+     * Replaces a shared chunk with a copy.
+     */
+    abstract void copyChunk(int chunk);
+
+    /**
+     * Makes sure that the given row can be written without affecting other
+     * versions of the column.
+     */
+    final void unshare(int row) {
+	if (row < frozen) {
+	    int chunk = row >>> CHUNK_BITS;
+	    if (!owned[chunk]) {
+		copyChunk(chunk);
+		owned[chunk] = true;
+	    }
+	}
+    }
+
+    abstract boolean isNull(int row);
+
+    /**
+     * Gets the value of a cell as an object, boxing primitive values.
+     */
+    abstract Object get(int row);
+
+    /**
+     * Sets the value of a cell. The value must already have been converted to
+     * the type of the column.
+     * 
+     * @return The column now holding the value. This is usually the column
+     *         itself, but a new, wider, column is returned when the value did
+     *         not fit.
+     */
+    abstract Column set(int row, Object value);
+
+    /**
+     * Copies a cell from another column with the same type.
+     * 
+     * @return The column now holding the value, see
+     *         {@link #set(int, Object)}.
+     */
+    Column copy(int row, Column source, int sourceRow) {
+	return set(row, source.get(sourceRow));
+    }
+
+    /**
+     * Indicates whether the primitive getters can be used on this column.
+     */
+    boolean isNumeric() {
+	return false;
+    }
+
+    int getInt(int row) {
+	throw new UnsupportedOperationException();
+    }
+
+    long getLong(int row) {
+	throw new UnsupportedOperationException();
+    }
+
+    double getDouble(int row) {
+	throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Gets the column holding the values, which is this one unless the
+     * column is read from a snapshot when first used, see {@link Mapped}.
+     */
+    Column load() {
+	return this;
+    }
+
+    /**
+     * Writes the given rows of the column to a snapshot, see
+     * {@link Snapshot}. Primitive columns write their validity bitmap,
+     * followed by the values. Other columns write each value with its type.
+     * 
+     * @param rows
+     *            The rows to write, in the order they are to be read back.
+     * @return The kind of column written, see
+     *         {@link #read(int, ByteBuffer, int)}.
+     */
+    int write(DataOutputStream out, int[] rows) throws IOException {
+	for (int row : rows) {
+	    WriteAheadLog.writeValue(out, get(row));
+	}
+	return VALUES;
+    }
+
+    /**
+     * Reads a column written to a snapshot. Primitive values are copied a
+     * chunk at a time, straight into the storage of the column.
+     * 
+     * @param kind
+     *            The kind of column, as returned by
+     *            {@link #write(DataOutputStream, int[])}.
+     * @param data
+     *            The bytes written, starting at the position of the buffer.
+     * @param rows
+     *            The number of rows written.
+     * @return The column.
+     * @throws IOException
+     *             when the data is not a complete column.
+     */
+    static Column read(int kind, ByteBuffer data, int rows)
+	    throws IOException {
+	if (kind == VALUES) {
+	    byte[] bytes = new byte[data.remaining()];
+	    data.get(bytes);
+	    DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+		    bytes));
+	    Column column = new TextColumn();
+	    column.ensureCapacity(rows);
+	    for (int i = 0; i < rows; i++) {
+		column.set(i, WriteAheadLog.readValue(in));
+	    }
+	    return column;
+	}
+	PrimitiveColumn column;
+	if (kind == INT) {
+	    column = new IntColumn();
+	} else if (kind == LONG) {
+	    column = new LongColumn();
+	} else if (kind == REAL) {
+	    column = new RealColumn();
+	} else {
+	    throw new IOException("Unknown kind of column " + kind);
+	}
+	column.ensureCapacity(rows);
+	int words = (rows + 63) >>> 6;
+	LongBuffer bits = data.asLongBuffer();
+	for (int i = 0; i < column.chunks; i++) {
+	    int length = Math.min(CHUNK_SIZE, rows - (i << CHUNK_BITS));
+	    bits.get(column.valid[i], 0, (length + 63) >>> 6);
+	}
+	data.position(data.position() + words * 8);
+	column.read(data, rows);
+	return column;
+    }
+
+    /**
+     * Base for columns with primitive values. A bit is set in the validity
+     * bitmap for every cell that is not NULL.
+     */
+    private abstract static class PrimitiveColumn extends Column {
+
+	long[][] valid = new long[0][];
+
+	@Override
+	void allocate(int chunk) {
+	    if (chunk >= valid.length) {
+		int length = Math.max(chunk + 1, valid.length * 2);
+		valid = Arrays.copyOf(valid, length);
+	    }
+	    valid[chunk] = new long[CHUNK_SIZE >>> 6];
+	}
+
+	@Override
+	void detach() {
+	    valid = valid.clone();
+	}
+
+	@Override
+	void copyChunk(int chunk) {
+	    valid[chunk] = valid[chunk].clone();
+	}
+
+	@Override
+	boolean isNull(int row) {
+	    long[] bits = valid[row >>> CHUNK_BITS];
+	    return (bits[(row & CHUNK_MASK) >>> 6] & (1L << row)) == 0;
+	}
+
+	void setNull(int row, boolean isNull) {
+	    long[] bits = valid[row >>> CHUNK_BITS];
+	    int word = (row & CHUNK_MASK) >>> 6;
+	    if (isNull) {
+		bits[word] &= ~(1L << row);
+	    } else {
+		bits[word] |= 1L << row;
+	    }
+	}
+
+	@Override
+	boolean isNumeric() {
+	    return true;
+	}
+
+	@Override
+	int write(DataOutputStream out, int[] rows) throws IOException {
+	    ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE * 8);
+	    for (int i = 0; i < rows.length; i += 64) {
+		long bits = 0;
+		for (int j = i; j < Math.min(i + 64, rows.length); j++) {
+		    if (!isNull(rows[j])) {
+			bits |= 1L << j;
+		    }
+		}
+		buffer.putLong(bits);
+		if (!buffer.hasRemaining()) {
+		    out.write(buffer.array(), 0, buffer.position());
+		    buffer.clear();
+		}
+	    }
+	    out.write(buffer.array(), 0, buffer.position());
+	    buffer.clear();
+	    for (int row : rows) {
+		put(buffer, row);
+		if (!buffer.hasRemaining()) {
+		    out.write(buffer.array(), 0, buffer.position());
+		    buffer.clear();
+		}
+	    }
+	    out.write(buffer.array(), 0, buffer.position());
+	    return kind();
+	}
+
+	/**
+	 * Gets the kind of column written by
+	 * {@link #write(DataOutputStream, int[])}.
+	 */
+	abstract int kind();
+
+	/**
+	 * Puts the value of a cell in a buffer, as written to a snapshot.
+	 */
+	abstract void put(ByteBuffer buffer, int row);
+
+	/**
+	 * Reads the values of the given number of rows, which already have
+	 * room in the column.
+	 */
+	abstract void read(ByteBuffer data, int rows);
+
+    }
+
+    static class IntColumn extends PrimitiveColumn {
+
+	int[][] values = new int[0][];
+
+	@Override
+	void allocate(int chunk) {
+	    super.allocate(chunk);
+	    if (chunk >= values.length) {
+		values = Arrays.copyOf(values, valid.length);
+	    }
+	    values[chunk] = new int[CHUNK_SIZE];
+	}
+
+	@Override
+	void detach() {
+	    super.detach();
+	    values = values.clone();
+	}
+
+	@Override
+	void copyChunk(int chunk) {
+	    super.copyChunk(chunk);
+	    values[chunk] = values[chunk].clone();
+	}
+
+	@Override
+	Object get(int row) {
+	    if (isNull(row)) {
+		return null;
+	    }
+	    return values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	Column set(int row, Object value) {
+	    if (value == null) {
+		unshare(row);
+		setNull(row, true);
+		values[row >>> CHUNK_BITS][row & CHUNK_MASK] = 0;
+		return this;
+	    }
+	    long l = ((Number) value).longValue();
+	    if (l > Integer.MAX_VALUE || l < Integer.MIN_VALUE) {
+		return new LongColumn(this).set(row, value);
+	    }
+	    unshare(row);
+	    setNull(row, false);
+	    values[row >>> CHUNK_BITS][row & CHUNK_MASK] = (int) l;
+	    return this;
+	}
+
+	@Override
+	Column copy(int row, Column source, int sourceRow) {
+	    if (source instanceof IntColumn) {
+		unshare(row);
+		setNull(row, source.isNull(sourceRow));
+		IntColumn other = (IntColumn) source;
+		int[] from = other.values[sourceRow >>> CHUNK_BITS];
+		int[] to = values[row >>> CHUNK_BITS];
+		to[row & CHUNK_MASK] = from[sourceRow & CHUNK_MASK];
+		return this;
+	    }
+	    return super.copy(row, source, sourceRow);
+	}
+
+	@Override
+	int getInt(int row) {
+	    return values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	long getLong(int row) {
+	    return values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	double getDouble(int row) {
+	    return values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	int kind() {
+	    return INT;
+	}
+
+	@Override
+	void put(ByteBuffer buffer, int row) {
+	    buffer.putInt(values[row >>> CHUNK_BITS][row & CHUNK_MASK]);
+	}
+
+	@Override
+	void read(ByteBuffer data, int rows) {
+	    IntBuffer from = data.asIntBuffer();
+	    for (int i = 0; i < chunks; i++) {
+		from.get(values[i], 0, Math.min(CHUNK_SIZE, rows
+			- (i << CHUNK_BITS)));
+	    }
+	}
+
+    }
+
+    /**
+     * Integer column that holds values outside of the 32 bit range. An
+     * {@link IntColumn} is replaced by this one when the first such value is
+     * stored.
+     */
+    static class LongColumn extends PrimitiveColumn {
+
+	long[][] values = new long[0][];
+
+	LongColumn() {
+	}
+
+	LongColumn(IntColumn source) {
+	    chunks = source.chunks;
+	    valid = new long[source.valid.length][];
+	    values = new long[valid.length][];
+	    for (int i = 0; i < chunks; i++) {
+		valid[i] = source.valid[i].clone();
+		values[i] = new long[CHUNK_SIZE];
+		for (int j = 0; j < CHUNK_SIZE; j++) {
+		    values[i][j] = source.values[i][j];
+		}
+	    }
+	}
+
+	@Override
+	void allocate(int chunk) {
+	    super.allocate(chunk);
+	    if (chunk >= values.length) {
+		values = Arrays.copyOf(values, valid.length);
+	    }
+	    values[chunk] = new long[CHUNK_SIZE];
+	}
+
+	@Override
+	void detach() {
+	    super.detach();
+	    values = values.clone();
+	}
+
+	@Override
+	void copyChunk(int chunk) {
+	    super.copyChunk(chunk);
+	    values[chunk] = values[chunk].clone();
+	}
+
+	@Override
+	Object get(int row) {
+	    if (isNull(row)) {
+		return null;
+	    }
+	    long l = values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	    if (l > Integer.MAX_VALUE || l < Integer.MIN_VALUE) {
+		return l;
+	    } else {
+		return (int) l;
+	    }
+	}
+
+	@Override
+	Column set(int row, Object value) {
+	    unshare(row);
+	    if (value == null) {
+		setNull(row, true);
+		values[row >>> CHUNK_BITS][row & CHUNK_MASK] = 0;
+	    } else {
+		setNull(row, false);
+		values[row >>> CHUNK_BITS][row & CHUNK_MASK] = ((Number) value)
+			.longValue();
+	    }
+	    return this;
+	}
+
+	@Override
+	int getInt(int row) {
+	    return (int) values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	long getLong(int row) {
+	    return values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	double getDouble(int row) {
+	    return values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	int kind() {
+	    return LONG;
+	}
+
+	@Override
+	void put(ByteBuffer buffer, int row) {
+	    buffer.putLong(values[row >>> CHUNK_BITS][row & CHUNK_MASK]);
+	}
+
+	@Override
+	void read(ByteBuffer data, int rows) {
+	    LongBuffer from = data.asLongBuffer();
+	    for (int i = 0; i < chunks; i++) {
+		from.get(values[i], 0, Math.min(CHUNK_SIZE, rows
+			- (i << CHUNK_BITS)));
+	    }
+	}
+
+    }
+
+    static class RealColumn extends PrimitiveColumn {
+
+	double[][] values = new double[0][];
+
+	@Override
+	void allocate(int chunk) {
+	    super.allocate(chunk);
+	    if (chunk >= values.length) {
+		values = Arrays.copyOf(values, valid.length);
+	    }
+	    values[chunk] = new double[CHUNK_SIZE];
+	}
+
+	@Override
+	void detach() {
+	    super.detach();
+	    values = values.clone();
+	}
+
+	@Override
+	void copyChunk(int chunk) {
+	    super.copyChunk(chunk);
+	    values[chunk] = values[chunk].clone();
+	}
+
+	@Override
+	Object get(int row) {
+	    if (isNull(row)) {
+		return null;
+	    }
+	    return values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	Column set(int row, Object value) {
+	    unshare(row);
+	    if (value == null) {
+		setNull(row, true);
+		values[row >>> CHUNK_BITS][row & CHUNK_MASK] = 0;
+	    } else {
+		setNull(row, false);
+		values[row >>> CHUNK_BITS][row & CHUNK_MASK] = ((Number) value)
+			.doubleValue();
+	    }
+	    return this;
+	}
+
+	@Override
+	Column copy(int row, Column source, int sourceRow) {
+	    if (source instanceof RealColumn) {
+		unshare(row);
+		setNull(row, source.isNull(sourceRow));
+		RealColumn other = (RealColumn) source;
+		double[] from = other.values[sourceRow >>> CHUNK_BITS];
+		double[] to = values[row >>> CHUNK_BITS];
+		to[row & CHUNK_MASK] = from[sourceRow & CHUNK_MASK];
+		return this;
+	    }
+	    return super.copy(row, source, sourceRow);
+	}
+
+	@Override
+	int getInt(int row) {
+	    return (int) values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	long getLong(int row) {
+	    return (long) values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	double getDouble(int row) {
+	    return values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	int kind() {
+	    return REAL;
+	}
+
+	@Override
+	void put(ByteBuffer buffer, int row) {
+	    buffer.putDouble(values[row >>> CHUNK_BITS][row & CHUNK_MASK]);
+	}
+
+	@Override
+	void read(ByteBuffer data, int rows) {
+	    DoubleBuffer from = data.asDoubleBuffer();
+	    for (int i = 0; i < chunks; i++) {
+		from.get(values[i], 0, Math.min(CHUNK_SIZE, rows
+			- (i << CHUNK_BITS)));
+	    }
+	}
+
+    }
+
+    /**
+     * Column for all non-numeric types. NULL is represented by a
+     * <code>null</code> reference, so no bitmap is needed.
+     */
+    static class TextColumn extends Column {
+
+	Object[][] values = new Object[0][];
+
+	@Override
+	void allocate(int chunk) {
+	    if (chunk >= values.length) {
+		int length = Math.max(chunk + 1, values.length * 2);
+		values = Arrays.copyOf(values, length);
+	    }
+	    values[chunk] = new Object[CHUNK_SIZE];
+	}
+
+	@Override
+	void detach() {
+	    values = values.clone();
+	}
+
+	@Override
+	void copyChunk(int chunk) {
+	    values[chunk] = values[chunk].clone();
+	}
+
+	@Override
+	boolean isNull(int row) {
+	    return get(row) == null;
+	}
+
+	@Override
+	Object get(int row) {
+	    return values[row >>> CHUNK_BITS][row & CHUNK_MASK];
+	}
+
+	@Override
+	Column set(int row, Object value) {
+	    unshare(row);
+	    values[row >>> CHUNK_BITS][row & CHUNK_MASK] = value;
+	    return this;
+	}
+
+    }
+
+    /**
+     * A column of a snapshot that has not been read yet, see
+     * {@link Snapshot}. The data is left in the mapped file until the column
+     * is first used, so opening a snapshot does not read columns that are
+     * never queried. The column is then read once and used in place of this
+     * one, see {@link #load()}.
+     */
+    static class Mapped extends Column {
+
+	private final int kind;
+
+	private final ByteBuffer data;
+
+	private final int rows;
+
+	private volatile Column column;
+
+	Mapped(int kind, ByteBuffer data, int rows) {
+	    this.kind = kind;
+	    this.data = data;
+	    this.rows = rows;
+	}
+
+	@Override
+	Column load() {
+	    Column loaded = column;
+	    if (loaded == null) {
+		synchronized (this) {
+		    if (column == null) {
+			try {
+			    column = read(kind, data.duplicate(), rows);
+			} catch (IOException e) {
+			    throw new IllegalStateException(
+				    "Cannot read snapshot: " + e.getMessage());
+			}
+		    }
+		    loaded = column;
+		}
+	    }
+	    return loaded;
+	}
+
+	@Override
+	Column fork(int rows) {
+	    return load().fork(rows);
+	}
+
+	@Override
+	void ensureCapacity(int rows) {
+	    load().ensureCapacity(rows);
+	}
+
+	@Override
+	void allocate(int chunk) {
+	    throw new IllegalStateException();
+	}
+
+	@Override
+	void detach() {
+	    throw new IllegalStateException();
+	}
+
+	@Override
+	void copyChunk(int chunk) {
+	    throw new IllegalStateException();
+	}
+
+	@Override
+	boolean isNull(int row) {
+	    return load().isNull(row);
+	}
+
+	@Override
+	Object get(int row) {
+	    return load().get(row);
+	}
+
+	@Override
+	Column set(int row, Object value) {
+	    return load().set(row, value);
+	}
+
+	@Override
+	Column copy(int row, Column source, int sourceRow) {
+	    return load().copy(row, source, sourceRow);
+	}
+
+	@Override
+	boolean isNumeric() {
+	    return load().isNumeric();
+	}
+
+	@Override
+	int getInt(int row) {
+	    return load().getInt(row);
+	}
+
+	@Override
+	long getLong(int row) {
+	    return load().getLong(row);
+	}
+
+	@Override
+	double getDouble(int row) {
+	    return load().getDouble(row);
+	}
+
+	@Override
+	int write(DataOutputStream out, int[] rows) throws IOException {
+	    return load().write(out, rows);
+	}
+
+    }
+
+}
@@ -1,63 +1,137 @@
-/* Prequel  A set of simple database APIs in Java SE, similar to SQLite
- * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- *
- * Authors: 
- *   Pr Spjuth (par.spjuth@sonyericsson.com)
- */
-package com.sonyericsson.prequel;
-
-class ColumnExpression extends Expression {
-
-    private String column;
-
-    public ColumnExpression(String column) {
-	this.column = column;
-    }
-
-    public Object evaluate(Table source, int row) {
-	if (row == -1) {
-	    throw new IllegalArgumentException("Cannot access column \""
-		    + column + "\" at this point");
-	}
-	int idx = source.getColumnIndex(column);
-	if (idx == -1) {
-	    throw new IllegalArgumentException("Column \"" + column
-		    + "\" does not exist");
-	}
-	return source.getCell(row, idx);
-    }
-
-    @Override
-    public int type(Table source) {
-	int idx = source.getColumnIndex(column);
-	if (idx == -1) {
-	    throw new IllegalArgumentException("Column \"" + column
-		    + "\" does not exist");
-	}
-	return (source.getFlags(idx) & Table.TYPE_MASK);
-    }
-
-    @Override
-    public String toString() {
-	return column;
-    }
-
-}
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Set;
+import java.util.Vector;
+
+class ColumnExpression extends Expression {
+
+    private String column;
+
+    /* Position of the column in the SQL it was parsed from, or -1 */
+    private final int pos;
+
+    /* The index found for the last table the expression was used on */
+    private volatile Binding binding;
+
+    /**
+     * The index of the column in tables with a certain layout, see
+     * {@link Table#getLayout()}.
+     */
+    private static class Binding {
+
+	final Object layout;
+
+	final int columnCount;
+
+	final int index;
+
+	Binding(Object layout, int columnCount, int index) {
+	    this.layout = layout;
+	    this.columnCount = columnCount;
+	    this.index = index;
+	}
+
+    }
+
+    public ColumnExpression(String column) {
+	this(column, -1);
+    }
+
+    ColumnExpression(String column, int pos) {
+	this.column = column;
+	this.pos = pos;
+    }
+
+    String getColumn() {
+	return column;
+    }
+
+    int getPos() {
+	return pos;
+    }
+
+    /**
+     * Gets the index of the column in the given table. The name is only
+     * looked up when the table differs in layout from the one used last, so
+     * a scan resolves it once rather than for every row.
+     * 
+     * @return The index, or -1 when the table has no such column.
+     */
+    int getIndex(Table source) {
+	Binding b = binding;
+	Object layout = source.getLayout();
+	int columnCount = source.getColumnCount();
+	if (b == null || b.layout != layout || b.columnCount != columnCount) {
+	    b = new Binding(layout, columnCount, source.findColumn(column));
+	    binding = b;
+	}
+	return b.index;
+    }
+
+    public Object evaluate(Frame frame, Table source, int row) {
+	if (row == -1) {
+	    throw new IllegalArgumentException("Cannot access column \""
+		    + column + "\" at this point");
+	}
+	int idx = getIndex(source);
+	if (idx == -1) {
+	    throw new IllegalArgumentException("Column \"" + column
+		    + "\" does not exist");
+	}
+	return source.getCell(row, idx);
+    }
+
+    @Override
+    public int type(Table source) {
+	int idx = getIndex(source);
+	if (idx == -1) {
+	    throw new IllegalArgumentException("Column \"" + column
+		    + "\" does not exist");
+	}
+	return (source.getFlags(idx) & Table.TYPE_MASK);
+    }
+
+    @Override
+    void columns(Vector<ColumnExpression> result) {
+	result.add(this);
+    }
+
+    /**
+     * Checks if the column is qualified with a name other than the given
+     * ones, i.e. refers to a table that the given names do not cover.
+     */
+    boolean isOutside(Set<String> names) {
+	int dot = column.lastIndexOf('.');
+	return dot != -1 && !names.contains(column.substring(0, dot));
+    }
+
+    @Override
+    public String toString() {
+	return column;
+    }
+
+}
@@ -1,1380 +1,3112 @@
-/* Prequel  A set of simple database APIs in Java SE, similar to SQLite
- * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- *
- * Authors: 
- *   Pr Spjuth (par.spjuth@sonyericsson.com)
- */
-package com.sonyericsson.prequel;
-
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Map;
-import java.util.Vector;
-
-public class Database {
-
-    private Table EMPTY_TABLE = new Table(this);
-
-    private final Object lock = new Object();
-
-    private final boolean dropped;
-
-    private Database session;
-
-    private Tokenizer tokenizer;
-
-    private long userVersion;
-
-    private final Hashtable<String, Table> tables;
-
-    private int lastBinding;
-
-    private final Hashtable<Integer, Object> bindings;
-
-    @SuppressWarnings("serial")
-    private static class ParsingException extends Exception {
-
-	private final int pos;
-
-	public ParsingException(String reason, int pos) {
-	    super(reason);
-	    this.pos = pos;
-	}
-
-	public int getPos() {
-	    return pos;
-	}
-
-    }
-
-    private void ensureBegin() {
-	// TODO: make sure we have a transaction
-    }
-
-    private void ensureEnd() {
-	// TODO: make sure there are no un-ended transaction
-    }
-
-    private void beginTransaction() {
-	// TODO: create work copy of the database
-	session = new Database();
-    }
-
-    private void rollbackTransaction() {
-	// TODO: same as "begin" for us actually
-    }
-
-    private void endTransaction() {
-	// TODO: copy our working copy to the actual database
-    }
-
-    /**
-     * Throws an exception indicating that an internal error has occurred.
-     */
-    private static void internalError() {
-	throw new IllegalStateException("Internal error");
-    }
-
-    /**
-     * Gets the specified table.
-     * 
-     * @param name
-     *            The name of the table.
-     * @return The table.
-     * @throws ProcessingException
-     *             when the given table did not exist.
-     */
-    private Table getTableSafe(String name) throws ProcessingException {
-	Table result = tables.get(name);
-	if (result == null) {
-	    throw new ProcessingException("Table \"" + name
-		    + "\" does not exist");
-	}
-	return result;
-    }
-
-    /**
-     * Canonize an identifier name, i.e. identifiers that look like keywords and
-     * therefore has got marked with apostrophes get these removed.
-     * 
-     * @param id
-     *            The non-canonized identifier.
-     * @return Canonized identifier.
-     */
-    private static String forceIdentifier(String id) {
-	if (id.startsWith("'")) {
-	    return id.substring(1, id.length() - 1);
-	} else {
-	    return id;
-	}
-    }
-
-    /**
-     * Checks if the identifiers are present for the next consumption. This
-     * method does not affect the consumption state.
-     * 
-     * @param ids
-     *            The identifiers to check for.
-     * @return <code>true</code> when one of the identifiers are present,
-     *         <code>false</code> otherwise.
-     */
-    private boolean lookAhead(String ids[]) {
-	tokenizer.next();
-	String command = tokenizer.current();
-	tokenizer.currentAsNext();
-	for (int i = 0; i < ids.length; i++) {
-	    if ((ids[i] == null && command == null)
-		    || (ids[i] != null && ids[i].equalsIgnoreCase(command))) {
-		return true;
-	    }
-	}
-	return false;
-    }
-
-    /**
-     * TODO
-     * 
-     * @param id
-     * @return
-     */
-    private boolean lookAhead(String id) {
-	return lookAhead(new String[] { id });
-    }
-
-    /**
-     * Consumes one of the given identifiers, but also gives the option to
-     * ignore the consumption in case none of the identifiers were there.
-     * 
-     * @param ids
-     *            The identifiers.
-     * @param acceptOther
-     *            <code>true</code> to not throw an exception when none of the
-     *            given identifier could not be consumed.
-     * @return The index of the identifier that was consumed, or -1 in case
-     *         nothing was consumed.
-     * @throws ParsingException
-     *             when no identifier could be consumed and
-     *             <code>acceptOthers</code> was set to <code>false</code>.
-     */
-    private int eat(String ids[], boolean acceptOther) throws ParsingException {
-	int startPos = tokenizer.getPos();
-	tokenizer.next();
-	String command = tokenizer.current();
-	for (int i = 0; i < ids.length; i++) {
-	    if ((ids[i] == null && command == null)
-		    || (ids[i] != null && ids[i].equalsIgnoreCase(command))) {
-		return i;
-	    }
-	}
-	if (acceptOther) {
-	    tokenizer.currentAsNext();
-	    return -1;
-	}
-	StringBuilder alternatives = new StringBuilder();
-	for (int i = 0; i < ids.length; i++) {
-	    if (i > 0) {
-		if (i == ids.length - 1) {
-		    alternatives.append(" or ");
-		} else {
-		    alternatives.append(", ");
-		}
-	    }
-	    alternatives.append(ids[i]);
-	}
-	throw new ParsingException(alternatives + " expected", startPos);
-    }
-
-    /**
-     * Consumes the an identifier that <i>contains</i> any of the given strings.
-     * 
-     * @param ids
-     *            The fragments to look for in the next token.
-     * @return The index of the fragment that matches the identifier that was
-     *         consumed, or -1 in case nothing was consumed.
-     */
-    private int eatFuzzy(String ids[]) {
-	tokenizer.next();
-	String command = tokenizer.current().toUpperCase();
-	for (int i = 0; i < ids.length; i++) {
-	    if ((ids[i] == null && command == null)
-		    || (ids[i] != null && command
-			    .contains(ids[i].toUpperCase()))) {
-		return i;
-	    }
-	}
-	tokenizer.currentAsNext();
-	return -1;
-    }
-
-    /**
-     * Consumes the given identifier, but gives the option to ignore the
-     * consumption in case the identifier was not there.
-     * 
-     * @param id
-     *            The identifier.
-     * @param acceptOther
-     *            <code>true</code> to not throw an exception when the given
-     *            identifier could not be consumed.
-     * @return <code>true</code> in case the identifier was consumed,
-     *         <code>false</code> otherwise.
-     * @throws ParsingException
-     *             when the identifier could not be consumed and
-     *             <code>acceptOthers</code> was set to <code>false</code>.
-     */
-    private boolean eat(String id, boolean acceptOther) throws ParsingException {
-	return (eat(new String[] { id }, acceptOther) == 0);
-    }
-
-    /**
-     * Consumes an integer.
-     * 
-     * @return The integer value.
-     * @throws ParsingException
-     *             when something else than an integer number was the next token
-     *             to consume.
-     */
-    private int eatNumber() throws ParsingException {
-	int startPos = tokenizer.getPos();
-	tokenizer.next();
-	if (tokenizer.currentIsNumber()) {
-	    return Integer.parseInt(tokenizer.current());
-	} else {
-	    throw new ParsingException("Number expected", startPos);
-	}
-    }
-
-    /**
-     * Consumes a string (i.e. syntactically defined as a string).
-     * 
-     * @return The string value, without the quotes.
-     * @throws ParsingException
-     *             when something else than a string was the next token to
-     *             consume.
-     */
-    private String eatString() throws ParsingException {
-	int startPos = tokenizer.getPos();
-	tokenizer.next();
-	if (tokenizer.currentIsString()) {
-	    String text = tokenizer.current();
-	    return (text.substring(1, text.length() - 1));
-	} else {
-	    throw new ParsingException("String expected", startPos);
-	}
-    }
-
-    /**
-     * Consumes the given identifier.
-     * 
-     * @param id
-     *            The identifier.
-     * @throws ParsingException
-     *             when something else than the given identifier number was the
-     *             next token to consume.
-     */
-    private void eat(String id) throws ParsingException {
-	eat(new String[] { id }, false);
-    }
-
-    /**
-     * Consumes the next token as a literal.
-     * 
-     * @return The consumed token.
-     * @throws ParsingException
-     *             when there were nothing more to consume.
-     */
-    private String eat() throws ParsingException {
-	int startPos = tokenizer.getPos();
-	tokenizer.next();
-	if (tokenizer.current() == null) {
-	    throw new ParsingException("Identifier expected", startPos);
-	}
-	return tokenizer.current();
-    }
-
-    /**
-     * Parses a logical SQL expression.
-     * 
-     * @return The expression.
-     * @throws ParsingException
-     *             when the expression contained syntactical errors.
-     */
-    private Expression parseExpression() throws ParsingException {
-	Expression e = parseBinaryExpression(parseUnaryExpression(), 0);
-	return e;
-    }
-
-    /**
-     * Parses a unary logical SQL expression, e.g. NOT x.
-     * 
-     * @return The expression.
-     * @throws ParsingException
-     *             when the expression contained syntactical errors.
-     */
-    private Expression parseUnaryExpression() throws ParsingException {
-	int startPos = tokenizer.getPos();
-	eat();
-	tokenizer.currentAsNext();
-	if (eat("COALESCE", true)) {
-	    // TODO: Make this a generic hook for functions!
-	    Vector<Expression> params = new Vector<Expression>();
-	    eat("(");
-	    do {
-		params.add(parseExpression());
-	    } while (eat(",", true));
-	    eat(")");
-	    return new FunctionExpression("COALESCE", params);
-	} else if (eat("NULL", true)) {
-	    return new LiteralExpression(null);
-	} else if (tokenizer.currentIsNumber()) {
-	    String number = eat();
-	    if (number.contains(".")) {
-		return new LiteralExpression(Double.valueOf(number));
-	    } else {
-		long l = Long.valueOf(number);
-		if (l > Integer.MAX_VALUE || l < Integer.MIN_VALUE) {
-		    return new LiteralExpression(l);
-		} else {
-		    return new LiteralExpression((int) l);
-		}
-	    }
-	} else if (tokenizer.currentIsString()) {
-	    return new LiteralExpression(eatString());
-	} else if (tokenizer.currentIsIdentifier()) {
-	    return new ColumnExpression(eat());
-	} else if (eat("NOT", true)) {
-	    return new UnaryExpression(UnaryExpression.NOT,
-		    parseUnaryExpression());
-	} else if (eat("(", true)) {
-	    Expression e = parseExpression();
-	    eat(")");
-	    return e;
-	} else if (eat("?", true)) {
-	    if (tokenizer.currentIsNumber()) {
-		lastBinding = Integer.valueOf(eat());
-	    }
-	    /*
-	     * This works since unbound parameters are treated as the NULL
-	     * value.
-	     */
-	    Object value = bindings.get(lastBinding);
-	    lastBinding++;
-	    return new LiteralExpression(value);
-	} else if (eat("-", true)) {
-	    return new UnaryExpression(UnaryExpression.NEGATE,
-		    parseExpression());
-	} else {
-	    throw new ParsingException("Expression expected", startPos);
-	}
-    }
-
-    /**
-     * Parses
-     * <code>[ = | == | < | <= | > | >= | != | || | AND | OR | + | - | * | % | << | >> ]</code>
-     * 
-     * @return The index of the operator, or -1 when no match could be made.
-     * @throws ParsingException
-     *             when the expression contained syntactical errors.
-     */
-    private int parseOperator() {
-	try {
-	    if (eat("=", true) || eat("==", true)) {
-		return BinaryExpression.EQUALS;
-	    } else if (eat("<", true)) {
-		return BinaryExpression.LESSER;
-	    } else if (eat("<=", true)) {
-		return BinaryExpression.LESSER_EQUALS;
-	    } else if (eat(">", true)) {
-		return BinaryExpression.GREATER;
-	    } else if (eat(">=", true)) {
-		return BinaryExpression.GREATER_EQUALS;
-	    } else if (eat("!=", true)) {
-		return BinaryExpression.NOT_EQUALS;
-	    } else if (eat("||", true)) {
-		return BinaryExpression.CONCAT;
-	    } else if (eat("AND", true)) {
-		return BinaryExpression.AND;
-	    } else if (eat("OR", true)) {
-		return BinaryExpression.OR;
-	    } else if (eat("+", true)) {
-		return BinaryExpression.ADD;
-	    } else if (eat("-", true)) {
-		return BinaryExpression.SUBTRACT;
-	    } else if (eat("*", true)) {
-		return BinaryExpression.MULTIPLY;
-	    } else if (eat("/", true)) {
-		return BinaryExpression.DIVIDE;
-	    } else if (eat("%", true)) {
-		return BinaryExpression.MODULUS;
-	    } else if (eat("<<", true)) {
-		return BinaryExpression.SHIFT_LEFT;
-	    } else if (eat(">>", true)) {
-		return BinaryExpression.SHIFT_RIGHT;
-	    } else {
-		return -1;
-	    }
-	} catch (ParsingException e) {
-	    internalError();
-	    return 0;
-	}
-    }
-
-    /**
-     * Parses the IN operator in a logical SQL expression.
-     * 
-     * @param left
-     *            Expression to the left of the expression to be parsed.
-     * @param not
-     *            <code>true</code> represents the NOT IN combination,
-     *            <code>false</code> the simple IN version.
-     * @return The expression.
-     * @throws ParsingException
-     *             when the expression contained syntactical errors.
-     */
-    private Expression parseInExpression(Expression left, boolean not)
-	    throws ParsingException {
-	int num = 1;
-	eat("(");
-	StringBuilder selection = new StringBuilder();
-	while (num > 0) {
-	    String t = eat();
-	    selection.append(t);
-	    selection.append(" ");
-	    if (t.equals("(")) {
-		num++;
-	    } else if (t.equals(")")) {
-		num--;
-	    }
-	}
-	return new InExpression(left, selection.toString(), not);
-    }
-
-    private Expression parseBinaryExpression(Expression left, int prevPrecedence)
-	    throws ParsingException {
-	while (true) {
-	    int op = parseOperator();
-
-	    /* Handle operators with special syntax */
-	    if (op == -1) {
-		if (eat("NOT", true)) {
-		    switch (eat(new String[] { "NULL" }, false)) {
-		    case 0:
-			left = new UnaryExpression(UnaryExpression.NOT_NULL,
-				left);
-			break;
-		    default:
-			internalError();
-		    }
-		    break;
-		} else if (eat("IN", true)) {
-		    left = parseInExpression(left, false);
-		    break;
-		}
-	    }
-
-	    int precedence = BinaryExpression.getPrecedence(op);
-	    if (op == -1 || precedence < prevPrecedence) {
-		tokenizer.currentAsNext();
-		break;
-	    }
-	    Expression right = parseUnaryExpression();
-	    while (true) {
-		int op2 = parseOperator();
-		tokenizer.currentAsNext();
-		int precedence2 = BinaryExpression.getPrecedence(op2);
-		if (op2 == -1 || precedence2 <= precedence) {
-		    break;
-		} else {
-		    right = parseBinaryExpression(right, precedence2);
-		}
-	    }
-	    left = new BinaryExpression(left, op, right);
-	}
-	return left;
-    }
-
-    /**
-     * Parses
-     * <code>ON CONFLICT [ ROLLBACK | ABORT | FAIL | IGNORE | REPLACE ]</code>
-     * 
-     * @return Index of the action to be performed on conflict.
-     * @throws ParsingException
-     *             when a keyword was not encountered where expected.
-     */
-    private int parseConflictClause() throws ParsingException {
-	if (eat("ON", true)) {
-	    eat("CONFLICT");
-	    return eat(new String[] { "ROLLBACK", "ABORT", "FAIL", "IGNORE",
-		    "REPLACE" }, true);
-	} else {
-	    return -1;
-	}
-    }
-
-    private void parseCreateTable() throws ParsingException,
-	    ProcessingException {
-	boolean exists = parseIfExists(true);
-	String id = eat();
-	eat("(");
-	Table table = new Table(this);
-	int constraint;
-	do {
-	    /* Check for beginning of table constraints */
-	    constraint = eat(new String[] { "UNIQUE", "PRIMARY" }, true);
-	    if (constraint != -1) {
-		break;
-	    }
-
-	    /* Get the column name */
-	    String name = eat();
-
-	    /*
-	     * NOTE: Some bug seems to accept that we duplicate the name, so
-	     * this is legacy support.
-	     */
-	    eat(name, true);
-
-	    Object defVal = null;
-
-	    /* Choose internal type */
-	    int type = -1;
-	    switch (eatFuzzy(new String[] { "INT", "CHAR", "CLOB", "TEXT",
-		    "STRING", "BLOB", "REAL", "FLOA", "DOUB" })) {
-	    case 0:
-		type = Table.INTEGER;
-		break;
-	    case 1:
-	    case 2:
-	    case 3:
-	    case 4:
-		type = Table.TEXT;
-		break;
-	    case 5:
-		type = Table.NONE;
-		break;
-	    case 6:
-	    case 7:
-	    case 8:
-		type = Table.REAL;
-		break;
-	    default:
-		break;
-	    }
-
-	    /* Accept repetition of type */
-	    if (type != -1) {
-		while (eat(tokenizer.current(), true)) {
-		}
-	    }
-
-	    /* Handle size parameters on text type */
-	    if (type == Table.TEXT) {
-		if (eat("(", true)) {
-		    eatNumber();
-		    if (eat(",", true)) {
-			eatNumber();
-		    }
-		    eat(")", true);
-		}
-	    }
-
-	    boolean exit = false;
-	    int flags = 0;
-	    while (!exit) {
-		int extra = eat(new String[] { "NOT", "PRIMARY", "UNIQUE",
-			"DEFAULT", "REFERENCES", "COLLATE" }, true);
-		if (type == -1 && extra == -1) {
-		    if (!lookAhead(new String[] { ",", ")" })) {
-			eat();
-			type = Table.NUMERIC;
-		    }
-		}
-		switch (extra) {
-		case 0:
-		    eat("NULL");
-		    flags |= Table.NOT_NULL;
-		    break;
-		case 1:
-		    eat("KEY");
-		    flags |= Table.PRIMARY_KEY;
-		    switch (eat(new String[] { "ASC", "DESC" }, true)) {
-		    case 0:
-			flags |= Table.ASCENDING;
-			break;
-		    case 1:
-			flags |= Table.DESCENDING;
-			break;
-		    default:
-			break;
-		    }
-		    if (lookAhead("ON")) {
-			int action = parseConflictClause();
-		    }
-		    if (eat("AUTOINCREMENT", true)) {
-			flags |= Table.AUTO_INCREMENT;
-		    }
-		    break;
-		case 2:
-		    int resolution = parseConflictClause();
-		    break;
-		case 3:
-		    defVal = parseExpression().evaluate(null, -1);
-		    break;
-		case 4:
-		    String refTbl = eat();
-		    if (eat("(", true)) {
-			Vector<String> refCols = new Vector<String>();
-			do {
-			    refCols.add(eat());
-			} while (eat(",", true));
-			eat(")");
-		    }
-		    break;
-		case 5:
-		    int collation = parseCollation();
-		    break;
-		default:
-		    exit = true;
-		    break;
-		}
-	    }
-	    if (type == -1) {
-		type = Table.NONE;
-	    }
-	    table.addColumn(name, Math.max(0, type | flags), defVal);
-	} while (eat(",", true));
-
-	/* Table constraints */
-	switch (constraint) {
-	case 0:
-	    eat("(");
-	    do {
-		String column = eat();
-	    } while (eat(",", true));
-	    eat(")", false);
-	    break;
-	case 1:
-	    eat("KEY");
-	    eat("(");
-	    do {
-		String column = eat();
-	    } while (eat(",", true));
-	    eat(")", false);
-	    int conflict = parseConflictClause();
-	    break;
-	default:
-	    break;
-	}
-	eat(")");
-
-	/*
-	 * On IF NOT EXISTS we skip adding the table when it is already present.
-	 * This is done quietly according to specifications.
-	 */
-	if (tables.contains(id)) {
-	    if (exists) {
-		tables.put(id, table);
-	    } else {
-		throw new ProcessingException("Table \"" + id
-			+ "\" already exists");
-	    }
-	} else {
-	    tables.put(id, table);
-	}
-    }
-
-    private boolean parseIfExists(boolean not) throws ParsingException {
-	if (eat("IF", true)) {
-	    if (not) {
-		eat("NOT");
-	    }
-	    eat("EXISTS");
-	    return true;
-	} else {
-	    return false;
-	}
-    }
-
-    private void parseDropTable() throws ParsingException {
-	boolean exists = parseIfExists(false);
-	String id = eat();
-	if (!exists && tables.get(id) == null) {
-	    throw new IllegalArgumentException("Table \"" + id
-		    + "\" does not exist");
-	}
-	tables.remove(id);
-    }
-
-    private void parseDropIndex() throws ParsingException {
-	boolean exists = parseIfExists(false);
-	String id = eat();
-	// TODO: Remove the index!
-    }
-
-    private void parseDropView() throws ParsingException {
-	boolean exists = parseIfExists(false);
-	String id = eat();
-	// TODO: Remove the view!
-    }
-
-    private void parseDropTrigger() throws ParsingException {
-	boolean exists = parseIfExists(false);
-	String id = eat();
-	// TODO: Remove the trigger!
-    }
-
-    private void parseCreateTrigger() throws ParsingException {
-	String id = eat();
-	int timing = eat(new String[] { "BEFORE", "AFTER", "INSTEAD" }, true);
-	if (timing == 2) {
-	    eat("OF");
-	}
-	int type = eat(new String[] { "DELETE", "INSERT", "UPDATE" }, false);
-	if (type == 2 && eat("OF", true)) {
-	    do {
-		String column = eat();
-	    } while (eat(",", true));
-	}
-	eat("ON");
-	String table = eat();
-	if (eat("FOR", true)) {
-	    eat("EACH");
-	    eat("ROW");
-	}
-	if (eat("WHEN", true)) {
-	    parseExpression();
-	}
-	eat("BEGIN");
-	Vector<String> actions = new Vector<String>();
-	do {
-	    StringBuilder action = new StringBuilder();
-	    while (!eat(";", true)) {
-		action.append(eat());
-		action.append(" ");
-	    }
-	    actions.add(action.toString());
-	} while (!eat("END", true));
-	// TODO: Store trigger!
-    }
-
-    private void parseCreateView() throws ParsingException {
-	String name = eat();
-	eat("AS");
-	StringBuilder select = new StringBuilder();
-	while (eat(new String[] { ";", null }, true) == -1) {
-	    select.append(eat());
-	    select.append(" ");
-	}
-	// TODO: Store the view!
-    }
-
-    private int parseCollation() throws ParsingException {
-	return eat(new String[] { "BINARY", "NOCASE", "RTTRIM", "LOCALIZED",
-		"UNICODE" }, false);
-    }
-
-    private void parseCreateIndex(boolean unique) throws ParsingException {
-	boolean exists = parseIfExists(true);
-	String indexName = eat();
-	eat("ON");
-	String tableName = eat();
-	eat("(");
-	do {
-	    String column = eat();
-	    if (eat("COLLATE", true)) {
-		int collation = parseCollation();
-	    }
-	} while (eat(",", true));
-	eat(")");
-	// TODO: Store index!
-    }
-
-    private void parseCreate() throws ParsingException, ProcessingException {
-	switch (eat(new String[] { "TABLE", "TRIGGER", "INDEX", "UNIQUE",
-		"VIEW", "TEMP", "TEMPORARY" }, false)) {
-	case 0:
-	    parseCreateTable();
-	    break;
-	case 1:
-	    parseCreateTrigger();
-	    break;
-	case 2:
-	    parseCreateIndex(false);
-	    break;
-	case 3:
-	    eat("INDEX");
-	    parseCreateIndex(true);
-	    break;
-	case 4:
-	    parseCreateView();
-	    break;
-	case 5:
-	case 6:
-	    eat("TABLE");
-	    parseCreateTable();
-	    break;
-	default:
-	    internalError();
-	}
-    }
-
-    private void parseDrop() throws ParsingException {
-	switch (eat(new String[] { "TABLE", "INDEX", "VIEW", "TRIGGER" }, false)) {
-	case 0:
-	    parseDropTable();
-	    break;
-	case 1:
-	    parseDropIndex();
-	    break;
-	case 2:
-	    parseDropView();
-	    break;
-	case 3:
-	    parseDropTrigger();
-	    break;
-	default:
-	    internalError();
-	}
-    }
-
-    private Table parsePragma() throws ParsingException, ProcessingException {
-	if (eat("user_version", true)) {
-	    if (eat("=", true)) {
-		userVersion = Long.valueOf(eat());
-		return null;
-	    } else {
-		Table table = new Table(this);
-		table.addColumn("user_version", 0, null);
-		table.set(0, 0, userVersion);
-		return table;
-	    }
-	} else if (eat("table_info", true)) {
-	    eat("(");
-	    String id = eat();
-	    Table source = getTableSafe(id);
-	    eat(")");
-	    Table table = new Table(this);
-	    table.addColumn("0", 0, null);
-	    table.addColumn("name", 0, null);
-	    table.addColumn("2", 0, null);
-	    table.addColumn("3", 0, null);
-	    table.addColumn("defVal", 0, null);
-	    for (int i = 0; i < source.getColumnCount(); i++) {
-		table.set(i, 1, source.getColumnName(i));
-		table.set(i, 4, source.getDefVal(i));
-	    }
-	    return table;
-	} else {
-	    throw new IllegalArgumentException("Unsupported pragma");
-	}
-    }
-
-    private void parseBegin() throws ParsingException {
-	switch (eat(new String[] { "DEFERRED", "IMMEDIATE", "EXCLUSIVE" },
-		false)) {
-	case 2:
-	    break;
-	default:
-	    internalError();
-	}
-	eat("TRANSACTION", true);
-    }
-
-    private void parseEnd() throws ParsingException {
-	eat("TRANSACTION", true);
-	endTransaction();
-    }
-
-    private void parseRollback() throws ParsingException {
-	eat("TRANSACTION", true);
-	rollbackTransaction();
-    }
-
-    private int parseInsert() throws ParsingException, ProcessingException {
-	if (eat("OR", true)) {
-	    int onInvalid = eat(new String[] { "IGNORE" }, false);
-	}
-	eat("INTO");
-	String id = eat();
-	final Vector<String> columns = new Vector<String>();
-	Table table = getTableSafe(id);
-	if (eat("(", true)) {
-	    do {
-		columns.add(forceIdentifier(eat()));
-	    } while (eat(",", true));
-	    eat(")");
-	} else {
-	    for (int i = 0; i < table.getColumnCount(); i++) {
-		columns.add(table.getColumnName(i));
-	    }
-	}
-	eat("VALUES");
-	eat("(");
-	Vector<Object> values = new Vector<Object>();
-	do {
-	    if (values.size() == columns.size()) {
-		throw new ProcessingException("More values than columns");
-	    }
-	    Object value = parseExpression().evaluate(table, -1);
-	    int index = table.getColumnIndex(columns.get(values.size()));
-	    if (index == -1) {
-		throw new ProcessingException("Column \""
-			+ columns.get(values.size())
-			+ "\" not present in table \"" + id + "\"");
-	    }
-	    values.add(value);
-	} while (eat(",", true));
-	eat(")");
-	if (columns.size() > values.size()) {
-	    throw new ProcessingException("Fewer values than columns");
-	}
-
-	/*
-	 * Put data into table. At this point we have already verified that all
-	 * columns exists in this table, so no need to do it again.
-	 */
-	int row = table.getRowCount();
-	for (int i = 0; i < columns.size(); i++) {
-	    table.set(row, table.getColumnIndex(columns.get(i)), values.get(i));
-	}
-	return row;
-    }
-
-    private int parseDelete() throws ParsingException {
-	eat("FROM");
-	String id = eat();
-	Expression exp = null;
-	if (eat("WHERE", true)) {
-	    exp = parseExpression();
-	}
-	// TODO: Support more stuff and actually delete the selected rows!
-	return 0;
-    }
-
-    private void parseAttach() throws ParsingException {
-	eat("DATABASE", true);
-	String name = eat();
-	eat("AS");
-	String alias = eat();
-    }
-
-    private void parseAnalyze() throws ParsingException {
-	if (eat(new String[] { ";", null }, true) == -1) {
-	    String id = eat();
-	}
-	// TODO: Do something about this?
-    }
-
-    private Table parseDesc() throws ParsingException {
-	String id = eat();
-	Table tbl = tables.get(id);
-	if (tbl == null) {
-	    throw new IllegalArgumentException("Table \"" + id
-		    + "\" does not exist");
-	}
-	Table t = new Table(this);
-	t.addColumn("Field", Table.TEXT, null);
-	t.addColumn("Type", Table.TEXT, null);
-	t.addColumn("Null", Table.TEXT, null);
-	t.addColumn("Key", Table.TEXT, "");
-	t.addColumn("Default", Table.TEXT, "");
-	t.addColumn("Extra", Table.TEXT, "");
-
-	for (int i = 0; i < tbl.flags.size(); i++) {
-	    t.set(i, 0, tbl.columns.get(i));
-	    String type = "NONE";
-	    int flags = tbl.flags.get(i);
-	    switch (flags & Table.TYPE_MASK) {
-	    case Table.INTEGER:
-		type = "INTEGER";
-		break;
-	    case Table.NUMERIC:
-		type = "NUMERIC";
-		break;
-	    case Table.TEXT:
-		type = "TEXT";
-		break;
-	    case Table.REAL:
-		type = "REAL";
-		break;
-	    default:
-		break;
-	    }
-	    t.set(i, 1, type.toLowerCase());
-	    t.set(i, 2, ((flags & Table.NOT_NULL) > 0) ? "NO" : "YES");
-	    t.set(i, 3, ((flags & Table.PRIMARY_KEY) > 0) ? "PRI" : "");
-	    Object def = tbl.defVals.get(i);
-	    t.set(i, 4, (def != null) ? def : "");
-	}
-
-	return t;
-    }
-
-    private int parseUpdate() throws ParsingException, ProcessingException {
-	if (eat("OR", true)) {
-	    int onInvalid = eat(new String[] { "IGNORE" }, false);
-	}
-	String id = eat();
-	eat("SET");
-	Vector<String> columns = new Vector<String>();
-	Vector<Object> values = new Vector<Object>();
-	do {
-	    columns.add(eat());
-	    eat("=");
-	    values.add(parseExpression());
-	} while (eat(",", true));
-	Expression exp = null;
-	if (eat("WHERE", true)) {
-	    exp = parseExpression();
-	}
-	Table table = getTableSafe(id);
-	// Vector<Integer> rows = table.getRows(parseExpression());
-	// for (int idx : rows) {
-	// // TODO
-	// }
-	// return rows.size();
-	return 0;
-    }
-
-    private Table parseSingleSource() throws ParsingException,
-	    ProcessingException {
-	Table result = null;
-	if (eat("(", true)) {
-	    if (eat("SELECT", true)) {
-		result = parseSelect(null, -1);
-	    } else {
-		result = parseJoinSource();
-	    }
-	    eat(")");
-	} else {
-	    result = getTableSafe(eat());
-	}
-
-	/* Check if the table has been given an alias */
-	if (eat("AS", true)) {
-	    String alias = eat();
-	}
-	return result;
-    }
-
-    private Table parseJoinSource() throws ParsingException,
-	    ProcessingException {
-	Table result = parseSingleSource();
-	int op = eat(new String[] { ",", "JOIN", "NATURAL", "LEFT", "OUTER",
-		"INNER", "CROSS" }, true);
-	if (op != -1) {
-	    Table right = parseSingleSource();
-	    switch (op) {
-	    // TODO
-	    default:
-		internalError();
-	    }
-	}
-	return result;
-    }
-
-    private Table parseSelect(Table left, int joiner) throws ParsingException,
-	    ProcessingException {
-	Table result = parseSelectCore();
-
-	/*
-	 * Due to the left to right evaluation of compounds we must perform the
-	 * join with the previous table before we can parse a new one (otherwise
-	 * this could have been handled nicely by the recursion).
-	 */
-	switch (joiner) {
-	case 0:
-	    result.union(left, false);
-	    break;
-	case 3:
-	    result.union(left, true);
-	    break;
-	default:
-	    if (left != null) {
-		internalError();
-	    }
-	    break;
-	}
-
-	/* Check for compound */
-	int op = eat(new String[] { "UNION", "INTERSECT", "EXCEPT" }, true);
-	if (op == 0 && eat("ALL", true)) {
-	    op = 3;
-	}
-	if (op != -1) {
-	    eat("SELECT");
-	    result = parseSelect(result, op);
-	}
-
-	/* Order the result */
-	if (eat("ORDER", true)) {
-	    eat("BY");
-	    Vector<String> orderers = new Vector<String>();
-	    do {
-		orderers.add(eat());
-	    } while (eat(",", true));
-	    int ordering = eat(new String[] { "DESC", "ASC" }, true);
-	}
-
-	/* Limit result size */
-	if (eat("LIMIT", true)) {
-	    int first = eatNumber();
-	    int type = eat(new String[] { ",", "OFFSET" }, true);
-	    if (type != -1) {
-		int second = eatNumber();
-		switch (type) {
-		case 0:
-		    // TODO: Use these values to reduce size of subset!
-		    break;
-		case 1:
-		    // TODO: Use these values to reduce size of subset!
-		    break;
-		default:
-		    internalError();
-		}
-	    }
-	}
-	return result;
-    }
-
-    private Table parseSelectCore() throws ParsingException,
-	    ProcessingException {
-	// TODO: Add support for "AS" by parsing expressions instead of column
-	// names, and then pass those expressions into the createSubset()! We
-	// might also have to send the complete table list to that method, to be
-	// able to support dot-notation for column references. And don't forget
-	// that the expressions evaluate to column-aliases, so we need a
-	// parallell array for that as well...
-
-	/* Check if duplicates are allowed */
-	boolean allowDuplicates = false;
-	if (eat(new String[] { "ALL", "DISTINCT" }, true) < 1) {
-	    allowDuplicates = true;
-	}
-
-	Vector<Expression> columns = null;
-	if (!eat("*", true)) {
-	    columns = new Vector<Expression>();
-	    do {
-		columns.add(parseExpression());
-	    } while (eat(",", true));
-	}
-	eat("FROM");
-	Table source = parseJoinSource();
-
-	Expression exp = null;
-	if (eat("WHERE", true)) {
-	    exp = parseExpression();
-	}
-	if (eat("GROUP", true)) {
-	    eat("BY");
-	    Vector<String> group = new Vector<String>();
-	    do {
-		group.add(eat());
-	    } while (eat(",", true));
-	}
-	return source.exract(columns, exp);
-    }
-
-    private Table parseSql() throws ParsingException, ProcessingException {
-	Table result = EMPTY_TABLE;
-	lastBinding = 0;
-	switch (eat(new String[] { "CREATE", "DROP", "PRAGMA", "BEGIN", "END",
-		"COMMIT", "ROLLBACK", "INSERT", "SELECT", "UPDATE", "DELETE",
-		"ATTACH", "ANALYZE", "DESC" }, false)) {
-	case 0:
-	    ensureBegin();
-	    parseCreate();
-	    break;
-	case 1:
-	    ensureBegin();
-	    parseDrop();
-	    break;
-	case 2:
-	    ensureBegin();
-	    result = parsePragma();
-	    break;
-	case 3:
-	    parseBegin();
-	    break;
-	case 4:
-	    /* Fall through */
-	case 5:
-	    parseEnd();
-	    break;
-	case 6:
-	    parseRollback();
-	    break;
-	case 7:
-	    result = new Table(this, "inserted_rows", Table.INTEGER,
-		    parseInsert());
-	    break;
-	case 8:
-	    result = parseSelect(null, -1);
-	    break;
-	case 9:
-	    result = new Table(this, "updated_rows", Table.INTEGER,
-		    parseUpdate());
-	    break;
-	case 10:
-	    result = new Table(this, "deleted_rows", Table.INTEGER,
-		    parseDelete());
-	    break;
-	case 11:
-	    parseAttach();
-	    break;
-	case 12:
-	    parseAnalyze();
-	    break;
-	case 13:
-	    result = parseDesc();
-	    break;
-	default:
-	    internalError();
-	}
-	eat(new String[] { ";", null }, false);
-	return result;
-    }
-
-    void bind(int index, Object value) {
-	if (value == null) {
-	    bindings.remove(Integer.valueOf(index));
-	} else {
-	    bindings.put(Integer.valueOf(index), value);
-	}
-    }
-
-    /**
-     * <p>
-     * Gets the database with the given file-name. This is used when the
-     * <code>ATTACH DATABASE</code> statement is run to resolve which database
-     * is referred to by the filename.
-     * </p>
-     * <p>
-     * Override this method to be able to refer to other databases in your
-     * SQL-queries.
-     * <p>
-     * 
-     * @param fileName
-     *            The file name given as first argument to
-     *            <code>ATTACH DATABASE</code>.
-     * @return The database corresponding to the given name, or
-     *         <code>null</code> when no database corresponds to the given name.
-     */
-    // TODO: Still unclear if this should be a callback or a pre-link step like
-    // the one for the tables!
-    protected Database resolve(String fileName) {
-	return null;
-    }
-
-    /**
-     * Creates an empty database. The database will not have any links to any
-     * other database.
-     */
-    public Database() {
-	dropped = false;
-	userVersion = 0;
-	tables = new Hashtable<String, Table>();
-	bindings = new Hashtable<Integer, Object>();
-
-	/* Create default tables */
-	try {
-	    query("CREATE TABLE sqlite_stat1 (contacts TEXT, idx TEXT, tbl TEXT, stat TEXT)");
-	} catch (InvalidSqlQueryException e) {
-	    // System.out.println(e);
-	    internalError();
-	}
-    }
-
-    /**
-     * Executes the given SQL-query.
-     * 
-     * @param sql
-     *            A valid query in SQLite-syntax.
-     * @param params
-     *            Zero or more objects that will be bound to parameters in the
-     *            SQL-query. The order will be the same as given here.
-     * 
-     * @return The result of the query as a
-     *         {@link com.sonyericsson.prequel.Table} . The contents of the
-     *         table depends on the query e.g. <code>INSERT</code>,
-     *         <code>UPDATE</code> and <code>DELETE</code> returns the number of
-     *         affected rows, while <code>SELECT</code> returns the actual
-     *         search result. Some queries produces no return values and the
-     *         resulting table is therefore empty.
-     * @throws InvalidSqlQueryException
-     */
-    public Table query(String sql, Object... params)
-	    throws InvalidSqlQueryException {
-	// System.out.println("SQL: " + sql);
-	// for (Object o : params) {
-	// System.out.println("PARAM: " + o);
-	// }
-	synchronized (lock) {
-	    if (dropped) {
-		throw new IllegalStateException(
-			"Cannot perform query on a dropped database");
-	    } else {
-		Table result = null;
-		tokenizer = new Tokenizer(sql);
-		for (int i = 0; i < params.length; i++) {
-		    bind(i, params[i]);
-		}
-		try {
-		    result = parseSql();
-		    // TODO: A Query should be returned, which is then executed!
-		    // To be able to cache.
-		} catch (ParsingException e) {
-		    // e.printStackTrace();
-		    throw new InvalidSqlQueryException(e.getMessage() + " at "
-			    + e.getPos() + ": " + sql.substring(0, e.getPos())
-			    + "<<here>>" + sql.substring(e.getPos()));
-		} catch (ProcessingException e) {
-		    throw new InvalidSqlQueryException(e.getMessage() + ": "
-			    + sql);
-		}
-		ensureEnd();
-		return result;
-	    }
-	}
-
-    }
-
-    @Override
-    public String toString() {
-	synchronized (lock) {
-	    StringBuilder b = new StringBuilder();
-	    b.append("Database@");
-	    b.append(hashCode());
-	    b.append("\n=====================\n");
-	    b.append("user_version: ");
-	    b.append(userVersion);
-	    b.append("\n---------------------\n");
-	    for (Map.Entry<String, Table> entry : tables.entrySet()) {
-		if (!entry.getKey().equals("sqlite_stat1")) {
-		    b.append(entry.getKey() + ":\n");
-		    b.append(entry.getValue().toString());
-		}
-	    }
-	    return b.toString();
-	}
-    }
-
-}
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class Database {
+
+    /* Number of prepared queries kept by prepare() */
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    /* Statement for queries that are accepted but has no effect */
+    private final Statement NOTHING = new Statement() {
+
+	@Override
+	Table execute(Frame frame) {
+	    return EMPTY_TABLE;
+	}
+
+    };
+
+    private Table EMPTY_TABLE = new Table(this);
+
+    /*
+     * Held for reading while statements run, and for writing while the
+     * schema is changed. The rows of each table are guarded by a lock of
+     * their own, see Statement.
+     */
+    private final ReentrantReadWriteLock schema;
+
+    private volatile boolean dropped;
+
+    private volatile long userVersion;
+
+    /* Storage used for new tables, see PRAGMA storage */
+    private volatile boolean columnar;
+
+    /* The committed tables, replaced rather than changed by commits */
+    private volatile Map<String, Table> tables;
+
+    /* Held while the committed tables are replaced */
+    private final Object commits = new Object();
+
+    /* The transaction started by BEGIN in each thread */
+    private final ThreadLocal<Transaction> transactions;
+
+    /* Statistics read from the latest version of sqlite_stat1 used */
+    private volatile Statistics.Catalog statistics;
+
+    /*
+     * Part of the rows, in percent, that must be deleted for a committed table
+     * to be compacted in the background, 0 when turned off. Guarded by
+     * commits, like the compaction running it.
+     */
+    private int autoVacuum;
+
+    private Vacuum vacuum;
+
+    /* The log of a database stored in a file, null when kept in memory */
+    private volatile WriteAheadLog log;
+
+    /*
+     * Alternatives for Parser.eat(int[], boolean), which gives the index of
+     * the one that was found.
+     */
+    private static final int[] CONFLICT_ACTIONS = { Keywords.ROLLBACK,
+	    Keywords.ABORT, Keywords.FAIL, Keywords.IGNORE, Keywords.REPLACE };
+
+    private static final int[] TABLE_CONSTRAINTS = { Keywords.UNIQUE,
+	    Keywords.PRIMARY };
+
+    private static final int[] COLUMN_CONSTRAINTS = { Keywords.NOT,
+	    Keywords.PRIMARY, Keywords.UNIQUE, Keywords.DEFAULT,
+	    Keywords.REFERENCES, Keywords.COLLATE };
+
+    private static final int[] LIST_ENDS = { Keywords.COMMA,
+	    Keywords.RIGHT_PAREN };
+
+    private static final int[] ORDERINGS = { Keywords.ASC, Keywords.DESC };
+
+    private static final int[] TRIGGER_TIMES = { Keywords.BEFORE,
+	    Keywords.AFTER, Keywords.INSTEAD };
+
+    private static final int[] TRIGGER_EVENTS = { Keywords.DELETE,
+	    Keywords.INSERT, Keywords.UPDATE };
+
+    private static final int[] STATEMENT_ENDS = { Keywords.SEMICOLON,
+	    Keywords.EOF };
+
+    private static final int[] COLLATIONS = { Keywords.BINARY, Keywords.NOCASE,
+	    Keywords.RTTRIM, Keywords.LOCALIZED, Keywords.UNICODE };
+
+    private static final int[] CREATE_KINDS = { Keywords.TABLE,
+	    Keywords.TRIGGER, Keywords.INDEX, Keywords.UNIQUE, Keywords.VIEW,
+	    Keywords.TEMP, Keywords.TEMPORARY };
+
+    private static final int[] DROP_KINDS = { Keywords.TABLE, Keywords.INDEX,
+	    Keywords.VIEW, Keywords.TRIGGER };
+
+    private static final int[] STORAGES = { Keywords.ROW, Keywords.COLUMNAR };
+
+    private static final int[] TRANSACTION_KINDS = { Keywords.DEFERRED,
+	    Keywords.IMMEDIATE, Keywords.EXCLUSIVE };
+
+    private static final int[] JOIN_OPERATORS = { Keywords.COMMA, Keywords.JOIN,
+	    Keywords.NATURAL, Keywords.LEFT, Keywords.OUTER, Keywords.INNER,
+	    Keywords.CROSS };
+
+    private static final int[] COMPOUND_OPERATORS = { Keywords.UNION,
+	    Keywords.INTERSECT, Keywords.EXCEPT };
+
+    private static final int[] LIMIT_SEPARATORS = { Keywords.COMMA,
+	    Keywords.OFFSET };
+
+    private static final int[] QUANTIFIERS = { Keywords.ALL,
+	    Keywords.DISTINCT };
+
+    private static final int[] COMMANDS = { Keywords.CREATE, Keywords.DROP,
+	    Keywords.PRAGMA, Keywords.BEGIN, Keywords.END, Keywords.COMMIT,
+	    Keywords.ROLLBACK, Keywords.INSERT, Keywords.SELECT,
+	    Keywords.UPDATE, Keywords.DELETE, Keywords.ATTACH, Keywords.ANALYZE,
+	    Keywords.DESC, Keywords.EXPLAIN, Keywords.VACUUM,
+	    Keywords.REPLACE, Keywords.IMPORT };
+
+    /* Keywords that may follow a table in FROM, and are never aliases */
+    private static final int[] SOURCE_FOLLOWERS = { Keywords.WHERE,
+	    Keywords.GROUP, Keywords.HAVING, Keywords.ORDER, Keywords.LIMIT,
+	    Keywords.UNION, Keywords.INTERSECT, Keywords.EXCEPT, Keywords.JOIN,
+	    Keywords.NATURAL, Keywords.LEFT, Keywords.OUTER, Keywords.INNER,
+	    Keywords.CROSS, Keywords.ON, Keywords.USING };
+
+    /* The aggregate functions, in the order of AggregateExpression.NAMES */
+    private static final int[] AGGREGATES = { Keywords.COUNT, Keywords.SUM,
+	    Keywords.AVG, Keywords.MIN, Keywords.MAX, Keywords.TOTAL };
+
+    /* Incremented whenever tables are created or dropped */
+    private volatile int schemaVersion;
+
+    /* Number of tables created so far, gives the order tables are locked in */
+    private int tableCount;
+
+    /* Recently prepared queries, least recently used first */
+    private final LinkedHashMap<String, Query> statements;
+
+    @SuppressWarnings("serial")
+    private static class ParsingException extends Exception {
+
+	private final int pos;
+
+	public ParsingException(String reason, int pos) {
+	    super(reason);
+	    this.pos = pos;
+	}
+
+	public int getPos() {
+	    return pos;
+	}
+
+    }
+
+    /**
+     * Gets the committed tables. The map is never changed, so it can be used
+     * as a snapshot of the database.
+     */
+    Map<String, Table> getTables() {
+	return tables;
+    }
+
+    /**
+     * Makes new versions of tables the committed ones, see
+     * {@link Transaction#commit()}.
+     * 
+     * @param bases
+     *            The committed versions that the new versions were forked
+     *            from, by name.
+     * @param versions
+     *            The new versions, by name.
+     * @param redo
+     *            The changes to log, or <code>null</code>, see
+     *            {@link WriteAheadLog}.
+     * @return The position to wait for the log to reach, see
+     *         {@link #sync(long)}, or -1 when nothing was logged.
+     * @throws ProcessingException
+     *             when one of the tables has been replaced by a schema change
+     *             since it was forked.
+     */
+    long commit(Map<String, Table> bases, Map<String, Table> versions,
+	    WriteAheadLog.Record redo) throws ProcessingException {
+	long position = -1;
+	synchronized (commits) {
+	    for (Map.Entry<String, Table> entry : bases.entrySet()) {
+		if (tables.get(entry.getKey()) != entry.getValue()) {
+		    throw new ProcessingException("Table \""
+			    + entry.getKey() + "\" was changed by the schema");
+		}
+	    }
+	    HashMap<String, Table> committed = new HashMap<String, Table>(
+		    tables);
+	    committed.putAll(versions);
+	    tables = committed;
+	    if (redo != null && !redo.isEmpty()) {
+		position = log.append(redo);
+	    }
+	    if (vacuum != null) {
+		for (Table table : versions.values()) {
+		    if (table.needsCompaction(autoVacuum)) {
+			vacuum.schedule(table.name);
+		    }
+		}
+	    }
+	}
+	return position;
+    }
+
+    /**
+     * Waits for the log to be written up to a position, when
+     * <code>PRAGMA synchronous</code> says so.
+     * 
+     * @throws ProcessingException
+     *             when the log could not be written.
+     */
+    void sync(long position) throws ProcessingException {
+	try {
+	    log.commit(position);
+	} catch (IOException e) {
+	    throw new ProcessingException("Cannot write log: "
+		    + e.getMessage());
+	}
+    }
+
+    /**
+     * Gets the log of the database.
+     * 
+     * @return The log, or <code>null</code> when the database is only kept
+     *         in memory.
+     */
+    WriteAheadLog getLog() {
+	return log;
+    }
+
+    /**
+     * Logs a statement that has been run as SQL, see {@link WriteAheadLog}.
+     * The rows changed by statements writing tables are logged when their
+     * transaction commits instead, see {@link Table#redo}.
+     */
+    private void log(Statement statement, String sql, Object[] params)
+	    throws ProcessingException {
+	if (!statement.isLogged()) {
+	    return;
+	}
+	WriteAheadLog.Record record = new WriteAheadLog.Record();
+	record.sql(sql, params);
+	long position;
+	synchronized (commits) {
+	    position = log.append(record);
+	}
+	sync(position);
+    }
+
+    /**
+     * Starts or stops compacting tables in the background, see
+     * <code>PRAGMA auto_vacuum</code>.
+     * 
+     * @param percent
+     *            The part of the rows that must be deleted for a table to be
+     *            compacted, or 0 to stop.
+     */
+    private void setAutoVacuum(int percent) {
+	synchronized (commits) {
+	    autoVacuum = percent;
+	    if (percent > 0 && vacuum == null) {
+		vacuum = Vacuum.start(this);
+	    } else if (percent == 0 && vacuum != null) {
+		vacuum.stop();
+		vacuum = null;
+	    }
+	}
+    }
+
+    /**
+     * Replaces, adds or removes a committed table. Used for schema changes,
+     * which are not part of any transaction.
+     * 
+     * @param table
+     *            The new table, or <code>null</code> to remove it.
+     */
+    private void replaceTable(String name, Table table) {
+	synchronized (commits) {
+	    HashMap<String, Table> committed = new HashMap<String, Table>(
+		    tables);
+	    if (table == null) {
+		committed.remove(name);
+	    } else {
+		committed.put(name, table);
+	    }
+	    tables = committed;
+	}
+    }
+
+    /**
+     * Gets the statistics of a table, as seen by the transaction of a frame.
+     * The contents of <code>sqlite_stat1</code> are only read again when
+     * another version of it is used.
+     * 
+     * @return The statistics, or <code>null</code> when the table has not
+     *         been analyzed.
+     */
+    Statistics getStatistics(Frame frame, String table) {
+	Table stat = tables.get(Statistics.TABLE);
+	if (stat == null) {
+	    return null;
+	}
+	try {
+	    stat = frame.transaction.read(stat);
+	} catch (ProcessingException e) {
+	    return null;
+	}
+	Statistics.Catalog catalog = statistics;
+	if (catalog == null || catalog.source != stat) {
+	    catalog = new Statistics.Catalog(stat);
+
+	    /* A version being written may still change */
+	    if (frame.transaction.write(stat) != stat) {
+		statistics = catalog;
+	    }
+	}
+	return catalog.get(table);
+    }
+
+    /**
+     * Throws an exception indicating that an internal error has occurred.
+     */
+    private static void internalError() {
+	throw new IllegalStateException("Internal error");
+    }
+
+    /**
+     * Gets the specified table.
+     * 
+     * @param name
+     *            The name of the table.
+     * @return The table.
+     * @throws ProcessingException
+     *             when the given table did not exist.
+     */
+    Table getTableSafe(String name) throws ProcessingException {
+	Table result = tables.get(name);
+	if (result == null) {
+	    throw new ProcessingException("Table \"" + name
+		    + "\" does not exist");
+	}
+	return result;
+    }
+
+    /**
+     * Canonize an identifier name, i.e. identifiers that look like keywords and
+     * therefore has got marked with apostrophes get these removed.
+     * 
+     * @param id
+     *            The non-canonized identifier.
+     * @return Canonized identifier.
+     */
+    private static String forceIdentifier(String id) {
+	if (id.startsWith("'")) {
+	    return id.substring(1, id.length() - 1);
+	} else {
+	    return id;
+	}
+    }
+
+    /**
+     * Creates a table describing the columns of the given table, as returned
+     * by <code>DESC</code>.
+     * 
+     * @param tbl
+     *            The table to describe.
+     * @return The description.
+     */
+    private Table describe(Table tbl) {
+	Table t = new Table(this);
+	t.addColumn("Field", Table.TEXT, null);
+	t.addColumn("Type", Table.TEXT, null);
+	t.addColumn("Null", Table.TEXT, null);
+	t.addColumn("Key", Table.TEXT, "");
+	t.addColumn("Default", Table.TEXT, "");
+	t.addColumn("Extra", Table.TEXT, "");
+
+	for (int i = 0; i < tbl.flags.size(); i++) {
+	    t.set(i, 0, tbl.columns.get(i));
+	    String type = "NONE";
+	    int flags = tbl.flags.get(i);
+	    switch (flags & Table.TYPE_MASK) {
+	    case Table.INTEGER:
+		type = "INTEGER";
+		break;
+	    case Table.NUMERIC:
+		type = "NUMERIC";
+		break;
+	    case Table.TEXT:
+		type = "TEXT";
+		break;
+	    case Table.REAL:
+		type = "REAL";
+		break;
+	    default:
+		break;
+	    }
+	    t.set(i, 1, type.toLowerCase());
+	    t.set(i, 2, ((flags & Table.NOT_NULL) > 0) ? "NO" : "YES");
+	    t.set(i, 3, ((flags & Table.PRIMARY_KEY) > 0) ? "PRI" : "");
+	    Object def = tbl.defVals.get(i);
+	    t.set(i, 4, (def != null) ? def : "");
+	}
+
+	return t;
+    }
+
+    /**
+     * Parser for a single SQL statement. A new parser is created for every
+     * statement that is compiled, so several threads can parse at once.
+     */
+    private class Parser implements Keywords {
+
+	/* Precedence of IN, NOT IN and NOT NULL, the same as for = */
+	private static final int SPECIAL_PRECEDENCE = 3;
+
+	private final Tokenizer tokenizer;
+
+	private int lastBinding;
+
+	/* Aggregates of the select core being parsed, null when not allowed */
+	private Vector<AggregateExpression> aggregates;
+
+	Parser(String sql) {
+	    tokenizer = new Tokenizer(sql);
+	}
+
+	/**
+	 * Checks if the identifiers are present for the next consumption. This
+	 * method does not affect the consumption state.
+	 * 
+	 * @param ids
+	 *            The identifiers to check for.
+	 * @return <code>true</code> when one of the identifiers are present,
+	 *         <code>false</code> otherwise.
+	 */
+	private boolean lookAhead(int ids[]) {
+	    tokenizer.next();
+	    int id = tokenizer.id();
+	    tokenizer.currentAsNext();
+	    for (int i = 0; i < ids.length; i++) {
+		if (ids[i] == id) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	/**
+	 * Checks if the identifier is present for the next consumption, see
+	 * {@link #lookAhead(int[])}.
+	 */
+	private boolean lookAhead(int id) {
+	    tokenizer.next();
+	    tokenizer.currentAsNext();
+	    return tokenizer.id() == id;
+	}
+
+	/**
+	 * Consumes one of the given identifiers, but also gives the option to
+	 * ignore the consumption in case none of the identifiers were there.
+	 * 
+	 * @param ids
+	 *            The identifiers, see {@link Keywords}.
+	 * @param acceptOther
+	 *            <code>true</code> to not throw an exception when none of
+	 *            the given identifier could not be consumed.
+	 * @return The index of the identifier that was consumed, or -1 in case
+	 *         nothing was consumed.
+	 * @throws ParsingException
+	 *             when no identifier could be consumed and
+	 *             <code>acceptOthers</code> was set to <code>false</code>.
+	 */
+	private int eat(int ids[], boolean acceptOther)
+		throws ParsingException {
+	    int startPos = tokenizer.getPos();
+	    tokenizer.next();
+	    int id = tokenizer.id();
+	    for (int i = 0; i < ids.length; i++) {
+		if (ids[i] == id) {
+		    return i;
+		}
+	    }
+	    if (acceptOther) {
+		tokenizer.currentAsNext();
+		return -1;
+	    }
+	    StringBuilder alternatives = new StringBuilder();
+	    for (int i = 0; i < ids.length; i++) {
+		if (i > 0) {
+		    if (i == ids.length - 1) {
+			alternatives.append(" or ");
+		    } else {
+			alternatives.append(", ");
+		    }
+		}
+		alternatives.append(NAMES[ids[i]]);
+	    }
+	    throw new ParsingException(alternatives + " expected", startPos);
+	}
+
+	/**
+	 * Consumes the an identifier that <i>contains</i> any of the given
+	 * strings.
+	 * 
+	 * @param ids
+	 *            The fragments to look for in the next token.
+	 * @return The index of the fragment that matches the identifier that
+	 *         was consumed, or -1 in case nothing was consumed.
+	 */
+	private int eatFuzzy(String ids[]) {
+	    tokenizer.next();
+	    String command = tokenizer.current().toUpperCase();
+	    for (int i = 0; i < ids.length; i++) {
+		if ((ids[i] == null && command == null)
+			|| (ids[i] != null && command
+				.contains(ids[i].toUpperCase()))) {
+		    return i;
+		}
+	    }
+	    tokenizer.currentAsNext();
+	    return -1;
+	}
+
+	/**
+	 * Consumes the given identifier, but gives the option to ignore the
+	 * consumption in case the identifier was not there.
+	 * 
+	 * @param id
+	 *            The identifier, see {@link Keywords}.
+	 * @param acceptOther
+	 *            <code>true</code> to not throw an exception when the given
+	 *            identifier could not be consumed.
+	 * @return <code>true</code> in case the identifier was consumed,
+	 *         <code>false</code> otherwise.
+	 * @throws ParsingException
+	 *             when the identifier could not be consumed and
+	 *             <code>acceptOthers</code> was set to <code>false</code>.
+	 */
+	private boolean eat(int id, boolean acceptOther)
+		throws ParsingException {
+	    int startPos = tokenizer.getPos();
+	    tokenizer.next();
+	    if (tokenizer.id() == id) {
+		return true;
+	    } else if (acceptOther) {
+		tokenizer.currentAsNext();
+		return false;
+	    }
+	    throw new ParsingException(NAMES[id] + " expected", startPos);
+	}
+
+	/**
+	 * Consumes a token with the given text, in any case, if present. Used
+	 * for words that are not keywords.
+	 * 
+	 * @return <code>true</code> in case the token was consumed,
+	 *         <code>false</code> otherwise.
+	 */
+	private boolean eatText(String text) {
+	    tokenizer.next();
+	    if (text.equalsIgnoreCase(tokenizer.current())) {
+		return true;
+	    }
+	    tokenizer.currentAsNext();
+	    return false;
+	}
+
+	/**
+	 * Consumes an integer.
+	 * 
+	 * @return The integer value.
+	 * @throws ParsingException
+	 *             when something else than an integer number was the next
+	 *             token to consume.
+	 */
+	private int eatNumber() throws ParsingException {
+	    int startPos = tokenizer.getPos();
+	    tokenizer.next();
+	    if (tokenizer.currentIsNumber()) {
+		return Integer.parseInt(tokenizer.current());
+	    } else {
+		throw new ParsingException("Number expected", startPos);
+	    }
+	}
+
+	/**
+	 * Consumes a value of <code>PRAGMA synchronous</code>, either a name or
+	 * its number.
+	 * 
+	 * @return The value, see {@link WriteAheadLog#FULL}.
+	 * @throws ParsingException
+	 *             when something else was the next token to consume.
+	 */
+	private int eatSynchronous() throws ParsingException {
+	    int startPos = tokenizer.getPos();
+	    String[] names = { "OFF", "NORMAL", "FULL" };
+	    for (int i = 0; i < names.length; i++) {
+		if (eatText(names[i]) || eatText(String.valueOf(i))) {
+		    return i;
+		}
+	    }
+	    throw new ParsingException("OFF, NORMAL or FULL expected",
+		    startPos);
+	}
+
+	/**
+	 * Consumes a string (i.e. syntactically defined as a string).
+	 * 
+	 * @return The string value, without the quotes.
+	 * @throws ParsingException
+	 *             when something else than a string was the next token to
+	 *             consume.
+	 */
+	private String eatString() throws ParsingException {
+	    int startPos = tokenizer.getPos();
+	    tokenizer.next();
+	    if (tokenizer.currentIsString()) {
+		String text = tokenizer.current();
+		return (text.substring(1, text.length() - 1));
+	    } else {
+		throw new ParsingException("String expected", startPos);
+	    }
+	}
+
+	/**
+	 * Consumes the given identifier.
+	 * 
+	 * @param id
+	 *            The identifier, see {@link Keywords}.
+	 * @throws ParsingException
+	 *             when something else than the given identifier number was
+	 *             the next token to consume.
+	 */
+	private void eat(int id) throws ParsingException {
+	    eat(id, false);
+	}
+
+	/**
+	 * Consumes the next token as a literal.
+	 * 
+	 * @return The consumed token.
+	 * @throws ParsingException
+	 *             when there were nothing more to consume.
+	 */
+	private String eat() throws ParsingException {
+	    int startPos = tokenizer.getPos();
+	    tokenizer.next();
+	    if (tokenizer.id() == EOF) {
+		throw new ParsingException("Identifier expected", startPos);
+	    }
+	    return tokenizer.current();
+	}
+
+	/**
+	 * Parses a logical SQL expression.
+	 * 
+	 * @return The expression.
+	 * @throws ParsingException
+	 *             when the expression contained syntactical errors.
+	 */
+	private Expression parseExpression() throws ParsingException {
+	    Expression e = parseBinaryExpression(parseUnaryExpression(), 0);
+	    return e;
+	}
+
+	/**
+	 * Parses a unary logical SQL expression, e.g. NOT x.
+	 * 
+	 * @return The expression.
+	 * @throws ParsingException
+	 *             when the expression contained syntactical errors.
+	 */
+	private Expression parseUnaryExpression() throws ParsingException {
+	    int startPos = tokenizer.getPos();
+	    tokenizer.next();
+	    if (tokenizer.id() == EOF) {
+		throw new ParsingException("Expression expected", startPos);
+	    }
+	    tokenizer.currentAsNext();
+	    int function = eat(AGGREGATES, true);
+	    if (function != -1) {
+		String name = tokenizer.current();
+		if (!eat(LEFT_PAREN, true)) {
+		    /* Not a function call, but a column with the same name */
+		    return new ColumnExpression(name, startPos);
+		}
+		return parseAggregate(function, startPos);
+	    } else if (eat(COALESCE, true)) {
+		// TODO: Make this a generic hook for functions!
+		Vector<Expression> params = new Vector<Expression>();
+		eat(LEFT_PAREN);
+		do {
+		    params.add(parseExpression());
+		} while (eat(COMMA, true));
+		eat(RIGHT_PAREN);
+		return new FunctionExpression("COALESCE", params);
+	    } else if (eat(NULL, true)) {
+		return new LiteralExpression(null);
+	    } else if (tokenizer.currentIsNumber()) {
+		boolean real = tokenizer.currentIsReal();
+		String number = eat();
+		if (real) {
+		    return new LiteralExpression(Double.valueOf(number));
+		} else {
+		    long l = Long.valueOf(number);
+		    if (l > Integer.MAX_VALUE || l < Integer.MIN_VALUE) {
+			return new LiteralExpression(l);
+		    } else {
+			return new LiteralExpression((int) l);
+		    }
+		}
+	    } else if (tokenizer.currentIsString()) {
+		return new LiteralExpression(eatString());
+	    } else if (eat(EXISTS, true)) {
+		return parseExists(false);
+	    } else if (eat(NOT, true)) {
+		if (eat(EXISTS, true)) {
+		    return parseExists(true);
+		}
+		return new UnaryExpression(UnaryExpression.NOT,
+			parseUnaryExpression());
+	    } else if (tokenizer.currentIsIdentifier()) {
+		return new ColumnExpression(eat(), startPos);
+	    } else if (eat(LEFT_PAREN, true)) {
+		Expression e = parseExpression();
+		eat(RIGHT_PAREN);
+		return e;
+	    } else if (eat(QUESTION, true)) {
+		tokenizer.next();
+		if (tokenizer.currentIsNumber()) {
+		    lastBinding = Integer.valueOf(tokenizer.current());
+		} else {
+		    tokenizer.currentAsNext();
+		}
+		return new ParameterExpression(lastBinding++);
+	    } else if (eat(MINUS, true)) {
+		return new UnaryExpression(UnaryExpression.NEGATE,
+			parseExpression());
+	    } else {
+		throw new ParsingException("Expression expected", startPos);
+	    }
+	}
+
+	/**
+	 * Parses the arguments of an aggregate function, e.g. the
+	 * <code>(*)</code> of <code>COUNT(*)</code>.
+	 * 
+	 * @param function
+	 *            The aggregate function, see {@link AggregateExpression}.
+	 * @param startPos
+	 *            Position of the function name.
+	 * @return The expression.
+	 * @throws ParsingException
+	 *             when the arguments contained syntactical errors, or when
+	 *             aggregates are not allowed at this point.
+	 */
+	private Expression parseAggregate(int function, int startPos)
+		throws ParsingException {
+	    if (aggregates == null) {
+		throw new ParsingException("Misuse of aggregate function "
+			+ AggregateExpression.NAMES[function], startPos);
+	    }
+	    Expression argument = null;
+	    if (function != AggregateExpression.COUNT || !eat(STAR, true)) {
+		/* Aggregates can not be nested */
+		Vector<AggregateExpression> outer = aggregates;
+		aggregates = null;
+		argument = parseExpression();
+		aggregates = outer;
+	    }
+	    eat(RIGHT_PAREN);
+	    AggregateExpression e = new AggregateExpression(function, argument,
+		    aggregates.size());
+	    aggregates.add(e);
+	    return e;
+	}
+
+	/**
+	 * Parses
+	 * <code>[ = | == | < | <= | > | >= | != | || | AND | OR | + | - | * | % | << | >> ]</code>
+	 * 
+	 * @return The operator, see {@link BinaryExpression}, or -1 when no
+	 *         match could be made.
+	 */
+	private int parseOperator() {
+	    tokenizer.next();
+	    switch (tokenizer.id()) {
+	    case EQUALS:
+		/* Fall through */
+	    case DOUBLE_EQUALS:
+		return BinaryExpression.EQUALS;
+	    case LESSER:
+		return BinaryExpression.LESSER;
+	    case LESSER_EQUALS:
+		return BinaryExpression.LESSER_EQUALS;
+	    case GREATER:
+		return BinaryExpression.GREATER;
+	    case GREATER_EQUALS:
+		return BinaryExpression.GREATER_EQUALS;
+	    case NOT_EQUALS:
+		return BinaryExpression.NOT_EQUALS;
+	    case CONCAT:
+		return BinaryExpression.CONCAT;
+	    case AND:
+		return BinaryExpression.AND;
+	    case OR:
+		return BinaryExpression.OR;
+	    case PLUS:
+		return BinaryExpression.ADD;
+	    case MINUS:
+		return BinaryExpression.SUBTRACT;
+	    case STAR:
+		return BinaryExpression.MULTIPLY;
+	    case SLASH:
+		return BinaryExpression.DIVIDE;
+	    case PERCENT:
+		return BinaryExpression.MODULUS;
+	    case SHIFT_LEFT:
+		return BinaryExpression.SHIFT_LEFT;
+	    case SHIFT_RIGHT:
+		return BinaryExpression.SHIFT_RIGHT;
+	    default:
+		tokenizer.currentAsNext();
+		return -1;
+	    }
+	}
+
+	/**
+	 * Parses the IN operator in a logical SQL expression, with either a
+	 * subquery or a list of expressions in the parentheses.
+	 * 
+	 * @param left
+	 *            Expression to the left of the expression to be parsed.
+	 * @param not
+	 *            <code>true</code> represents the NOT IN combination,
+	 *            <code>false</code> the simple IN version.
+	 * @return The expression.
+	 * @throws ParsingException
+	 *             when the expression contained syntactical errors, when
+	 *             the subquery refers to the outer query, as the subquery
+	 *             is only run once, or when it does not return one column.
+	 */
+	private Expression parseInExpression(Expression left, boolean not)
+		throws ParsingException {
+	    eat(LEFT_PAREN);
+	    int startPos = tokenizer.getPos();
+	    if (eat(SELECT, true)) {
+		Select select = parseSubquery();
+		if (isCorrelated(select)) {
+		    throw new ParsingException("Subquery of IN may not refer "
+			    + "to the outer query", startPos);
+		}
+		List<String> columns = new Vector<String>();
+		select.columnNames(columns);
+		if (columns.size() != 1) {
+		    throw new ParsingException("Subquery of IN returns "
+			    + columns.size() + " columns, expected 1",
+			    startPos);
+		}
+		return new InExpression(left, select, not, false);
+	    }
+	    Vector<Expression> list = new Vector<Expression>();
+	    if (!eat(RIGHT_PAREN, true)) {
+		do {
+		    list.add(parseExpression());
+		} while (eat(COMMA, true));
+		eat(RIGHT_PAREN);
+	    }
+	    return new InExpression(left, list, not);
+	}
+
+	/**
+	 * Parses the subquery of <code>EXISTS</code>, rewriting it into a
+	 * semi-join when it refers to the outer query, see
+	 * {@link Select#semiJoin(boolean)}.
+	 * 
+	 * @param not
+	 *            <code>true</code> for NOT EXISTS.
+	 * @return The expression.
+	 * @throws ParsingException
+	 *             when the subquery contained errors.
+	 */
+	private Expression parseExists(boolean not) throws ParsingException {
+	    eat(LEFT_PAREN);
+	    int startPos = tokenizer.getPos();
+	    eat(SELECT);
+	    Select select = parseSubquery();
+	    InExpression e;
+	    try {
+		e = select.semiJoin(not);
+	    } catch (ProcessingException ex) {
+		throw new ParsingException(ex.getMessage(), startPos);
+	    }
+
+	    /* What is left must not refer to the outer query elsewhere */
+	    if (isCorrelated((e != null) ? e.getSubquery() : select)) {
+		throw new ParsingException("Subquery of EXISTS may only refer "
+			+ "to the outer query through one equality", startPos);
+	    }
+	    return (e != null) ? e : new ExistsExpression(select, not);
+	}
+
+	/**
+	 * Checks if a subquery refers to columns of an outer query.
+	 */
+	private boolean isCorrelated(Select select) {
+	    Vector<ColumnExpression> outer = new Vector<ColumnExpression>();
+	    select.outerColumns(outer);
+	    return !outer.isEmpty();
+	}
+
+	/**
+	 * Checks that the columns qualified with a name refer to tables of the
+	 * statement. A table that has not been joined finds its columns by the
+	 * name alone, see {@link Table#findColumn(String)}, so any other name
+	 * must be caught here.
+	 * 
+	 * @param outer
+	 *            The columns qualified with the name of no table of the
+	 *            statement, see {@link Select#outerColumns(Vector)}.
+	 * @throws ParsingException
+	 *             when there are such columns, at the first of them.
+	 */
+	private void checkColumns(Vector<ColumnExpression> outer)
+		throws ParsingException {
+	    if (!outer.isEmpty()) {
+		ColumnExpression e = outer.firstElement();
+		throw new ParsingException("No such column: " + e, e.getPos());
+	    }
+	}
+
+	/**
+	 * Checks that the columns name exactly one column of the table they are
+	 * evaluated on, see {@link Select#unresolvedColumns(Vector, Vector)}.
+	 * 
+	 * @throws ParsingException
+	 *             when there are other columns, at the first of them.
+	 */
+	private void checkColumns(Vector<ColumnExpression> unknown,
+		Vector<ColumnExpression> ambiguous) throws ParsingException {
+	    checkColumns(unknown);
+	    if (!ambiguous.isEmpty()) {
+		ColumnExpression e = ambiguous.firstElement();
+		throw new ParsingException("Ambiguous column name: " + e, e
+			.getPos());
+	    }
+	}
+
+	private void checkColumns(Select select) throws ParsingException {
+	    Vector<ColumnExpression> outer = new Vector<ColumnExpression>();
+	    select.outerColumns(outer);
+	    checkColumns(outer);
+	}
+
+	/**
+	 * Checks the columns of an expression on a single table, see
+	 * {@link #checkColumns(Vector, Vector)}.
+	 */
+	private void checkColumns(Expression e, String id, Table table)
+		throws ParsingException {
+	    Vector<ColumnExpression> columns = new Vector<ColumnExpression>();
+	    e.columns(columns);
+	    Vector<ColumnExpression> outer = new Vector<ColumnExpression>();
+	    Set<String> names = Collections.singleton(id);
+	    Select.outside(columns, names, outer);
+	    checkColumns(outer);
+	    Select.TableSource source = new Select.TableSource(id, table);
+	    List<String> columnNames = new Vector<String>();
+	    source.columnNames(columnNames);
+	    Vector<ColumnExpression> unknown = new Vector<ColumnExpression>();
+	    Vector<ColumnExpression> ambiguous = new Vector<ColumnExpression>();
+	    Select.unresolved(columns, names, columnNames, unknown, ambiguous);
+	    checkColumns(unknown, ambiguous);
+	}
+
+	/**
+	 * Parses a <code>SELECT</code> in an expression, up to and including
+	 * the closing parenthesis.
+	 */
+	private Select parseSubquery() throws ParsingException {
+	    int startPos = tokenizer.getPos();
+	    Select select;
+	    try {
+		select = parseSelect();
+	    } catch (ProcessingException e) {
+		throw new ParsingException(e.getMessage(), startPos);
+	    }
+	    eat(RIGHT_PAREN);
+	    return select;
+	}
+
+	/**
+	 * Parses the operators that are written differently from the binary
+	 * operators, i.e. <code>IN</code>, <code>NOT IN</code> and
+	 * <code>NOT NULL</code>.
+	 * 
+	 * @param left
+	 *            The operand to the left of the operator.
+	 * @return The expression, or <code>null</code> when no such operator
+	 *         follows.
+	 * @throws ParsingException
+	 *             when the expression contained syntactical errors.
+	 */
+	private Expression parseSpecialOperator(Expression left)
+		throws ParsingException {
+	    if (eat(IN, true)) {
+		return parseInExpression(left, false);
+	    } else if (eat(NOT, true)) {
+		if (eat(IN, true)) {
+		    return parseInExpression(left, true);
+		}
+		eat(NULL);
+		return new UnaryExpression(UnaryExpression.NOT_NULL, left);
+	    }
+	    return null;
+	}
+
+	private Expression parseBinaryExpression(Expression left,
+		int prevPrecedence) throws ParsingException {
+	    while (true) {
+		int op = parseOperator();
+
+		/* Handle operators with special syntax */
+		if (op == -1) {
+		    Expression special = (prevPrecedence <= SPECIAL_PRECEDENCE)
+			    ? parseSpecialOperator(left) : null;
+		    if (special == null) {
+			break;
+		    }
+		    left = special;
+		    continue;
+		}
+
+		int precedence = BinaryExpression.getPrecedence(op);
+		if (precedence < prevPrecedence) {
+		    tokenizer.currentAsNext();
+		    break;
+		}
+		Expression right = parseUnaryExpression();
+		while (true) {
+		    int op2 = parseOperator();
+		    tokenizer.currentAsNext();
+		    int precedence2 = BinaryExpression.getPrecedence(op2);
+		    if (op2 == -1 && (tokenizer.id() == IN
+			    || tokenizer.id() == NOT)) {
+			precedence2 = SPECIAL_PRECEDENCE;
+		    }
+		    if (precedence2 <= precedence) {
+			break;
+		    } else {
+			right = parseBinaryExpression(right, precedence2);
+		    }
+		}
+		left = new BinaryExpression(left, op, right);
+	    }
+	    return left;
+	}
+
+	/**
+	 * Parses <code>OR action</code> of <code>INSERT</code> and
+	 * <code>UPDATE</code>, which overrides the <code>ON CONFLICT</code>
+	 * clauses of the table.
+	 * 
+	 * @return Index of the action to be performed on conflict, or -1 when
+	 *         the table decides.
+	 * @throws ParsingException
+	 *             when a keyword was not encountered where expected.
+	 */
+	private int parseOr() throws ParsingException {
+	    if (eat(OR, true)) {
+		return eat(CONFLICT_ACTIONS, false);
+	    } else {
+		return -1;
+	    }
+	}
+
+	/**
+	 * Parses
+	 * <code>ON CONFLICT [ ROLLBACK | ABORT | FAIL | IGNORE | REPLACE ]</code>
+	 * 
+	 * @return Index of the action to be performed on conflict.
+	 * @throws ParsingException
+	 *             when a keyword was not encountered where expected.
+	 */
+	private int parseConflictClause() throws ParsingException {
+	    if (eat(ON, true)) {
+		eat(CONFLICT);
+		return eat(CONFLICT_ACTIONS, true);
+	    } else {
+		return -1;
+	    }
+	}
+
+	private Statement parseCreateTable() throws ParsingException,
+		ProcessingException {
+	    final boolean exists = parseIfExists(true);
+	    final String id = eat();
+	    eat(LEFT_PAREN);
+	    final Table table = new Table(Database.this);
+	    final Vector<int[]> uniques = new Vector<int[]>();
+	    final Vector<Integer> conflicts = new Vector<Integer>();
+
+	    /* Position of the primary key among the constraints, or -1 */
+	    int primary = -1;
+	    int constraint;
+	    do {
+		/* Check for beginning of table constraints */
+		constraint = eat(TABLE_CONSTRAINTS, true);
+		if (constraint != -1) {
+		    break;
+		}
+
+		/* Get the column name */
+		String name = eat();
+
+		/*
+		 * NOTE: Some bug seems to accept that we duplicate the name, so
+		 * this is legacy support.
+		 */
+		eatText(name);
+
+		Object defVal = null;
+
+		/* Choose internal type */
+		int type = -1;
+		switch (eatFuzzy(new String[] { "INT", "CHAR", "CLOB", "TEXT",
+			"STRING", "BLOB", "REAL", "FLOA", "DOUB" })) {
+		case 0:
+		    type = Table.INTEGER;
+		    break;
+		case 1:
+		case 2:
+		case 3:
+		case 4:
+		    type = Table.TEXT;
+		    break;
+		case 5:
+		    type = Table.NONE;
+		    break;
+		case 6:
+		case 7:
+		case 8:
+		    type = Table.REAL;
+		    break;
+		default:
+		    break;
+		}
+
+		/* Accept repetition of type */
+		if (type != -1) {
+		    String typeName = tokenizer.current();
+		    while (eatText(typeName)) {
+		    }
+		}
+
+		/* Handle size parameters on text type */
+		if (type == Table.TEXT) {
+		    if (eat(LEFT_PAREN, true)) {
+			eatNumber();
+			if (eat(COMMA, true)) {
+			    eatNumber();
+			}
+			eat(RIGHT_PAREN, true);
+		    }
+		}
+
+		boolean exit = false;
+		int flags = 0;
+		while (!exit) {
+		    int extra = eat(COLUMN_CONSTRAINTS, true);
+		    if (type == -1 && extra == -1) {
+			if (!lookAhead(LIST_ENDS)) {
+			    eat();
+			    type = Table.NUMERIC;
+			}
+		    }
+		    switch (extra) {
+		    case 0:
+			eat(NULL);
+			flags |= Table.NOT_NULL;
+			break;
+		    case 1:
+			eat(KEY);
+			if (primary != -1) {
+			    throw new ProcessingException("Table \"" + id
+				    + "\" has more than one primary key");
+			}
+			primary = uniques.size();
+			flags |= Table.PRIMARY_KEY;
+			switch (eat(ORDERINGS, true)) {
+			case 0:
+			    flags |= Table.ASCENDING;
+			    break;
+			case 1:
+			    flags |= Table.DESCENDING;
+			    break;
+			default:
+			    break;
+			}
+			uniques.add(new int[] { table.getColumnCount() });
+			conflicts.add(parseConflictClause());
+			if (eat(AUTOINCREMENT, true)) {
+			    flags |= Table.AUTO_INCREMENT;
+			}
+			break;
+		    case 2:
+			uniques.add(new int[] { table.getColumnCount() });
+			conflicts.add(parseConflictClause());
+			break;
+		    case 3:
+			defVal = parseExpression().evaluate(null, null, -1);
+			break;
+		    case 4:
+			String refTbl = eat();
+			if (eat(LEFT_PAREN, true)) {
+			    Vector<String> refCols = new Vector<String>();
+			    do {
+				refCols.add(eat());
+			    } while (eat(COMMA, true));
+			    eat(RIGHT_PAREN);
+			}
+			break;
+		    case 5:
+			int collation = parseCollation();
+			break;
+		    default:
+			exit = true;
+			break;
+		    }
+		}
+		if (type == -1) {
+		    type = Table.NONE;
+		}
+		table.addColumn(name, Math.max(0, type | flags), defVal);
+	    } while (eat(COMMA, true));
+
+	    /* Table constraints, UNIQUE or PRIMARY KEY on a list of columns */
+	    while (constraint != -1) {
+		if (constraint == 1) {
+		    eat(KEY);
+		    if (primary != -1) {
+			throw new ProcessingException("Table \"" + id
+				+ "\" has more than one primary key");
+		    }
+		    primary = uniques.size();
+		}
+		eat(LEFT_PAREN);
+		Vector<Integer> columns = new Vector<Integer>();
+		do {
+		    String column = forceIdentifier(eat());
+		    int idx = table.getColumnIndex(column);
+		    if (idx == -1) {
+			throw new ProcessingException("Column \"" + column
+				+ "\" not present in table \"" + id + "\"");
+		    }
+		    if (constraint == 1) {
+			table.flags.set(idx, table.flags.get(idx)
+				| Table.PRIMARY_KEY);
+		    }
+		    columns.add(idx);
+		    eat(ORDERINGS, true);
+		} while (eat(COMMA, true));
+		eat(RIGHT_PAREN);
+		int[] keys = new int[columns.size()];
+		for (int i = 0; i < keys.length; i++) {
+		    keys[i] = columns.get(i);
+		}
+		uniques.add(keys);
+		conflicts.add(parseConflictClause());
+		constraint = eat(COMMA, true) ? eat(TABLE_CONSTRAINTS, false)
+			: -1;
+	    }
+	    eat(RIGHT_PAREN);
+
+	    /*
+	     * A primary key on a single INTEGER column, unless it is declared
+	     * DESC, is the INTEGER PRIMARY KEY of the table, as in SQLite.
+	     */
+	    int rowid = -1;
+	    if (primary != -1 && uniques.get(primary).length == 1) {
+		int flags = table.getFlags(uniques.get(primary)[0]);
+		if ((flags & Table.TYPE_MASK) == Table.INTEGER
+			&& (flags & Table.DESCENDING) == 0) {
+		    rowid = primary;
+		}
+	    }
+	    final int rowidConstraint = rowid;
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    /*
+		     * On IF NOT EXISTS we skip adding the table when it is
+		     * already present. This is done quietly according to
+		     * specifications.
+		     */
+		    if (tables.containsKey(id)) {
+			if (!exists) {
+			    throw new ProcessingException("Table \"" + id
+				    + "\" already exists");
+			}
+		    } else {
+			Table created = table.createEmpty(columnar);
+			created.name = id;
+			created.lock = new ReentrantLock();
+			created.lockOrder = tableCount++;
+
+			/* Constraints are checked through unique indexes */
+			for (int i = 0; i < uniques.size(); i++) {
+			    String name = Index.AUTO_INDEX + id + "_" + (i + 1);
+			    int conflict = (conflicts.get(i) != -1) ? conflicts
+				    .get(i) : Table.ABORT;
+			    if (i == rowidConstraint) {
+				created.addRowid(uniques.get(i)[0], name,
+					conflict);
+			    } else {
+				created.addIndex(new Index(name,
+					uniques.get(i), true, conflict));
+			    }
+			}
+			replaceTable(id, created);
+			schemaVersion++;
+		    }
+		    return EMPTY_TABLE;
+		}
+
+		@Override
+		boolean isExclusive() {
+		    return true;
+		}
+
+	    };
+	}
+
+	private boolean parseIfExists(boolean not) throws ParsingException {
+	    if (eat(IF, true)) {
+		if (not) {
+		    eat(NOT);
+		}
+		eat(EXISTS);
+		return true;
+	    } else {
+		return false;
+	    }
+	}
+
+	private Statement parseDropTable() throws ParsingException {
+	    final boolean exists = parseIfExists(false);
+	    final String id = eat();
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) {
+		    if (!exists && tables.get(id) == null) {
+			throw new IllegalArgumentException("Table \"" + id
+				+ "\" does not exist");
+		    }
+		    if (tables.containsKey(id)) {
+			replaceTable(id, null);
+			schemaVersion++;
+		    }
+		    return EMPTY_TABLE;
+		}
+
+		@Override
+		boolean isExclusive() {
+		    return true;
+		}
+
+	    };
+	}
+
+	private Statement parseDropIndex() throws ParsingException {
+	    final boolean exists = parseIfExists(false);
+	    final String id = eat();
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    if (id.startsWith(Index.AUTO_INDEX)) {
+			throw new ProcessingException("Index \"" + id
+				+ "\" belongs to a constraint, and cannot be"
+				+ " dropped");
+		    }
+		    for (Table table : tables.values()) {
+			if (table.getIndex(id) != null) {
+			    Table version = table.fork();
+			    version.removeIndex(version.getIndex(id));
+			    replaceTable(table.name, version);
+			    return EMPTY_TABLE;
+			}
+		    }
+		    if (!exists) {
+			throw new ProcessingException("Index \"" + id
+				+ "\" does not exist");
+		    }
+		    return EMPTY_TABLE;
+		}
+
+		@Override
+		boolean isExclusive() {
+		    return true;
+		}
+
+	    };
+	}
+
+	private Statement parseDropView() throws ParsingException {
+	    boolean exists = parseIfExists(false);
+	    String id = eat();
+	    // TODO: Remove the view!
+	    return NOTHING;
+	}
+
+	private Statement parseDropTrigger() throws ParsingException {
+	    boolean exists = parseIfExists(false);
+	    String id = eat();
+	    // TODO: Remove the trigger!
+	    return NOTHING;
+	}
+
+	private Statement parseCreateTrigger() throws ParsingException {
+	    String id = eat();
+	    int timing = eat(TRIGGER_TIMES,
+		    true);
+	    if (timing == 2) {
+		eat(OF);
+	    }
+	    int type = eat(TRIGGER_EVENTS,
+		    false);
+	    if (type == 2 && eat(OF, true)) {
+		do {
+		    String column = eat();
+		} while (eat(COMMA, true));
+	    }
+	    eat(ON);
+	    String table = eat();
+	    if (eat(FOR, true)) {
+		eat(EACH);
+		eat(ROW);
+	    }
+	    if (eat(WHEN, true)) {
+		parseExpression();
+	    }
+	    eat(BEGIN);
+	    Vector<String> actions = new Vector<String>();
+	    do {
+		StringBuilder action = new StringBuilder();
+		while (!eat(SEMICOLON, true)) {
+		    action.append(eat());
+		    action.append(" ");
+		}
+		actions.add(action.toString());
+	    } while (!eat(END, true));
+	    // TODO: Store trigger!
+	    return NOTHING;
+	}
+
+	private Statement parseCreateView() throws ParsingException {
+	    String name = eat();
+	    eat(AS);
+	    StringBuilder select = new StringBuilder();
+	    while (eat(STATEMENT_ENDS, true) == -1) {
+		select.append(eat());
+		select.append(" ");
+	    }
+	    // TODO: Store the view!
+	    return NOTHING;
+	}
+
+	private int parseCollation() throws ParsingException {
+	    return eat(COLLATIONS, false);
+	}
+
+	private Statement parseCreateIndex(final boolean unique)
+		throws ParsingException, ProcessingException {
+	    final boolean exists = parseIfExists(true);
+	    final String indexName = eat();
+	    eat(ON);
+	    final String tableName = eat();
+	    Table table = getTableSafe(tableName);
+	    Vector<Integer> columns = new Vector<Integer>();
+	    eat(LEFT_PAREN);
+	    do {
+		String column = forceIdentifier(eat());
+		int idx = table.getColumnIndex(column);
+		if (idx == -1) {
+		    throw new ProcessingException("Column \"" + column
+			    + "\" not present in table \"" + tableName + "\"");
+		}
+		columns.add(idx);
+		/*
+		 * NOTE: Keys are always compared the same way as the WHERE
+		 * clause compares values, regardless of collation.
+		 */
+		if (eat(COLLATE, true)) {
+		    int collation = parseCollation();
+		}
+	    } while (eat(COMMA, true));
+	    eat(RIGHT_PAREN);
+	    final int[] keys = new int[columns.size()];
+	    for (int i = 0; i < keys.length; i++) {
+		keys[i] = columns.get(i);
+	    }
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    for (Table t : tables.values()) {
+			if (t.getIndex(indexName) != null) {
+			    if (exists) {
+				return EMPTY_TABLE;
+			    }
+			    throw new ProcessingException("Index \"" + indexName
+				    + "\" already exists");
+			}
+		    }
+		    Table version = getTableSafe(tableName).fork();
+		    Index index = new Index(indexName, keys, unique);
+		    version.addIndex(index);
+		    Object[] duplicate = unique ? index.findDuplicate() : null;
+		    if (duplicate != null) {
+			throw new ProcessingException("Index \"" + indexName
+				+ "\" is not unique, the key "
+				+ Arrays.toString(duplicate)
+				+ " is held by more than one row");
+		    }
+		    replaceTable(tableName, version);
+		    return EMPTY_TABLE;
+		}
+
+		@Override
+		boolean isExclusive() {
+		    return true;
+		}
+
+	    };
+	}
+
+	private Statement parseCreate() throws ParsingException,
+		ProcessingException {
+	    switch (eat(CREATE_KINDS, false)) {
+	    case 0:
+		return parseCreateTable();
+	    case 1:
+		return parseCreateTrigger();
+	    case 2:
+		return parseCreateIndex(false);
+	    case 3:
+		eat(INDEX);
+		return parseCreateIndex(true);
+	    case 4:
+		return parseCreateView();
+	    case 5:
+	    case 6:
+		eat(TABLE);
+		return parseCreateTable();
+	    default:
+		internalError();
+		return null;
+	    }
+	}
+
+	private Statement parseDrop() throws ParsingException {
+	    switch (eat(DROP_KINDS,
+		    false)) {
+	    case 0:
+		return parseDropTable();
+	    case 1:
+		return parseDropIndex();
+	    case 2:
+		return parseDropView();
+	    case 3:
+		return parseDropTrigger();
+	    default:
+		internalError();
+		return null;
+	    }
+	}
+
+	private Statement parsePragma() throws ParsingException,
+		ProcessingException {
+	    if (eat(USER_VERSION, true)) {
+		if (eat(EQUALS, true)) {
+		    final long version = Long.valueOf(eat());
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    userVersion = version;
+			    return null;
+			}
+
+			@Override
+			boolean isLogged() {
+			    return true;
+			}
+
+		    };
+		} else {
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    Table table = new Table(Database.this);
+			    table.addColumn("user_version", 0, null);
+			    table.set(0, 0, userVersion);
+			    return table;
+			}
+
+		    };
+		}
+	    } else if (eat(STORAGE, true)) {
+		if (eat(EQUALS, true)) {
+		    int storage = eat(STORAGES,
+			    false);
+		    final boolean value = (storage == 1);
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    columnar = value;
+			    return null;
+			}
+
+			@Override
+			boolean isLogged() {
+			    return true;
+			}
+
+		    };
+		} else {
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    Table table = new Table(Database.this);
+			    table.addColumn("storage", Table.TEXT, null);
+			    table.set(0, 0, columnar ? "columnar" : "row");
+			    return table;
+			}
+
+		    };
+		}
+	    } else if (eat(AUTO_VACUUM, true)) {
+		if (eat(EQUALS, true)) {
+		    int startPos = tokenizer.getPos();
+		    final int percent = eatNumber();
+		    if (percent > 100) {
+			throw new ParsingException("Percentage expected",
+				startPos);
+		    }
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    setAutoVacuum(percent);
+			    return null;
+			}
+
+		    };
+		} else {
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    Table table = new Table(Database.this);
+			    table.addColumn("auto_vacuum", Table.INTEGER, null);
+			    synchronized (commits) {
+				table.set(0, 0, autoVacuum);
+			    }
+			    return table;
+			}
+
+		    };
+		}
+	    } else if (eat(SYNCHRONOUS, true)) {
+		if (eat(EQUALS, true)) {
+		    int startPos = tokenizer.getPos();
+		    final int mode = eatSynchronous();
+		    if (log == null) {
+			throw new ParsingException("The database has no log",
+				startPos);
+		    }
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    log.setSynchronous(mode);
+			    return null;
+			}
+
+		    };
+		} else {
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    Table table = new Table(Database.this);
+			    table.addColumn("synchronous", Table.INTEGER, null);
+			    table.set(0, 0, (log != null) ? log
+				    .getSynchronous() : WriteAheadLog.OFF);
+			    return table;
+			}
+
+		    };
+		}
+	    } else if (eat(SYNC_INTERVAL, true)) {
+		if (eat(EQUALS, true)) {
+		    int startPos = tokenizer.getPos();
+		    final int interval = eatNumber();
+		    if (log == null || interval == 0) {
+			throw new ParsingException((log == null)
+				? "The database has no log"
+				: "Milliseconds expected", startPos);
+		    }
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    log.setInterval(interval);
+			    return null;
+			}
+
+		    };
+		} else {
+		    return new Statement() {
+
+			@Override
+			Table execute(Frame frame) {
+			    Table table = new Table(Database.this);
+			    table.addColumn("sync_interval", Table.INTEGER,
+				    null);
+			    table.set(0, 0, (log != null) ? log.getInterval()
+				    : 0);
+			    return table;
+			}
+
+		    };
+		}
+	    } else if (eat(FREELIST_COUNT, true)) {
+		return new Statement() {
+
+		    /**
+		     * Counts the deleted rows that are waiting to be used
+		     * again, in the tables seen by the transaction.
+		     */
+		    @Override
+		    Table execute(Frame frame) throws ProcessingException {
+			int count = 0;
+			for (Table stored : getTables().values()) {
+			    count += frame.transaction.read(stored)
+				    .getDeletedRowCount();
+			}
+			Table table = new Table(Database.this);
+			table.addColumn("freelist_count", Table.INTEGER, null);
+			table.set(0, 0, count);
+			return table;
+		    }
+
+		};
+	    } else if (eat(TABLE_INFO, true)) {
+		eat(LEFT_PAREN);
+		String id = eat();
+		final Table source = getTableSafe(id);
+		eat(RIGHT_PAREN);
+		return new Statement() {
+
+		    @Override
+		    Table execute(Frame frame) {
+			Table table = new Table(Database.this);
+			table.addColumn("0", 0, null);
+			table.addColumn("name", 0, null);
+			table.addColumn("2", 0, null);
+			table.addColumn("3", 0, null);
+			table.addColumn("defVal", 0, null);
+			for (int i = 0; i < source.getColumnCount(); i++) {
+			    table.set(i, 1, source.getColumnName(i));
+			    table.set(i, 4, source.getDefVal(i));
+			}
+			return table;
+		    }
+
+		};
+	    } else {
+		throw new IllegalArgumentException("Unsupported pragma");
+	    }
+	}
+
+	private Statement parseBegin() throws ParsingException {
+	    /*
+	     * NOTE: Tables are locked as they are written, and reading never
+	     * locks, so all kinds of transactions behave the same.
+	     */
+	    eat(TRANSACTION_KINDS, true);
+	    eat(TRANSACTION, true);
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    if (frame.transaction.explicit) {
+			throw new ProcessingException("Cannot start a "
+				+ "transaction within a transaction");
+		    }
+		    transactions.set(new Transaction(Database.this, true));
+		    return EMPTY_TABLE;
+		}
+
+	    };
+	}
+
+	private Statement parseEnd() throws ParsingException {
+	    eat(TRANSACTION, true);
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    if (!frame.transaction.explicit) {
+			throw new ProcessingException(
+				"Cannot commit, no transaction is active");
+		    }
+		    frame.transaction.commit();
+		    return EMPTY_TABLE;
+		}
+
+	    };
+	}
+
+	private Statement parseRollback() throws ParsingException {
+	    eat(TRANSACTION, true);
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    if (!frame.transaction.explicit) {
+			throw new ProcessingException(
+				"Cannot roll back, no transaction is active");
+		    }
+		    frame.transaction.rollback();
+		    return EMPTY_TABLE;
+		}
+
+	    };
+	}
+
+	/**
+	 * Parses <code>INSERT [ OR action ] INTO</code>, or
+	 * <code>REPLACE INTO</code> which is short for
+	 * <code>INSERT OR REPLACE INTO</code>. The rows are given either as one
+	 * or more <code>VALUES</code> tuples, or by a <code>SELECT</code>.
+	 * 
+	 * @param replace
+	 *            <code>true</code> for <code>REPLACE</code>.
+	 */
+	private Statement parseInsert(boolean replace) throws ParsingException,
+		ProcessingException {
+	    final int conflict = replace ? Table.REPLACE : parseOr();
+	    eat(INTO);
+	    String id = eat();
+	    final Vector<String> columns = new Vector<String>();
+	    final Table table = getTableSafe(id);
+	    if (eat(LEFT_PAREN, true)) {
+		do {
+		    columns.add(forceIdentifier(eat()));
+		} while (eat(COMMA, true));
+		eat(RIGHT_PAREN);
+	    } else {
+		for (int i = 0; i < table.getColumnCount(); i++) {
+		    columns.add(table.getColumnName(i));
+		}
+	    }
+	    final int[] indices = new int[columns.size()];
+	    for (int i = 0; i < indices.length; i++) {
+		indices[i] = table.getColumnIndex(columns.get(i));
+		if (indices[i] == -1) {
+		    throw new ProcessingException("Column \"" + columns.get(i)
+			    + "\" not present in table \"" + id + "\"");
+		}
+	    }
+
+	    final Vector<Expression[]> tuples = new Vector<Expression[]>();
+	    final Select select = eat(SELECT, true) ? parseSelect() : null;
+	    if (select != null) {
+		checkColumns(select);
+	    } else {
+		eat(VALUES);
+		do {
+		    eat(LEFT_PAREN);
+		    Vector<Expression> values = new Vector<Expression>();
+		    do {
+			if (values.size() == columns.size()) {
+			    throw new ProcessingException(
+				    "More values than columns");
+			}
+			values.add(parseExpression());
+		    } while (eat(COMMA, true));
+		    eat(RIGHT_PAREN);
+		    if (columns.size() > values.size()) {
+			throw new ProcessingException(
+				"Fewer values than columns");
+		    }
+		    tuples.add(values.toArray(new Expression[values.size()]));
+		} while (eat(COMMA, true));
+	    }
+	    return new Statement() {
+
+		/**
+		 * Evaluates all rows before adding any of them, so a
+		 * <code>SELECT</code> from the same table only sees the rows
+		 * that were there before.
+		 */
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    Vector<Object[]> rows = new Vector<Object[]>();
+		    if (select != null) {
+			Table result = select.execute(frame);
+			if (result.getColumnCount() != indices.length) {
+			    throw new ProcessingException(indices.length
+				    + " columns but "
+				    + result.getColumnCount()
+				    + " values were selected");
+			}
+			for (int i = 0; i < result.getRowCount(); i++) {
+			    Object[] row = new Object[indices.length];
+			    for (int j = 0; j < row.length; j++) {
+				row[j] = result.getCell(i, j);
+			    }
+			    rows.add(row);
+			}
+		    } else {
+			for (Expression[] tuple : tuples) {
+			    Object[] row = new Object[tuple.length];
+			    for (int i = 0; i < row.length; i++) {
+				row[i] = tuple[i].evaluate(frame, table, -1);
+			    }
+			    rows.add(row);
+			}
+		    }
+		    if (frame.planOnly) {
+			return EMPTY_TABLE;
+		    }
+		    Table version = frame.transaction.write(table);
+		    return new Table(Database.this, "inserted_rows",
+			    Table.INTEGER, version.insert(indices, rows,
+				    conflict));
+		}
+
+		@Override
+		void collect(Vector<Table> writes) {
+		    writes.add(table);
+		}
+
+		@Override
+		boolean isPlanned() {
+		    return true;
+		}
+
+	    };
+	}
+
+	private Statement parseDelete() throws ParsingException,
+		ProcessingException {
+	    eat(FROM);
+	    String id = eat();
+	    final Table table = getTableSafe(id);
+	    Expression where = null;
+	    if (eat(WHERE, true)) {
+		where = parseExpression();
+		checkColumns(where, id, table);
+	    }
+	    final Expression exp = where;
+	    return new Statement() {
+
+		/**
+		 * Marks the matching rows as deleted, which leaves the other
+		 * rows where they are, see {@link Table#delete(int)}. Without
+		 * a WHERE clause the table is simply emptied.
+		 */
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    if (frame.planOnly) {
+			/* Only the rows to delete are looked for */
+			if (exp != null) {
+			    frame.transaction.read(table).getRowsWhere(frame,
+				    exp);
+			}
+			return EMPTY_TABLE;
+		    }
+		    Table version = frame.transaction.write(table);
+		    int count;
+		    if (exp == null) {
+			count = version.getLiveRowCount();
+			version.clear();
+		    } else {
+			count = 0;
+			for (int row : version.getRowsWhere(frame, exp)) {
+			    if (version.delete(row)) {
+				count++;
+			    }
+			}
+		    }
+		    return new Table(Database.this, "deleted_rows",
+			    Table.INTEGER, count);
+		}
+
+		@Override
+		void collect(Vector<Table> writes) {
+		    writes.add(table);
+		}
+
+		@Override
+		boolean isPlanned() {
+		    return true;
+		}
+
+	    };
+	}
+
+	private Statement parseAttach() throws ParsingException {
+	    eat(DATABASE, true);
+	    String name = eat();
+	    eat(AS);
+	    String alias = eat();
+	    return NOTHING;
+	}
+
+	private Statement parseAnalyze() throws ParsingException,
+		ProcessingException {
+	    final Table stat = getTableSafe(Statistics.TABLE);
+	    final Table table = lookAhead(STATEMENT_ENDS) ? null
+		    : getTableSafe(eat());
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    Vector<Table> analyzed = new Vector<Table>();
+		    if (table != null) {
+			analyzed.add(frame.transaction.read(table));
+		    } else {
+			Map<String, Table> all = getTables();
+			String[] names = all.keySet().toArray(new String[0]);
+			Arrays.sort(names);
+			for (String name : names) {
+			    if (!name.equals(Statistics.TABLE)) {
+				analyzed.add(frame.transaction.read(all
+					.get(name)));
+			    }
+			}
+		    }
+		    Statistics.save(frame.transaction.write(stat), analyzed);
+		    return EMPTY_TABLE;
+		}
+
+		@Override
+		void collect(Vector<Table> writes) {
+		    writes.add(stat);
+		}
+
+	    };
+	}
+
+	/**
+	 * Parses <code>VACUUM</code>, which compacts a table, or all tables,
+	 * see {@link Table#compact()}. The tables are locked for writing while
+	 * they are compacted, but can still be read.
+	 */
+	private Statement parseVacuum() throws ParsingException,
+		ProcessingException {
+	    final Table table = lookAhead(STATEMENT_ENDS) ? null
+		    : getTableSafe(eat());
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    Vector<Table> compacted = new Vector<Table>();
+		    collect(compacted);
+		    for (Table stored : compacted) {
+			frame.transaction.write(stored).compact();
+		    }
+		    return EMPTY_TABLE;
+		}
+
+		@Override
+		void collect(Vector<Table> writes) {
+		    if (table != null) {
+			writes.add(table);
+		    } else {
+			writes.addAll(getTables().values());
+		    }
+		}
+
+	    };
+	}
+
+	/**
+	 * Parses <code>IMPORT 'file' INTO table [ SEPARATOR 'c' ]
+	 * [ HEADER ]</code>, which adds the lines of a CSV file as rows, see
+	 * {@link Import}. The values are separated by tabs in
+	 * <code>.tsv</code> files and by commas in others, unless a separator
+	 * is given. <code>HEADER</code> skips the first line.
+	 */
+	private Statement parseImport() throws ParsingException,
+		ProcessingException {
+	    File file = new File(eatString());
+	    eat(INTO);
+	    String table = getTableSafe(eat()).name;
+	    char separator = Import.separatorOf(file);
+	    if (eatText("SEPARATOR")) {
+		int pos = tokenizer.getPos();
+		String text = eatString();
+		if (text.length() != 1) {
+		    throw new ParsingException("Single character expected",
+			    pos);
+		}
+		separator = text.charAt(0);
+	    }
+	    boolean header = eatText("HEADER");
+	    return new Import(Database.this, file, table, separator, header);
+	}
+
+	private Statement parseDesc() throws ParsingException {
+	    String id = eat();
+	    final Table tbl = tables.get(id);
+	    if (tbl == null) {
+		throw new IllegalArgumentException("Table \"" + id
+			+ "\" does not exist");
+	    }
+	    return new Statement() {
+
+		@Override
+		Table execute(Frame frame) {
+		    return describe(tbl);
+		}
+
+	    };
+	}
+
+	private Statement parseUpdate() throws ParsingException,
+		ProcessingException {
+	    final int conflict = parseOr();
+	    String id = eat();
+	    final Table table = getTableSafe(id);
+	    eat(SET);
+	    final Vector<Integer> columns = new Vector<Integer>();
+	    final Vector<Expression> values = new Vector<Expression>();
+	    do {
+		String column = forceIdentifier(eat());
+		int index = table.getColumnIndex(column);
+		if (index == -1) {
+		    throw new ProcessingException("Column \"" + column
+			    + "\" not present in table \"" + id + "\"");
+		}
+		columns.add(index);
+		eat(EQUALS);
+		values.add(parseExpression());
+		checkColumns(values.lastElement(), id, table);
+	    } while (eat(COMMA, true));
+	    Expression where = null;
+	    if (eat(WHERE, true)) {
+		where = parseExpression();
+		checkColumns(where, id, table);
+	    }
+	    final Expression exp = where;
+	    final int[] indices = new int[columns.size()];
+	    for (int i = 0; i < indices.length; i++) {
+		indices[i] = columns.get(i);
+	    }
+	    return new Statement() {
+
+		/**
+		 * Writes the new values in place, see
+		 * {@link Table#update(int, int[], Object[], int)}. The rows
+		 * are found before any of them changes, and all values of a
+		 * row are computed from its old values. Rows deleted by
+		 * <code>OR REPLACE</code> along the way are skipped.
+		 */
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    if (frame.planOnly) {
+			/* Only the rows to update are looked for */
+			frame.transaction.read(table).getRowsWhere(frame, exp);
+			return EMPTY_TABLE;
+		    }
+		    Table version = frame.transaction.write(table);
+		    Vector<Integer> rows = version.getRowsWhere(frame, exp);
+		    Object[] row = new Object[values.size()];
+		    int count = 0;
+		    for (int r : rows) {
+			if (version.isDeleted(r)) {
+			    continue;
+			}
+			for (int i = 0; i < row.length; i++) {
+			    row[i] = values.get(i).evaluate(frame, version, r);
+			}
+			if (version.update(r, indices, row, conflict)) {
+			    count++;
+			}
+		    }
+		    return new Table(Database.this, "updated_rows",
+			    Table.INTEGER, count);
+		}
+
+		@Override
+		void collect(Vector<Table> writes) {
+		    writes.add(table);
+		}
+
+		@Override
+		boolean isPlanned() {
+		    return true;
+		}
+
+	    };
+	}
+
+	private Select.Source parseSingleSource() throws ParsingException,
+		ProcessingException {
+	    Select.Source result = null;
+	    if (eat(LEFT_PAREN, true)) {
+		if (eat(SELECT, true)) {
+		    Select select = parseSelect();
+
+		    /* The tables beside it are not in scope */
+		    checkColumns(select);
+		    result = new Select.SelectSource(select);
+		} else {
+		    result = parseJoinSource();
+		}
+		eat(RIGHT_PAREN);
+	    } else {
+		String name = eat();
+		result = new Select.TableSource(name, getTableSafe(name));
+	    }
+
+	    /* Check if the table has been given an alias */
+	    if (eat(AS, true)) {
+		result.alias = forceIdentifier(eat());
+	    } else if (!lookAhead(SOURCE_FOLLOWERS)) {
+		tokenizer.next();
+		boolean alias = tokenizer.currentIsIdentifier();
+		tokenizer.currentAsNext();
+		if (alias) {
+		    result.alias = eat();
+		}
+	    }
+	    return result;
+	}
+
+	private Select.Source parseJoinSource() throws ParsingException,
+		ProcessingException {
+	    Select.Source result = parseSingleSource();
+	    while (true) {
+		int startPos = tokenizer.getPos();
+		int op = eat(JOIN_OPERATORS, true);
+		boolean outer = false;
+		switch (op) {
+		case -1:
+		    return result;
+		case 0:
+		case 1:
+		    break;
+		case 2:
+		    throw new ParsingException("NATURAL JOIN is not supported",
+			    startPos);
+		case 3:
+		    eat(OUTER, true);
+		    /* Fall through */
+		case 4:
+		    eat(JOIN);
+		    outer = true;
+		    break;
+		case 5:
+		case 6:
+		    eat(JOIN);
+		    break;
+		default:
+		    internalError();
+		}
+		Select.Source right = parseSingleSource();
+		Expression on = null;
+		if (op != 0 && eat(ON, true)) {
+		    on = parseExpression();
+		}
+		result = new Select.JoinSource(result, right, on, outer);
+	    }
+	}
+
+	private Select parseSelect() throws ParsingException,
+		ProcessingException {
+	    Select result = new Select();
+	    Select.Core first = null;
+	    Select.Core core = null;
+	    int op = -1;
+	    while (true) {
+		core = parseSelectCore();
+		if (first == null) {
+		    first = core;
+		}
+		result.add(core, op);
+
+		/* Check for compound */
+		op = eat(COMPOUND_OPERATORS, true);
+		if (op == Select.UNION && eat(ALL, true)) {
+		    op = Select.UNION_ALL;
+		}
+		if (op == -1) {
+		    break;
+		}
+		eat(SELECT);
+	    }
+
+	    /* Order the result */
+	    if (eat(ORDER, true)) {
+		eat(BY);
+		Vector<Expression> terms = new Vector<Expression>();
+		Vector<Boolean> descending = new Vector<Boolean>();
+
+		/* Aggregates can be used to order a simple select */
+		Vector<AggregateExpression> outer = aggregates;
+		aggregates = (core == first) ? core.aggregates : null;
+		List<String> columns = new Vector<String>();
+		result.columnNames(columns);
+		do {
+		    int startPos = tokenizer.getPos();
+		    Expression term = parseExpression();
+		    Integer number = Sort.getColumnNumber(term);
+		    if (number != null
+			    && (number < 1 || number > columns.size())) {
+			throw new ParsingException("ORDER BY term " + number
+				+ " is out of range", startPos);
+		    }
+		    terms.add(term);
+		    descending.add(eat(ORDERINGS, true) == 1);
+		} while (eat(COMMA, true));
+		aggregates = outer;
+		result.order = new Sort(terms, descending);
+	    }
+
+	    /* Limit result size */
+	    if (eat(LIMIT, true)) {
+		result.limit = parseExpression();
+		switch (eat(LIMIT_SEPARATORS, true)) {
+		case 0:
+		    result.offset = result.limit;
+		    result.limit = parseExpression();
+		    break;
+		case 1:
+		    result.offset = parseExpression();
+		    break;
+		default:
+		    break;
+		}
+	    }
+
+	    /* Rather than failing when run */
+	    Vector<ColumnExpression> unknown = new Vector<ColumnExpression>();
+	    Vector<ColumnExpression> ambiguous = new Vector<ColumnExpression>();
+	    result.unresolvedColumns(unknown, ambiguous);
+	    checkColumns(unknown, ambiguous);
+	    return result;
+	}
+
+	private Select.Core parseSelectCore() throws ParsingException,
+		ProcessingException {
+	    // TODO: Add support for "AS" by parsing expressions instead of
+	    // column names, and then pass those expressions into the
+	    // createSubset()! We might also have to send the complete table
+	    // list to that method, to be able to support dot-notation for
+	    // column references. And don't forget that the expressions evaluate
+	    // to column-aliases, so we need a parallell array for that as
+	    // well...
+
+	    Select.Core core = new Select.Core();
+	    Vector<AggregateExpression> outer = aggregates;
+	    core.aggregates = new Vector<AggregateExpression>();
+
+	    /* Check if duplicates are allowed */
+	    core.allowDuplicates = false;
+	    if (eat(QUANTIFIERS, true) < 1) {
+		core.allowDuplicates = true;
+	    }
+
+	    if (!eat(STAR, true)) {
+		core.columns = new Vector<Expression>();
+		aggregates = core.aggregates;
+		do {
+		    core.columns.add(parseExpression());
+		} while (eat(COMMA, true));
+		aggregates = null;
+	    }
+	    eat(FROM);
+	    core.source = parseJoinSource();
+
+	    if (eat(WHERE, true)) {
+		core.where = parseExpression();
+
+		/* For inner joins, WHERE can be used to pick the join keys */
+		if (core.source instanceof Select.JoinSource
+			&& ((Select.JoinSource) core.source)
+				.absorb(core.where)) {
+		    core.where = null;
+		}
+	    }
+	    if (eat(GROUP, true)) {
+		eat(BY);
+		core.groupBy = new Vector<Expression>();
+		do {
+		    core.groupBy.add(parseExpression());
+		} while (eat(COMMA, true));
+	    }
+	    if (eat(HAVING, true)) {
+		aggregates = core.aggregates;
+		core.having = parseExpression();
+		aggregates = null;
+	    }
+	    aggregates = outer;
+	    return core;
+	}
+
+	private Statement parseSql() throws ParsingException,
+		ProcessingException {
+	    Statement result = parseStatement();
+	    eat(STATEMENT_ENDS, false);
+	    return result;
+	}
+
+	private Statement parseStatement() throws ParsingException,
+		ProcessingException {
+	    Statement result = null;
+	    switch (eat(COMMANDS, false)) {
+	    case 0:
+		result = parseCreate();
+		break;
+	    case 1:
+		result = parseDrop();
+		break;
+	    case 2:
+		result = parsePragma();
+		break;
+	    case 3:
+		result = parseBegin();
+		break;
+	    case 4:
+		/* Fall through */
+	    case 5:
+		result = parseEnd();
+		break;
+	    case 6:
+		result = parseRollback();
+		break;
+	    case 7:
+		result = parseInsert(false);
+		break;
+	    case 8:
+		Select select = parseSelect();
+		checkColumns(select);
+		result = select;
+		break;
+	    case 9:
+		result = parseUpdate();
+		break;
+	    case 10:
+		result = parseDelete();
+		break;
+	    case 11:
+		result = parseAttach();
+		break;
+	    case 12:
+		result = parseAnalyze();
+		break;
+	    case 13:
+		result = parseDesc();
+		break;
+	    case 14:
+		result = parseExplain();
+		break;
+	    case 15:
+		result = parseVacuum();
+		break;
+	    case 16:
+		result = parseInsert(true);
+		break;
+	    case 17:
+		result = parseImport();
+		break;
+	    default:
+		internalError();
+	    }
+	    return result;
+	}
+
+	private Statement parseExplain() throws ParsingException,
+		ProcessingException {
+	    final boolean analyze;
+	    if (eat(QUERY, true)) {
+		eat(PLAN);
+		analyze = false;
+	    } else {
+		/* Plain EXPLAIN gives the plan, there is no bytecode to show */
+		analyze = eat(ANALYZE, true);
+	    }
+	    tokenizer.next();
+	    final String command = (tokenizer.id() == NONE
+		    || tokenizer.id() >= KEYWORD_COUNT) ? "STATEMENT"
+		    : NAMES[tokenizer.id()];
+	    tokenizer.currentAsNext();
+	    final Statement statement = parseStatement();
+	    return new Statement() {
+
+		/**
+		 * Runs the statement with a plan for its operators to add
+		 * their nodes to. Only <code>EXPLAIN ANALYZE</code> really
+		 * runs the statement, while the others let it report its plan
+		 * without reading or writing any rows, see
+		 * {@link Statement#isPlanned()}.
+		 */
+		@Override
+		Table execute(Frame frame) throws ProcessingException {
+		    Plan root = new Plan(null, command);
+		    if (!analyze && !statement.isPlanned()) {
+			return root.toTable(Database.this, false);
+		    }
+		    frame.plan = root;
+		    frame.planOnly = !analyze;
+		    root.start();
+		    try {
+			Table result = statement.execute(frame);
+			root.setEmitted(result.getRowCount());
+		    } finally {
+			root.stop();
+			frame.plan = null;
+			frame.planOnly = false;
+		    }
+		    return root.toTable(Database.this, analyze);
+		}
+
+		@Override
+		void collect(Vector<Table> writes) {
+		    if (analyze) {
+			statement.collect(writes);
+		    }
+		}
+
+		@Override
+		boolean isExclusive() {
+		    return analyze && statement.isExclusive();
+		}
+
+	    };
+	}
+
+    }
+
+    /**
+     * <p>
+     * Gets the database with the given file-name. This is used when the
+     * <code>ATTACH DATABASE</code> statement is run to resolve which database
+     * is referred to by the filename.
+     * </p>
+     * <p>
+     * Override this method to be able to refer to other databases in your
+     * SQL-queries.
+     * <p>
+     * 
+     * @param fileName
+     *            The file name given as first argument to
+     *            <code>ATTACH DATABASE</code>.
+     * @return The database corresponding to the given name, or
+     *         <code>null</code> when no database corresponds to the given name.
+     */
+    // TODO: Still unclear if this should be a callback or a pre-link step like
+    // the one for the tables!
+    protected Database resolve(String fileName) {
+	return null;
+    }
+
+    /**
+     * Creates an empty database. The database will not have any links to any
+     * other database.
+     */
+    public Database() {
+	dropped = false;
+	userVersion = 0;
+	schema = new ReentrantReadWriteLock();
+	tables = new HashMap<String, Table>();
+	transactions = new ThreadLocal<Transaction>();
+	statements = new LinkedHashMap<String, Query>(16, 0.75f, true) {
+
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(
+		    Map.Entry<String, Query> eldest) {
+		return size() > STATEMENT_CACHE_SIZE;
+	    }
+
+	};
+
+	/* Create default tables */
+	try {
+	    query("CREATE TABLE " + Statistics.TABLE
+		    + " (tbl TEXT, idx TEXT, stat TEXT)");
+	} catch (InvalidSqlQueryException e) {
+	    // System.out.println(e);
+	    internalError();
+	}
+    }
+
+    /**
+     * Opens a database stored in a file. The file is a log of the changes
+     * made to the database, which are run again to recreate it, see
+     * {@link WriteAheadLog}. Changes are then appended to the log as they
+     * are committed. By default each commit waits for its changes to reach
+     * the disk, but several commits can wait for the same write, see
+     * <code>PRAGMA synchronous</code>.
+     * 
+     * @param file
+     *            The file, which is created if it does not exist.
+     * @throws IOException
+     *             when the file could not be read or written, or the changes
+     *             in it could not be made again.
+     */
+    public Database(File file) throws IOException {
+	this();
+	log = WriteAheadLog.open(this, file, 0, 0);
+    }
+
+    /**
+     * Opens a database written to a snapshot, see {@link #checkpoint(File)}.
+     * No SQL is run, and the data of a columnar table is only read from the
+     * file as each column is first used.
+     * 
+     * @param snapshot
+     *            The snapshot. The database starts out empty when it does
+     *            not exist.
+     * @return The database.
+     * @throws IOException
+     *             when the snapshot could not be read.
+     */
+    public static Database open(File snapshot) throws IOException {
+	return open(snapshot, null);
+    }
+
+    /**
+     * Opens a database written to a snapshot, with a log of the changes made
+     * since, see {@link #Database(File)}. The changes in the log are made
+     * again, and changes are then appended to it as they are committed. The
+     * snapshot must be the last one written for the log.
+     * 
+     * @param snapshot
+     *            The snapshot. The database starts out empty when it does
+     *            not exist.
+     * @param log
+     *            The log, which is created if it does not exist, or
+     *            <code>null</code> to not keep any log.
+     * @return The database.
+     * @throws IOException
+     *             when the snapshot or the log could not be read, or the log
+     *             could not be written.
+     */
+    public static Database open(File snapshot, File log) throws IOException {
+	Database database = new Database();
+	long epoch = 0;
+	long position = 0;
+	if (snapshot.exists()) {
+	    Snapshot image = Snapshot.read(database, snapshot);
+	    database.restore(image);
+	    epoch = image.logEpoch;
+	    position = image.logPosition;
+	}
+	if (log != null) {
+	    database.log = WriteAheadLog.open(database, log, epoch, position);
+	}
+	return database;
+    }
+
+    /**
+     * Replaces the tables of a new database with those of a snapshot.
+     */
+    private void restore(Snapshot snapshot) {
+	for (Table table : snapshot.tables) {
+	    table.lock = new ReentrantLock();
+	    table.lockOrder = tableCount++;
+	    replaceTable(table.name, table);
+	}
+	userVersion = snapshot.userVersion;
+	columnar = snapshot.columnar;
+	schemaVersion++;
+    }
+
+    /**
+     * Writes the committed tables to a snapshot, which is much faster to
+     * open than a log is to run, see {@link #open(File, File)}. The tables
+     * are written column by column, in a binary form that is mapped into
+     * memory when opened. Transactions that have not committed are not
+     * part of the snapshot.
+     * <p>
+     * The log of the database, if any, is emptied once the snapshot has been
+     * written, since the changes in it are then part of the snapshot.
+     * Statements wait for the snapshot to be written in that case, while
+     * they run as usual otherwise.
+     * 
+     * @param file
+     *            The snapshot, which is replaced if it exists.
+     * @throws IOException
+     *             when the snapshot could not be written, or the log could
+     *             not be emptied.
+     */
+    public void checkpoint(File file) throws IOException {
+	if (dropped) {
+	    throw new IllegalStateException(
+		    "Cannot checkpoint a dropped database");
+	}
+	Transaction transaction = transactions.get();
+	if (transaction != null && transaction.hasLocks()) {
+	    /* Others may wait for its tables holding the schema lock */
+	    throw new IllegalStateException(
+		    "Cannot checkpoint in a transaction that has written");
+	}
+	Lock lock = (log != null) ? schema.writeLock() : schema.readLock();
+	lock.lock();
+	try {
+	    Snapshot snapshot = new Snapshot();
+	    snapshot.tables.addAll(tables.values());
+	    snapshot.userVersion = userVersion;
+	    snapshot.columnar = columnar;
+	    if (log != null) {
+		snapshot.logPosition = log.flush();
+		snapshot.logEpoch = log.getEpoch();
+	    }
+	    snapshot.write(file);
+	    if (log != null) {
+		log.reset();
+	    }
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Closes the database. The changes committed so far are written to the
+     * log of the database, and no more statements may be run.
+     * 
+     * @throws IOException
+     *             when the log could not be written.
+     */
+    public void close() throws IOException {
+	dropped = true;
+	setAutoVacuum(0);
+	if (log != null) {
+	    log.close();
+	}
+    }
+
+    /**
+     * Prepares the given SQL-query for execution. The query is parsed once and
+     * can then be executed any number of times. Recently prepared queries are
+     * cached, so preparing the same SQL again is cheap.
+     * 
+     * @param sql
+     *            A valid query in SQLite-syntax.
+     * @return The prepared query.
+     * @throws InvalidSqlQueryException
+     *             when the query could not be parsed.
+     */
+    public Query prepare(String sql) throws InvalidSqlQueryException {
+	if (dropped) {
+	    throw new IllegalStateException(
+		    "Cannot perform query on a dropped database");
+	}
+	synchronized (statements) {
+	    Query query = statements.get(sql);
+	    if (query != null) {
+		return query;
+	    }
+	}
+
+	/* Parse without holding the cache, so other threads can use it */
+	Query query = new Query(this, sql);
+	compile(query);
+	synchronized (statements) {
+	    statements.put(sql, query);
+	}
+	return query;
+    }
+
+    /**
+     * Parses the SQL of the given query into a statement. The caller must
+     * hold the monitor of the query, or be the only one that knows of it.
+     * 
+     * @param query
+     *            The query to parse.
+     * @throws InvalidSqlQueryException
+     *             when the query could not be parsed.
+     */
+    private void compile(Query query) throws InvalidSqlQueryException {
+	String sql = query.sql;
+	Parser parser = new Parser(sql);
+	lockSchema(schema.readLock(), sql);
+	try {
+	    query.statement = parser.parseSql();
+	    query.schemaVersion = schemaVersion;
+	} catch (ParsingException e) {
+	    // e.printStackTrace();
+	    throw new InvalidSqlQueryException(e.getMessage() + " at "
+		    + e.getPos() + ": " + sql.substring(0, e.getPos())
+		    + "<<here>>" + sql.substring(e.getPos()));
+	} catch (ProcessingException e) {
+	    throw new InvalidSqlQueryException(e.getMessage() + ": " + sql);
+	} finally {
+	    schema.readLock().unlock();
+	}
+    }
+
+    /**
+     * Executes a prepared query, see {@link Query#execute(Object...)}.
+     * Statements that only use tables run in parallel, each reading a snapshot
+     * of the database and writing versions of their own, while statements
+     * changing the schema run alone.
+     */
+    Table execute(Query query, Object... params)
+	    throws InvalidSqlQueryException {
+	return run(query, null, query.sql, params);
+    }
+
+    /**
+     * Runs a statement that was not parsed from SQL, such as the changes
+     * read from the log, see {@link WriteAheadLog}.
+     * 
+     * @param sql
+     *            What the statement does, for error messages.
+     */
+    Table run(Statement statement, String sql)
+	    throws InvalidSqlQueryException {
+	return run(null, statement, sql, new Object[0]);
+    }
+
+    /**
+     * Runs a statement, either the one of a prepared query or one that was
+     * not parsed from SQL.
+     * 
+     * @param query
+     *            The query to run, or <code>null</code> to run the given
+     *            statement.
+     * @param sql
+     *            The statement as SQL, for error messages.
+     */
+    private Table run(Query query, Statement statement, String sql,
+	    Object[] params) throws InvalidSqlQueryException {
+	if (dropped) {
+	    throw new IllegalStateException(
+		    "Cannot perform query on a dropped database");
+	}
+
+	/*
+	 * Whether the statement changes the schema only depends on the SQL,
+	 * so the statement can be checked before it is known to be current.
+	 */
+	boolean exclusive = (query != null) ? query.statement.isExclusive()
+		: statement.isExclusive();
+	Lock lock = exclusive ? schema.writeLock() : schema.readLock();
+
+	/*
+	 * Statements outside of BEGIN and COMMIT run in a transaction of their
+	 * own.
+	 */
+	Transaction transaction = transactions.get();
+	boolean single = transaction == null;
+	if (single) {
+	    transaction = new Transaction(this, false);
+	}
+	lockSchema(lock, sql);
+	try {
+	    /*
+	     * Tables are resolved when the statement is parsed, so parse again
+	     * when they may have changed.
+	     */
+	    if (query != null) {
+		synchronized (query) {
+		    if (query.schemaVersion != schemaVersion) {
+			compile(query);
+		    }
+		    statement = query.statement;
+		}
+	    }
+	    Table result = statement.run(new Frame(transaction, params));
+	    if (query != null && log != null) {
+		log(statement, sql, params);
+	    }
+	    if (single) {
+		transaction.commit();
+	    }
+	    return result;
+	} catch (ProcessingException e) {
+	    throw new InvalidSqlQueryException(e.getMessage() + ": " + sql);
+	} finally {
+	    if (single) {
+		transaction.rollback();
+	    } else if (transaction.isEnded()) {
+		transactions.remove();
+	    }
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Takes a lock of the schema for a statement. A transaction started by
+     * <code>BEGIN</code> that holds tables only waits a while, see
+     * {@link Transaction#lockSchema(Lock)}.
+     * 
+     * @throws InvalidSqlQueryException
+     *             when the lock could not be taken, in which case the
+     *             transaction of the thread has been rolled back.
+     */
+    private void lockSchema(Lock lock, String sql)
+	    throws InvalidSqlQueryException {
+	Transaction transaction = transactions.get();
+	if (transaction == null) {
+	    lock.lock();
+	} else if (!transaction.lockSchema(lock)) {
+	    transactions.remove();
+	    throw new InvalidSqlQueryException("Database is locked by another "
+		    + "statement, rolled back: " + sql);
+	}
+    }
+
+    /**
+     * Adds rows to a table without going through SQL. All rows are added
+     * in one statement, so they are committed together unless a transaction
+     * is active, and the storage is grown a chunk of rows at a time. This is
+     * much faster than inserting the rows one by one when loading a lot of
+     * data.
+     * 
+     * @param table
+     *            The name of the table.
+     * @param rows
+     *            The values of each row, one for each column of the table in
+     *            the order of the columns. A NULL key of an
+     *            <code>INTEGER PRIMARY KEY</code> is given a value as usual.
+     * @return The number of rows added, less than the number of rows given
+     *         when rows are ignored by <code>ON CONFLICT IGNORE</code>.
+     * @throws InvalidSqlQueryException
+     *             when the table does not exist, a row has the wrong number
+     *             of values or a constraint failed. No row is added then,
+     *             unless a transaction is active.
+     */
+    public int bulkInsert(final String table, final Iterable<Object[]> rows)
+	    throws InvalidSqlQueryException {
+	Table result = run(null, new Statement() {
+
+	    @Override
+	    Table execute(Frame frame) throws ProcessingException {
+		Table stored = getTableSafe(table);
+		Table version = frame.transaction.write(stored);
+		int[] all = new int[stored.getColumnCount()];
+		for (int i = 0; i < all.length; i++) {
+		    all[i] = i;
+		}
+		Vector<Object[]> chunk = new Vector<Object[]>();
+		int count = 0;
+		Iterator<Object[]> it = rows.iterator();
+		while (it.hasNext()) {
+		    Object[] row = it.next();
+		    if (row.length != all.length) {
+			throw new ProcessingException("Table \"" + table
+				+ "\" has " + all.length + " columns but "
+				+ row.length + " values were given");
+		    }
+		    chunk.add(row);
+		    if (chunk.size() == Column.CHUNK_SIZE || !it.hasNext()) {
+			count += version.insert(all, chunk, -1);
+			chunk.clear();
+		    }
+		}
+		return new Table(Database.this, "inserted_rows",
+			Table.INTEGER, count);
+	    }
+
+	    @Override
+	    void collect(Vector<Table> writes) {
+		/* A missing table is reported by execute */
+		Table stored = tables.get(table);
+		if (stored != null) {
+		    writes.add(stored);
+		}
+	    }
+
+	}, "bulk insert into " + table, new Object[0]);
+	return result.getCellInt(0, 0);
+    }
+
+    /**
+     * Adds the lines of a CSV or TSV file as rows of a table, like
+     * <code>IMPORT</code>. The file is parsed by several threads, and the
+     * rows are added in one statement, so they are committed together
+     * unless a transaction is active.
+     * 
+     * @param file
+     *            The file, with one row on each line and the values in the
+     *            order of the columns of the table.
+     * @param table
+     *            The name of the table.
+     * @param separator
+     *            The character between the values, usually <code>','</code>
+     *            or <code>'\t'</code>.
+     * @param header
+     *            <code>true</code> to skip the first line of the file.
+     * @return The number of rows added.
+     * @throws InvalidSqlQueryException
+     *             when the file could not be read, a line is invalid or a
+     *             constraint failed. No row is added then, unless a
+     *             transaction is active.
+     */
+    public int importCsv(File file, String table, char separator,
+	    boolean header) throws InvalidSqlQueryException {
+	return run(null, new Import(this, file, table, separator, header),
+		"import of " + file + " into " + table, new Object[0])
+		.getCellInt(0, 0);
+    }
+
+    /**
+     * Executes the given SQL-query.
+     * 
+     * @param sql
+     *            A valid query in SQLite-syntax.
+     * @param params
+     *            Zero or more objects that will be bound to parameters in the
+     *            SQL-query. The order will be the same as given here.
+     * 
+     * @return The result of the query as a
+     *         {@link com.sonyericsson.prequel.Table} . The contents of the
+     *         table depends on the query e.g. <code>INSERT</code>,
+     *         <code>UPDATE</code> and <code>DELETE</code> returns the number of
+     *         affected rows, while <code>SELECT</code> returns the actual
+     *         search result. Some queries produces no return values and the
+     *         resulting table is therefore empty.
+     * @throws InvalidSqlQueryException
+     */
+    public Table query(String sql, Object... params)
+	    throws InvalidSqlQueryException {
+	// System.out.println("SQL: " + sql);
+	// for (Object o : params) {
+	// System.out.println("PARAM: " + o);
+	// }
+	return prepare(sql).execute(params);
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder b = new StringBuilder();
+	b.append("Database@");
+	b.append(hashCode());
+	b.append("\n=====================\n");
+	b.append("user_version: ");
+	b.append(userVersion);
+	b.append("\n---------------------\n");
+	for (Map.Entry<String, Table> entry : tables.entrySet()) {
+	    if (!entry.getKey().equals(Statistics.TABLE)) {
+		b.append(entry.getKey() + ":\n");
+		b.append(entry.getValue().toString());
+	    }
+	}
+	return b.toString();
+    }
+
+}
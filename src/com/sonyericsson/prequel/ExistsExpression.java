@@ -0,0 +1,95 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Vector;
+
+/**
+ * <code>EXISTS</code> or <code>NOT EXISTS</code> with a subquery that does not
+ * depend on the row, which is run once per execution. Subqueries that refer
+ * to the outer query are rewritten into an {@link InExpression} when parsed,
+ * see {@link Select#semiJoin(boolean)}.
+ */
+class ExistsExpression extends Expression {
+
+    private final Select select;
+
+    private final boolean not;
+
+    ExistsExpression(Select select, boolean not) {
+	this.select = select;
+	this.not = not;
+
+	/* A single row tells whether there are any */
+	if (select.limit == null && select.offset == null) {
+	    select.limit = new LiteralExpression(1);
+	}
+    }
+
+    public Object evaluate(Frame frame, Table source, int row) {
+	if (frame == null) {
+	    throw new IllegalArgumentException(
+		    "Subqueries can not be used here");
+	}
+	Boolean exists = (Boolean) frame.getResult(this);
+	if (exists == null) {
+	    Plan node = Plan.enter(frame);
+	    if (node != null) {
+		node.detail = (not ? "NOT " : "") + "EXISTS SUBQUERY";
+	    }
+	    Table result;
+	    try {
+		result = select.execute(frame);
+	    } catch (ProcessingException e) {
+		throw new IllegalArgumentException(e.getMessage());
+	    }
+	    exists = result.getRowCount() > 0;
+	    frame.setResult(this, exists);
+	    Plan.exit(frame, node, result.getRowCount(), 1);
+	}
+	return (exists != not) ? 1 : 0;
+    }
+
+    @Override
+    boolean isConstant() {
+	return true;
+    }
+
+    @Override
+    public int type(Table source) {
+	return Table.INTEGER;
+    }
+
+    @Override
+    void columns(Vector<ColumnExpression> result) {
+	select.outerColumns(result);
+    }
+
+    @Override
+    public String toString() {
+	return (not ? "NOT " : "") + "EXISTS (SELECT ...)";
+    }
+
+}
@@ -0,0 +1,633 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+/**
+ * A WHERE clause compiled for scanning a particular table. Compiling resolves
+ * the columns and evaluates the constants once, and turns the comparisons
+ * into small classes specialized for the operator and the kind of column.
+ * Numbers in columnar tables are then compared without boxing them, and no
+ * <code>Integer</code> is created for the result of every comparison.
+ * <p>
+ * Rows are filtered in batches, see {@link #select(int[], int, int[])}, so
+ * that the choice of what to do is made once per batch rather than once per
+ * row. <code>AND</code> only checks its right operand on the rows selected by
+ * the left one, and <code>OR</code> only on the rows it did not select.
+ * <p>
+ * Parts of the clause that can not be compiled are evaluated as usual, so a
+ * compiled clause always gives the same result as evaluating the expression.
+ */
+abstract class Filter {
+
+    /* Number of rows to filter at once, one chunk of a column */
+    static final int BATCH_SIZE = Column.CHUNK_SIZE;
+
+    /**
+     * Checks if a row of the table matches the clause.
+     */
+    abstract boolean matches(int row);
+
+    /**
+     * Selects the rows of a batch that match the clause.
+     * 
+     * @param rows
+     *            The rows to check.
+     * @param count
+     *            The number of rows to check, at most {@link #BATCH_SIZE}.
+     * @param selected
+     *            Receives the matching rows, in the order given. This may be
+     *            the same array as <code>rows</code>.
+     * @return The number of matching rows.
+     */
+    int select(int[] rows, int count, int[] selected) {
+	int n = 0;
+	for (int i = 0; i < count; i++) {
+	    if (matches(rows[i])) {
+		selected[n++] = rows[i];
+	    }
+	}
+	return n;
+    }
+
+    /**
+     * Compiles a WHERE clause.
+     * 
+     * @param frame
+     *            The frame of the current execution, giving the values of
+     *            the parameters.
+     * @param source
+     *            The table to be scanned.
+     * @param where
+     *            The clause, or <code>null</code> to match all rows.
+     * @return The filter.
+     */
+    static Filter compile(Frame frame, Table source, Expression where) {
+	if (where == null) {
+	    return new All();
+	}
+	Filter filter = compileCondition(frame, source, where);
+	if (filter != null) {
+	    return filter;
+	}
+	return new Interpreted(frame, source, where, false);
+    }
+
+    /**
+     * Compiles an operand of <code>AND</code> or <code>OR</code>, which is
+     * true for any value that {@link BinaryExpression#forceBool(Object)}
+     * considers true.
+     */
+    private static Filter compileOperand(Frame frame, Table source,
+	    Expression e) {
+	Filter filter = compileCondition(frame, source, e);
+	if (filter != null) {
+	    return filter;
+	}
+	return new Interpreted(frame, source, e, true);
+    }
+
+    /**
+     * Compiles a condition that is fully understood by the compiler.
+     * 
+     * @return The filter, or <code>null</code> when the condition has to be
+     *         evaluated as an expression.
+     */
+    private static Filter compileCondition(Frame frame, Table source,
+	    Expression e) {
+	if (e instanceof InExpression) {
+	    return compileMembership(frame, source, (InExpression) e);
+	} else if (!(e instanceof BinaryExpression)) {
+	    return null;
+	}
+	BinaryExpression binary = (BinaryExpression) e;
+	int operator = binary.getOperator();
+	if (operator == BinaryExpression.AND) {
+	    return new And(compileOperand(frame, source, binary.getLeft()),
+		    compileOperand(frame, source, binary.getRight()));
+	} else if (operator == BinaryExpression.OR) {
+	    return new Or(compileOperand(frame, source, binary.getLeft()),
+		    compileOperand(frame, source, binary.getRight()));
+	} else if (BinaryExpression.isComparison(operator)) {
+	    Expression left = binary.getLeft();
+	    Expression right = binary.getRight();
+	    if (left.isConstant() && right instanceof ColumnExpression) {
+		int swapped = BinaryExpression.swap(operator);
+		return compileComparison(frame, source,
+			(ColumnExpression) right, swapped, left);
+	    } else if (left instanceof ColumnExpression && right.isConstant()) {
+		return compileComparison(frame, source, (ColumnExpression) left,
+			operator, right);
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Compiles the comparison of a column with a constant.
+     * 
+     * @return The filter, or <code>null</code> when the comparison has to be
+     *         evaluated as an expression.
+     */
+    private static Filter compileComparison(Frame frame, Table source,
+	    ColumnExpression column, int operator, Expression constant) {
+	int idx;
+	try {
+	    idx = column.getIndex(source);
+	} catch (IllegalArgumentException e) {
+	    /* Ambiguous, which is reported when the expression is evaluated */
+	    return null;
+	}
+	if (idx == -1) {
+	    return null;
+	}
+	Object value = constant.evaluate(frame, null, -1);
+	if (value == null) {
+	    return null;
+	}
+
+	/*
+	 * Numbers are compared as doubles, just like BinaryExpression does
+	 * unless both values are longs. Those columns are left to it.
+	 */
+	if (value instanceof Integer || value instanceof Double
+		|| value instanceof Long) {
+	    if (value instanceof Long && !isExact((Long) value)) {
+		return null;
+	    }
+	    double number = ((Number) value).doubleValue();
+	    Column stored = source.getColumn(idx);
+	    if (stored instanceof Column.IntColumn
+		    || stored instanceof Column.RealColumn) {
+		return new NumberComparison(stored, operator, number);
+	    }
+	    return new CellComparison(source, idx, operator, value, number);
+	} else if (value instanceof String) {
+	    return new StringComparison(source, idx, operator, (String) value);
+	}
+	return null;
+    }
+
+    /**
+     * Compiles <code>IN</code> with a column to the left, and a subquery or a
+     * list of constants to the right. The values are collected into a set
+     * before the scan starts.
+     * 
+     * @return The filter, or <code>null</code> when the operator has to be
+     *         evaluated as an expression.
+     */
+    private static Filter compileMembership(Frame frame, Table source,
+	    InExpression in) {
+	if (!(in.getOperand() instanceof ColumnExpression)
+		|| !in.hasConstantValues()) {
+	    return null;
+	}
+	int idx;
+	try {
+	    idx = ((ColumnExpression) in.getOperand()).getIndex(source);
+	} catch (IllegalArgumentException e) {
+	    return null;
+	}
+	if (idx == -1) {
+	    return null;
+	}
+	return new Membership(source, idx, in, in.getValues(frame));
+    }
+
+    /* Checks if a long is converted to a double without rounding */
+    private static boolean isExact(long l) {
+	return l == (long) (double) l;
+    }
+
+    /**
+     * Checks if the result of comparing two values satisfies an operator.
+     * 
+     * @param comparison
+     *            Negative when the left value is lesser, zero when the values
+     *            are equal, and positive when the left value is greater.
+     */
+    private static boolean test(int operator, int comparison) {
+	switch (operator) {
+	case BinaryExpression.EQUALS:
+	    return comparison == 0;
+	case BinaryExpression.NOT_EQUALS:
+	    return comparison != 0;
+	case BinaryExpression.LESSER:
+	    return comparison < 0;
+	case BinaryExpression.LESSER_EQUALS:
+	    return comparison <= 0;
+	case BinaryExpression.GREATER:
+	    return comparison > 0;
+	default:
+	    return comparison >= 0;
+	}
+    }
+
+    /**
+     * Matches all rows, used when there is no WHERE clause.
+     */
+    private static class All extends Filter {
+
+	@Override
+	boolean matches(int row) {
+	    return true;
+	}
+
+	@Override
+	int select(int[] rows, int count, int[] selected) {
+	    if (selected != rows) {
+		System.arraycopy(rows, 0, selected, 0, count);
+	    }
+	    return count;
+	}
+
+    }
+
+    /**
+     * Evaluates an expression that could not be compiled.
+     */
+    private static class Interpreted extends Filter {
+
+	private final Frame frame;
+
+	private final Table source;
+
+	private final Expression e;
+
+	/* true for operands of AND and OR, which accept any true value */
+	private final boolean operand;
+
+	Interpreted(Frame frame, Table source, Expression e, boolean operand) {
+	    this.frame = frame;
+	    this.source = source;
+	    this.e = e;
+	    this.operand = operand;
+	}
+
+	@Override
+	boolean matches(int row) {
+	    Object value = e.evaluate(frame, source, row);
+	    if (operand) {
+		return BinaryExpression.forceBool(value);
+	    }
+	    return ((Integer) value) == 1;
+	}
+
+	@Override
+	int select(int[] rows, int count, int[] selected) {
+	    int n = 0;
+	    for (int i = 0; i < count; i++) {
+		if (matches(rows[i])) {
+		    selected[n++] = rows[i];
+		}
+	    }
+	    return n;
+	}
+
+    }
+
+    private static class And extends Filter {
+
+	private final Filter left;
+
+	private final Filter right;
+
+	And(Filter left, Filter right) {
+	    this.left = left;
+	    this.right = right;
+	}
+
+	@Override
+	boolean matches(int row) {
+	    return left.matches(row) && right.matches(row);
+	}
+
+	@Override
+	int select(int[] rows, int count, int[] selected) {
+	    int n = left.select(rows, count, selected);
+	    return right.select(selected, n, selected);
+	}
+
+    }
+
+    private static class Or extends Filter {
+
+	private final Filter left;
+
+	private final Filter right;
+
+	/* Rows selected by the left operand, and the other rows */
+	private final int[] matched = new int[BATCH_SIZE];
+
+	private final int[] rest = new int[BATCH_SIZE];
+
+	Or(Filter left, Filter right) {
+	    this.left = left;
+	    this.right = right;
+	}
+
+	@Override
+	boolean matches(int row) {
+	    return left.matches(row) || right.matches(row);
+	}
+
+	@Override
+	int select(int[] rows, int count, int[] selected) {
+	    int n = left.select(rows, count, matched);
+	    if (n == count) {
+		if (selected != rows) {
+		    System.arraycopy(rows, 0, selected, 0, count);
+		}
+		return count;
+	    }
+
+	    /* The selected rows keep their order, so the rest is in between */
+	    int m = 0;
+	    for (int i = 0, j = 0; i < count; i++) {
+		if (j < n && matched[j] == rows[i]) {
+		    j++;
+		} else {
+		    rest[m++] = rows[i];
+		}
+	    }
+	    m = right.select(rest, m, rest);
+
+	    /* Merge the two selections in the order of the batch */
+	    int total = 0;
+	    for (int i = 0, a = 0, b = 0; i < count && total < n + m; i++) {
+		int row = rows[i];
+		if (a < n && matched[a] == row) {
+		    selected[total++] = row;
+		    a++;
+		} else if (b < m && rest[b] == row) {
+		    selected[total++] = row;
+		    b++;
+		}
+	    }
+	    return total;
+	}
+
+    }
+
+    /**
+     * Compares a numeric column of a columnar table with a number. A NULL
+     * cell is lesser than any number, and is not equal to it. The operator
+     * is chosen once per batch, and the loops only read primitive values.
+     */
+    private static class NumberComparison extends Filter {
+
+	private final Column column;
+
+	private final int operator;
+
+	private final double value;
+
+	NumberComparison(Column column, int operator, double value) {
+	    this.column = column;
+	    this.operator = operator;
+	    this.value = value;
+	}
+
+	@Override
+	boolean matches(int row) {
+	    if (column.isNull(row)) {
+		return operator == BinaryExpression.NOT_EQUALS
+			|| operator == BinaryExpression.LESSER
+			|| operator == BinaryExpression.LESSER_EQUALS;
+	    }
+	    double d = column.getDouble(row);
+	    return test(operator, (d < value) ? -1 : ((d == value) ? 0 : 1));
+	}
+
+	@Override
+	int select(int[] rows, int count, int[] selected) {
+	    int n = 0;
+	    switch (operator) {
+	    case BinaryExpression.EQUALS:
+		for (int i = 0; i < count; i++) {
+		    int row = rows[i];
+		    if (!column.isNull(row) && column.getDouble(row) == value) {
+			selected[n++] = row;
+		    }
+		}
+		break;
+	    case BinaryExpression.NOT_EQUALS:
+		for (int i = 0; i < count; i++) {
+		    int row = rows[i];
+		    if (column.isNull(row) || column.getDouble(row) != value) {
+			selected[n++] = row;
+		    }
+		}
+		break;
+	    case BinaryExpression.LESSER:
+		for (int i = 0; i < count; i++) {
+		    int row = rows[i];
+		    if (column.isNull(row) || column.getDouble(row) < value) {
+			selected[n++] = row;
+		    }
+		}
+		break;
+	    case BinaryExpression.LESSER_EQUALS:
+		for (int i = 0; i < count; i++) {
+		    int row = rows[i];
+		    if (column.isNull(row) || column.getDouble(row) <= value) {
+			selected[n++] = row;
+		    }
+		}
+		break;
+	    case BinaryExpression.GREATER:
+		for (int i = 0; i < count; i++) {
+		    int row = rows[i];
+		    if (!column.isNull(row) && column.getDouble(row) > value) {
+			selected[n++] = row;
+		    }
+		}
+		break;
+	    default:
+		for (int i = 0; i < count; i++) {
+		    int row = rows[i];
+		    if (!column.isNull(row) && column.getDouble(row) >= value) {
+			selected[n++] = row;
+		    }
+		}
+		break;
+	    }
+	    return n;
+	}
+
+    }
+
+    /**
+     * Compares the cells of a column with a number, when the cells are
+     * objects. Cells that are not <code>Integer</code> or <code>Double</code>
+     * are compared as by {@link BinaryExpression}.
+     */
+    private static class CellComparison extends Filter {
+
+	private final Table source;
+
+	private final int column;
+
+	private final int operator;
+
+	private final Object value;
+
+	private final double number;
+
+	CellComparison(Table source, int column, int operator, Object value,
+		double number) {
+	    this.source = source;
+	    this.column = column;
+	    this.operator = operator;
+	    this.value = value;
+	    this.number = number;
+	}
+
+	@Override
+	boolean matches(int row) {
+	    Object cell = source.getCell(row, column);
+	    double d;
+	    if (cell instanceof Integer) {
+		d = (Integer) cell;
+	    } else if (cell instanceof Double) {
+		d = (Double) cell;
+	    } else {
+		return BinaryExpression.compare(operator, cell, value);
+	    }
+	    return test(operator, (d < number) ? -1 : ((d == number) ? 0 : 1));
+	}
+
+	@Override
+	int select(int[] rows, int count, int[] selected) {
+	    int n = 0;
+	    for (int i = 0; i < count; i++) {
+		if (matches(rows[i])) {
+		    selected[n++] = rows[i];
+		}
+	    }
+	    return n;
+	}
+
+    }
+
+    /**
+     * Looks up the cells of a column in a set of values, see
+     * {@link InExpression}. Numeric columns of columnar tables are looked up
+     * without boxing their cells.
+     */
+    private static class Membership extends Filter {
+
+	private final Table source;
+
+	private final int column;
+
+	/* The column when it holds primitive numbers, or null */
+	private final Column numbers;
+
+	private final boolean real;
+
+	private final ValueSet values;
+
+	/* The result for cells that are found, not found and NULL */
+	private final boolean found;
+
+	private final boolean missing;
+
+	private final boolean nulls;
+
+	Membership(Table source, int column, InExpression in, ValueSet values) {
+	    this.source = source;
+	    this.column = column;
+	    this.values = values;
+	    Column stored = source.getColumn(column);
+	    numbers = (stored != null && stored.isNumeric()) ? stored : null;
+	    real = stored instanceof Column.RealColumn;
+	    found = in.matches(values, true);
+	    missing = in.matches(values, false);
+	    nulls = in.matchesNull(values);
+	}
+
+	@Override
+	boolean matches(int row) {
+	    if (numbers == null) {
+		Object cell = source.getCell(row, column);
+		if (cell == null) {
+		    return nulls;
+		}
+		return values.contains(cell) ? found : missing;
+	    } else if (numbers.isNull(row)) {
+		return nulls;
+	    } else if (real) {
+		return values.containsDouble(numbers.getDouble(row)) ? found
+			: missing;
+	    }
+	    return values.containsLong(numbers.getLong(row)) ? found : missing;
+	}
+
+    }
+
+    /**
+     * Compares the cells of a column with a string. Cells that are not
+     * strings are compared as by {@link BinaryExpression}.
+     */
+    private static class StringComparison extends Filter {
+
+	private final Table source;
+
+	private final int column;
+
+	private final int operator;
+
+	private final String value;
+
+	StringComparison(Table source, int column, int operator, String value) {
+	    this.source = source;
+	    this.column = column;
+	    this.operator = operator;
+	    this.value = value;
+	}
+
+	@Override
+	boolean matches(int row) {
+	    Object cell = source.getCell(row, column);
+	    if (cell instanceof String) {
+		return test(operator, ((String) cell).compareTo(value));
+	    }
+	    return BinaryExpression.compare(operator, cell, value);
+	}
+
+	@Override
+	int select(int[] rows, int count, int[] selected) {
+	    int n = 0;
+	    for (int i = 0; i < count; i++) {
+		if (matches(rows[i])) {
+		    selected[n++] = rows[i];
+		}
+	    }
+	    return n;
+	}
+
+    }
+
+}
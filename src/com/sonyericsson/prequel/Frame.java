@@ -0,0 +1,107 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.IdentityHashMap;
+
+/**
+ * The values bound to the parameters of a statement for one execution, and the
+ * transaction it runs in. Parsed statements never hold parameter values
+ * themselves, so the same statement can be executed with different frames.
+ */
+class Frame {
+
+    /* The transaction deciding which versions of the tables are used */
+    final Transaction transaction;
+
+    private final Object[] params;
+
+    /* Aggregate values of the group being output, see HashAggregate */
+    private final Object[] aggregates;
+
+    /* Values computed once per execution, by the expression computing them */
+    private final IdentityHashMap<Expression, Object> results;
+
+    /* The node operators add their nodes to, null unless explained */
+    Plan plan;
+
+    /*
+     * true when only the plan is wanted, see EXPLAIN QUERY PLAN, so that
+     * operators add their nodes without reading or writing any rows
+     */
+    boolean planOnly;
+
+    Frame(Transaction transaction, Object... params) {
+	this.transaction = transaction;
+	this.params = params;
+	aggregates = null;
+	results = new IdentityHashMap<Expression, Object>();
+    }
+
+    /**
+     * Creates a frame with the same parameters as another frame, but with
+     * the given aggregate values.
+     */
+    Frame(Frame outer, Object[] aggregates) {
+	transaction = outer.transaction;
+	params = outer.params;
+	this.aggregates = aggregates;
+	results = outer.results;
+	planOnly = outer.planOnly;
+    }
+
+    /**
+     * Gets the value of a parameter.
+     * 
+     * @param index
+     *            The index of the parameter, starting at 0.
+     * @return The value, or <code>null</code> when no value was bound to the
+     *         parameter.
+     */
+    Object get(int index) {
+	return (index < params.length) ? params[index] : null;
+    }
+
+    Object getAggregate(int slot) {
+	return aggregates[slot];
+    }
+
+    /**
+     * Gets a value computed earlier in this execution, e.g. the result of a
+     * subquery that does not depend on the row.
+     * 
+     * @param e
+     *            The expression that computed the value.
+     * @return The value, or <code>null</code> when it has not been computed.
+     */
+    Object getResult(Expression e) {
+	return results.get(e);
+    }
+
+    void setResult(Expression e, Object value) {
+	results.put(e, value);
+    }
+
+}
@@ -0,0 +1,539 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Groups rows by hashing their <code>GROUP BY</code> values, and computes the
+ * aggregate functions of each group. Rows are added one at a time, and the
+ * groups are numbered in the order they were first seen.
+ * 
+ * Keys on a single INTEGER column, and aggregates on INTEGER or REAL columns,
+ * are read and kept as primitives so that no objects are created per row.
+ */
+class HashAggregate {
+
+    private final Frame frame;
+
+    private final Table source;
+
+    /* Expressions to group by, empty when all rows form a single group */
+    private final Expression[] groupBy;
+
+    private final Accumulator[] accumulators;
+
+    private int groups;
+
+    /* The first row of each group, or -1 when the group has no rows */
+    private int[] firstRows;
+
+    /* Hash table of group numbers plus one, zero marks an empty slot */
+    private int[] slots;
+
+    /* Column used as key when grouping on a single INTEGER column */
+    private int keyColumn;
+
+    private long[] longKeys;
+
+    private int nullGroup;
+
+    /* Keys and their hashes when grouping on anything else */
+    private Object[][] keys;
+
+    private int[] hashes;
+
+    /* Key of the current row, only copied when a new group is created */
+    private Object[] probe;
+
+    HashAggregate(Frame frame, Table source, Vector<Expression> groupBy,
+	    Vector<AggregateExpression> aggregates) {
+	this.frame = frame;
+	this.source = source;
+	this.groupBy = (groupBy != null) ? groupBy
+		.toArray(new Expression[groupBy.size()]) : new Expression[0];
+	accumulators = new Accumulator[aggregates.size()];
+	for (int i = 0; i < accumulators.length; i++) {
+	    accumulators[i] = Accumulator.create(source, aggregates.get(i));
+	}
+	firstRows = new int[16];
+	slots = new int[32];
+	keyColumn = -1;
+	nullGroup = -1;
+	if (this.groupBy.length == 0) {
+	    /* Even an empty table has one row of aggregates */
+	    newGroup(-1);
+	} else {
+	    if (this.groupBy.length == 1) {
+		keyColumn = typedColumn(source, this.groupBy[0], Table.INTEGER);
+	    }
+	    if (keyColumn != -1) {
+		longKeys = new long[firstRows.length];
+	    } else {
+		keys = new Object[firstRows.length][];
+		hashes = new int[firstRows.length];
+		probe = new Object[this.groupBy.length];
+	    }
+	}
+    }
+
+    /**
+     * Gets the column referred to by an expression, if the column has the
+     * given type.
+     * 
+     * @return The index of the column, or -1 when the expression is not such
+     *         a column.
+     */
+    static int typedColumn(Table source, Expression e, int type) {
+	if (e instanceof ColumnExpression) {
+	    int idx = ((ColumnExpression) e).getIndex(source);
+	    if (idx != -1 && (source.getFlags(idx) & Table.TYPE_MASK) == type) {
+		return idx;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Boxes an integer the way it is stored in tables, i.e. as an
+     * <code>Integer</code> when it fits.
+     */
+    static Object box(long l) {
+	if (l <= Integer.MAX_VALUE && l >= Integer.MIN_VALUE) {
+	    return (int) l;
+	} else {
+	    return l;
+	}
+    }
+
+    private int newGroup(int row) {
+	if (groups == firstRows.length) {
+	    int capacity = groups * 2;
+	    firstRows = Arrays.copyOf(firstRows, capacity);
+	    if (longKeys != null) {
+		longKeys = Arrays.copyOf(longKeys, capacity);
+	    } else if (keys != null) {
+		keys = Arrays.copyOf(keys, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+	    }
+	}
+	for (Accumulator accumulator : accumulators) {
+	    accumulator.ensureCapacity(groups + 1);
+	}
+	firstRows[groups] = row;
+	return groups++;
+    }
+
+    /**
+     * Grows the hash table when it gets more than half full.
+     */
+    private void ensureSlots() {
+	if (groups * 2 < slots.length) {
+	    return;
+	}
+	slots = new int[slots.length * 2];
+	int mask = slots.length - 1;
+	for (int group = 0; group < groups; group++) {
+	    if (group == nullGroup) {
+		continue;
+	    }
+	    int h = (longKeys != null) ? Table.hash(longKeys[group])
+		    : hashes[group];
+	    int pos = h & mask;
+	    while (slots[pos] != 0) {
+		pos = (pos + 1) & mask;
+	    }
+	    slots[pos] = group + 1;
+	}
+    }
+
+    private int findGroup(int row) {
+	if (keyColumn != -1) {
+	    if (source.isNull(row, keyColumn)) {
+		if (nullGroup == -1) {
+		    nullGroup = newGroup(row);
+		}
+		return nullGroup;
+	    }
+	    long key = source.getCellLong(row, keyColumn);
+	    int mask = slots.length - 1;
+	    int pos = Table.hash(key) & mask;
+	    while (slots[pos] != 0) {
+		int group = slots[pos] - 1;
+		if (longKeys[group] == key) {
+		    return group;
+		}
+		pos = (pos + 1) & mask;
+	    }
+	    int group = newGroup(row);
+	    longKeys[group] = key;
+	    slots[pos] = group + 1;
+	    ensureSlots();
+	    return group;
+	}
+
+	int h = 1;
+	for (int i = 0; i < groupBy.length; i++) {
+	    probe[i] = groupBy[i].evaluate(frame, source, row);
+	    h = h * 31 + Table.hash(probe[i]);
+	}
+	int mask = slots.length - 1;
+	int pos = h & mask;
+	while (slots[pos] != 0) {
+	    int group = slots[pos] - 1;
+	    if (hashes[group] == h && equals(keys[group], probe)) {
+		return group;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+	int group = newGroup(row);
+	keys[group] = probe.clone();
+	hashes[group] = h;
+	slots[pos] = group + 1;
+	ensureSlots();
+	return group;
+    }
+
+    private static boolean equals(Object[] a, Object[] b) {
+	for (int i = 0; i < a.length; i++) {
+	    if (Table.compare(a[i], b[i]) != 0) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Adds a row to its group, creating the group when needed.
+     */
+    void add(int row) {
+	int group = (groupBy.length == 0) ? 0 : findGroup(row);
+	for (Accumulator accumulator : accumulators) {
+	    accumulator.add(group, source, row, frame);
+	}
+    }
+
+    int getGroupCount() {
+	return groups;
+    }
+
+    int getFirstRow(int group) {
+	return firstRows[group];
+    }
+
+    /**
+     * Gets the values of the aggregates for a group, in the same order as
+     * given to the constructor.
+     */
+    Object[] getResults(int group) throws ProcessingException {
+	Object[] result = new Object[accumulators.length];
+	for (int i = 0; i < result.length; i++) {
+	    result[i] = accumulators[i].get(group);
+	}
+	return result;
+    }
+
+    /**
+     * The state of one aggregate function for all groups.
+     */
+    private abstract static class Accumulator {
+
+	final Expression argument;
+
+	/* Column to read directly, or -1 to evaluate the argument */
+	final int column;
+
+	final boolean real;
+
+	Accumulator(Table source, Expression argument) {
+	    this.argument = argument;
+	    int idx = typedColumn(source, argument, Table.INTEGER);
+	    if (idx == -1) {
+		idx = typedColumn(source, argument, Table.REAL);
+		real = (idx != -1);
+	    } else {
+		real = false;
+	    }
+	    column = idx;
+	}
+
+	static Accumulator create(Table source, AggregateExpression e) {
+	    switch (e.getFunction()) {
+	    case AggregateExpression.COUNT:
+		return new Count(source, e.getArgument());
+	    case AggregateExpression.MIN:
+	    case AggregateExpression.MAX:
+		return new MinMax(source, e.getArgument(),
+			e.getFunction() == AggregateExpression.MIN);
+	    default:
+		return new Sum(source, e.getArgument(), e.getFunction());
+	    }
+	}
+
+	abstract void ensureCapacity(int groups);
+
+	abstract void add(int group, Table source, int row, Frame frame);
+
+	abstract Object get(int group) throws ProcessingException;
+
+    }
+
+    private static class Count extends Accumulator {
+
+	private long[] counts = new long[16];
+
+	Count(Table source, Expression argument) {
+	    super(source, argument);
+	}
+
+	@Override
+	void ensureCapacity(int groups) {
+	    if (groups > counts.length) {
+		counts = Arrays.copyOf(counts, counts.length * 2);
+	    }
+	}
+
+	@Override
+	void add(int group, Table source, int row, Frame frame) {
+	    if (argument == null) {
+		counts[group]++;
+	    } else if (column != -1) {
+		if (!source.isNull(row, column)) {
+		    counts[group]++;
+		}
+	    } else if (argument.evaluate(frame, source, row) != null) {
+		counts[group]++;
+	    }
+	}
+
+	@Override
+	Object get(int group) {
+	    return box(counts[group]);
+	}
+
+    }
+
+    /**
+     * Computes SUM, TOTAL and AVG. Integers and reals are summed separately
+     * so that the sum of integers stays exact. When the sum of integers no
+     * longer fits in a long, SUM fails while AVG and TOTAL go on with a real
+     * sum.
+     */
+    private static class Sum extends Accumulator {
+
+	private final int function;
+
+	private long[] longs = new long[16];
+
+	private double[] doubles = new double[16];
+
+	private long[] counts = new long[16];
+
+	/* Set for groups where a real value has been seen */
+	private boolean[] reals = new boolean[16];
+
+	/* Set for groups where the sum of integers has overflowed */
+	private boolean[] overflows = new boolean[16];
+
+	Sum(Table source, Expression argument, int function) {
+	    super(source, argument);
+	    this.function = function;
+	}
+
+	@Override
+	void ensureCapacity(int groups) {
+	    if (groups > counts.length) {
+		int capacity = counts.length * 2;
+		longs = Arrays.copyOf(longs, capacity);
+		doubles = Arrays.copyOf(doubles, capacity);
+		counts = Arrays.copyOf(counts, capacity);
+		reals = Arrays.copyOf(reals, capacity);
+		overflows = Arrays.copyOf(overflows, capacity);
+	    }
+	}
+
+	@Override
+	void add(int group, Table source, int row, Frame frame) {
+	    if (column != -1) {
+		if (source.isNull(row, column)) {
+		    return;
+		} else if (real) {
+		    doubles[group] += source.getCellDouble(row, column);
+		    reals[group] = true;
+		} else {
+		    addLong(group, source.getCellLong(row, column));
+		}
+	    } else {
+		Object value = argument.evaluate(frame, source, row);
+		if (value == null) {
+		    return;
+		} else if (value instanceof String) {
+		    /* Text is summed as the number it holds, or as zero */
+		    try {
+			value = Long.valueOf((String) value);
+		    } catch (NumberFormatException e) {
+			try {
+			    value = Double.valueOf((String) value);
+			} catch (NumberFormatException e2) {
+			    value = 0;
+			}
+		    }
+		}
+		if (value instanceof Double) {
+		    doubles[group] += ((Number) value).doubleValue();
+		    reals[group] = true;
+		} else if (value instanceof Number) {
+		    addLong(group, ((Number) value).longValue());
+		}
+	    }
+	    counts[group]++;
+	}
+
+	/**
+	 * Adds an integer to the sum of a group. On overflow, the sum so far
+	 * moves to the real sum, and integers are summed from zero again.
+	 */
+	private void addLong(int group, long value) {
+	    long sum = longs[group] + value;
+
+	    /* The sign is wrong when both operands have the other sign */
+	    if (((longs[group] ^ sum) & (value ^ sum)) < 0) {
+		doubles[group] += (double) longs[group] + value;
+		longs[group] = 0;
+		overflows[group] = true;
+	    } else {
+		longs[group] = sum;
+	    }
+	}
+
+	@Override
+	Object get(int group) throws ProcessingException {
+	    if (counts[group] == 0) {
+		return (function == AggregateExpression.TOTAL) ? 0d : null;
+	    }
+	    double sum = longs[group] + doubles[group];
+	    switch (function) {
+	    case AggregateExpression.AVG:
+		return sum / counts[group];
+	    case AggregateExpression.TOTAL:
+		return sum;
+	    default:
+		if (reals[group]) {
+		    return sum;
+		} else if (overflows[group]) {
+		    throw new ProcessingException("integer overflow");
+		}
+		return box(longs[group]);
+	    }
+	}
+
+    }
+
+    private static class MinMax extends Accumulator {
+
+	/* -1 to keep the smallest value, 1 to keep the largest */
+	private final int sign;
+
+	private long[] longs;
+
+	private double[] doubles;
+
+	private Object[] objects;
+
+	private boolean[] seen = new boolean[16];
+
+	MinMax(Table source, Expression argument, boolean min) {
+	    super(source, argument);
+	    sign = min ? -1 : 1;
+	    if (column == -1) {
+		objects = new Object[16];
+	    } else if (real) {
+		doubles = new double[16];
+	    } else {
+		longs = new long[16];
+	    }
+	}
+
+	@Override
+	void ensureCapacity(int groups) {
+	    if (groups > seen.length) {
+		int capacity = seen.length * 2;
+		seen = Arrays.copyOf(seen, capacity);
+		if (objects != null) {
+		    objects = Arrays.copyOf(objects, capacity);
+		} else if (doubles != null) {
+		    doubles = Arrays.copyOf(doubles, capacity);
+		} else {
+		    longs = Arrays.copyOf(longs, capacity);
+		}
+	    }
+	}
+
+	@Override
+	void add(int group, Table source, int row, Frame frame) {
+	    if (column == -1) {
+		Object value = argument.evaluate(frame, source, row);
+		if (value != null
+			&& (!seen[group] || Table.compare(value,
+				objects[group]) * sign > 0)) {
+		    objects[group] = value;
+		    seen[group] = true;
+		}
+	    } else if (source.isNull(row, column)) {
+		return;
+	    } else if (real) {
+		double value = source.getCellDouble(row, column);
+		if (!seen[group]
+			|| Double.compare(value, doubles[group]) * sign > 0) {
+		    doubles[group] = value;
+		    seen[group] = true;
+		}
+	    } else {
+		long value = source.getCellLong(row, column);
+		if (!seen[group] || (sign < 0 ? value < longs[group]
+			: value > longs[group])) {
+		    longs[group] = value;
+		    seen[group] = true;
+		}
+	    }
+	}
+
+	@Override
+	Object get(int group) {
+	    if (!seen[group]) {
+		return null;
+	    } else if (objects != null) {
+		return objects[group];
+	    } else if (doubles != null) {
+		return doubles[group];
+	    } else {
+		return box(longs[group]);
+	    }
+	}
+
+    }
+
+}
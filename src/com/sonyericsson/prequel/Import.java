@@ -0,0 +1,455 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Adds the lines of a CSV or TSV file as rows of a table, see
+ * <code>IMPORT</code>. Each line holds the values of all columns, in the
+ * order of the columns. A value may be quoted with <code>"</code>, and a
+ * quote within a quoted value is written twice. Since the file is split at
+ * line breaks, a value must not hold a line break, quoted or not, and a
+ * line is invalid when it does.
+ * <p>
+ * The file is mapped into memory and split into parts, which are parsed by
+ * one thread per processor. Integers, and reals with few digits, are parsed
+ * straight from the bytes of the file. The parts are then added to the table
+ * in the order of the file, all within the statement, so nothing is added
+ * when a line is invalid or breaks a constraint.
+ * <p>
+ * An empty value is NULL in <code>INTEGER</code> and <code>REAL</code>
+ * columns, and empty text in others.
+ */
+class Import extends Statement {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* The smallest part to parse in a thread of its own */
+    private static final int MIN_PART = 1 << 20;
+
+    /* The largest part, kept well within what a buffer can map */
+    private static final int MAX_PART = 1 << 28;
+
+    /* Powers of ten that are exact as doubles, for parsing reals */
+    private static final double[] POWERS = new double[16];
+
+    static {
+	POWERS[0] = 1;
+	for (int i = 1; i < POWERS.length; i++) {
+	    POWERS[i] = POWERS[i - 1] * 10;
+	}
+    }
+
+    private static final ThreadFactory THREADS = new ThreadFactory() {
+
+	@Override
+	public Thread newThread(Runnable r) {
+	    Thread thread = new Thread(r, "Prequel import");
+	    thread.setDaemon(true);
+	    return thread;
+	}
+
+    };
+
+    private final Database database;
+
+    private final File file;
+
+    private final String table;
+
+    private final byte separator;
+
+    private final boolean header;
+
+    /**
+     * Creates an import.
+     * 
+     * @param table
+     *            The name of the table, looked up when the import is run.
+     * @param separator
+     *            The character between the values of a line.
+     * @param header
+     *            <code>true</code> to skip the first line of the file.
+     */
+    Import(Database database, File file, String table, char separator,
+	    boolean header) {
+	this.database = database;
+	this.file = file;
+	this.table = table;
+	this.separator = (byte) separator;
+	this.header = header;
+    }
+
+    /**
+     * Gets the separator to use for a file, a tab for <code>.tsv</code>
+     * files and a comma for others.
+     */
+    static char separatorOf(File file) {
+	return file.getName().toLowerCase().endsWith(".tsv") ? '\t' : ',';
+    }
+
+    @Override
+    Table execute(Frame frame) throws ProcessingException {
+	Table stored = database.getTableSafe(table);
+	int[] types = new int[stored.getColumnCount()];
+	int[] all = new int[types.length];
+	for (int i = 0; i < types.length; i++) {
+	    types[i] = stored.getFlags(i) & Table.TYPE_MASK;
+	    all[i] = i;
+	}
+	Table version = frame.transaction.write(stored);
+	ExecutorService pool = null;
+	try {
+	    RandomAccessFile input = new RandomAccessFile(file, "r");
+	    try {
+		FileChannel channel = input.getChannel();
+		long[] bounds = split(channel);
+		int threads = Runtime.getRuntime().availableProcessors();
+		threads = Math.max(1, Math.min(threads, bounds.length - 1));
+		pool = Executors.newFixedThreadPool(threads, THREADS);
+		Vector<Future<Part>> parts = new Vector<Future<Part>>();
+		for (int i = 0; i + 1 < bounds.length; i++) {
+		    parts.add(pool.submit(new Part(channel.map(
+			    FileChannel.MapMode.READ_ONLY, bounds[i],
+			    bounds[i + 1] - bounds[i]), types)));
+		}
+
+		/* Add the parts in order, as they are parsed */
+		int line = header ? 1 : 0;
+		int count = 0;
+		for (int i = 0; i < parts.size(); i++) {
+		    Part part = parts.get(i).get();
+		    parts.set(i, null);
+		    if (part.error != null) {
+			throw new ProcessingException("Line "
+				+ (line + part.lines) + " of \"" + file
+				+ "\": " + part.error);
+		    }
+		    line += part.lines;
+		    count += version.insert(all, part.rows, -1);
+		}
+		return new Table(database, "inserted_rows", Table.INTEGER,
+			count);
+	    } finally {
+		input.close();
+	    }
+	} catch (IOException e) {
+	    throw new ProcessingException("Cannot read \"" + file + "\": "
+		    + e.getMessage());
+	} catch (InterruptedException e) {
+	    throw new ProcessingException("Import of \"" + file
+		    + "\" interrupted");
+	} catch (ExecutionException e) {
+	    throw new IllegalStateException(e.getCause());
+	} finally {
+	    if (pool != null) {
+		pool.shutdownNow();
+	    }
+	}
+    }
+
+    @Override
+    void collect(Vector<Table> writes) {
+	/* A missing table is reported by execute */
+	Table stored = database.getTables().get(table);
+	if (stored != null) {
+	    writes.add(stored);
+	}
+    }
+
+    /**
+     * Splits a file into parts at line breaks, skipping the header.
+     * 
+     * @return The offsets where the parts start, followed by the size of
+     *         the file.
+     */
+    private long[] split(FileChannel channel) throws IOException {
+	long size = channel.size();
+	long part = Math.max(MIN_PART, size
+		/ (4 * Runtime.getRuntime().availableProcessors()));
+	part = Math.min(part, MAX_PART);
+	Vector<Long> bounds = new Vector<Long>();
+	long start = header ? lineAfter(channel, 0) : 0;
+	while (start < size) {
+	    bounds.add(start);
+	    start = lineAfter(channel, start + part - 1);
+	}
+	bounds.add(size);
+	long[] result = new long[bounds.size()];
+	for (int i = 0; i < result.length; i++) {
+	    result[i] = bounds.get(i);
+	}
+	return result;
+    }
+
+    /**
+     * Finds the start of the line after the one holding an offset.
+     * 
+     * @return The offset of the line, or the size of the file when there is
+     *         no line after.
+     */
+    private static long lineAfter(FileChannel channel, long offset)
+	    throws IOException {
+	ByteBuffer buffer = ByteBuffer.allocate(4096);
+	long size = channel.size();
+	while (offset < size) {
+	    buffer.clear();
+	    int read = channel.read(buffer, offset);
+	    for (int i = 0; i < read; i++) {
+		if (buffer.get(i) == '\n') {
+		    return offset + i + 1;
+		}
+	    }
+	    offset += read;
+	}
+	return size;
+    }
+
+    /**
+     * Parses a part of the file into rows.
+     */
+    private class Part implements Callable<Part> {
+
+	private final MappedByteBuffer data;
+
+	private final int[] types;
+
+	/* The bytes of the current value */
+	private byte[] value = new byte[64];
+
+	final Vector<Object[]> rows = new Vector<Object[]>();
+
+	/* Lines parsed, up to and including an invalid line */
+	int lines;
+
+	/* Why the last line is invalid, null when all lines are valid */
+	String error;
+
+	Part(MappedByteBuffer data, int[] types) {
+	    this.data = data;
+	    this.types = types;
+	}
+
+	@Override
+	public Part call() {
+	    int end = data.limit();
+	    int pos = 0;
+	    while (pos < end && error == null) {
+		lines++;
+		pos = parseLine(pos, end);
+	    }
+	    return this;
+	}
+
+	/**
+	 * Parses the line at a position, adding it to the rows unless it is
+	 * empty, or setting the error.
+	 * 
+	 * @return The position of the next line.
+	 */
+	private int parseLine(int pos, int end) {
+	    Object[] row = new Object[types.length];
+	    int column = 0;
+	    while (true) {
+		int length = 0;
+		boolean quoted = pos < end && data.get(pos) == '"';
+		if (quoted) {
+		    pos++;
+		    while (true) {
+			if (pos == end) {
+			    error = "Unterminated quote";
+			    return pos;
+			}
+			byte b = data.get(pos++);
+			if (b == '\n') {
+			    /* The file may have been split here */
+			    error = "Line break in quoted value";
+			    return pos;
+			}
+			if (b == '"') {
+			    if (pos == end || data.get(pos) != '"') {
+				break;
+			    }
+			    pos++;
+			}
+			append(length++, b);
+		    }
+		} else {
+		    int start = pos;
+		    while (pos < end && data.get(pos) != separator
+			    && data.get(pos) != '\n') {
+			pos++;
+		    }
+		    length = pos - start;
+		    if (length > 0 && data.get(pos - 1) == '\r'
+			    && (pos == end || data.get(pos) == '\n')) {
+			length--;
+		    }
+		    if (length > value.length) {
+			value = new byte[Math.max(length, 2 * value.length)];
+		    }
+		    data.position(start);
+		    data.get(value, 0, length);
+		}
+		if (pos < end && data.get(pos) == '\r') {
+		    pos++;
+		}
+		boolean last = pos == end || data.get(pos) != separator;
+		if (last && pos < end && data.get(pos) != '\n') {
+		    error = "Separator expected after quoted value";
+		    return pos;
+		}
+		pos++;
+		if (last && column == 0 && length == 0 && !quoted) {
+		    /* An empty line */
+		    return pos;
+		}
+		if (column == types.length) {
+		    error = "More values than the " + types.length
+			    + " columns of \"" + table + "\"";
+		    return pos;
+		}
+		row[column] = convert(length, quoted, types[column]);
+		if (error != null) {
+		    return pos;
+		}
+		column++;
+		if (last) {
+		    break;
+		}
+	    }
+	    if (column < types.length) {
+		error = "Fewer values than the " + types.length
+			+ " columns of \"" + table + "\"";
+	    } else {
+		rows.add(row);
+	    }
+	    return pos;
+	}
+
+	private void append(int index, byte b) {
+	    if (index == value.length) {
+		value = Arrays.copyOf(value, 2 * value.length);
+	    }
+	    value[index] = b;
+	}
+
+	/**
+	 * Converts the current value to the type of its column. Numbers that
+	 * are not plain are parsed from text, and a real given for an integer
+	 * is truncated, as when it is inserted, see
+	 * {@link Table#convert(Object, int)}. Values of other columns are
+	 * given as text.
+	 */
+	private Object convert(int length, boolean quoted, int type) {
+	    if (type == Table.INTEGER || type == Table.REAL) {
+		if (length == 0 && !quoted) {
+		    return null;
+		}
+		Object number = parseNumber(length, type == Table.REAL);
+		if (number != null) {
+		    return number;
+		}
+		String text = new String(value, 0, length, UTF8);
+		try {
+		    if (type == Table.INTEGER) {
+			try {
+			    return Long.valueOf(text);
+			} catch (NumberFormatException e) {
+			    return (long) Double.parseDouble(text);
+			}
+		    }
+		    return Double.valueOf(text);
+		} catch (NumberFormatException e) {
+		    error = "\"" + text + "\" is not a number";
+		    return null;
+		}
+	    }
+	    return new String(value, 0, length, UTF8);
+	}
+
+	/**
+	 * Parses the current value as an integer with at most 18 digits or,
+	 * when allowed, as a real with at most 15 digits and no exponent.
+	 * Such a real is exactly the digits divided by a power of ten, both
+	 * of which are exact as doubles, so the division rounds it correctly.
+	 * 
+	 * @return The number, or <code>null</code> when the value is not such
+	 *         a number.
+	 */
+	private Object parseNumber(int length, boolean real) {
+	    int i = 0;
+	    boolean negative = length > 0 && value[0] == '-';
+	    if (length > 0 && (value[0] == '-' || value[0] == '+')) {
+		i++;
+	    }
+	    long digits = 0;
+	    int count = 0;
+	    int decimals = -1;
+	    for (; i < length; i++) {
+		byte b = value[i];
+		if (b >= '0' && b <= '9') {
+		    digits = digits * 10 + (b - '0');
+		    count++;
+		    if (decimals >= 0) {
+			decimals++;
+		    }
+		} else if (b == '.' && real && decimals < 0) {
+		    decimals = 0;
+		} else {
+		    return null;
+		}
+	    }
+	    if (count == 0 || count > (real ? 15 : 18)) {
+		return null;
+	    }
+	    digits = negative ? -digits : digits;
+	    if (real) {
+		return digits / POWERS[Math.max(decimals, 0)];
+	    }
+	    if (digits <= Integer.MAX_VALUE && digits >= Integer.MIN_VALUE) {
+		return Integer.valueOf((int) digits);
+	    }
+	    return Long.valueOf(digits);
+	}
+
+    }
+
+}
@@ -1,55 +1,255 @@
-/* Prequel  A set of simple database APIs in Java SE, similar to SQLite
- * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- *
- * Authors: 
- *   Pr Spjuth (par.spjuth@sonyericsson.com)
- */
-package com.sonyericsson.prequel;
-
-class InExpression extends Expression {
-
-    private Expression exp;
-
-    private String select;
-
-    private boolean not;
-
-    public InExpression(Expression exp, String select, boolean not) {
-	this.exp = exp;
-	this.select = select;
-	this.not = not;
-    }
-
-    public String evaluate(Table source, int row) {
-	throw new IllegalStateException("Not implemented");
-    }
-
-    @Override
-    public String toString() {
-	return exp + ((not) ? " NOT" : " ") + "IN " + select;
-    }
-
-    @Override
-    public int type(Table source) {
-	throw new IllegalStateException("Not implemented");
-    }
-
-}
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Vector;
+
+/**
+ * The <code>IN</code> and <code>NOT IN</code> operators, with either a list of
+ * values or a subquery to the right. A subquery does not depend on the row,
+ * so it is run once per execution and its values are put in a
+ * {@link ValueSet}, which every row is then looked up in. This makes the
+ * operator a hash semi-join, or anti-join for <code>NOT IN</code>, of the
+ * scanned table with the result of the subquery. A list of constants is put
+ * in a set the same way.
+ */
+class InExpression extends Expression {
+
+    private final Expression exp;
+
+    /* The subquery, or null when a list is given */
+    private final Select select;
+
+    private final Vector<Expression> list;
+
+    private final boolean not;
+
+    /*
+     * true when rewritten from EXISTS, see Select#semiJoin, where NULL is
+     * simply not found rather than making NOT IN false
+     */
+    private final boolean exists;
+
+    /* The set of a list of literals, made once */
+    private final ValueSet literals;
+
+    public InExpression(Expression exp, Vector<Expression> list, boolean not) {
+	this.exp = exp;
+	this.select = null;
+	this.list = list;
+	this.not = not;
+	exists = false;
+	boolean literal = true;
+	for (Expression e : list) {
+	    literal &= e instanceof LiteralExpression;
+	}
+	literals = literal ? collect(null) : null;
+    }
+
+    public InExpression(Expression exp, Select select, boolean not,
+	    boolean exists) {
+	this.exp = exp;
+	this.select = select;
+	this.list = null;
+	this.not = not;
+	this.exists = exists;
+	literals = null;
+    }
+
+    Expression getOperand() {
+	return exp;
+    }
+
+    /**
+     * Gets the subquery, or <code>null</code> when a list is given.
+     */
+    Select getSubquery() {
+	return select;
+    }
+
+    /**
+     * Checks if the values to the right are the same for all rows, so that
+     * {@link #getValues(Frame)} can be used.
+     */
+    boolean hasConstantValues() {
+	if (list != null) {
+	    for (Expression e : list) {
+		if (!e.isConstant()) {
+		    return false;
+		}
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Gets the set of values to the right, which is computed once per
+     * execution. The values must be constant, see
+     * {@link #hasConstantValues()}.
+     */
+    ValueSet getValues(Frame frame) {
+	if (literals != null) {
+	    return literals;
+	} else if (frame == null) {
+	    if (select != null) {
+		throw new IllegalArgumentException(
+			"Subqueries can not be used here");
+	    }
+	    return collect(null);
+	}
+	ValueSet values = (ValueSet) frame.getResult(this);
+	if (values == null) {
+	    values = collect(frame);
+	    frame.setResult(this, values);
+	}
+	return values;
+    }
+
+    private ValueSet collect(Frame frame) {
+	ValueSet values = new ValueSet();
+	if (list != null) {
+	    for (Expression e : list) {
+		values.add(e.evaluate(frame, null, -1));
+	    }
+	    return values;
+	}
+	Plan node = Plan.enter(frame);
+	if (node != null) {
+	    node.detail = "HASH " + (not ? "ANTI" : "SEMI") + " JOIN ON "
+		    + exp;
+	}
+	Table result;
+	try {
+	    result = select.execute(frame);
+	} catch (ProcessingException e) {
+	    throw new IllegalArgumentException(e.getMessage());
+	}
+	if (result.getColumnCount() != 1) {
+	    throw new IllegalArgumentException("Subquery of IN returns "
+		    + result.getColumnCount() + " columns, expected 1");
+	}
+	values.addAll(result, 0, !exists);
+	Plan.exit(frame, node, result.getRowCount(), result.getRowCount());
+	return values;
+    }
+
+    /**
+     * Gets the result for a value that is not NULL.
+     * 
+     * @param found
+     *            <code>true</code> when the value is among the values.
+     */
+    boolean matches(ValueSet values, boolean found) {
+	return matches(false, found, values.hasNull(), values.isEmpty());
+    }
+
+    /**
+     * Gets the result for the NULL value, which is not equal to anything.
+     */
+    boolean matchesNull(ValueSet values) {
+	return matches(true, false, values.hasNull(), values.isEmpty());
+    }
+
+    /**
+     * Gets the result of the operator. As in SQL, <code>NOT IN</code> is not
+     * true for values that may equal a NULL among the values, unless the
+     * operator stands for <code>NOT EXISTS</code>.
+     */
+    private boolean matches(boolean isNull, boolean found, boolean hasNull,
+	    boolean empty) {
+	if (isNull) {
+	    return not && (exists || empty);
+	} else if (found) {
+	    return !not;
+	}
+	return not && (exists || !hasNull);
+    }
+
+    public Object evaluate(Frame frame, Table source, int row) {
+	Object value = exp.evaluate(frame, source, row);
+	if (hasConstantValues()) {
+	    ValueSet values = getValues(frame);
+	    boolean found = values.contains(value);
+	    return matches(value == null, found, values.hasNull(), values
+		    .isEmpty()) ? 1 : 0;
+	}
+
+	/* The values depend on the row, so compare with each of them */
+	boolean found = false;
+	boolean hasNull = false;
+	for (Expression e : list) {
+	    Object v = e.evaluate(frame, source, row);
+	    if (v == null) {
+		hasNull = true;
+	    } else if (value != null && Table.compare(value, v) == 0) {
+		found = true;
+		break;
+	    }
+	}
+	return matches(value == null, found, hasNull, list.isEmpty()) ? 1 : 0;
+    }
+
+    @Override
+    boolean isConstant() {
+	return exp.isConstant() && hasConstantValues();
+    }
+
+    @Override
+    void columns(Vector<ColumnExpression> result) {
+	exp.columns(result);
+	if (list != null) {
+	    for (Expression e : list) {
+		e.columns(result);
+	    }
+	} else {
+	    select.outerColumns(result);
+	}
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder b = new StringBuilder();
+	b.append(exp);
+	b.append(not ? " NOT IN (" : " IN (");
+	if (list == null) {
+	    b.append("SELECT ...");
+	} else {
+	    String prefix = "";
+	    for (Expression e : list) {
+		b.append(prefix);
+		b.append(e);
+		prefix = ", ";
+	    }
+	}
+	b.append(")");
+	return b.toString();
+    }
+
+    @Override
+    public int type(Table source) {
+	return Table.INTEGER;
+    }
+
+}
@@ -0,0 +1,1072 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Vector;
+
+/**
+ * An ordered index over one or more columns of a table, implemented as a
+ * B+tree. Every entry is a key, i.e. the values of the indexed columns, and
+ * the row holding that key. Entries are ordered on key first and row second,
+ * which makes every entry unique even when keys are not.
+ * <p>
+ * The index of an <code>INTEGER PRIMARY KEY</code> keeps most keys in an
+ * array instead, see {@link KeySlots}, and only the others in the tree.
+ * <p>
+ * An index can be forked into a new version, see {@link #fork()}. The new
+ * version shares its nodes with the old one, and copies each node the first
+ * time it is changed, along with the path from the root down to it.
+ */
+class Index {
+
+    /* Prefix of the names of indexes created for UNIQUE and PRIMARY KEY */
+    static final String AUTO_INDEX = "sqlite_autoindex_";
+
+    /* Maximum number of entries in a node */
+    private static final int ORDER = 64;
+
+    /* Minimum number of entries in any node except the root */
+    private static final int MIN = ORDER / 2;
+
+    /* Cost of fetching a row through an index, relative to scanning it */
+    private static final double ROW_COST = 4;
+
+    final String name;
+
+    final int[] columns;
+
+    final boolean unique;
+
+    /* Resolution of conflicts in a unique index, see Table.ROLLBACK */
+    final int conflict;
+
+    private Node root;
+
+    /* Rows of small keys of an INTEGER PRIMARY KEY, null for other indexes */
+    private KeySlots slots;
+
+    /* Nodes created by this version of the index, others are shared */
+    private Object owner = new Object();
+
+    private static class Node {
+
+	int size;
+
+	final Object[][] keys;
+
+	final int[] rows;
+
+	/* Children of inner nodes, null for leaves */
+	final Node[] children;
+
+	/* The version of the index that may change the node */
+	final Object owner;
+
+	Node(boolean leaf, Object owner) {
+	    keys = new Object[ORDER + 1][];
+	    rows = new int[ORDER + 1];
+	    children = leaf ? null : new Node[ORDER + 2];
+	    this.owner = owner;
+	}
+
+	Node(Node node, Object owner) {
+	    size = node.size;
+	    keys = node.keys.clone();
+	    rows = node.rows.clone();
+	    children = node.isLeaf() ? null : node.children.clone();
+	    this.owner = owner;
+	}
+
+	boolean isLeaf() {
+	    return children == null;
+	}
+
+    }
+
+    /**
+     * Result of splitting a node; the new right node and the entry that
+     * separates it from the left one.
+     */
+    private static class Split {
+
+	final Object[] key;
+
+	final int row;
+
+	final Node right;
+
+	Split(Object[] key, int row, Node right) {
+	    this.key = key;
+	    this.row = row;
+	    this.right = right;
+	}
+
+    }
+
+    /**
+     * A range of entries in an index, chosen to match (parts of) a WHERE
+     * clause.
+     */
+    static class Range {
+
+	final Index index;
+
+	Object[] low;
+
+	boolean lowInclusive = true;
+
+	Object[] high;
+
+	boolean highInclusive = true;
+
+	/* Number of key columns given a single value by the range */
+	int equal;
+
+	Range(Index index) {
+	    this.index = index;
+	}
+
+	/**
+	 * Gets the rows of the entries within this range, in index order.
+	 */
+	Vector<Integer> getRows() {
+	    Vector<Integer> result = new Vector<Integer>();
+	    index.scan(low, lowInclusive, high, highInclusive, result);
+	    return result;
+	}
+
+	/**
+	 * Describes the range in the style of SQLite, e.g.
+	 * <code>USING INDEX i (a=? AND b&gt;?)</code>.
+	 */
+	String describe(Table table) {
+	    StringBuilder b = new StringBuilder(
+		    (index.slots != null) ? "USING INTEGER PRIMARY KEY"
+			    : "USING INDEX " + index.name);
+	    b.append(" (");
+	    for (int i = 0; i < equal; i++) {
+		b.append(table.getColumnName(index.columns[i]));
+		b.append("=? AND ");
+	    }
+	    String column = (equal < index.columns.length) ? table
+		    .getColumnName(index.columns[equal]) : null;
+	    if (low != null && low.length > equal) {
+		b.append(column);
+		b.append(lowInclusive ? ">=? AND " : ">? AND ");
+	    }
+	    if (high != null && high.length > equal) {
+		b.append(column);
+		b.append(highInclusive ? "<=? AND " : "<? AND ");
+	    }
+	    b.setLength(b.length() - " AND ".length());
+	    b.append(')');
+	    return b.toString();
+	}
+
+    }
+
+    /**
+     * A comparison between a column and a constant value.
+     */
+    private static class Term {
+
+	final int column;
+
+	final int operator;
+
+	final Object value;
+
+	Term(int column, int operator, Object value) {
+	    this.column = column;
+	    this.operator = operator;
+	    this.value = value;
+	}
+
+    }
+
+    Index(String name, int[] columns, boolean unique) {
+	this(name, columns, unique, Table.ABORT);
+    }
+
+    /**
+     * Creates an empty index.
+     * 
+     * @param conflict
+     *            What to do when a row would get the same key as another row
+     *            in a unique index, see {@link Table#ROLLBACK}.
+     */
+    Index(String name, int[] columns, boolean unique, int conflict) {
+	this.name = name;
+	this.columns = columns;
+	this.unique = unique;
+	this.conflict = conflict;
+	root = new Node(true, owner);
+    }
+
+    /**
+     * Creates the index of an <code>INTEGER PRIMARY KEY</code>, which finds
+     * the row of a key without searching, see {@link KeySlots}.
+     */
+    static Index rowid(String name, int column, int conflict) {
+	Index index = new Index(name, new int[] { column }, true, conflict);
+	index.slots = new KeySlots();
+	return index;
+    }
+
+    /**
+     * Indicates whether this is the index of an
+     * <code>INTEGER PRIMARY KEY</code>, see {@link #rowid(String, int, int)}.
+     */
+    boolean isRowid() {
+	return slots != null;
+    }
+
+    /**
+     * Creates a new version of the index, holding the same entries. This
+     * version must not be changed any more.
+     */
+    Index fork() {
+	Index copy = new Index(name, columns, unique, conflict);
+	copy.root = root;
+	copy.slots = (slots != null) ? slots.fork() : null;
+	return copy;
+    }
+
+    /**
+     * Gets the slot of a key, see {@link KeySlots}.
+     * 
+     * @return The slot, or -1 when the key is kept in the tree.
+     */
+    private long slotOf(Object[] key) {
+	if (slots == null) {
+	    return -1;
+	}
+	long slot = KeySlots.slot(key[0]);
+	return (slot < slots.limit()) ? slot : -1;
+    }
+
+    /**
+     * Gets a node that may be changed by this version of the index, copying
+     * the given node if it is shared.
+     */
+    private Node own(Node node) {
+	return (node.owner == owner) ? node : new Node(node, owner);
+    }
+
+    /**
+     * Gets a child that may be changed by this version of the index. The
+     * parent must already be owned.
+     */
+    private Node ownChild(Node parent, int pos) {
+	Node child = own(parent.children[pos]);
+	parent.children[pos] = child;
+	return child;
+    }
+
+    /**
+     * Compares two keys, or a key to the beginning of another key. Only as
+     * many values as there are in the shorter key are compared.
+     */
+    static int compareKeys(Object[] a, Object[] b) {
+	int length = Math.min(a.length, b.length);
+	for (int i = 0; i < length; i++) {
+	    int result = Table.compare(a[i], b[i]);
+	    if (result != 0) {
+		return result;
+	    }
+	}
+	return 0;
+    }
+
+    private static int compare(Object[] aKey, int aRow, Object[] bKey,
+	    int bRow) {
+	int result = compareKeys(aKey, bKey);
+	if (result != 0) {
+	    return result;
+	} else {
+	    return (aRow < bRow) ? -1 : ((aRow == bRow) ? 0 : 1);
+	}
+    }
+
+    /**
+     * Gets the position of the first entry in the node that is not less than
+     * the given entry.
+     */
+    private static int search(Node node, Object[] key, int row) {
+	int low = 0;
+	int high = node.size;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (compare(node.keys[mid], node.rows[mid], key, row) < 0) {
+		low = mid + 1;
+	    } else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+
+    /**
+     * Gets the position of the child of an inner node that may hold the
+     * given entry.
+     */
+    private static int child(Node node, Object[] key, int row) {
+	int pos = search(node, key, row);
+	if (pos < node.size
+		&& compare(node.keys[pos], node.rows[pos], key, row) == 0) {
+	    pos++;
+	}
+	return pos;
+    }
+
+    /**
+     * Gets the key of the given row in a table.
+     */
+    Object[] keyOf(Table table, int row) {
+	Object[] key = new Object[columns.length];
+	for (int i = 0; i < columns.length; i++) {
+	    key[i] = table.getCell(row, columns[i]);
+	}
+	return key;
+    }
+
+    /**
+     * Finds a row holding the given key.
+     * 
+     * @param except
+     *            A row to skip, or -1.
+     * @return The row, or -1 when no other row holds the key.
+     */
+    int find(Object[] key, int except) {
+	long slot = slotOf(key);
+	if (slot != -1) {
+	    int row = slots.get(slot);
+	    return (row != except) ? row : -1;
+	}
+	return find(root, key, except);
+    }
+
+    private static int find(Node node, Object[] key, int except) {
+	/* Rows are never negative, so this is before all entries of the key */
+	int pos = search(node, key, -1);
+	if (node.isLeaf()) {
+	    for (; pos < node.size && compareKeys(node.keys[pos], key) == 0;
+		    pos++) {
+		if (node.rows[pos] != except) {
+		    return node.rows[pos];
+		}
+	    }
+	    return -1;
+	}
+
+	/* The entries of a key may go on in the following children */
+	for (; pos <= node.size; pos++) {
+	    int row = find(node.children[pos], key, except);
+	    if (row != -1) {
+		return row;
+	    }
+	    if (pos < node.size && compareKeys(node.keys[pos], key) != 0) {
+		break;
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Finds a key that is held by more than one row. Keys with NULL values are
+     * never duplicates, since NULL is not equal to anything. Only used for
+     * indexes created on tables that already have rows, which never keep
+     * keys in slots.
+     * 
+     * @return The key, or <code>null</code> when all keys are unique.
+     */
+    Object[] findDuplicate() {
+	return findDuplicate(root, new Object[1][]);
+    }
+
+    /**
+     * Finds a duplicate key in a subtree, see {@link #findDuplicate()}.
+     * 
+     * @param previous
+     *            Holds the last key visited, which is updated.
+     */
+    private static Object[] findDuplicate(Node node, Object[][] previous) {
+	if (!node.isLeaf()) {
+	    for (int pos = 0; pos <= node.size; pos++) {
+		Object[] key = findDuplicate(node.children[pos], previous);
+		if (key != null) {
+		    return key;
+		}
+	    }
+	    return null;
+	}
+	for (int pos = 0; pos < node.size; pos++) {
+	    Object[] key = node.keys[pos];
+	    if (previous[0] != null && !hasNull(key)
+		    && compareKeys(previous[0], key) == 0) {
+		return key;
+	    }
+	    previous[0] = key;
+	}
+	return null;
+    }
+
+    /**
+     * Checks if a key has a NULL value, which makes it different from all
+     * other keys as far as uniqueness is concerned.
+     */
+    static boolean hasNull(Object[] key) {
+	for (Object value : key) {
+	    if (value == null) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Indicates whether the given column is part of the key.
+     */
+    boolean covers(int column) {
+	for (int c : columns) {
+	    if (c == column) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Replaces the contents of the index with all rows of the given table,
+     * except the deleted ones. The entries are sorted and the tree is built
+     * bottom-up, which is a lot faster than inserting the rows one by one.
+     */
+    void build(final Table table, int rowCount) {
+	final Object[][] keys = new Object[rowCount][];
+	Integer[] order = new Integer[rowCount];
+	int live = 0;
+	for (int i = 0; i < rowCount; i++) {
+	    if (!table.isDeleted(i)) {
+		keys[i] = keyOf(table, i);
+		order[live++] = i;
+	    }
+	}
+	if (live < rowCount) {
+	    order = Arrays.copyOf(order, live);
+	    rowCount = live;
+	}
+	Arrays.sort(order, new Comparator<Integer>() {
+
+	    @Override
+	    public int compare(Integer a, Integer b) {
+		return Index.compare(keys[a], a, keys[b], b);
+	    }
+
+	});
+	fill(keys, order, rowCount);
+    }
+
+    /**
+     * Replaces the contents of the index with the given rows of a table,
+     * which are already in the order of the index, as written to a snapshot
+     * by {@link #scan(Object[], boolean, Object[], boolean, Vector)}.
+     */
+    void build(Table table, int[] sorted) {
+	Object[][] keys = new Object[table.getRowCount()][];
+	Integer[] order = new Integer[sorted.length];
+	for (int i = 0; i < sorted.length; i++) {
+	    order[i] = sorted[i];
+	    keys[sorted[i]] = keyOf(table, sorted[i]);
+	}
+	fill(keys, order, order.length);
+    }
+
+    /**
+     * Builds the index bottom-up from the first rows of the given order.
+     */
+    private void fill(Object[][] keys, Integer[] order, int rowCount) {
+	if (slots != null) {
+	    rowCount = fillSlots(keys, order);
+	}
+
+	/* Fill the leaves evenly, so that none of them underflows */
+	Vector<Node> level = new Vector<Node>();
+	int count = Math.max(1, (rowCount + ORDER - 1) / ORDER);
+	int pos = 0;
+	for (int i = 0; i < count; i++) {
+	    Node leaf = new Node(true, owner);
+	    int end = (int) ((long) rowCount * (i + 1) / count);
+	    while (pos < end) {
+		leaf.keys[leaf.size] = keys[order[pos]];
+		leaf.rows[leaf.size] = order[pos];
+		leaf.size++;
+		pos++;
+	    }
+	    level.add(leaf);
+	}
+
+	/* Add inner levels until there is a single root */
+	while (level.size() > 1) {
+	    Vector<Node> parents = new Vector<Node>();
+	    count = (level.size() + ORDER) / (ORDER + 1);
+	    pos = 0;
+	    for (int i = 0; i < count; i++) {
+		Node inner = new Node(false, owner);
+		int end = (int) ((long) level.size() * (i + 1) / count);
+		inner.children[0] = level.get(pos++);
+		while (pos < end) {
+		    Node first = level.get(pos);
+		    while (!first.isLeaf()) {
+			first = first.children[0];
+		    }
+		    inner.keys[inner.size] = first.keys[0];
+		    inner.rows[inner.size] = first.rows[0];
+		    inner.size++;
+		    inner.children[inner.size] = level.get(pos++);
+		}
+		parents.add(inner);
+	    }
+	    level = parents;
+	}
+	root = level.firstElement();
+    }
+
+    /**
+     * Puts the keys that fit in new slots, and moves the others first in the
+     * given order, for the tree. Keys below zero come first and go to the
+     * tree. The following keys go to the slots, until one of them is too far
+     * from the others. The rest go to the tree after that, since the tree
+     * may only hold keys beyond the slots.
+     * 
+     * @param order
+     *            The rows in key order.
+     * @return The number of rows left for the tree.
+     */
+    private int fillSlots(Object[][] keys, Integer[] order) {
+	slots = new KeySlots();
+	int count = 0;
+	boolean full = false;
+	for (Integer row : order) {
+	    long slot = KeySlots.slot(keys[row][0]);
+	    if (!full && slot != -1 && slots.accepts(slot)) {
+		slots.put(slot, row);
+	    } else {
+		full |= slot != -1;
+		order[count++] = row;
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * Adds an entry to the index.
+     */
+    void insert(Object[] key, int row) {
+	long slot = (slots != null) ? KeySlots.slot(key[0]) : -1;
+	if (slot != -1 && slots.accepts(slot)) {
+	    long limit = slots.limit();
+	    slots.put(slot, row);
+	    if (slots.limit() > limit) {
+		/* The tree may only hold keys beyond the slots */
+		Vector<Integer> rows = new Vector<Integer>();
+		Vector<Object[]> keys = new Vector<Object[]>();
+		scan(root, new Object[] { limit }, 0,
+			new Object[] { slots.limit() - 1 }, 0, rows, keys);
+		for (int i = 0; i < rows.size(); i++) {
+		    removeEntry(keys.get(i), rows.get(i));
+		    slots.put(KeySlots.slot(keys.get(i)[0]), rows.get(i));
+		}
+	    }
+	    return;
+	}
+	root = own(root);
+	Split split = insert(root, key, row);
+	if (split != null) {
+	    Node node = new Node(false, owner);
+	    node.children[0] = root;
+	    node.children[1] = split.right;
+	    node.keys[0] = split.key;
+	    node.rows[0] = split.row;
+	    node.size = 1;
+	    root = node;
+	}
+    }
+
+    private Split insert(Node node, Object[] key, int row) {
+	if (node.isLeaf()) {
+	    int pos = search(node, key, row);
+	    insertAt(node, pos, key, row);
+	} else {
+	    int pos = child(node, key, row);
+	    Split split = insert(ownChild(node, pos), key, row);
+	    if (split == null) {
+		return null;
+	    }
+	    System.arraycopy(node.children, pos + 1, node.children, pos + 2,
+		    node.size - pos);
+	    node.children[pos + 1] = split.right;
+	    insertAt(node, pos, split.key, split.row);
+	}
+	if (node.size <= ORDER) {
+	    return null;
+	}
+
+	/* Split the node in half */
+	Node right = new Node(node.isLeaf(), owner);
+	int mid = node.size / 2;
+	if (node.isLeaf()) {
+	    right.size = node.size - mid;
+	    System.arraycopy(node.keys, mid, right.keys, 0, right.size);
+	    System.arraycopy(node.rows, mid, right.rows, 0, right.size);
+	    node.size = mid;
+	    clear(node, mid, ORDER + 1);
+	    return new Split(right.keys[0], right.rows[0], right);
+	} else {
+	    Split split = new Split(node.keys[mid], node.rows[mid], right);
+	    right.size = node.size - mid - 1;
+	    System.arraycopy(node.keys, mid + 1, right.keys, 0, right.size);
+	    System.arraycopy(node.rows, mid + 1, right.rows, 0, right.size);
+	    System.arraycopy(node.children, mid + 1, right.children, 0,
+		    right.size + 1);
+	    Arrays.fill(node.children, mid + 1, ORDER + 2, null);
+	    node.size = mid;
+	    clear(node, mid, ORDER + 1);
+	    return split;
+	}
+    }
+
+    private static void insertAt(Node node, int pos, Object[] key, int row) {
+	System.arraycopy(node.keys, pos, node.keys, pos + 1, node.size - pos);
+	System.arraycopy(node.rows, pos, node.rows, pos + 1, node.size - pos);
+	node.keys[pos] = key;
+	node.rows[pos] = row;
+	node.size++;
+    }
+
+    private static void removeAt(Node node, int pos) {
+	System.arraycopy(node.keys, pos + 1, node.keys, pos, node.size - pos
+		- 1);
+	System.arraycopy(node.rows, pos + 1, node.rows, pos, node.size - pos
+		- 1);
+	node.size--;
+	node.keys[node.size] = null;
+    }
+
+    private static void clear(Node node, int from, int to) {
+	Arrays.fill(node.keys, from, to, null);
+    }
+
+    /**
+     * Removes an entry from the index.
+     * 
+     * @return <code>true</code> when the entry was found.
+     */
+    boolean remove(Object[] key, int row) {
+	long slot = slotOf(key);
+	if (slot != -1) {
+	    return slots.remove(slot, row);
+	}
+	return removeEntry(key, row);
+    }
+
+    private boolean removeEntry(Object[] key, int row) {
+	root = own(root);
+	boolean found = remove(root, key, row);
+	if (!root.isLeaf() && root.size == 0) {
+	    root = root.children[0];
+	}
+	return found;
+    }
+
+    private boolean remove(Node node, Object[] key, int row) {
+	if (node.isLeaf()) {
+	    int pos = search(node, key, row);
+	    if (pos < node.size
+		    && compare(node.keys[pos], node.rows[pos], key, row) == 0) {
+		removeAt(node, pos);
+		return true;
+	    }
+	    return false;
+	}
+	int pos = child(node, key, row);
+	boolean found = remove(ownChild(node, pos), key, row);
+	if (node.children[pos].size < MIN) {
+	    rebalance(node, pos);
+	}
+	return found;
+    }
+
+    /**
+     * Restores the minimum size of a child by borrowing an entry from one of
+     * its siblings, or by merging it with one of them. The parent and the
+     * child must already be owned.
+     */
+    private void rebalance(Node parent, int pos) {
+	Node node = parent.children[pos];
+	Node left = (pos > 0) ? parent.children[pos - 1] : null;
+	Node right = (pos < parent.size) ? parent.children[pos + 1] : null;
+	if (left != null && left.size > MIN) {
+	    left = ownChild(parent, pos - 1);
+	    int last = left.size - 1;
+	    if (node.isLeaf()) {
+		insertAt(node, 0, left.keys[last], left.rows[last]);
+		parent.keys[pos - 1] = node.keys[0];
+		parent.rows[pos - 1] = node.rows[0];
+	    } else {
+		System.arraycopy(node.children, 0, node.children, 1,
+			node.size + 1);
+		node.children[0] = left.children[last + 1];
+		left.children[last + 1] = null;
+		insertAt(node, 0, parent.keys[pos - 1], parent.rows[pos - 1]);
+		parent.keys[pos - 1] = left.keys[last];
+		parent.rows[pos - 1] = left.rows[last];
+	    }
+	    removeAt(left, last);
+	} else if (right != null && right.size > MIN) {
+	    right = ownChild(parent, pos + 1);
+	    if (node.isLeaf()) {
+		insertAt(node, node.size, right.keys[0], right.rows[0]);
+		removeAt(right, 0);
+		parent.keys[pos] = right.keys[0];
+		parent.rows[pos] = right.rows[0];
+	    } else {
+		insertAt(node, node.size, parent.keys[pos], parent.rows[pos]);
+		node.children[node.size] = right.children[0];
+		parent.keys[pos] = right.keys[0];
+		parent.rows[pos] = right.rows[0];
+		System.arraycopy(right.children, 1, right.children, 0,
+			right.size);
+		right.children[right.size] = null;
+		removeAt(right, 0);
+	    }
+	} else if (left != null) {
+	    merge(parent, pos - 1);
+	} else if (right != null) {
+	    merge(parent, pos);
+	}
+    }
+
+    /**
+     * Merges the child at the given position with its right sibling.
+     */
+    private void merge(Node parent, int pos) {
+	Node left = ownChild(parent, pos);
+	Node right = parent.children[pos + 1];
+	if (!left.isLeaf()) {
+	    insertAt(left, left.size, parent.keys[pos], parent.rows[pos]);
+	    System.arraycopy(right.children, 0, left.children, left.size,
+		    right.size + 1);
+	}
+	System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+	System.arraycopy(right.rows, 0, left.rows, left.size, right.size);
+	left.size += right.size;
+	removeAt(parent, pos);
+	System.arraycopy(parent.children, pos + 2, parent.children, pos + 1,
+		parent.size - pos);
+	parent.children[parent.size + 1] = null;
+    }
+
+    /**
+     * Collects the rows of all entries with keys within the given bounds.
+     * Bounds may be shorter than the key, in which case only the beginning of
+     * the keys are compared.
+     * 
+     * @param low
+     *            The lower bound, or <code>null</code> to start with the
+     *            first entry.
+     * @param high
+     *            The upper bound, or <code>null</code> to end with the last
+     *            entry.
+     */
+    void scan(Object[] low, boolean lowInclusive, Object[] high,
+	    boolean highInclusive, Vector<Integer> result) {
+	if (slots == null) {
+	    scan(root, low, lowInclusive ? 0 : 1, high,
+		    highInclusive ? 0 : -1, result, null);
+	    return;
+	}
+
+	/* The keys in the tree are either below or beyond the slots */
+	Vector<Integer> rows = new Vector<Integer>();
+	Vector<Object[]> keys = new Vector<Object[]>();
+	scan(root, low, lowInclusive ? 0 : 1, high, highInclusive ? 0 : -1,
+		rows, keys);
+	int below = 0;
+	while (below < keys.size()
+		&& ((Number) keys.get(below)[0]).longValue() < 0) {
+	    below++;
+	}
+	result.addAll(rows.subList(0, below));
+	slots.scan(first(low, lowInclusive), last(high, highInclusive),
+		result);
+	result.addAll(rows.subList(below, rows.size()));
+    }
+
+    /**
+     * Gets the first integer within a lower bound of a scan.
+     */
+    private static long first(Object[] low, boolean inclusive) {
+	if (low == null || low.length == 0 || low[0] == null) {
+	    return Long.MIN_VALUE;
+	} else if (low[0] instanceof Integer || low[0] instanceof Long) {
+	    long value = ((Number) low[0]).longValue();
+	    return inclusive ? value : value + 1;
+	} else if (low[0] instanceof Double) {
+	    double value = (Double) low[0];
+	    return (long) (inclusive ? Math.ceil(value)
+		    : Math.floor(value) + 1);
+	}
+
+	/* Text and blobs are beyond all numbers */
+	return Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the last integer within an upper bound of a scan.
+     */
+    private static long last(Object[] high, boolean inclusive) {
+	if (high == null || high.length == 0) {
+	    return Long.MAX_VALUE;
+	} else if (high[0] == null) {
+	    /* Only NULL is not greater than NULL */
+	    return Long.MIN_VALUE;
+	} else if (high[0] instanceof Integer || high[0] instanceof Long) {
+	    long value = ((Number) high[0]).longValue();
+	    return inclusive ? value : value - 1;
+	} else if (high[0] instanceof Double) {
+	    double value = (Double) high[0];
+	    return (long) (inclusive ? Math.floor(value)
+		    : Math.ceil(value) - 1);
+	}
+	return Long.MAX_VALUE;
+    }
+
+    /**
+     * Collects the rows of the entries in a subtree, see
+     * {@link #scan(Object[], boolean, Object[], boolean, Vector)}. Nodes are
+     * visited from the root rather than by linking the leaves together, so
+     * that versions of the index can share nodes.
+     * 
+     * @param keys
+     *            The keys of the entries are added here, unless
+     *            <code>null</code>.
+     * @return <code>false</code> when an entry past the upper bound was
+     *         found, i.e. when the scan is done.
+     */
+    private static boolean scan(Node node, Object[] low, int lowLimit,
+	    Object[] high, int highLimit, Vector<Integer> result,
+	    Vector<Object[]> keys) {
+	int pos = 0;
+	if (low != null) {
+	    while (pos < node.size
+		    && compareKeys(node.keys[pos], low) < lowLimit) {
+		pos++;
+	    }
+	}
+	if (node.isLeaf()) {
+	    for (; pos < node.size; pos++) {
+		if (high != null
+			&& compareKeys(node.keys[pos], high) > highLimit) {
+		    return false;
+		}
+		result.add(node.rows[pos]);
+		if (keys != null) {
+		    keys.add(node.keys[pos]);
+		}
+	    }
+	    return true;
+	}
+
+	/* Only the first child visited can hold entries below the bound */
+	for (; pos <= node.size; pos++) {
+	    if (!scan(node.children[pos], low, lowLimit, high, highLimit,
+		    result, keys)) {
+		return false;
+	    }
+	    low = null;
+	}
+	return true;
+    }
+
+    /**
+     * Splits a WHERE clause into comparisons between columns and constants
+     * that are AND:ed together.
+     */
+    private static void collectTerms(Frame frame, Table table,
+	    Expression where,
+	    Vector<Term> terms) {
+	if (!(where instanceof BinaryExpression)) {
+	    return;
+	}
+	BinaryExpression e = (BinaryExpression) where;
+	int op = e.getOperator();
+	if (op == BinaryExpression.AND) {
+	    collectTerms(frame, table, e.getLeft(), terms);
+	    collectTerms(frame, table, e.getRight(), terms);
+	    return;
+	}
+	Expression column = e.getLeft();
+	Expression value = e.getRight();
+	if (!(column instanceof ColumnExpression)) {
+	    column = e.getRight();
+	    value = e.getLeft();
+	    op = BinaryExpression.swap(op);
+	}
+	if (column instanceof ColumnExpression && value.isConstant()) {
+	    int idx = ((ColumnExpression) column).getIndex(table);
+	    Object v = value.evaluate(frame, table, -1);
+	    if (idx != -1 && v != null) {
+		terms.add(new Term(idx, op, v));
+	    }
+	}
+    }
+
+    private static Term findTerm(Vector<Term> terms, int column, int op1,
+	    int op2) {
+	for (Term term : terms) {
+	    if (term.column == column
+		    && (term.operator == op1 || term.operator == op2)) {
+		return term;
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Estimates the fraction of the rows of a table within an index range.
+     * 
+     * @param prefix
+     *            The terms giving the values of the first columns of the key.
+     * @param lower
+     *            The lower bound of the next column, or <code>null</code>.
+     * @param upper
+     *            The upper bound of the next column, or <code>null</code>.
+     */
+    private static double estimate(Statistics statistics, Table table,
+	    Vector<Term> prefix, Term lower, Term upper) {
+	double result = 1;
+	for (Term term : prefix) {
+	    result *= statistics.equals(table.getColumnName(term.column),
+		    term.value);
+	}
+	if (lower != null || upper != null) {
+	    int column = (lower != null) ? lower.column : upper.column;
+	    result *= statistics.range(table.getColumnName(column),
+		    (lower != null) ? lower.value : null,
+		    lower == null || lower.operator != BinaryExpression.GREATER,
+		    (upper != null) ? upper.value : null,
+		    upper == null || upper.operator != BinaryExpression.LESSER);
+	}
+	return result;
+    }
+
+    /**
+     * Chooses the index range that narrows down a WHERE clause the most. An
+     * index can be used when there are equality constraints on the first
+     * columns of its key, optionally followed by a range constraint on the
+     * next column. The range always holds all rows matching the clause, but
+     * the clause must still be evaluated on them.
+     * <p>
+     * Once the table has been analyzed, the ranges are compared by the
+     * estimated number of rows in them, and no index is used when scanning
+     * the whole table is estimated to be cheaper. Otherwise the range with
+     * the most columns constrained is chosen.
+     * 
+     * @return The range, or <code>null</code> when no index should be used.
+     */
+    static Range choose(Frame frame, Table table, ArrayList<Index> indexes,
+	    Expression where) {
+	if (indexes.isEmpty() || where == null) {
+	    return null;
+	}
+	Vector<Term> terms = new Vector<Term>();
+	collectTerms(frame, table, where, terms);
+	Statistics statistics = Statistics.of(frame, table);
+	double rows = table.getRowCount();
+	Range best = null;
+	int bestScore = 0;
+
+	/* Descending the tree is counted as fetching a row per level */
+	double bestCost = rows / ROW_COST - Math.log(rows + 1)
+		/ Math.log(ORDER);
+	for (Index index : indexes) {
+	    Vector<Term> equal = new Vector<Term>();
+	    Vector<Object> prefix = new Vector<Object>();
+	    Term lower = null;
+	    Term upper = null;
+	    for (int column : index.columns) {
+		Term term = findTerm(terms, column, BinaryExpression.EQUALS,
+			BinaryExpression.EQUALS);
+		if (term == null) {
+		    lower = findTerm(terms, column, BinaryExpression.GREATER,
+			    BinaryExpression.GREATER_EQUALS);
+		    upper = findTerm(terms, column, BinaryExpression.LESSER,
+			    BinaryExpression.LESSER_EQUALS);
+		    break;
+		}
+		prefix.add(term.value);
+		equal.add(term);
+	    }
+	    int score = prefix.size() * 2
+		    + ((lower != null || upper != null) ? 1 : 0);
+	    if (score == 0) {
+		continue;
+	    } else if (statistics != null) {
+		double cost = rows
+			* estimate(statistics, table, equal, lower, upper);
+		if (cost >= bestCost) {
+		    continue;
+		}
+		bestCost = cost;
+	    } else if (score <= bestScore) {
+		continue;
+	    }
+	    Range range = new Range(index);
+	    range.equal = prefix.size();
+	    if (lower != null) {
+		prefix.add(lower.value);
+		range.low = prefix.toArray();
+		range.lowInclusive = lower.operator != BinaryExpression.GREATER;
+		prefix.remove(prefix.size() - 1);
+	    } else if (!prefix.isEmpty()) {
+		range.low = prefix.toArray();
+	    }
+	    if (upper != null) {
+		prefix.add(upper.value);
+		range.high = prefix.toArray();
+		range.highInclusive = upper.operator != BinaryExpression.LESSER;
+	    } else if (!prefix.isEmpty()) {
+		range.high = prefix.toArray();
+	    }
+	    best = range;
+	    bestScore = score;
+	}
+	return best;
+    }
+
+}
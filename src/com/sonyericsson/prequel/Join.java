@@ -0,0 +1,568 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Vector;
+
+/**
+ * Joins two tables into a new table, holding the columns of the left table
+ * followed by the columns of the right table.
+ * 
+ * Equality comparisons between a column of each table in the ON clause are
+ * used as join keys, and the physical operator is chosen from the estimated
+ * cost given the sizes of the tables and the available indexes:
+ * <ul>
+ * <li>Index nested-loop join, looking up each row of one table in an index of
+ * the other.</li>
+ * <li>Merge join, walking the indexes of both tables in key order.</li>
+ * <li>Hash join, hashing the smaller table and probing it with the other.</li>
+ * <li>Nested-loop join, when there are no join keys.</li>
+ * </ul>
+ */
+class Join {
+
+    static final int NESTED_LOOP = 0;
+
+    static final int HASH = 1;
+
+    static final int MERGE = 2;
+
+    static final int INDEX = 3;
+
+    static final String[] NAMES = { "NESTED LOOP", "HASH", "MERGE", "INDEX" };
+
+    private final Frame frame;
+
+    private final Table left;
+
+    private final Table right;
+
+    /* true for LEFT JOIN, where unmatched left rows are kept */
+    private final boolean outer;
+
+    private final Table result;
+
+    /* Join key columns, leftKeys[i] is compared to rightKeys[i] */
+    private int[] leftKeys;
+
+    private int[] rightKeys;
+
+    /* The part of the ON clause that is not join keys, or null */
+    private Expression residual;
+
+    /* One-row table used to evaluate the residual for a pair of rows */
+    private Table pair;
+
+    /* Row being built for the result */
+    private final Object[] values;
+
+    private final int[] all;
+
+    private int method;
+
+    /* Set when an index join looks up right rows in the left table */
+    private boolean swapped;
+
+    /* Names of the tables, for describing the join */
+    private final String leftName;
+
+    private final String rightName;
+
+    /**
+     * Prepares a join.
+     * 
+     * @param leftAlias
+     *            Name used to qualify the columns of the left table, or
+     *            <code>null</code> when they are already qualified.
+     * @param rightAlias
+     *            Name used to qualify the columns of the right table.
+     * @param on
+     *            The join condition, or <code>null</code> to join all rows.
+     * @param outer
+     *            <code>true</code> for a LEFT JOIN.
+     */
+    Join(Frame frame, Table left, String leftAlias, Table right,
+	    String rightAlias, Expression on, boolean outer) {
+	this.frame = frame;
+	this.left = left;
+	this.right = right;
+	this.outer = outer;
+	leftName = name(left, leftAlias);
+	rightName = name(right, rightAlias);
+	result = new Table(left.getParent());
+	addColumns(left, leftAlias);
+	addColumns(right, rightAlias);
+	values = new Object[result.getColumnCount()];
+	all = new int[values.length];
+	for (int i = 0; i < all.length; i++) {
+	    all[i] = i;
+	}
+
+	Vector<Integer> keys = new Vector<Integer>();
+	Vector<Expression> rest = new Vector<Expression>();
+	collectKeys(on, keys, rest);
+	leftKeys = new int[keys.size() / 2];
+	rightKeys = new int[leftKeys.length];
+	for (int i = 0; i < leftKeys.length; i++) {
+	    leftKeys[i] = keys.get(i * 2);
+	    rightKeys[i] = keys.get(i * 2 + 1);
+	}
+	for (Expression e : rest) {
+	    residual = (residual == null) ? e : new BinaryExpression(residual,
+		    BinaryExpression.AND, e);
+	}
+	if (residual != null) {
+	    pair = new Table(left.getParent());
+	    for (int i = 0; i < result.getColumnCount(); i++) {
+		pair.addColumn(result.getColumnName(i), result.getFlags(i),
+			null);
+	    }
+	}
+	method = choose();
+    }
+
+    private void addColumns(Table table, String alias) {
+	for (int i = 0; i < table.getColumnCount(); i++) {
+	    String name = table.getColumnName(i);
+	    if (alias != null) {
+		name = alias + "." + name;
+	    }
+	    result.addColumn(name, table.getFlags(i) & Table.TYPE_MASK, null);
+	}
+    }
+
+    /**
+     * Splits the ON clause into join keys and the remaining conditions.
+     * 
+     * @param keys
+     *            Receives the left and right column of each join key.
+     * @param rest
+     *            Receives the conditions that are not join keys.
+     */
+    private void collectKeys(Expression on, Vector<Integer> keys,
+	    Vector<Expression> rest) {
+	if (on == null) {
+	    return;
+	}
+	if (on instanceof BinaryExpression) {
+	    BinaryExpression e = (BinaryExpression) on;
+	    if (e.getOperator() == BinaryExpression.AND) {
+		collectKeys(e.getLeft(), keys, rest);
+		collectKeys(e.getRight(), keys, rest);
+		return;
+	    }
+	    if (e.getOperator() == BinaryExpression.EQUALS
+		    && e.getLeft() instanceof ColumnExpression
+		    && e.getRight() instanceof ColumnExpression) {
+		int a = ((ColumnExpression) e.getLeft()).getIndex(result);
+		int b = ((ColumnExpression) e.getRight()).getIndex(result);
+		int split = left.getColumnCount();
+		if (a != -1 && b != -1 && (a < split) != (b < split)) {
+		    keys.add(Math.min(a, b));
+		    keys.add(Math.max(a, b) - split);
+		    return;
+		}
+	    }
+	}
+	rest.add(on);
+    }
+
+    /**
+     * Estimates the number of rows of a table that a lookup in an index on
+     * the given column finds, besides the first one. Without statistics the
+     * column is assumed to be unique.
+     */
+    private double matches(Table table, int column) {
+	Statistics statistics = Statistics.of(frame, table);
+	double distinct = (statistics != null) ? statistics
+		.getDistinct(table.getColumnName(column)) : -1;
+	if (distinct < 1) {
+	    return 0;
+	}
+	return Math.max(0, table.getRowCount() / distinct - 1);
+    }
+
+    /**
+     * Chooses the physical operator with the lowest estimated cost. The
+     * statistics of the tables, see {@link Statistics}, tell how many rows
+     * each index lookup finds.
+     */
+    private int choose() {
+	if (leftKeys.length == 0) {
+	    return NESTED_LOOP;
+	}
+	double n = left.getRowCount();
+	double m = right.getRowCount();
+
+	/* Building the hash table costs about twice as much as probing it */
+	int best = HASH;
+	double cost = n + m + (outer ? m : Math.min(n, m));
+	if (left.getIndexOn(leftKeys[0]) != null
+		&& right.getIndexOn(rightKeys[0]) != null && n + m < cost) {
+	    best = MERGE;
+	    cost = n + m;
+	}
+	double lookup = 1 + Math.log(m + 1) / Math.log(2)
+		+ matches(right, rightKeys[0]);
+	if (right.getIndexOn(rightKeys[0]) != null && n * lookup < cost) {
+	    best = INDEX;
+	    cost = n * lookup;
+	}
+	lookup = 1 + Math.log(n + 1) / Math.log(2)
+		+ matches(left, leftKeys[0]);
+	if (!outer && left.getIndexOn(leftKeys[0]) != null
+		&& m * lookup < cost) {
+	    /* Look up the right rows in the left table instead */
+	    best = INDEX;
+	    swapped = true;
+	}
+	return best;
+    }
+
+    private static String name(Table table, String alias) {
+	if (alias != null) {
+	    return alias;
+	}
+	return (table.name != null) ? table.name : "(result)";
+    }
+
+    /**
+     * Describes the join for the plan of a statement, e.g.
+     * <code>HASH JOIN a AND b</code>.
+     */
+    String describe() {
+	StringBuilder b = new StringBuilder(outer ? "LEFT " : "");
+	b.append(NAMES[method]);
+	b.append(" JOIN ");
+	b.append(leftName);
+	b.append(" AND ");
+	b.append(rightName);
+	if (method == INDEX) {
+	    b.append(" USING INDEX ");
+	    b.append(swapped ? left.getIndexOn(leftKeys[0]).name : right
+		    .getIndexOn(rightKeys[0]).name);
+	}
+	return b.toString();
+    }
+
+    /**
+     * Gets the physical operator used, see {@link #NAMES}.
+     */
+    int getMethod() {
+	return method;
+    }
+
+    /**
+     * Checks if two rows should be joined.
+     */
+    private boolean matches(int l, int r) {
+	for (int i = 0; i < leftKeys.length; i++) {
+	    Object a = left.getCell(l, leftKeys[i]);
+	    if (a == null
+		    || Table.compare(a, right.getCell(r, rightKeys[i])) != 0) {
+		return false;
+	    }
+	}
+	if (residual != null) {
+	    set(pair, 0, l, r);
+	    return ((Integer) residual.evaluate(frame, pair, 0)) == 1;
+	}
+	return true;
+    }
+
+    private void set(Table table, int row, int l, int r) {
+	int split = left.getColumnCount();
+	for (int i = 0; i < split; i++) {
+	    values[i] = (l != -1) ? left.getCell(l, i) : null;
+	}
+	for (int i = split; i < values.length; i++) {
+	    values[i] = (r != -1) ? right.getCell(r, i - split) : null;
+	}
+	if (row < table.getRowCount()) {
+	    for (int i = 0; i < values.length; i++) {
+		table.set(row, i, values[i]);
+	    }
+	} else {
+	    table.insert(all, values);
+	}
+    }
+
+    /**
+     * Adds a pair of rows to the result, -1 for the right row gives NULL
+     * values.
+     */
+    private void emit(int l, int r) {
+	set(result, result.getRowCount(), l, r);
+    }
+
+    /**
+     * Describes how the join read its inputs, on the nodes added for them in
+     * the plan of a statement, see {@link Plan#input(Frame, Table, Plan)}. A
+     * table looked up in an index is searched, while other tables are
+     * scanned.
+     * 
+     * @param leftInput
+     *            The node of the left table, or <code>null</code>.
+     * @param rightInput
+     *            The node of the right table, or <code>null</code>.
+     */
+    void explain(Plan leftInput, Plan rightInput) {
+	boolean index = method == INDEX;
+	explain(leftInput, left, leftName, (index && swapped) ? leftKeys
+		: null);
+	explain(rightInput, right, rightName, (index && !swapped) ? rightKeys
+		: null);
+    }
+
+    private void explain(Plan node, Table table, String name, int[] keys) {
+	if (node == null) {
+	    return;
+	}
+	if (keys != null) {
+	    node.detail = "SEARCH " + name + " USING INDEX "
+		    + table.getIndexOn(keys[0]).name;
+	    node.setScanned(result.getRowCount());
+	    node.setEmitted(result.getRowCount());
+	} else {
+	    node.detail = "SCAN " + name;
+	    boolean read = frame == null || !frame.planOnly;
+	    node.setScanned(read ? table.getLiveRowCount() : 0);
+	    node.setEmitted(read ? table.getLiveRowCount() : 0);
+	}
+    }
+
+    /**
+     * Performs the join. Only the method is chosen when the plan is all that
+     * is wanted, see {@link Frame#planOnly}.
+     * 
+     * @return The joined table, which is empty in that case.
+     */
+    Table execute() {
+	if (frame != null && frame.planOnly) {
+	    return result;
+	}
+	switch (method) {
+	case HASH:
+	    hashJoin();
+	    break;
+	case MERGE:
+	    mergeJoin();
+	    break;
+	case INDEX:
+	    indexJoin(swapped);
+	    break;
+	default:
+	    nestedLoopJoin();
+	    break;
+	}
+	return result;
+    }
+
+    private void nestedLoopJoin() {
+	int n = left.getRowCount();
+	int m = right.getRowCount();
+	for (int l = 0; l < n; l++) {
+	    if (left.isDeleted(l)) {
+		continue;
+	    }
+	    boolean matched = false;
+	    for (int r = 0; r < m; r++) {
+		if (!right.isDeleted(r) && matches(l, r)) {
+		    emit(l, r);
+		    matched = true;
+		}
+	    }
+	    if (outer && !matched) {
+		emit(l, -1);
+	    }
+	}
+    }
+
+    private static int hash(Table table, int row, int[] keys) {
+	int h = 1;
+	for (int key : keys) {
+	    h = h * 31 + Table.hash(table.getCell(row, key));
+	}
+	return h;
+    }
+
+    private static boolean hasNullKey(Table table, int row, int[] keys) {
+	for (int key : keys) {
+	    if (table.isNull(row, key)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private void hashJoin() {
+	/* Build on the smaller table, but always on the right for LEFT JOIN */
+	boolean swap = !outer && left.getRowCount() < right.getRowCount();
+	Table build = swap ? left : right;
+	Table probe = swap ? right : left;
+	int[] buildKeys = swap ? leftKeys : rightKeys;
+	int[] probeKeys = swap ? rightKeys : leftKeys;
+
+	/* Chained hash table, heads and next hold row numbers plus one */
+	int rows = build.getRowCount();
+	int size = Integer.highestOneBit(Math.max(rows, 1) * 2);
+	int[] heads = new int[size];
+	int[] next = new int[rows];
+	int[] hashes = new int[rows];
+	for (int row = 0; row < rows; row++) {
+	    if (build.isDeleted(row) || hasNullKey(build, row, buildKeys)) {
+		continue;
+	    }
+	    hashes[row] = hash(build, row, buildKeys);
+	    int bucket = hashes[row] & (size - 1);
+	    next[row] = heads[bucket];
+	    heads[bucket] = row + 1;
+	}
+
+	int probes = probe.getRowCount();
+	for (int row = 0; row < probes; row++) {
+	    if (probe.isDeleted(row)) {
+		continue;
+	    }
+	    boolean matched = false;
+	    if (!hasNullKey(probe, row, probeKeys)) {
+		int h = hash(probe, row, probeKeys);
+		for (int i = heads[h & (size - 1)]; i != 0; i = next[i - 1]) {
+		    int other = i - 1;
+		    if (hashes[other] != h) {
+			continue;
+		    }
+		    int l = swap ? other : row;
+		    int r = swap ? row : other;
+		    if (matches(l, r)) {
+			emit(l, r);
+			matched = true;
+		    }
+		}
+	    }
+	    if (outer && !matched) {
+		emit(row, -1);
+	    }
+	}
+    }
+
+    /**
+     * Gets all rows of a table that have no NULL key, in key order.
+     */
+    private static Vector<Integer> ordered(Table table, int column) {
+	Vector<Integer> rows = new Vector<Integer>();
+	Object[] key = { null };
+	table.getIndexOn(column).scan(key, false, null, false, rows);
+	return rows;
+    }
+
+    private void mergeJoin() {
+	Vector<Integer> lRows = ordered(left, leftKeys[0]);
+	Vector<Integer> rRows = ordered(right, rightKeys[0]);
+	if (outer) {
+	    /* Rows with NULL keys never match, but are still in the result */
+	    for (int l = 0; l < left.getRowCount(); l++) {
+		if (!left.isDeleted(l) && left.isNull(l, leftKeys[0])) {
+		    emit(l, -1);
+		}
+	    }
+	}
+	int i = 0;
+	int j = 0;
+	while (i < lRows.size()) {
+	    Object key = left.getCell(lRows.get(i), leftKeys[0]);
+	    while (j < rRows.size()
+		    && Table.compare(right.getCell(rRows.get(j), rightKeys[0]),
+			    key) < 0) {
+		j++;
+	    }
+
+	    /* Join the run of equal left keys with the run of right keys */
+	    int end = j;
+	    while (end < rRows.size()
+		    && Table.compare(right.getCell(rRows.get(end),
+			    rightKeys[0]), key) == 0) {
+		end++;
+	    }
+	    while (i < lRows.size()
+		    && Table.compare(left.getCell(lRows.get(i), leftKeys[0]),
+			    key) == 0) {
+		int l = lRows.get(i);
+		boolean matched = false;
+		for (int k = j; k < end; k++) {
+		    if (matches(l, rRows.get(k))) {
+			emit(l, rRows.get(k));
+			matched = true;
+		    }
+		}
+		if (outer && !matched) {
+		    emit(l, -1);
+		}
+		i++;
+	    }
+	    j = end;
+	}
+    }
+
+    /**
+     * Looks up the rows of one table in an index of the other.
+     * 
+     * @param swap
+     *            <code>false</code> to look up left rows in the right table,
+     *            <code>true</code> for the other way around.
+     */
+    private void indexJoin(boolean swap) {
+	Table outerTable = swap ? right : left;
+	Table innerTable = swap ? left : right;
+	int outerKey = swap ? rightKeys[0] : leftKeys[0];
+	Index index = innerTable.getIndexOn(swap ? leftKeys[0] : rightKeys[0]);
+	Vector<Integer> rows = new Vector<Integer>();
+	Object[] key = new Object[1];
+	int count = outerTable.getRowCount();
+	for (int row = 0; row < count; row++) {
+	    if (outerTable.isDeleted(row)) {
+		continue;
+	    }
+	    boolean matched = false;
+	    key[0] = outerTable.getCell(row, outerKey);
+	    if (key[0] != null) {
+		rows.clear();
+		index.scan(key, true, key, true, rows);
+		for (int other : rows) {
+		    int l = swap ? other : row;
+		    int r = swap ? row : other;
+		    if (matches(l, r)) {
+			emit(l, r);
+			matched = true;
+		    }
+		}
+	    }
+	    if (outer && !matched) {
+		emit(row, -1);
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,443 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Vector;
+
+/**
+ * Chooses the order in which a chain of inner joins is carried out, such as
+ * <code>a JOIN b ON ... JOIN c ON ...</code>. Inner joins give the same rows in
+ * any order, so the tables are joined greedily: first the two tables giving
+ * the smallest estimated result, and then, one at a time, the table giving the
+ * smallest result when joined with the tables before it. The estimates use
+ * the numbers of distinct values of the join keys, see {@link Statistics}, so
+ * the written order is kept until some of the tables have been analyzed.
+ * <p>
+ * When the order is changed, the join conditions are split into the parts
+ * that are AND:ed together, and each part is checked by the first join that
+ * has all the columns it refers to. The columns of the result are always in
+ * the written order.
+ */
+class JoinOrder {
+
+    private final Frame frame;
+
+    /* The tables in the written order, and the names qualifying them */
+    private final Vector<Table> tables = new Vector<Table>();
+
+    private final Vector<String> aliases = new Vector<String>();
+
+    /* The condition joining each table to the ones before it, or null */
+    private final Vector<Expression> conditions = new Vector<Expression>();
+
+    /* The plan nodes of the operators producing the tables, or null */
+    private final Vector<Plan> inputs = new Vector<Plan>();
+
+    /* The plan nodes of the joins, by step */
+    private Plan[] steps;
+
+    /* Empty tables with the qualified columns of each table */
+    private Table[] shapes;
+
+    /* The parts of the conditions, and the tables each part refers to */
+    private final Vector<Expression> parts = new Vector<Expression>();
+
+    private long[] masks;
+
+    /* The order chosen, or null for the written order */
+    private int[] order;
+
+    JoinOrder(Frame frame) {
+	this.frame = frame;
+    }
+
+    /**
+     * Adds the next table of the chain.
+     * 
+     * @param alias
+     *            Name used to qualify the columns of the table, or
+     *            <code>null</code> when they are already qualified.
+     * @param on
+     *            The join condition, or <code>null</code> to join all rows.
+     *            Ignored for the first table.
+     * @param input
+     *            The plan node of the operator that produced the table, or
+     *            <code>null</code>.
+     */
+    void add(Table table, String alias, Expression on, Plan input) {
+	tables.add(table);
+	aliases.add(alias);
+	conditions.add(on);
+	inputs.add(input);
+    }
+
+    /**
+     * Joins the tables.
+     * 
+     * @return The joined table.
+     */
+    Table execute() {
+	order = choose();
+
+	/* Each join reads the result of the one before, so it is its parent */
+	steps = new Plan[tables.size()];
+	for (int step = steps.length - 1; step > 0; step--) {
+	    steps[step] = Plan.enter(frame);
+	}
+	Table result = tables.get(0);
+	String alias = aliases.get(0);
+	if (order == null) {
+	    for (int i = 1; i < tables.size(); i++) {
+		result = join(i, result, alias, 0, i, conditions.get(i));
+		alias = null;
+	    }
+	    return result;
+	}
+
+	boolean[] used = new boolean[parts.size()];
+	result = tables.get(order[0]);
+	alias = aliases.get(order[0]);
+	long joined = 1L << order[0];
+	for (int step = 1; step < order.length; step++) {
+	    int next = order[step];
+	    joined |= 1L << next;
+	    Expression on = null;
+	    for (int i = 0; i < parts.size(); i++) {
+		if (!used[i] && (masks[i] & ~joined) == 0) {
+		    used[i] = true;
+		    on = (on == null) ? parts.get(i) : new BinaryExpression(on,
+			    BinaryExpression.AND, parts.get(i));
+		}
+	    }
+	    result = join(step, result, alias, order[0], next, on);
+	    alias = null;
+	}
+	return restore(result, order);
+    }
+
+    /**
+     * Joins a table with the tables joined so far.
+     * 
+     * @param first
+     *            The table joined first, which is read by the first step.
+     */
+    private Table join(int step, Table joined, String alias, int first,
+	    int table, Expression on) {
+	Plan node = steps[step];
+	Plan leftInput = (step == 1) ? Plan.input(frame, joined, inputs
+		.get(first)) : null;
+	Table right = tables.get(table);
+	Plan rightInput = Plan.input(frame, right, inputs.get(table));
+	Join join = new Join(frame, joined, alias, right, aliases.get(table),
+		on, false);
+	Table result = join.execute();
+	if (node != null) {
+	    node.detail = join.describe();
+	    join.explain(leftInput, rightInput);
+	}
+	Plan.exit(frame, node, joined.getRowCount() + right.getRowCount(),
+		result.getRowCount());
+	return result;
+    }
+
+    /**
+     * Describes the order the tables were joined in, for the plan of a
+     * statement.
+     */
+    String describe() {
+	StringBuilder b = new StringBuilder("JOIN ORDER ");
+	for (int i = 0; i < tables.size(); i++) {
+	    int table = (order != null) ? order[i] : i;
+	    if (i > 0) {
+		b.append(", ");
+	    }
+	    if (aliases.get(table) != null) {
+		b.append(aliases.get(table));
+	    } else {
+		Table t = tables.get(table);
+		b.append((t.name != null) ? t.name : "(result)");
+	    }
+	}
+	return b.toString();
+    }
+
+    /**
+     * Chooses the order of the tables.
+     * 
+     * @return The indices of the tables in the order to join them, or
+     *         <code>null</code> to keep the written order.
+     */
+    private int[] choose() {
+	int count = tables.size();
+	if (count < 3 || count >= Long.SIZE) {
+	    return null;
+	}
+	boolean analyzed = false;
+	for (Table table : tables) {
+	    analyzed |= Statistics.of(frame, table) != null;
+	}
+	if (!analyzed) {
+	    return null;
+	}
+	shapes = new Table[count];
+	for (int i = 0; i < count; i++) {
+	    Table table = tables.get(i);
+	    String alias = aliases.get(i);
+	    shapes[i] = new Table(table.getParent());
+	    for (int j = 0; j < table.getColumnCount(); j++) {
+		String name = table.getColumnName(j);
+		shapes[i].addColumn((alias != null) ? alias + "." + name
+			: name, table.getFlags(j) & Table.TYPE_MASK, null);
+	    }
+	}
+	for (int i = 1; i < count; i++) {
+	    split(conditions.get(i));
+	}
+	masks = new long[parts.size()];
+	for (int i = 0; i < masks.length; i++) {
+	    masks[i] = mask(parts.get(i));
+	}
+
+	/* Start with the connected pair giving the smallest result */
+	boolean[] connected = new boolean[1];
+	int first = -1;
+	int second = -1;
+	double size = 0;
+	for (int i = 0; i < count; i++) {
+	    for (int j = 0; j < count; j++) {
+		if (i == j) {
+		    continue;
+		}
+		double s = estimate(1L << i, getRowCount(i), j, connected);
+		if (connected[0] && (first == -1 || s < size)) {
+		    first = i;
+		    second = j;
+		    size = s;
+		}
+	    }
+	}
+	if (first == -1) {
+	    return null;
+	}
+	int[] chosen = new int[count];
+	chosen[0] = first;
+	chosen[1] = second;
+	long joined = (1L << first) | (1L << second);
+
+	/* Then add the tables one by one, avoiding cross products */
+	for (int step = 2; step < count; step++) {
+	    int best = -1;
+	    boolean bestConnected = false;
+	    double bestSize = 0;
+	    for (int j = 0; j < count; j++) {
+		if ((joined & (1L << j)) != 0) {
+		    continue;
+		}
+		double s = estimate(joined, size, j, connected);
+		if (best == -1 || (connected[0] && !bestConnected)
+			|| (connected[0] == bestConnected && s < bestSize)) {
+		    best = j;
+		    bestConnected = connected[0];
+		    bestSize = s;
+		}
+	    }
+	    chosen[step] = best;
+	    joined |= 1L << best;
+	    size = bestSize;
+	}
+	for (int i = 0; i < count; i++) {
+	    if (chosen[i] != i) {
+		return chosen;
+	    }
+	}
+	return null;
+    }
+
+    private double getRowCount(int table) {
+	return tables.get(table).getRowCount();
+    }
+
+    /**
+     * Splits a condition into the parts that are AND:ed together.
+     */
+    private void split(Expression e) {
+	if (e == null) {
+	    return;
+	}
+	if (e instanceof BinaryExpression) {
+	    BinaryExpression b = (BinaryExpression) e;
+	    if (b.getOperator() == BinaryExpression.AND) {
+		split(b.getLeft());
+		split(b.getRight());
+		return;
+	    }
+	}
+	parts.add(e);
+    }
+
+    /**
+     * Finds the tables that an expression refers to.
+     * 
+     * @return A bit for each table. All bits are set when the tables are
+     *         not known, which leaves the expression for the last join.
+     */
+    private long mask(Expression e) {
+	long all = (1L << tables.size()) - 1;
+	if (e.isConstant()) {
+	    return 0;
+	} else if (e instanceof BinaryExpression) {
+	    BinaryExpression b = (BinaryExpression) e;
+	    return mask(b.getLeft()) | mask(b.getRight());
+	} else if (e instanceof InExpression
+		&& ((InExpression) e).hasConstantValues()) {
+	    /* A semi-join with a subquery only needs its operand */
+	    return mask(((InExpression) e).getOperand());
+	} else if (!(e instanceof ColumnExpression)) {
+	    return all;
+	}
+	long result = 0;
+	for (int i = 0; i < shapes.length; i++) {
+	    if (resolve((ColumnExpression) e, i) != -1) {
+		if (result != 0) {
+		    /* Ambiguous, the last join reports it */
+		    return all;
+		}
+		result = 1L << i;
+	    }
+	}
+	return (result != 0) ? result : all;
+    }
+
+    /**
+     * Gets the index of a column in one of the tables.
+     * 
+     * @return The index, or -1 when the table has no such column.
+     */
+    private int resolve(ColumnExpression column, int table) {
+	try {
+	    return column.getIndex(shapes[table]);
+	} catch (IllegalArgumentException e) {
+	    return -1;
+	}
+    }
+
+    /**
+     * Estimates the number of rows given by joining a table with others.
+     * For each join key, the values of the side with the fewest distinct
+     * values are assumed to be found on the other side as well.
+     * 
+     * @param joined
+     *            A bit for each of the tables already joined.
+     * @param size
+     *            The estimated number of rows of the tables already joined.
+     * @param table
+     *            The table to join with them.
+     * @param connected
+     *            Set to whether there is a join key between them.
+     */
+    private double estimate(long joined, double size, int table,
+	    boolean[] connected) {
+	double result = size * getRowCount(table);
+	long bit = 1L << table;
+	connected[0] = false;
+	for (int i = 0; i < parts.size(); i++) {
+	    Expression part = parts.get(i);
+	    long mask = masks[i];
+	    if ((mask & bit) == 0 || (mask & joined) == 0
+		    || Long.bitCount(mask) != 2
+		    || !(part instanceof BinaryExpression)) {
+		continue;
+	    }
+	    BinaryExpression b = (BinaryExpression) part;
+	    if (b.getOperator() != BinaryExpression.EQUALS
+		    || !(b.getLeft() instanceof ColumnExpression)
+		    || !(b.getRight() instanceof ColumnExpression)) {
+		continue;
+	    }
+	    ColumnExpression a = (ColumnExpression) b.getLeft();
+	    ColumnExpression c = (ColumnExpression) b.getRight();
+	    int other = Long.numberOfTrailingZeros(mask & ~bit);
+	    if (resolve(a, table) == -1) {
+		ColumnExpression swap = a;
+		a = c;
+		c = swap;
+	    }
+	    double distinct = Math.max(getDistinct(table, resolve(a, table)),
+		    Math.min(getDistinct(other, resolve(c, other)), size));
+	    result /= Math.max(1, distinct);
+	    connected[0] = true;
+	}
+	return result;
+    }
+
+    /**
+     * Gets the number of distinct values of a column, assumed to be unique
+     * when the table has not been analyzed.
+     */
+    private double getDistinct(int table, int column) {
+	Table t = tables.get(table);
+	Statistics statistics = Statistics.of(frame, t);
+	double distinct = (statistics != null) ? statistics.getDistinct(t
+		.getColumnName(column)) : -1;
+	double rows = t.getRowCount();
+	return (distinct < 0) ? rows : Math.min(distinct, rows);
+    }
+
+    /**
+     * Puts the columns of a table joined in another order back in the
+     * written order.
+     */
+    private Table restore(Table joined, int[] order) {
+	int[] offsets = new int[order.length];
+	int offset = 0;
+	for (int table : order) {
+	    offsets[table] = offset;
+	    offset += tables.get(table).getColumnCount();
+	}
+	int[] columns = new int[joined.getColumnCount()];
+	int pos = 0;
+	for (int i = 0; i < order.length; i++) {
+	    for (int j = 0; j < tables.get(i).getColumnCount(); j++) {
+		columns[pos++] = offsets[i] + j;
+	    }
+	}
+	Table result = new Table(joined.getParent());
+	int[] all = new int[columns.length];
+	for (int i = 0; i < columns.length; i++) {
+	    result.addColumn(joined.getColumnName(columns[i]), joined
+		    .getFlags(columns[i]), null);
+	    all[i] = i;
+	}
+	Object[] values = new Object[columns.length];
+	for (int row = 0; row < joined.getRowCount(); row++) {
+	    for (int i = 0; i < columns.length; i++) {
+		values[i] = joined.getCell(row, columns[i]);
+	    }
+	    result.insert(all, values);
+	}
+	return result;
+    }
+
+}
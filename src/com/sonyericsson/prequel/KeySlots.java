@@ -0,0 +1,179 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * The rows of an <code>INTEGER PRIMARY KEY</code>, in an array indexed by
+ * the key. Looking up a key is a single array access, and the rows of a range
+ * of keys are next to each other, in key order.
+ * <p>
+ * The array holds the keys from 0 up to a limit, which grows as keys close to
+ * the ones already held are added. It never grows to more than about twice
+ * the number of keys held, so negative keys and keys far beyond the others
+ * are left to the tree of the index, see {@link Index}.
+ * <p>
+ * The array is split into chunks of {@link Column#CHUNK_SIZE} keys, which are
+ * shared between versions and copied on write, like the columns.
+ */
+class KeySlots {
+
+    /* Rows plus one by key, 0 for keys that are not held */
+    private int[][] chunks = new int[0][];
+
+    /* Chunks that this version may change */
+    private boolean[] owned = new boolean[0];
+
+    private int size;
+
+    /**
+     * Creates a version that can be changed without affecting this one.
+     */
+    KeySlots fork() {
+	KeySlots copy = new KeySlots();
+	copy.chunks = chunks.clone();
+	copy.owned = new boolean[chunks.length];
+	copy.size = size;
+	return copy;
+    }
+
+    /**
+     * Gets a key value as a slot number.
+     * 
+     * @return The number, or -1 when the value is not a non-negative integer.
+     */
+    static long slot(Object value) {
+	if (value instanceof Integer || value instanceof Long) {
+	    long key = ((Number) value).longValue();
+	    return (key >= 0) ? key : -1;
+	}
+	return -1;
+    }
+
+    /**
+     * Gets the first key that is not held by the array.
+     */
+    long limit() {
+	return (long) chunks.length << Column.CHUNK_BITS;
+    }
+
+    /**
+     * Checks if a key belongs in the array, either because it is below the
+     * limit or because the limit may be raised to it.
+     */
+    boolean accepts(long key) {
+	return key >= 0
+		&& (key < limit() || key < 2L * (size + Column.CHUNK_SIZE));
+    }
+
+    /**
+     * Gets the row holding a key below the limit.
+     * 
+     * @return The row, or -1 when no row holds the key.
+     */
+    int get(long key) {
+	if (key >= limit()) {
+	    return -1;
+	}
+	int[] chunk = chunks[(int) (key >>> Column.CHUNK_BITS)];
+	return (chunk != null) ? chunk[(int) key & Column.CHUNK_MASK] - 1 : -1;
+    }
+
+    /**
+     * Sets the row holding a key, raising the limit if needed, see
+     * {@link #accepts(long)}.
+     */
+    void put(long key, int row) {
+	int chunk = (int) (key >>> Column.CHUNK_BITS);
+	if (chunk >= chunks.length) {
+	    chunks = Arrays.copyOf(chunks, chunk + 1);
+	    owned = Arrays.copyOf(owned, chunk + 1);
+	}
+	int[] rows = own(chunk);
+	int slot = (int) key & Column.CHUNK_MASK;
+	if (rows[slot] == 0) {
+	    size++;
+	}
+	rows[slot] = row + 1;
+    }
+
+    /**
+     * Removes a key below the limit, if it is held by the given row.
+     * 
+     * @return <code>false</code> when the row did not hold the key.
+     */
+    boolean remove(long key, int row) {
+	if (get(key) != row) {
+	    return false;
+	}
+	int[] rows = own((int) (key >>> Column.CHUNK_BITS));
+	rows[(int) key & Column.CHUNK_MASK] = 0;
+	size--;
+	return true;
+    }
+
+    /**
+     * Collects the rows holding the keys within a range, in key order.
+     * 
+     * @param from
+     *            The first key, inclusive.
+     * @param to
+     *            The last key, inclusive.
+     */
+    void scan(long from, long to, Vector<Integer> result) {
+	long key = Math.max(from, 0);
+	to = Math.min(to, limit() - 1);
+	while (key <= to) {
+	    int[] rows = chunks[(int) (key >>> Column.CHUNK_BITS)];
+	    long end = Math.min(to, key | Column.CHUNK_MASK);
+	    if (rows != null) {
+		for (; key <= end; key++) {
+		    int row = rows[(int) key & Column.CHUNK_MASK];
+		    if (row != 0) {
+			result.add(row - 1);
+		    }
+		}
+	    }
+	    key = end + 1;
+	}
+    }
+
+    /**
+     * Gets a chunk that may be changed, copying it if it is shared.
+     */
+    private int[] own(int chunk) {
+	if (chunks[chunk] == null) {
+	    chunks[chunk] = new int[Column.CHUNK_SIZE];
+	    owned[chunk] = true;
+	} else if (!owned[chunk]) {
+	    chunks[chunk] = chunks[chunk].clone();
+	    owned[chunk] = true;
+	}
+	return chunks[chunk];
+    }
+
+}
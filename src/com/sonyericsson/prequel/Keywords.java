@@ -0,0 +1,321 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+/**
+ * Ids of the SQL keywords and symbols, as given by {@link Tokenizer#id()}.
+ * The parser matches tokens by their ids, so that the text of keywords and
+ * symbols never has to be compared or even extracted from the SQL.
+ */
+interface Keywords {
+
+    /* Id of tokens that are neither keywords nor symbols */
+    int NONE = -1;
+
+    /* Keywords, in alphabetical order */
+    int ABORT = 0;
+
+    int AFTER = 1;
+
+    int ALL = 2;
+
+    int ANALYZE = 3;
+
+    int AND = 4;
+
+    int AS = 5;
+
+    int ASC = 6;
+
+    int ATTACH = 7;
+
+    int AUTOINCREMENT = 8;
+
+    int AUTO_VACUUM = 9;
+
+    int AVG = 10;
+
+    int BEFORE = 11;
+
+    int BEGIN = 12;
+
+    int BINARY = 13;
+
+    int BY = 14;
+
+    int COALESCE = 15;
+
+    int COLLATE = 16;
+
+    int COLUMNAR = 17;
+
+    int COMMIT = 18;
+
+    int CONFLICT = 19;
+
+    int COUNT = 20;
+
+    int CREATE = 21;
+
+    int CROSS = 22;
+
+    int DATABASE = 23;
+
+    int DEFAULT = 24;
+
+    int DEFERRED = 25;
+
+    int DELETE = 26;
+
+    int DESC = 27;
+
+    int DISTINCT = 28;
+
+    int DROP = 29;
+
+    int EACH = 30;
+
+    int END = 31;
+
+    int EXCEPT = 32;
+
+    int EXCLUSIVE = 33;
+
+    int EXISTS = 34;
+
+    int EXPLAIN = 35;
+
+    int FAIL = 36;
+
+    int FOR = 37;
+
+    int FREELIST_COUNT = 38;
+
+    int FROM = 39;
+
+    int GROUP = 40;
+
+    int HAVING = 41;
+
+    int IF = 42;
+
+    int IGNORE = 43;
+
+    int IMMEDIATE = 44;
+
+    int IMPORT = 45;
+
+    int IN = 46;
+
+    int INDEX = 47;
+
+    int INNER = 48;
+
+    int INSERT = 49;
+
+    int INSTEAD = 50;
+
+    int INTERSECT = 51;
+
+    int INTO = 52;
+
+    int JOIN = 53;
+
+    int KEY = 54;
+
+    int LEFT = 55;
+
+    int LIMIT = 56;
+
+    int LOCALIZED = 57;
+
+    int MAX = 58;
+
+    int MIN = 59;
+
+    int NATURAL = 60;
+
+    int NOCASE = 61;
+
+    int NOT = 62;
+
+    int NULL = 63;
+
+    int OF = 64;
+
+    int OFFSET = 65;
+
+    int ON = 66;
+
+    int OR = 67;
+
+    int ORDER = 68;
+
+    int OUTER = 69;
+
+    int PLAN = 70;
+
+    int PRAGMA = 71;
+
+    int PRIMARY = 72;
+
+    int QUERY = 73;
+
+    int REFERENCES = 74;
+
+    int REPLACE = 75;
+
+    int ROLLBACK = 76;
+
+    int ROW = 77;
+
+    int RTTRIM = 78;
+
+    int SELECT = 79;
+
+    int SET = 80;
+
+    int STORAGE = 81;
+
+    int SUM = 82;
+
+    int SYNCHRONOUS = 83;
+
+    int SYNC_INTERVAL = 84;
+
+    int TABLE = 85;
+
+    int TABLE_INFO = 86;
+
+    int TEMP = 87;
+
+    int TEMPORARY = 88;
+
+    int TOTAL = 89;
+
+    int TRANSACTION = 90;
+
+    int TRIGGER = 91;
+
+    int UNICODE = 92;
+
+    int UNION = 93;
+
+    int UNIQUE = 94;
+
+    int UPDATE = 95;
+
+    int USER_VERSION = 96;
+
+    int USING = 97;
+
+    int VACUUM = 98;
+
+    int VALUES = 99;
+
+    int VIEW = 100;
+
+    int WHEN = 101;
+
+    int WHERE = 102;
+
+    /* Number of keywords, the symbols follow */
+    int KEYWORD_COUNT = 103;
+
+    /* Symbols */
+    int COMMA = 103;
+
+    int LEFT_PAREN = 104;
+
+    int RIGHT_PAREN = 105;
+
+    int SEMICOLON = 106;
+
+    int EQUALS = 107;
+
+    int DOUBLE_EQUALS = 108;
+
+    int NOT_EQUALS = 109;
+
+    int LESSER = 110;
+
+    int LESSER_EQUALS = 111;
+
+    int GREATER = 112;
+
+    int GREATER_EQUALS = 113;
+
+    int SHIFT_LEFT = 114;
+
+    int SHIFT_RIGHT = 115;
+
+    int CONCAT = 116;
+
+    int PLUS = 117;
+
+    int MINUS = 118;
+
+    int STAR = 119;
+
+    int SLASH = 120;
+
+    int PERCENT = 121;
+
+    int QUESTION = 122;
+
+    int COLON = 123;
+
+    int AT = 124;
+
+    int DOLLAR = 125;
+
+    int AMPERSAND = 126;
+
+    int PIPE = 127;
+
+    /* Id of the end of the SQL */
+    int EOF = 128;
+
+    /* Text of the tokens, by id */
+    String[] NAMES = { "ABORT", "AFTER", "ALL", "ANALYZE", "AND", "AS", "ASC",
+	    "ATTACH", "AUTOINCREMENT", "AUTO_VACUUM", "AVG", "BEFORE", "BEGIN",
+	    "BINARY", "BY", "COALESCE", "COLLATE", "COLUMNAR", "COMMIT",
+	    "CONFLICT", "COUNT", "CREATE", "CROSS", "DATABASE", "DEFAULT",
+	    "DEFERRED", "DELETE", "DESC", "DISTINCT", "DROP", "EACH", "END",
+	    "EXCEPT", "EXCLUSIVE", "EXISTS", "EXPLAIN", "FAIL", "FOR",
+	    "FREELIST_COUNT", "FROM", "GROUP", "HAVING", "IF", "IGNORE",
+	    "IMMEDIATE", "IMPORT", "IN", "INDEX", "INNER", "INSERT", "INSTEAD",
+	    "INTERSECT", "INTO", "JOIN", "KEY", "LEFT", "LIMIT", "LOCALIZED",
+	    "MAX", "MIN", "NATURAL", "NOCASE", "NOT", "NULL", "OF", "OFFSET",
+	    "ON", "OR", "ORDER", "OUTER", "PLAN", "PRAGMA", "PRIMARY", "QUERY",
+	    "REFERENCES", "REPLACE", "ROLLBACK", "ROW", "RTTRIM", "SELECT",
+	    "SET", "STORAGE", "SUM", "SYNCHRONOUS", "SYNC_INTERVAL", "TABLE",
+	    "TABLE_INFO", "TEMP", "TEMPORARY", "TOTAL", "TRANSACTION",
+	    "TRIGGER", "UNICODE", "UNION", "UNIQUE", "UPDATE", "USER_VERSION",
+	    "USING", "VACUUM", "VALUES", "VIEW", "WHEN", "WHERE", ",", "(", ")",
+	    ";", "=", "==", "!=", "<", "<=", ">", ">=", "<<", ">>", "||", "+",
+	    "-", "*", "/", "%", "?", ":", "@", "$", "&", "|", "end of input" };
+
+}
@@ -1,61 +1,66 @@
-/* Prequel  A set of simple database APIs in Java SE, similar to SQLite
- * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- *
- * Authors: 
- *   Pr Spjuth (par.spjuth@sonyericsson.com)
- */
-package com.sonyericsson.prequel;
-
-class LiteralExpression extends Expression {
-
-    private Object value;
-
-    public LiteralExpression(Object value) {
-	this.value = value;
-    }
-
-    public Object evaluate(Table source, int row) {
-	return value;
-    }
-
-    @Override
-    public int type(Table source) {
-	if (value instanceof Long || value instanceof Integer) {
-	    return Table.INTEGER;
-	} else if (value instanceof Double) {
-	    return Table.REAL;
-	} else if (value instanceof String) {
-	    return Table.TEXT;
-	} else {
-	    return Table.NONE;
-	}
-    }
-
-    @Override
-    public String toString() {
-	if (value instanceof String) {
-	    return "'" + value.toString() + "'";
-	} else {
-	    return value.toString();
-	}
-    }
-
-}
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+class LiteralExpression extends Expression {
+
+    private Object value;
+
+    public LiteralExpression(Object value) {
+	this.value = value;
+    }
+
+    public Object evaluate(Frame frame, Table source, int row) {
+	return value;
+    }
+
+    @Override
+    boolean isConstant() {
+	return true;
+    }
+
+    @Override
+    public int type(Table source) {
+	if (value instanceof Long || value instanceof Integer) {
+	    return Table.INTEGER;
+	} else if (value instanceof Double) {
+	    return Table.REAL;
+	} else if (value instanceof String) {
+	    return Table.TEXT;
+	} else {
+	    return Table.NONE;
+	}
+    }
+
+    @Override
+    public String toString() {
+	if (value instanceof String) {
+	    return "'" + value.toString() + "'";
+	} else {
+	    return value.toString();
+	}
+    }
+
+}
@@ -0,0 +1,63 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+/**
+ * A <code>?</code> or <code>?NNN</code> parameter. The value is looked up in
+ * the frame of the current execution.
+ */
+class ParameterExpression extends Expression {
+
+    private final int index;
+
+    public ParameterExpression(int index) {
+	this.index = index;
+    }
+
+    public Object evaluate(Frame frame, Table source, int row) {
+	/*
+	 * Unbound parameters are treated as the NULL value, and so are all
+	 * parameters when evaluated outside of an execution.
+	 */
+	return (frame != null) ? frame.get(index) : null;
+    }
+
+    @Override
+    boolean isConstant() {
+	return true;
+    }
+
+    @Override
+    public int type(Table source) {
+	/* The type is not known until the statement is executed */
+	return Table.NONE;
+    }
+
+    @Override
+    public String toString() {
+	return "?" + index;
+    }
+
+}
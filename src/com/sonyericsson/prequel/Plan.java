@@ -0,0 +1,287 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Vector;
+
+/**
+ * A node in the operator tree of an explained statement, see
+ * <code>EXPLAIN QUERY PLAN</code> and <code>EXPLAIN ANALYZE</code>. Operators
+ * add their nodes with {@link #enter(Frame)} and {@link #exit}, which do
+ * nothing unless the frame they run in has a plan, so statements that are not
+ * explained only pay for a check.
+ * <p>
+ * Each node counts the rows it scanned and the rows it emitted, and the wall
+ * and CPU time spent in it. The times include the time of its children.
+ * <p>
+ * The children of a node are the operators producing the rows it reads. An
+ * operator reading the result of the operator run before it, such as a scan
+ * of a joined table, takes that node as its child, see
+ * {@link #nest(Plan)}, and the stored tables read by a join get nodes of
+ * their own, see {@link #input(Frame, Table, Plan)}.
+ */
+class Plan {
+
+    private static final ThreadMXBean THREADS = ManagementFactory
+	    .getThreadMXBean();
+
+    private Plan parent;
+
+    private final Vector<Plan> children = new Vector<Plan>();
+
+    /* What the operator does, e.g. "SCAN t" */
+    String detail;
+
+    /* Set for a scan of a result, which reads the operator run before it */
+    boolean readsResult;
+
+    private long scanned;
+
+    private long emitted;
+
+    /* Nanoseconds spent, cpu is -1 when it can not be measured */
+    private long wall;
+
+    private long cpu;
+
+    private long wallStart;
+
+    private long cpuStart;
+
+    Plan(Plan parent, String detail) {
+	this.parent = parent;
+	this.detail = detail;
+    }
+
+    /**
+     * Adds a node for an operator that is about to run, and makes it the
+     * node that the operators it runs add their nodes to.
+     * 
+     * @param frame
+     *            The frame the operator runs in, or <code>null</code>.
+     * @return The node, or <code>null</code> when the statement is not
+     *         explained. The operator should set the detail of the node.
+     */
+    static Plan enter(Frame frame) {
+	if (frame == null || frame.plan == null) {
+	    return null;
+	}
+	Plan node = new Plan(frame.plan, null);
+	frame.plan.children.add(node);
+	frame.plan = node;
+	node.start();
+	return node;
+    }
+
+    /**
+     * Ends a node added by {@link #enter(Frame)}.
+     * 
+     * @param node
+     *            The node, or <code>null</code> to do nothing.
+     * @param scanned
+     *            The number of rows the operator looked at.
+     * @param emitted
+     *            The number of rows the operator gave.
+     */
+    static void exit(Frame frame, Plan node, long scanned, long emitted) {
+	if (node == null) {
+	    return;
+	}
+	node.stop();
+	node.scanned += scanned;
+	node.emitted += emitted;
+	frame.plan = node.parent;
+    }
+
+    /**
+     * Gets the node added last under the node of the running operator, so
+     * that the node added by an operator it runs can be found.
+     * 
+     * @return The node, or <code>null</code> when there is none or the
+     *         statement is not explained.
+     */
+    static Plan last(Frame frame) {
+	if (frame == null || frame.plan == null
+		|| frame.plan.children.isEmpty()) {
+	    return null;
+	}
+	return frame.plan.children.lastElement();
+    }
+
+    /**
+     * Adds a node for an input of the running operator, e.g. a table that a
+     * join reads. An input produced by another operator has the node of that
+     * operator, which is moved here unless it is already here. A stored table
+     * gets a node of its own, to be described by the operator reading it.
+     * 
+     * @param produced
+     *            The node of the operator that produced the input, or
+     *            <code>null</code>.
+     * @return The node added for a stored table, or <code>null</code>.
+     */
+    static Plan input(Frame frame, Table table, Plan produced) {
+	if (frame == null || frame.plan == null) {
+	    return null;
+	}
+	if (produced != null) {
+	    if (produced.parent != frame.plan) {
+		produced.parent.children.remove(produced);
+		produced.parent = frame.plan;
+		frame.plan.children.add(produced);
+	    }
+	    return null;
+	}
+	if (table.name == null) {
+	    return null;
+	}
+	Plan node = new Plan(frame.plan, null);
+	frame.plan.children.add(node);
+	return node;
+    }
+
+    /**
+     * Moves a node under the operator that read its result, which is the
+     * first scan of a result added after it, or else the node added right
+     * after it.
+     * 
+     * @param node
+     *            The node, or <code>null</code> to do nothing.
+     */
+    static void nest(Plan node) {
+	if (node == null) {
+	    return;
+	}
+	Plan parent = node.parent;
+	Vector<Plan> siblings = parent.children;
+	int index = siblings.indexOf(node);
+	if (index + 1 == siblings.size()) {
+	    return;
+	}
+	Plan reader = null;
+	for (int i = index + 1; i < siblings.size() && reader == null; i++) {
+	    reader = siblings.get(i).findScan();
+	}
+	if (reader == null) {
+	    reader = siblings.get(index + 1);
+	}
+	siblings.remove(index);
+	node.parent = reader;
+	reader.children.add(0, node);
+	/* The times of a node include those of its children */
+	for (Plan p = reader; p != parent; p = p.parent) {
+	    p.wall += node.wall;
+	    p.cpu = (p.cpu == -1 || node.cpu == -1) ? -1 : p.cpu + node.cpu;
+	}
+    }
+
+    /**
+     * Finds the first scan of a result among this node and the nodes below
+     * it.
+     */
+    private Plan findScan() {
+	if (readsResult) {
+	    return this;
+	}
+	for (Plan child : children) {
+	    Plan scan = child.findScan();
+	    if (scan != null) {
+		return scan;
+	    }
+	}
+	return null;
+    }
+
+    void start() {
+	wallStart = System.nanoTime();
+	cpuStart = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS
+		.getCurrentThreadCpuTime() : -1;
+    }
+
+    void stop() {
+	wall += System.nanoTime() - wallStart;
+	if (cpuStart == -1 || cpu == -1) {
+	    cpu = -1;
+	} else {
+	    cpu += THREADS.getCurrentThreadCpuTime() - cpuStart;
+	}
+    }
+
+    void setScanned(long scanned) {
+	this.scanned = scanned;
+    }
+
+    void setEmitted(long emitted) {
+	this.emitted = emitted;
+    }
+
+    /**
+     * Lists the nodes of the tree, one row for each node with its id, the
+     * id of its parent and its detail, parents before their children. The
+     * root has the parent 0.
+     * 
+     * @param counters
+     *            <code>true</code> to add the number of rows scanned and
+     *            emitted, and the wall and CPU time in nanoseconds.
+     */
+    Table toTable(Database database, boolean counters) {
+	Table result = new Table(database);
+	result.addColumn("id", Table.INTEGER, null);
+	result.addColumn("parent", Table.INTEGER, null);
+	result.addColumn("detail", Table.TEXT, null);
+	if (counters) {
+	    result.addColumn("rows_scanned", Table.INTEGER, null);
+	    result.addColumn("rows_emitted", Table.INTEGER, null);
+	    result.addColumn("wall_ns", Table.INTEGER, null);
+	    result.addColumn("cpu_ns", Table.INTEGER, null);
+	}
+	int[] columns = new int[result.getColumnCount()];
+	for (int i = 0; i < columns.length; i++) {
+	    columns[i] = i;
+	}
+	add(result, columns, 0);
+	return result;
+    }
+
+    private void add(Table result, int[] columns, int parentId) {
+	int id = result.getRowCount() + 1;
+	Object[] values = new Object[columns.length];
+	values[0] = id;
+	values[1] = parentId;
+	values[2] = detail;
+	if (columns.length > 3) {
+	    values[3] = scanned;
+	    values[4] = emitted;
+	    values[5] = wall;
+	    values[6] = (cpu != -1) ? cpu : null;
+	}
+	result.insert(columns, values);
+	for (Plan child : children) {
+	    child.add(result, columns, id);
+	}
+    }
+
+}
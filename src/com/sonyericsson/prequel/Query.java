@@ -0,0 +1,68 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+/**
+ * A prepared SQL query, created by {@link Database#prepare(String)}. The query
+ * is parsed once and can then be executed any number of times, with different
+ * parameters each time.
+ */
+public class Query {
+
+    final Database database;
+
+    final String sql;
+
+    /* The parsed statement, replaced while holding the monitor of the query */
+    volatile Statement statement;
+
+    /* Schema the statement was parsed against */
+    int schemaVersion;
+
+    Query(Database database, String sql) {
+	this.database = database;
+	this.sql = sql;
+    }
+
+    /**
+     * Executes the query.
+     * 
+     * @param params
+     *            Zero or more objects that will be bound to parameters in the
+     *            SQL-query. The order will be the same as given here.
+     * @return The result of the query, see
+     *         {@link Database#query(String, Object...)}.
+     * @throws InvalidSqlQueryException
+     */
+    public Table execute(Object... params) throws InvalidSqlQueryException {
+	return database.execute(this, params);
+    }
+
+    @Override
+    public String toString() {
+	return sql;
+    }
+
+}
@@ -0,0 +1,291 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * A set of rows, used for <code>DISTINCT</code>, <code>UNION</code>,
+ * <code>INTERSECT</code> and <code>EXCEPT</code>. Rows are equal when all their
+ * values compare as equal, see {@link Table#compare(Object, Object)}, so 1
+ * equals 1.0 and NULL equals NULL. The set only keeps the hash of each row and
+ * where to find it, and hashes the values of a row just like
+ * {@link HashAggregate} hashes a group, so no key objects are created.
+ * <p>
+ * Inputs with more than {@link #HASH_LIMIT} rows are sorted instead, which
+ * needs half the memory of the hash table.
+ */
+class RowSet {
+
+    /* Inputs with more rows than this are sorted rather than hashed */
+    static final int HASH_LIMIT = 1 << 20;
+
+    private final int columns;
+
+    /* Entry plus one by hash, or zero */
+    private int[] slots = new int[16];
+
+    /* The table, row and hash of each entry */
+    private Table[] tables = new Table[8];
+
+    private int[] rows = new int[8];
+
+    private int[] hashes = new int[8];
+
+    private int size;
+
+    /**
+     * Creates an empty set.
+     * 
+     * @param columns
+     *            The number of columns of the rows.
+     */
+    RowSet(int columns) {
+	this.columns = columns;
+    }
+
+    private static int hash(Table table, int row, int columns) {
+	int h = 1;
+	for (int i = 0; i < columns; i++) {
+	    h = h * 31 + Table.hash(table.getCell(row, i));
+	}
+	return h ^ (h >>> 16);
+    }
+
+    private static int compare(Table a, int aRow, Table b, int bRow,
+	    int columns) {
+	for (int i = 0; i < columns; i++) {
+	    int result = Table.compare(a.getCell(aRow, i), b.getCell(bRow, i));
+	    if (result != 0) {
+		return result;
+	    }
+	}
+	return 0;
+    }
+
+    /**
+     * Finds the slot holding a row equal to the given one, or the empty slot
+     * where it belongs.
+     */
+    private int find(Table table, int row, int h) {
+	int mask = slots.length - 1;
+	int pos = h & mask;
+	while (slots[pos] != 0) {
+	    int entry = slots[pos] - 1;
+	    if (hashes[entry] == h
+		    && compare(tables[entry], rows[entry], table, row,
+			    columns) == 0) {
+		break;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+	return pos;
+    }
+
+    /**
+     * Adds a row, unless an equal row is already in the set.
+     * 
+     * @return <code>true</code> when the row was added.
+     */
+    boolean add(Table table, int row) {
+	int h = hash(table, row, columns);
+	int pos = find(table, row, h);
+	if (slots[pos] != 0) {
+	    return false;
+	}
+	if (size == rows.length) {
+	    tables = Arrays.copyOf(tables, size * 2);
+	    rows = Arrays.copyOf(rows, size * 2);
+	    hashes = Arrays.copyOf(hashes, size * 2);
+	}
+	tables[size] = table;
+	rows[size] = row;
+	hashes[size] = h;
+	slots[pos] = ++size;
+	if (size * 2 >= slots.length) {
+	    slots = new int[slots.length * 2];
+	    int mask = slots.length - 1;
+	    for (int entry = 0; entry < size; entry++) {
+		pos = hashes[entry] & mask;
+		while (slots[pos] != 0) {
+		    pos = (pos + 1) & mask;
+		}
+		slots[pos] = entry + 1;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Checks if the set holds a row equal to the given one.
+     */
+    boolean contains(Table table, int row) {
+	return slots[find(table, row, hash(table, row, columns))] != 0;
+    }
+
+    /**
+     * Gets the rows of a table that are not equal to any row before them.
+     * 
+     * @return The rows, in order.
+     */
+    static Vector<Integer> distinct(Table table) {
+	int n = table.getRowCount();
+	Vector<Integer> result = new Vector<Integer>();
+	if (n > HASH_LIMIT) {
+	    boolean[] first = firstOfEqual(table, sort(table));
+	    for (int row = 0; row < n; row++) {
+		if (first[row]) {
+		    result.add(row);
+		}
+	    }
+	    return result;
+	}
+	RowSet set = new RowSet(table.getColumnCount());
+	for (int row = 0; row < n; row++) {
+	    if (set.add(table, row)) {
+		result.add(row);
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Gets the distinct rows of a table that are, or are not, equal to a row
+     * of another table with as many columns.
+     * 
+     * @param found
+     *            <code>true</code> for the rows that are in the other table,
+     *            as for <code>INTERSECT</code>, <code>false</code> for the
+     *            rows that are not, as for <code>EXCEPT</code>.
+     * @return The rows, in order.
+     */
+    static Vector<Integer> filter(Table table, Table other, boolean found) {
+	int n = table.getRowCount();
+	int columns = table.getColumnCount();
+	Vector<Integer> result = new Vector<Integer>();
+	if (n + other.getRowCount() > HASH_LIMIT) {
+	    boolean[] first = firstOfEqual(table, sort(table));
+	    int[] sorted = sort(other);
+	    for (int row = 0; row < n; row++) {
+		if (first[row]
+			&& (search(other, sorted, table, row) != -1) == found) {
+		    result.add(row);
+		}
+	    }
+	    return result;
+	}
+	RowSet set = new RowSet(columns);
+	for (int row = 0; row < other.getRowCount(); row++) {
+	    set.add(other, row);
+	}
+	RowSet seen = new RowSet(columns);
+	for (int row = 0; row < n; row++) {
+	    if (set.contains(table, row) == found && seen.add(table, row)) {
+		result.add(row);
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Orders the rows of a table by their values. The sort is stable, so
+     * equal rows stay in the order of the table.
+     * 
+     * @return The rows in order.
+     */
+    private static int[] sort(Table table) {
+	int n = table.getRowCount();
+	int columns = table.getColumnCount();
+	int[] order = new int[n];
+	for (int i = 0; i < n; i++) {
+	    order[i] = i;
+	}
+	int[] buffer = new int[n];
+	for (int width = 1; width < n; width *= 2) {
+	    for (int low = 0; low < n; low += width * 2) {
+		int mid = Math.min(low + width, n);
+		int high = Math.min(low + width * 2, n);
+		int a = low;
+		int b = mid;
+		for (int i = low; i < high; i++) {
+		    if (a < mid
+			    && (b == high || compare(table, order[a], table,
+				    order[b], columns) <= 0)) {
+			buffer[i] = order[a++];
+		    } else {
+			buffer[i] = order[b++];
+		    }
+		}
+	    }
+	    int[] swap = order;
+	    order = buffer;
+	    buffer = swap;
+	}
+	return order;
+    }
+
+    /**
+     * Marks the first row of each run of equal rows.
+     * 
+     * @param sorted
+     *            The rows of the table, as sorted by {@link #sort(Table)}.
+     * @return Whether each row is the first of the rows equal to it.
+     */
+    private static boolean[] firstOfEqual(Table table, int[] sorted) {
+	boolean[] first = new boolean[sorted.length];
+	int columns = table.getColumnCount();
+	for (int i = 0; i < sorted.length; i++) {
+	    first[sorted[i]] = i == 0
+		    || compare(table, sorted[i - 1], table, sorted[i],
+			    columns) != 0;
+	}
+	return first;
+    }
+
+    /**
+     * Finds a row equal to the given one among sorted rows.
+     * 
+     * @return The position in the sorted rows, or -1 when there is none.
+     */
+    private static int search(Table table, int[] sorted, Table other, int row) {
+	int columns = table.getColumnCount();
+	int low = 0;
+	int high = sorted.length - 1;
+	while (low <= high) {
+	    int mid = (low + high) >>> 1;
+	    int result = compare(table, sorted[mid], other, row, columns);
+	    if (result < 0) {
+		low = mid + 1;
+	    } else if (result > 0) {
+		high = mid - 1;
+	    } else {
+		return mid;
+	    }
+	}
+	return -1;
+    }
+
+}
@@ -0,0 +1,792 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * A <code>SELECT</code> statement, made up of one or more select cores that
+ * are combined by compound operators.
+ */
+class Select extends Statement {
+
+    static final int UNION = 0;
+
+    static final int INTERSECT = 1;
+
+    static final int EXCEPT = 2;
+
+    static final int UNION_ALL = 3;
+
+    static final String[] NAMES = { "UNION", "INTERSECT", "EXCEPT",
+	    "UNION ALL" };
+
+    /**
+     * Something that produces a table to select from.
+     */
+    abstract static class Source {
+
+	/* Name qualifying the columns when joined, or null */
+	String alias;
+
+	abstract Table execute(Frame frame) throws ProcessingException;
+
+	/**
+	 * Adds the names that columns of this source can be qualified with.
+	 */
+	void names(Set<String> names) {
+	    if (alias != null) {
+		names.add(alias);
+	    }
+	}
+
+	/**
+	 * Collects the columns that the source refers to, see
+	 * {@link Expression#columns(Vector)}.
+	 */
+	void columns(Vector<ColumnExpression> result) {
+	}
+
+	/**
+	 * Adds the names of the columns of the table that the source
+	 * produces.
+	 */
+	abstract void columnNames(List<String> result);
+
+	/**
+	 * Collects the columns of join conditions that name no column of the
+	 * joined tables, or more than one, see
+	 * {@link Select#unresolved(Vector, Set, List, Vector, Vector)}.
+	 */
+	void unresolvedColumns(Vector<ColumnExpression> unknown,
+		Vector<ColumnExpression> ambiguous) {
+	}
+
+    }
+
+    static class TableSource extends Source {
+
+	private final Table table;
+
+	TableSource(String name, Table table) {
+	    this.table = table;
+	    alias = name;
+	}
+
+	@Override
+	Table execute(Frame frame) throws ProcessingException {
+	    return frame.transaction.read(table);
+	}
+
+	@Override
+	void columnNames(List<String> result) {
+	    for (int i = 0; i < table.getColumnCount(); i++) {
+		result.add(table.getColumnName(i));
+	    }
+	}
+
+    }
+
+    static class SelectSource extends Source {
+
+	private final Select select;
+
+	SelectSource(Select select) {
+	    this.select = select;
+	}
+
+	@Override
+	Table execute(Frame frame) throws ProcessingException {
+	    Plan node = Plan.enter(frame);
+	    if (node != null) {
+		node.detail = "SUBQUERY" + ((alias != null) ? " " + alias : "");
+	    }
+	    Table result = select.execute(frame);
+	    Plan.exit(frame, node, 0, result.getRowCount());
+	    return result;
+	}
+
+	@Override
+	void columns(Vector<ColumnExpression> result) {
+	    select.outerColumns(result);
+	}
+
+	@Override
+	void columnNames(List<String> result) {
+	    select.columnNames(result);
+	}
+
+    }
+
+    static class JoinSource extends Source {
+
+	private final Source left;
+
+	private final Source right;
+
+	/* The join condition, or null to join all rows */
+	private Expression on;
+
+	private final boolean outer;
+
+	JoinSource(Source left, Source right, Expression on, boolean outer) {
+	    this.left = left;
+	    this.right = right;
+	    this.on = on;
+	    this.outer = outer;
+	}
+
+	/**
+	 * Adds a WHERE clause to the join condition, which gives the same
+	 * result for inner joins.
+	 * 
+	 * @return <code>true</code> when the clause was added.
+	 */
+	boolean absorb(Expression where) {
+	    if (outer) {
+		return false;
+	    }
+	    on = (on == null) ? where : new BinaryExpression(on,
+		    BinaryExpression.AND, where);
+	    return true;
+	}
+
+	@Override
+	void names(Set<String> names) {
+	    super.names(names);
+	    left.names(names);
+	    right.names(names);
+	}
+
+	@Override
+	void columns(Vector<ColumnExpression> result) {
+	    left.columns(result);
+	    right.columns(result);
+	    if (on != null) {
+		on.columns(result);
+	    }
+	}
+
+	/**
+	 * Adds the names of the columns, qualified with the alias of the side
+	 * they come from, as {@link Join} names them.
+	 */
+	@Override
+	void columnNames(List<String> result) {
+	    columnNames(left, result);
+	    columnNames(right, result);
+	}
+
+	private static void columnNames(Source source, List<String> result) {
+	    List<String> names = new Vector<String>();
+	    source.columnNames(names);
+	    for (String name : names) {
+		result.add((source.alias != null) ? source.alias + "." + name
+			: name);
+	    }
+	}
+
+	@Override
+	void unresolvedColumns(Vector<ColumnExpression> unknown,
+		Vector<ColumnExpression> ambiguous) {
+	    left.unresolvedColumns(unknown, ambiguous);
+	    right.unresolvedColumns(unknown, ambiguous);
+	    if (on != null) {
+		Vector<ColumnExpression> used = new Vector<ColumnExpression>();
+		on.columns(used);
+		Set<String> names = new HashSet<String>();
+		names(names);
+		List<String> columnNames = new Vector<String>();
+		columnNames(columnNames);
+		unresolved(used, names, columnNames, unknown, ambiguous);
+	    }
+	}
+
+	/**
+	 * Checks if the join can be part of a longer chain of inner joins,
+	 * see {@link JoinOrder}.
+	 */
+	private boolean chains() {
+	    return !outer && alias == null;
+	}
+
+	/**
+	 * Adds the tables of a chain of inner joins to a join order.
+	 */
+	private void add(Frame frame, JoinOrder order)
+		throws ProcessingException {
+	    if (left instanceof JoinSource && ((JoinSource) left).chains()) {
+		((JoinSource) left).add(frame, order);
+	    } else {
+		add(frame, order, left, null);
+	    }
+	    add(frame, order, right, on);
+	}
+
+	/**
+	 * Adds a table of a chain of inner joins to a join order, with the
+	 * node that the source added to the plan, if any.
+	 */
+	private static void add(Frame frame, JoinOrder order, Source source,
+		Expression on) throws ProcessingException {
+	    Plan last = Plan.last(frame);
+	    Table table = source.execute(frame);
+	    Plan node = Plan.last(frame);
+	    order.add(table, source.alias, on, (node != last) ? node : null);
+	}
+
+	@Override
+	Table execute(Frame frame) throws ProcessingException {
+	    if (!outer && left instanceof JoinSource
+		    && ((JoinSource) left).chains()) {
+		Plan node = Plan.enter(frame);
+		JoinOrder order = new JoinOrder(frame);
+		add(frame, order);
+		Table result = order.execute();
+		if (node != null) {
+		    node.detail = order.describe();
+		}
+		Plan.exit(frame, node, 0, result.getRowCount());
+		return result;
+	    }
+	    Plan node = Plan.enter(frame);
+	    Table l = left.execute(frame);
+	    Plan leftInput = Plan.input(frame, l, null);
+	    Table r = right.execute(frame);
+	    Plan rightInput = Plan.input(frame, r, null);
+	    Join join = new Join(frame, l, left.alias, r, right.alias, on,
+		    outer);
+	    Table result = join.execute();
+	    if (node != null) {
+		node.detail = join.describe();
+		join.explain(leftInput, rightInput);
+	    }
+	    Plan.exit(frame, node, l.getRowCount() + r.getRowCount(), result
+		    .getRowCount());
+	    return result;
+	}
+
+    }
+
+    /**
+     * A single <code>SELECT ... FROM ... WHERE ...</code>.
+     */
+    static class Core {
+
+	Source source;
+
+	/* Selected columns, or null for all of them */
+	Vector<Expression> columns;
+
+	Expression where;
+
+	boolean allowDuplicates;
+
+	/* Expressions to group by, or null when not grouping */
+	Vector<Expression> groupBy;
+
+	Expression having;
+
+	/* Aggregate functions used in the columns, HAVING and ORDER BY */
+	Vector<AggregateExpression> aggregates;
+
+	Table execute(Frame frame) throws ProcessingException {
+	    return execute(frame, null, 0, -1);
+	}
+
+	/**
+	 * Collects the columns that the core refers to, see
+	 * {@link Expression#columns(Vector)}.
+	 */
+	void columns(Vector<ColumnExpression> result) {
+	    source.columns(result);
+	    selectedColumns(result);
+	}
+
+	/**
+	 * Collects the columns that the expressions of the core refer to,
+	 * which are evaluated on the rows of its source.
+	 */
+	private void selectedColumns(Vector<ColumnExpression> result) {
+	    if (columns != null) {
+		for (Expression e : columns) {
+		    e.columns(result);
+		}
+	    }
+	    if (where != null) {
+		where.columns(result);
+	    }
+	    if (groupBy != null) {
+		for (Expression e : groupBy) {
+		    e.columns(result);
+		}
+	    }
+	    if (having != null) {
+		having.columns(result);
+	    }
+	}
+
+	/**
+	 * Collects the columns of the core, and of the given order, that name
+	 * no column of the source or more than one, see
+	 * {@link Select#unresolved(Vector, Set, List, Vector, Vector)}.
+	 */
+	void unresolvedColumns(Sort order, Vector<ColumnExpression> unknown,
+		Vector<ColumnExpression> ambiguous) {
+	    source.unresolvedColumns(unknown, ambiguous);
+	    Vector<ColumnExpression> columns = new Vector<ColumnExpression>();
+	    selectedColumns(columns);
+	    if (order != null) {
+		order.columns(columns);
+	    }
+	    Set<String> names = new HashSet<String>();
+	    source.names(names);
+	    List<String> columnNames = new Vector<String>();
+	    source.columnNames(columnNames);
+	    unresolved(columns, names, columnNames, unknown, ambiguous);
+	}
+
+	/**
+	 * Adds the names of the columns of the result.
+	 */
+	void columnNames(List<String> result) {
+	    if (columns == null) {
+		source.columnNames(result);
+		return;
+	    }
+	    for (Expression e : columns) {
+		result.add(Table.getColumnName(e));
+	    }
+	}
+
+	/**
+	 * Executes the core, keeping only some of the rows in the given order.
+	 * Without an order, the scan stops as soon as enough rows are found,
+	 * unless duplicates are to be removed.
+	 * 
+	 * @param order
+	 *            The order of the rows, or <code>null</code> for any order.
+	 * @param offset
+	 *            The number of rows to skip.
+	 * @param limit
+	 *            The maximum number of rows, or -1 for all.
+	 */
+	Table execute(Frame frame, Sort order, int offset, int limit)
+		throws ProcessingException {
+	    if (allowDuplicates) {
+		return select(frame, order, offset, limit);
+	    }
+	    Table table = select(frame, order, 0, -1);
+	    Plan node = Plan.enter(frame);
+	    if (node != null) {
+		node.detail = "DISTINCT";
+	    }
+	    Vector<Integer> rows = slice(RowSet.distinct(table), offset, limit);
+	    Plan.exit(frame, node, table.getRowCount(), rows.size());
+	    return table.exract(frame, null, rows);
+	}
+
+	private Table select(Frame frame, Sort order, int offset, int limit)
+		throws ProcessingException {
+	    Plan last = Plan.last(frame);
+	    Table table = source.execute(frame);
+	    Plan input = Plan.last(frame);
+	    Table result;
+	    if (groupBy != null || having != null || !aggregates.isEmpty()) {
+		result = table.aggregate(frame, columns, where, groupBy,
+			having, aggregates, order, offset, limit);
+	    } else {
+		int end = end(offset, limit);
+		Vector<Integer> rows;
+		if (order == null) {
+		    rows = table.getRowsWhere(frame, where, end);
+		} else {
+		    rows = order.resolve(columns, table).sort(frame, table,
+			    table.getRowsWhere(frame, where), end);
+		}
+		result = table.exract(frame, columns, slice(rows, offset, -1));
+	    }
+
+	    /* A join or a subquery is read by the operator after it */
+	    Plan.nest((input != last) ? input : null);
+	    return result;
+	}
+
+    }
+
+    private final Vector<Core> cores = new Vector<Core>();
+
+    /* Operator combining each core with the result of the previous ones */
+    private final Vector<Integer> operators = new Vector<Integer>();
+
+    /* The ORDER BY clause, or null when there is none */
+    Sort order;
+
+    /* The LIMIT and OFFSET clauses, or null when not given */
+    Expression limit;
+
+    Expression offset;
+
+    void add(Core core, int operator) {
+	cores.add(core);
+	operators.add(operator);
+    }
+
+    /**
+     * Collects the columns qualified with a name that no table of the select
+     * has, including those of its subqueries. These columns refer to an outer
+     * query, or to no table at all.
+     */
+    void outerColumns(Vector<ColumnExpression> result) {
+	Set<String> all = new HashSet<String>();
+	for (Core core : cores) {
+	    Set<String> names = new HashSet<String>();
+	    core.source.names(names);
+	    all.addAll(names);
+	    Vector<ColumnExpression> columns = new Vector<ColumnExpression>();
+	    core.columns(columns);
+	    outside(columns, names, result);
+	}
+	Vector<ColumnExpression> columns = new Vector<ColumnExpression>();
+	if (order != null) {
+	    order.columns(columns);
+	}
+	if (limit != null) {
+	    limit.columns(columns);
+	}
+	if (offset != null) {
+	    offset.columns(columns);
+	}
+	outside(columns, all, result);
+    }
+
+    /**
+     * Collects the columns that name no column of the table they are
+     * evaluated on, or more than one, so that the select would fail when
+     * run. The columns of subqueries are checked when these are parsed.
+     * 
+     * @param unknown
+     *            Receives the columns that name no column.
+     * @param ambiguous
+     *            Receives the columns that name more than one column.
+     */
+    void unresolvedColumns(Vector<ColumnExpression> unknown,
+	    Vector<ColumnExpression> ambiguous) {
+	Set<String> all = new HashSet<String>();
+	for (Core core : cores) {
+	    core.source.names(all);
+	    core.unresolvedColumns((cores.size() == 1) ? order : null,
+		    unknown, ambiguous);
+	}
+
+	/* A compound is ordered by the columns of its result */
+	if (cores.size() > 1 && order != null) {
+	    Vector<ColumnExpression> columns = new Vector<ColumnExpression>();
+	    order.columns(columns);
+	    List<String> columnNames = new Vector<String>();
+	    columnNames(columnNames);
+	    unresolved(columns, all, columnNames, unknown, ambiguous);
+	}
+    }
+
+    /**
+     * Adds the names of the columns of the result, which are named after the
+     * first core.
+     */
+    void columnNames(List<String> result) {
+	cores.get(0).columnNames(result);
+    }
+
+    /**
+     * Collects the columns that name no column among the given column names,
+     * or more than one, see {@link Table#findColumn(List, String)}. Columns
+     * qualified with a name other than the given ones are left to the outer
+     * query, see {@link #outerColumns(Vector)}.
+     */
+    static void unresolved(Vector<ColumnExpression> columns,
+	    Set<String> names, List<String> columnNames,
+	    Vector<ColumnExpression> unknown,
+	    Vector<ColumnExpression> ambiguous) {
+	for (ColumnExpression e : columns) {
+	    if (e.isOutside(names)) {
+		continue;
+	    }
+	    try {
+		if (Table.findColumn(columnNames, e.getColumn()) == -1) {
+		    unknown.add(e);
+		}
+	    } catch (IllegalArgumentException ex) {
+		ambiguous.add(e);
+	    }
+	}
+    }
+
+    /**
+     * Collects the columns qualified with a name other than the given ones.
+     */
+    static void outside(Vector<ColumnExpression> columns, Set<String> names,
+	    Vector<ColumnExpression> result) {
+	for (ColumnExpression e : columns) {
+	    if (e.isOutside(names)) {
+		result.add(e);
+	    }
+	}
+    }
+
+    /**
+     * Rewrites the subquery of <code>EXISTS</code> into a semi-join when it
+     * refers to the outer query through a single equality, so that the
+     * subquery is run once rather than for every row. For example
+     * <code>EXISTS (SELECT * FROM b WHERE b.x = a.x AND b.y > 0)</code>
+     * becomes <code>a.x IN (SELECT b.x FROM b WHERE b.y > 0)</code>, and
+     * <code>NOT EXISTS</code> becomes an anti-join. Columns qualified with a
+     * name that no table of the subquery has are taken to be outer columns.
+     * 
+     * @return The rewritten expression, or <code>null</code> when the
+     *         subquery does not refer to the outer query.
+     * @throws ProcessingException
+     *             when the subquery refers to the outer query in some other
+     *             way.
+     */
+    InExpression semiJoin(boolean not) throws ProcessingException {
+	Core core = cores.get(0);
+	Set<String> names = new HashSet<String>();
+	core.source.names(names);
+	Vector<Expression> parts = new Vector<Expression>();
+	split(core.where, parts);
+	int correlated = -1;
+	for (int i = 0; i < parts.size(); i++) {
+	    if (isOuter(parts.get(i), names)) {
+		if (correlated != -1) {
+		    correlated = -2;
+		    break;
+		}
+		correlated = i;
+	    }
+	}
+	if (correlated == -1) {
+	    return null;
+	}
+	Expression part = (correlated >= 0) ? parts.get(correlated) : null;
+	Expression outer = null;
+	Expression inner = null;
+	if (part instanceof BinaryExpression
+		&& ((BinaryExpression) part).getOperator()
+			== BinaryExpression.EQUALS) {
+	    BinaryExpression b = (BinaryExpression) part;
+	    if (!isOuter(b.getRight(), names)) {
+		outer = b.getLeft();
+		inner = b.getRight();
+	    } else if (!isOuter(b.getLeft(), names)) {
+		outer = b.getRight();
+		inner = b.getLeft();
+	    }
+	}
+	if (!(outer instanceof ColumnExpression) || cores.size() > 1
+		|| core.groupBy != null || core.having != null
+		|| !core.aggregates.isEmpty() || limit != null
+		|| offset != null) {
+	    throw new ProcessingException("Subquery of EXISTS may only refer "
+		    + "to the outer query through one equality");
+	}
+
+	/* Select the inner side of the equality under the other conditions */
+	Core keys = new Core();
+	keys.source = core.source;
+	keys.columns = new Vector<Expression>();
+	keys.columns.add(inner);
+	keys.allowDuplicates = true;
+	keys.aggregates = new Vector<AggregateExpression>();
+	for (Expression e : parts) {
+	    if (e != part) {
+		keys.where = (keys.where == null) ? e : new BinaryExpression(
+			keys.where, BinaryExpression.AND, e);
+	    }
+	}
+	Select select = new Select();
+	select.add(keys, -1);
+	return new InExpression(outer, select, not, true);
+    }
+
+    /**
+     * Splits a condition into the parts that are AND:ed together.
+     */
+    private static void split(Expression e, Vector<Expression> parts) {
+	if (e instanceof BinaryExpression) {
+	    BinaryExpression b = (BinaryExpression) e;
+	    if (b.getOperator() == BinaryExpression.AND) {
+		split(b.getLeft(), parts);
+		split(b.getRight(), parts);
+		return;
+	    }
+	}
+	if (e != null) {
+	    parts.add(e);
+	}
+    }
+
+    /**
+     * Checks if an expression refers to a column qualified with a name that
+     * is not among the given ones.
+     */
+    private static boolean isOuter(Expression e, Set<String> names) {
+	Vector<ColumnExpression> columns = new Vector<ColumnExpression>();
+	e.columns(columns);
+	Vector<ColumnExpression> outer = new Vector<ColumnExpression>();
+	outside(columns, names, outer);
+	return !outer.isEmpty();
+    }
+
+    /**
+     * Gets the number of rows needed to skip some rows and then return at
+     * most the given number of rows.
+     * 
+     * @return The number of rows, or -1 for all rows.
+     */
+    static int end(int offset, int limit) {
+	if (limit < 0) {
+	    return -1;
+	}
+	return (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets a part of a list of rows.
+     * 
+     * @param limit
+     *            The maximum number of rows, or -1 for all remaining rows.
+     */
+    static Vector<Integer> slice(Vector<Integer> rows, int offset, int limit) {
+	if (offset == 0 && (limit < 0 || limit >= rows.size())) {
+	    return rows;
+	}
+	int end = (limit < 0) ? rows.size() : Math.min(rows.size(), end(
+		offset, limit));
+	Vector<Integer> result = new Vector<Integer>();
+	for (int i = offset; i < end; i++) {
+	    result.add(rows.get(i));
+	}
+	return result;
+    }
+
+    /**
+     * Evaluates a LIMIT or OFFSET clause.
+     * 
+     * @return The value, or the given default when there is no clause.
+     */
+    private static int evaluate(Frame frame, Expression e, int defaultValue)
+	    throws ProcessingException {
+	if (e == null) {
+	    return defaultValue;
+	}
+	Object value = e.evaluate(frame, null, -1);
+	if (value == null) {
+	    return defaultValue;
+	} else if (!(value instanceof Integer || value instanceof Long)) {
+	    throw new ProcessingException("Integer expected in LIMIT, got "
+		    + value);
+	}
+	long l = ((Number) value).longValue();
+	return (int) Math.max(-1, Math.min(l, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Combines the result of the previous cores with the result of the next
+     * one. The columns are matched by position, and named after the first
+     * core.
+     * 
+     * @param left
+     *            The result so far, which may be changed.
+     * @param operator
+     *            The compound operator, e.g. {@link #UNION}.
+     * @return The combined result.
+     */
+    private static Table combine(Frame frame, Table left, int operator,
+	    Table right) throws ProcessingException {
+	if (left.getColumnCount() != right.getColumnCount()) {
+	    throw new ProcessingException("SELECTs to the left and right of "
+		    + NAMES[operator]
+		    + " do not have the same number of result columns");
+	}
+	switch (operator) {
+	case UNION_ALL:
+	    left.append(right);
+	    return left;
+	case UNION:
+	    left.append(right);
+	    return left.exract(frame, null, RowSet.distinct(left));
+	case INTERSECT:
+	    return left.exract(frame, null, RowSet.filter(left, right, true));
+	default:
+	    return left.exract(frame, null, RowSet.filter(left, right, false));
+	}
+    }
+
+    @Override
+    Table execute(Frame frame) throws ProcessingException {
+	int limit = evaluate(frame, this.limit, -1);
+	int offset = Math.max(0, evaluate(frame, this.offset, 0));
+	if (cores.size() == 1) {
+	    return cores.get(0).execute(frame, order, offset, limit);
+	}
+
+	Plan compound = Plan.enter(frame);
+	if (compound != null) {
+	    compound.detail = "COMPOUND QUERY";
+	}
+	Table result = null;
+	for (int i = 0; i < cores.size(); i++) {
+	    Plan node = Plan.enter(frame);
+	    if (node != null) {
+		node.detail = (i == 0) ? "LEFT-MOST SUBQUERY"
+			: NAMES[operators.get(i)];
+	    }
+	    Table right = cores.get(i).execute(frame);
+	    result = (i == 0) ? right : combine(frame, result, operators
+		    .get(i), right);
+	    Plan.exit(frame, node, right.getRowCount(), result.getRowCount());
+	}
+	Plan.exit(frame, compound, 0, result.getRowCount());
+	if (order == null && offset == 0 && limit < 0) {
+	    return result;
+	}
+	int end = end(offset, limit);
+	Vector<Integer> rows = result.getRowsWhere(frame, null,
+		(order == null) ? end : -1);
+	if (order != null) {
+	    rows = order.resolve(null, result).sort(frame, result, rows, end);
+	}
+	return result.exract(frame, null, slice(rows, offset, -1));
+    }
+
+    @Override
+    boolean isPlanned() {
+	return true;
+    }
+
+}
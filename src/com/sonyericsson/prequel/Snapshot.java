@@ -0,0 +1,310 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * A binary image of the committed tables of a database, see
+ * {@link Database#checkpoint(File)}. Opening a snapshot runs no SQL. The
+ * schema is read from a directory at the end of the file, and the data of
+ * each column is left in the mapped file until the column is first used, see
+ * {@link Column.Mapped}.
+ * <p>
+ * The file holds the data of each column, laid out column by column, and the
+ * rows of each index in the order of the index. These are followed by the
+ * directory, and finally by the position of the directory. Deleted rows are
+ * kept, so that the rows keep the numbers that the log refers to, see
+ * {@link WriteAheadLog}, until <code>VACUUM</code> drops them. The indexes
+ * are built from the stored order without sorting. Each column starts at a
+ * multiple of eight bytes, so that primitive values can be copied straight
+ * into the storage of a column.
+ */
+class Snapshot {
+
+    /* Last in the file, "Prequel" followed by the version */
+    private static final long MAGIC = 0x5072657175656c02L;
+
+    /* Bytes after the directory, its position and the magic number */
+    private static final int TRAILER = 16;
+
+    final Vector<Table> tables = new Vector<Table>();
+
+    long userVersion;
+
+    boolean columnar;
+
+    /* The log of the database when the snapshot was written, see open() */
+    long logEpoch;
+
+    long logPosition;
+
+    /**
+     * Counts the bytes written, so that the directory can refer to them.
+     */
+    private static class Output extends FilterOutputStream {
+
+	long position;
+
+	Output(OutputStream out) {
+	    super(new BufferedOutputStream(out, 1 << 16));
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+	    out.write(b);
+	    position++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+	    out.write(b, off, len);
+	    position += len;
+	}
+
+	/**
+	 * Pads with zeros up to a multiple of eight bytes.
+	 */
+	void align() throws IOException {
+	    while ((position & 7) != 0) {
+		write(0);
+	    }
+	}
+
+    }
+
+    /**
+     * Writes the snapshot. It is written to a temporary file, which is
+     * synced and then renamed, so the file holds either the previous
+     * snapshot or this one, even if the process dies meanwhile.
+     * 
+     * @throws IOException
+     *             when the file could not be written.
+     */
+    void write(File file) throws IOException {
+	File temporary = new File(file.getPath() + ".tmp");
+	FileOutputStream stream = new FileOutputStream(temporary);
+	try {
+	    Output counter = new Output(stream);
+	    DataOutputStream out = new DataOutputStream(counter);
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    DataOutputStream directory = new DataOutputStream(bytes);
+	    directory.writeLong(userVersion);
+	    directory.writeBoolean(columnar);
+	    directory.writeLong(logEpoch);
+	    directory.writeLong(logPosition);
+	    directory.writeInt(tables.size());
+	    for (Table table : tables) {
+		write(table, counter, out, directory);
+	    }
+	    long position = counter.position;
+	    bytes.writeTo(out);
+	    out.writeLong(position);
+	    out.writeLong(MAGIC);
+	    out.flush();
+	    stream.getFD().sync();
+	} finally {
+	    stream.close();
+	}
+	if (!temporary.renameTo(file)) {
+	    /* Some platforms do not rename over an existing file */
+	    file.delete();
+	    if (!temporary.renameTo(file)) {
+		throw new IOException("Cannot rename " + temporary + " to "
+			+ file);
+	    }
+	}
+    }
+
+    /**
+     * Writes the columns and indexes of a table, and describes them in the
+     * directory.
+     */
+    private static void write(Table table, Output counter,
+	    DataOutputStream out, DataOutputStream directory)
+	    throws IOException {
+	int[] all = new int[table.getRowCount()];
+	Vector<Integer> deleted = new Vector<Integer>();
+	for (int i = 0; i < all.length; i++) {
+	    all[i] = i;
+	    if (table.isDeleted(i)) {
+		deleted.add(i);
+	    }
+	}
+	WriteAheadLog.writeText(directory, table.name);
+	directory.writeBoolean(table.isColumnar());
+	directory.writeInt(all.length);
+	directory.writeInt(table.getColumnCount());
+	for (int i = 0; i < table.getColumnCount(); i++) {
+	    WriteAheadLog.writeText(directory, table.getColumnName(i));
+	    directory.writeInt(table.getFlags(i));
+	    WriteAheadLog.writeValue(directory, table.getDefVal(i));
+	    directory.writeLong(table.autoIncr.get(i));
+	    counter.align();
+	    long start = counter.position;
+	    directory.writeByte(table.write(out, i, all));
+	    directory.writeLong(start);
+	    directory.writeLong(counter.position - start);
+	}
+	directory.writeInt(deleted.size());
+	for (Integer row : deleted) {
+	    directory.writeInt(row);
+	}
+	List<Index> indexes = table.getIndexes();
+	directory.writeInt(indexes.size());
+	for (Index index : indexes) {
+	    WriteAheadLog.writeText(directory, index.name);
+	    directory.writeBoolean(index.isRowid());
+	    directory.writeBoolean(index.unique);
+	    directory.writeInt(index.conflict);
+	    directory.writeInt(index.columns.length);
+	    for (int column : index.columns) {
+		directory.writeInt(column);
+	    }
+	    Vector<Integer> order = new Vector<Integer>();
+	    index.scan(null, true, null, true, order);
+	    counter.align();
+	    directory.writeLong(counter.position);
+	    directory.writeInt(order.size());
+	    for (Integer row : order) {
+		out.writeInt(row);
+	    }
+	}
+    }
+
+    /**
+     * Reads the directory of a snapshot, and maps the data of its columns.
+     * 
+     * @param database
+     *            The database that is to hold the tables.
+     * @throws IOException
+     *             when the file could not be read, or is not a snapshot.
+     */
+    static Snapshot read(Database database, File file) throws IOException {
+	RandomAccessFile in = new RandomAccessFile(file, "r");
+	try {
+	    long size = in.length();
+	    long position = -1;
+	    if (size >= TRAILER) {
+		in.seek(size - TRAILER);
+		position = in.readLong();
+		if (in.readLong() != MAGIC) {
+		    position = -1;
+		}
+	    }
+	    if (position < 0 || position > size - TRAILER) {
+		throw new IOException("Not a snapshot: " + file);
+	    }
+	    byte[] bytes = new byte[(int) (size - TRAILER - position)];
+	    in.seek(position);
+	    in.readFully(bytes);
+	    DataInputStream directory = new DataInputStream(
+		    new ByteArrayInputStream(bytes));
+	    Snapshot snapshot = new Snapshot();
+	    snapshot.userVersion = directory.readLong();
+	    snapshot.columnar = directory.readBoolean();
+	    snapshot.logEpoch = directory.readLong();
+	    snapshot.logPosition = directory.readLong();
+	    int count = directory.readInt();
+	    for (int i = 0; i < count; i++) {
+		snapshot.tables.add(read(database, in.getChannel(), directory));
+	    }
+	    return snapshot;
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * Reads a table described in the directory.
+     */
+    private static Table read(Database database, FileChannel channel,
+	    DataInputStream directory) throws IOException {
+	String name = WriteAheadLog.readText(directory);
+	Table table = new Table(database, directory.readBoolean());
+	table.name = name;
+	int rows = directory.readInt();
+	Column[] data = new Column[directory.readInt()];
+	for (int i = 0; i < data.length; i++) {
+	    String column = WriteAheadLog.readText(directory);
+	    int flags = directory.readInt();
+	    table.addColumn(column, flags, WriteAheadLog.readValue(directory));
+	    table.autoIncr.set(i, directory.readLong());
+	    int kind = directory.readByte();
+	    long start = directory.readLong();
+	    data[i] = new Column.Mapped(kind, map(channel, start, directory
+		    .readLong()), rows);
+	}
+	table.load(data, rows);
+	int deleted = directory.readInt();
+	for (int i = 0; i < deleted; i++) {
+	    table.delete(directory.readInt());
+	}
+	int count = directory.readInt();
+	for (int i = 0; i < count; i++) {
+	    String index = WriteAheadLog.readText(directory);
+	    boolean rowid = directory.readBoolean();
+	    boolean unique = directory.readBoolean();
+	    int conflict = directory.readInt();
+	    int[] columns = new int[directory.readInt()];
+	    for (int j = 0; j < columns.length; j++) {
+		columns[j] = directory.readInt();
+	    }
+	    long start = directory.readLong();
+	    int[] sorted = new int[directory.readInt()];
+	    map(channel, start, 4L * sorted.length).asIntBuffer().get(sorted);
+	    table.loadIndex(rowid ? Index.rowid(index, columns[0], conflict)
+		    : new Index(index, columns, unique, conflict), sorted);
+	}
+	return table;
+    }
+
+    /**
+     * Maps a part of the file. The mapping stays valid after the file is
+     * closed.
+     */
+    private static ByteBuffer map(FileChannel channel, long start,
+	    long length) throws IOException {
+	if (length > Integer.MAX_VALUE) {
+	    throw new IOException("Cannot map " + length + " bytes");
+	}
+	return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+
+}
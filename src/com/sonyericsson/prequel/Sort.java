@@ -0,0 +1,303 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Vector;
+
+/**
+ * Orders entries, such as the rows of a table or the groups of an aggregate,
+ * by the terms of an <code>ORDER BY</code> clause. When only the first
+ * entries are needed, as for <code>ORDER BY ... LIMIT k</code>, they are
+ * picked with a heap holding at most k entries.
+ * 
+ * Entries with equal terms keep their original order.
+ */
+class Sort {
+
+    /**
+     * Gets the values of the terms for an entry.
+     */
+    interface Keys {
+
+	void get(int entry, Object[] keys);
+
+    }
+
+    private final Expression[] terms;
+
+    private final boolean[] descending;
+
+    Sort(Vector<Expression> terms, Vector<Boolean> descending) {
+	this.terms = terms.toArray(new Expression[terms.size()]);
+	this.descending = new boolean[this.terms.length];
+	for (int i = 0; i < this.descending.length; i++) {
+	    this.descending[i] = descending.get(i);
+	}
+    }
+
+    private Sort(Expression[] terms, boolean[] descending) {
+	this.terms = terms;
+	this.descending = descending;
+    }
+
+    /**
+     * Collects the columns that the terms refer to, see
+     * {@link Expression#columns(Vector)}.
+     */
+    void columns(Vector<ColumnExpression> result) {
+	for (Expression e : terms) {
+	    e.columns(result);
+	}
+    }
+
+    /**
+     * Resolves terms referring to selected columns by their number, as in
+     * <code>ORDER BY 2</code>.
+     * 
+     * @param columns
+     *            The selected columns, or <code>null</code> when all columns
+     *            of the table are selected.
+     * @param table
+     *            The table selected from.
+     * @return The resolved sort.
+     */
+    Sort resolve(Vector<Expression> columns, Table table) {
+	Expression[] resolved = terms.clone();
+	for (int i = 0; i < resolved.length; i++) {
+	    Integer value = getColumnNumber(resolved[i]);
+	    if (value == null) {
+		continue;
+	    }
+	    int column = value - 1;
+	    int count = (columns != null) ? columns.size() : table
+		    .getColumnCount();
+	    if (column < 0 || column >= count) {
+		throw new IllegalArgumentException("ORDER BY term " + value
+			+ " is out of range");
+	    }
+	    resolved[i] = (columns != null) ? columns.get(column)
+		    : new ColumnExpression(table.getColumnName(column));
+	}
+	return new Sort(resolved, descending);
+    }
+
+    /**
+     * Gets the number of the selected column that a term refers to, as in
+     * <code>ORDER BY 2</code>.
+     * 
+     * @return The number, counting from 1, or <code>null</code> when the
+     *         term is not a number.
+     */
+    static Integer getColumnNumber(Expression term) {
+	if (!(term instanceof LiteralExpression)) {
+	    return null;
+	}
+	Object value = term.evaluate(null, null, -1);
+	return (value instanceof Integer) ? (Integer) value : null;
+    }
+
+    /**
+     * Gets the terms to evaluate for each entry.
+     */
+    Expression[] getTerms() {
+	return terms;
+    }
+
+    /**
+     * Orders the rows of a table by evaluating the terms on each row.
+     * 
+     * @param limit
+     *            The number of rows needed, or -1 for all of them.
+     * @return The first rows in order.
+     */
+    Vector<Integer> sort(final Frame frame, final Table table,
+	    Vector<Integer> rows, int limit) {
+	Plan node = Plan.enter(frame);
+	if (node != null) {
+	    node.detail = "SORT";
+	}
+	int[] entries = new int[rows.size()];
+	for (int i = 0; i < entries.length; i++) {
+	    entries[i] = rows.get(i);
+	}
+	entries = sort(entries, limit, new Keys() {
+
+	    @Override
+	    public void get(int row, Object[] keys) {
+		for (int i = 0; i < terms.length; i++) {
+		    keys[i] = terms[i].evaluate(frame, table, row);
+		}
+	    }
+
+	});
+	Vector<Integer> result = new Vector<Integer>(entries.length);
+	for (int entry : entries) {
+	    result.add(entry);
+	}
+	Plan.exit(frame, node, rows.size(), entries.length);
+	return result;
+    }
+
+    /**
+     * Orders entries.
+     * 
+     * @param entries
+     *            The entries, in their original order.
+     * @param limit
+     *            The number of entries needed, or -1 for all of them.
+     * @param keys
+     *            Gives the values of the terms of each entry.
+     * @return The first entries in order.
+     */
+    int[] sort(int[] entries, int limit, Keys keys) {
+	int n = entries.length;
+	if (limit < 0 || limit > n) {
+	    limit = n;
+	}
+	int[] positions;
+	Object[][] values;
+	if (limit < n) {
+	    /* Keep the best entries in a heap with the worst one on top */
+	    positions = new int[limit];
+	    values = new Object[limit][];
+	    Object[] probe = new Object[terms.length];
+	    int size = 0;
+	    for (int i = 0; i < n && limit > 0; i++) {
+		keys.get(entries[i], probe);
+		if (size < limit) {
+		    positions[size] = i;
+		    values[size] = probe.clone();
+		    siftUp(positions, values, size++);
+		} else if (compare(probe, i, values[0], positions[0]) < 0) {
+		    positions[0] = i;
+		    System.arraycopy(probe, 0, values[0], 0, probe.length);
+		    siftDown(positions, values, size);
+		}
+	    }
+	} else {
+	    positions = new int[n];
+	    values = new Object[n][];
+	    for (int i = 0; i < n; i++) {
+		positions[i] = i;
+		values[i] = new Object[terms.length];
+		keys.get(entries[i], values[i]);
+	    }
+	}
+
+	/* Sort the kept entries, using their index in values as reference */
+	int[] order = new int[limit];
+	for (int i = 0; i < limit; i++) {
+	    order[i] = i;
+	}
+	mergeSort(order, new int[limit], 0, limit, positions, values);
+	int[] result = new int[limit];
+	for (int i = 0; i < limit; i++) {
+	    result[i] = entries[positions[order[i]]];
+	}
+	return result;
+    }
+
+    private int compare(Object[] a, int positionA, Object[] b, int positionB) {
+	for (int i = 0; i < descending.length; i++) {
+	    int result = Table.compare(a[i], b[i]);
+	    if (result != 0) {
+		return descending[i] ? -result : result;
+	    }
+	}
+	return (positionA < positionB) ? -1 : ((positionA == positionB) ? 0
+		: 1);
+    }
+
+    private int compare(int[] positions, Object[][] values, int a, int b) {
+	return compare(values[a], positions[a], values[b], positions[b]);
+    }
+
+    private static void swap(int[] positions, Object[][] values, int a, int b) {
+	int position = positions[a];
+	positions[a] = positions[b];
+	positions[b] = position;
+	Object[] value = values[a];
+	values[a] = values[b];
+	values[b] = value;
+    }
+
+    private void siftUp(int[] positions, Object[][] values, int i) {
+	while (i > 0) {
+	    int parent = (i - 1) / 2;
+	    if (compare(positions, values, i, parent) <= 0) {
+		return;
+	    }
+	    swap(positions, values, i, parent);
+	    i = parent;
+	}
+    }
+
+    private void siftDown(int[] positions, Object[][] values, int size) {
+	int i = 0;
+	while (true) {
+	    int child = i * 2 + 1;
+	    if (child >= size) {
+		return;
+	    }
+	    if (child + 1 < size
+		    && compare(positions, values, child + 1, child) > 0) {
+		child++;
+	    }
+	    if (compare(positions, values, child, i) <= 0) {
+		return;
+	    }
+	    swap(positions, values, i, child);
+	    i = child;
+	}
+    }
+
+    private void mergeSort(int[] order, int[] temp, int from, int to,
+	    int[] positions, Object[][] values) {
+	if (to - from < 2) {
+	    return;
+	}
+	int middle = (from + to) >>> 1;
+	mergeSort(order, temp, from, middle, positions, values);
+	mergeSort(order, temp, middle, to, positions, values);
+	int i = from;
+	int j = middle;
+	int k = from;
+	while (i < middle && j < to) {
+	    if (compare(positions, values, order[j], order[i]) < 0) {
+		temp[k++] = order[j++];
+	    } else {
+		temp[k++] = order[i++];
+	    }
+	}
+	while (i < middle) {
+	    temp[k++] = order[i++];
+	}
+	while (j < to) {
+	    temp[k++] = order[j++];
+	}
+	System.arraycopy(temp, from, order, from, to - from);
+    }
+
+}
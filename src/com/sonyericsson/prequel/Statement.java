@@ -0,0 +1,124 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Vector;
+
+/**
+ * A parsed SQL statement. Parsing only validates the statement and resolves
+ * what it refers to, while the actual work is done by {@link #execute()}. This
+ * makes it possible to run the same statement several times without parsing
+ * it again.
+ */
+abstract class Statement {
+
+    /**
+     * Runs the statement against the database it was parsed for.
+     * 
+     * @param frame
+     *            The parameter values to use for this execution.
+     * @return The result of the statement, see
+     *         {@link Database#query(String, Object...)}.
+     * @throws ProcessingException
+     *             when the statement could not be carried out.
+     */
+    abstract Table execute(Frame frame) throws ProcessingException;
+
+    /**
+     * Gets the tables that are modified by the statement.
+     * 
+     * @param writes
+     *            The tables are added here.
+     */
+    void collect(Vector<Table> writes) {
+    }
+
+    /**
+     * Checks if the statement changes the schema, e.g. creates or drops a
+     * table. Such statements must run while no other statement is running.
+     * 
+     * @return <code>true</code> when the schema is changed.
+     */
+    boolean isExclusive() {
+	return false;
+    }
+
+    /**
+     * Checks if the statement reports its plan when run with
+     * {@link Frame#planOnly} set, without reading or writing any rows, see
+     * <code>EXPLAIN QUERY PLAN</code>. Other statements are only explained
+     * by <code>EXPLAIN ANALYZE</code>, which runs them.
+     * 
+     * @return <code>true</code> when the statement can be planned.
+     */
+    boolean isPlanned() {
+	return false;
+    }
+
+    /**
+     * Checks if the SQL of the statement is to be logged after it has run,
+     * see {@link WriteAheadLog}. Statements that change the schema are,
+     * while statements changing something else must say so. The rows
+     * changed by statements writing tables are logged as they are changed,
+     * see {@link Table#redo}.
+     * 
+     * @return <code>true</code> to log the SQL of the statement.
+     */
+    boolean isLogged() {
+	return isExclusive();
+    }
+
+    /**
+     * Runs the statement in the transaction of the frame, after locking the
+     * tables it writes, see {@link #collect(Vector)} and
+     * {@link Transaction#lock(Vector)}. The transaction is rolled back when
+     * a constraint says so, see <code>ON CONFLICT ROLLBACK</code>.
+     * 
+     * @param frame
+     *            The parameter values and transaction to use for this
+     *            execution.
+     * @return The result of the statement.
+     * @throws ProcessingException
+     *             when the statement could not be carried out.
+     */
+    final Table run(Frame frame) throws ProcessingException {
+	Vector<Table> writes = new Vector<Table>();
+	collect(writes);
+	if (!writes.isEmpty()) {
+	    frame.transaction.lock(writes);
+	}
+	try {
+	    return execute(frame);
+	} catch (ConstraintException e) {
+	    if (!e.rollback) {
+		throw e;
+	    }
+	    frame.transaction.rollback();
+	    throw new ConstraintException(e.getMessage() + ", rolled back",
+		    true);
+	}
+    }
+
+}
@@ -0,0 +1,447 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+/**
+ * Statistics about the contents of a table, gathered by <code>ANALYZE</code>
+ * and used to estimate how many rows a condition matches.
+ * <p>
+ * The statistics are kept in <code>sqlite_stat1</code>. Each analyzed table
+ * has a row with no <code>idx</code>, where <code>stat</code> is the number of
+ * rows, and a row for each of its columns, where <code>idx</code> is the name
+ * of the column. The <code>stat</code> of a column is the number of distinct
+ * values and the fraction of NULL values, followed by the bounds of an
+ * equi-depth histogram of the values, all separated by spaces. Each bucket of
+ * the histogram holds about as many rows as the others, so the estimates stay
+ * good however skewed the values are.
+ */
+class Statistics {
+
+    static final String TABLE = "sqlite_stat1";
+
+    /* Selectivities assumed for columns that have not been analyzed */
+    static final double DEFAULT_EQUALS = 0.1;
+
+    static final double DEFAULT_RANGE = 0.25;
+
+    /* Number of buckets in a histogram */
+    private static final int BUCKETS = 16;
+
+    private static final Comparator<Object> ORDER = new Comparator<Object>() {
+
+	@Override
+	public int compare(Object a, Object b) {
+	    return Table.compare(a, b);
+	}
+
+    };
+
+    /* The number of rows when analyzed, or -1 if unknown */
+    private int rowCount = -1;
+
+    private final HashMap<String, ColumnStatistics> columns;
+
+    private Statistics() {
+	columns = new HashMap<String, ColumnStatistics>();
+    }
+
+    private static class ColumnStatistics {
+
+	double distinct;
+
+	double nullFraction;
+
+	/* The lowest value of each bucket and then the highest, or null */
+	Object[] bounds;
+
+    }
+
+    /**
+     * The statistics of all tables, as read from one version of
+     * <code>sqlite_stat1</code>.
+     */
+    static class Catalog {
+
+	final Table source;
+
+	private final HashMap<String, Statistics> tables;
+
+	Catalog(Table source) {
+	    this.source = source;
+	    tables = new HashMap<String, Statistics>();
+	    int tbl = source.getColumnIndex("tbl");
+	    int idx = source.getColumnIndex("idx");
+	    int stat = source.getColumnIndex("stat");
+	    if (tbl == -1 || idx == -1 || stat == -1) {
+		return;
+	    }
+	    for (int row = 0; row < source.getRowCount(); row++) {
+		if (source.isDeleted(row)) {
+		    continue;
+		}
+		String table = source.getCellString(row, tbl);
+		String column = source.getCellString(row, idx);
+		if (table.length() == 0) {
+		    continue;
+		}
+		Statistics statistics = tables.get(table);
+		if (statistics == null) {
+		    statistics = new Statistics();
+		    tables.put(table, statistics);
+		}
+		try {
+		    statistics.parse((column.length() > 0) ? column : null,
+			    source.getCellString(row, stat));
+		} catch (NumberFormatException e) {
+		    /* Rows not written by ANALYZE are simply ignored */
+		}
+	    }
+	}
+
+	/**
+	 * Gets the statistics of a table.
+	 * 
+	 * @return The statistics, or <code>null</code> when the table has not
+	 *         been analyzed.
+	 */
+	Statistics get(String table) {
+	    return tables.get(table);
+	}
+
+    }
+
+    /**
+     * Gets the statistics of a stored table, as seen by the transaction of a
+     * frame.
+     * 
+     * @return The statistics, or <code>null</code> when the table has not
+     *         been analyzed or is not a stored table.
+     */
+    static Statistics of(Frame frame, Table table) {
+	if (frame == null || table.name == null || table.getParent() == null) {
+	    return null;
+	}
+	return table.getParent().getStatistics(frame, table.name);
+    }
+
+    /**
+     * Gathers the statistics of a table.
+     */
+    static Statistics collect(Table table) {
+	Statistics result = new Statistics();
+	int n = table.getLiveRowCount();
+	result.rowCount = n;
+	Object[] values = new Object[n];
+	for (int column = 0; column < table.getColumnCount(); column++) {
+	    String name = table.getColumnName(column);
+	    if (result.columns.containsKey(name)) {
+		continue;
+	    }
+	    int count = 0;
+	    for (int row = 0; row < table.getRowCount(); row++) {
+		Object value = table.getCell(row, column);
+		if (value != null && !table.isDeleted(row)) {
+		    values[count++] = value;
+		}
+	    }
+	    Arrays.sort(values, 0, count, ORDER);
+	    ColumnStatistics c = new ColumnStatistics();
+	    c.nullFraction = (n == 0) ? 0 : (double) (n - count) / n;
+	    for (int i = 0; i < count; i++) {
+		if (i == 0 || Table.compare(values[i - 1], values[i]) != 0) {
+		    c.distinct++;
+		}
+	    }
+	    c.bounds = histogram(values, count);
+	    result.columns.put(name, c);
+	}
+	return result;
+    }
+
+    /**
+     * Picks the bounds of the buckets from sorted values.
+     * 
+     * @return The bounds, or <code>null</code> when there are no values or
+     *         some bound can not be written as text.
+     */
+    private static Object[] histogram(Object[] sorted, int count) {
+	if (count == 0) {
+	    return null;
+	}
+	int buckets = Math.min(BUCKETS, count);
+	Object[] bounds = new Object[buckets + 1];
+	for (int i = 0; i <= buckets; i++) {
+	    Object value = sorted[(int) ((long) (count - 1) * i / buckets)];
+	    if (value instanceof byte[] || (value instanceof Double
+		    && (((Double) value).isNaN() || ((Double) value)
+			    .isInfinite()))) {
+		return null;
+	    }
+	    bounds[i] = value;
+	}
+	return bounds;
+    }
+
+    /**
+     * Replaces the statistics of some tables in <code>sqlite_stat1</code>.
+     * 
+     * @param stat
+     *            The version of <code>sqlite_stat1</code> to write to.
+     * @param tables
+     *            The tables to analyze.
+     * @throws ProcessingException
+     *             when <code>sqlite_stat1</code> does not have the expected
+     *             columns.
+     */
+    static void save(Table stat, Collection<Table> tables)
+	    throws ProcessingException {
+	int tbl = stat.getColumnIndex("tbl");
+	int idx = stat.getColumnIndex("idx");
+	int text = stat.getColumnIndex("stat");
+	if (tbl == -1 || idx == -1 || text == -1) {
+	    throw new ProcessingException("Table \"" + TABLE
+		    + "\" lacks the columns tbl, idx and stat");
+	}
+	HashSet<String> names = new HashSet<String>();
+	for (Table table : tables) {
+	    names.add(table.name);
+	}
+
+	/* Keep the statistics of the other tables */
+	Vector<Object[]> kept = new Vector<Object[]>();
+	for (int row = 0; row < stat.getRowCount(); row++) {
+	    Object name = stat.getCell(row, tbl);
+	    if (!names.contains(name) && !stat.isDeleted(row)) {
+		kept.add(new Object[] { name, stat.getCell(row, idx),
+			stat.getCell(row, text) });
+	    }
+	}
+	stat.clear();
+	int[] columns = { tbl, idx, text };
+	for (Object[] values : kept) {
+	    stat.insert(columns, values);
+	}
+	for (Table table : tables) {
+	    Statistics statistics = collect(table);
+	    stat.insert(columns, new Object[] { table.name, null,
+		    String.valueOf(statistics.rowCount) });
+	    for (int i = 0; i < table.getColumnCount(); i++) {
+		String name = table.getColumnName(i);
+		ColumnStatistics c = statistics.columns.get(name);
+		if (c != null) {
+		    stat.insert(columns, new Object[] { table.name, name,
+			    format(c) });
+		    /* Repeated names are only written once */
+		    statistics.columns.remove(name);
+		}
+	    }
+	}
+    }
+
+    private static String format(ColumnStatistics c) {
+	StringBuilder b = new StringBuilder();
+	b.append((long) c.distinct);
+	b.append(' ');
+	b.append(c.nullFraction);
+	if (c.bounds != null) {
+	    for (Object bound : c.bounds) {
+		b.append(' ');
+		if (bound instanceof String) {
+		    b.append('\'');
+		    b.append(((String) bound).replace("'", "''"));
+		    b.append('\'');
+		} else {
+		    b.append(bound);
+		}
+	    }
+	}
+	return b.toString();
+    }
+
+    /**
+     * Reads a row of <code>sqlite_stat1</code>.
+     * 
+     * @param column
+     *            The name of the column, or <code>null</code> for the row of
+     *            the table itself.
+     * @throws NumberFormatException
+     *             when the text was not written by {@link #format}.
+     */
+    private void parse(String column, String text) {
+	Vector<Object> values = new Vector<Object>();
+	int pos = 0;
+	while (pos < text.length()) {
+	    char c = text.charAt(pos);
+	    if (c == ' ') {
+		pos++;
+	    } else if (c == '\'') {
+		StringBuilder b = new StringBuilder();
+		while (true) {
+		    int end = text.indexOf('\'', pos + 1);
+		    if (end == -1) {
+			throw new NumberFormatException("Unterminated text");
+		    }
+		    b.append(text, pos + 1, end);
+		    pos = end + 1;
+		    if (pos == text.length() || text.charAt(pos) != '\'') {
+			break;
+		    }
+		    b.append('\'');
+		}
+		values.add(b.toString());
+	    } else {
+		int end = text.indexOf(' ', pos);
+		if (end == -1) {
+		    end = text.length();
+		}
+		String number = text.substring(pos, end);
+		try {
+		    values.add(Long.valueOf(number));
+		} catch (NumberFormatException e) {
+		    values.add(Double.valueOf(number));
+		}
+		pos = end;
+	    }
+	}
+	if (values.isEmpty() || !(values.get(0) instanceof Number)) {
+	    throw new NumberFormatException("Number expected");
+	}
+	if (column == null) {
+	    rowCount = ((Number) values.get(0)).intValue();
+	    return;
+	}
+	if (values.size() < 2 || !(values.get(1) instanceof Number)) {
+	    throw new NumberFormatException("Number expected");
+	}
+	ColumnStatistics c = new ColumnStatistics();
+	c.distinct = ((Number) values.get(0)).doubleValue();
+	c.nullFraction = ((Number) values.get(1)).doubleValue();
+	if (values.size() > 3) {
+	    c.bounds = values.subList(2, values.size()).toArray();
+	}
+	columns.put(column, c);
+    }
+
+    /**
+     * Gets the number of rows of the table when it was analyzed.
+     * 
+     * @return The number of rows, or -1 when unknown.
+     */
+    int getRowCount() {
+	return rowCount;
+    }
+
+    /**
+     * Gets the number of distinct values in a column, NULL not counted.
+     * 
+     * @return The number of values, or -1 when unknown.
+     */
+    double getDistinct(String column) {
+	ColumnStatistics c = columns.get(column);
+	return (c != null) ? c.distinct : -1;
+    }
+
+    /**
+     * Estimates the fraction of the rows where a column equals a value.
+     */
+    double equals(String column, Object value) {
+	ColumnStatistics c = columns.get(column);
+	if (c == null) {
+	    return DEFAULT_EQUALS;
+	} else if (value == null || c.distinct == 0) {
+	    return 0;
+	}
+	return (1 - c.nullFraction) / c.distinct;
+    }
+
+    /**
+     * Estimates the fraction of the rows where a column is within a range.
+     * NULL is less than any value, just like in comparisons.
+     * 
+     * @param low
+     *            The lower bound, or <code>null</code> for no lower bound.
+     * @param high
+     *            The upper bound, or <code>null</code> for no upper bound.
+     */
+    double range(String column, Object low, boolean lowInclusive,
+	    Object high, boolean highInclusive) {
+	ColumnStatistics c = columns.get(column);
+	if (c == null) {
+	    return (low != null && high != null) ? DEFAULT_RANGE
+		    * DEFAULT_RANGE : DEFAULT_RANGE;
+	} else if (c.bounds == null) {
+	    return DEFAULT_RANGE;
+	}
+	double values = 1 - c.nullFraction;
+	double from = (low != null) ? c.nullFraction + values
+		* below(c.bounds, low) : 0;
+	double to = (high != null) ? c.nullFraction + values
+		* below(c.bounds, high) : 1;
+	double equal = (c.distinct > 0) ? values / c.distinct : 0;
+	if (low != null && !lowInclusive) {
+	    from += equal;
+	}
+	if (high != null && highInclusive) {
+	    to += equal;
+	}
+	return Math.max(0, Math.min(1, to) - from);
+    }
+
+    /**
+     * Estimates the fraction of the values below the given one.
+     */
+    private static double below(Object[] bounds, Object value) {
+	int buckets = bounds.length - 1;
+	if (Table.compare(value, bounds[0]) <= 0) {
+	    return 0;
+	} else if (Table.compare(value, bounds[buckets]) > 0) {
+	    return 1;
+	}
+	int i = 0;
+	while (Table.compare(value, bounds[i + 1]) > 0) {
+	    i++;
+	}
+
+	/* Assume that numbers are evenly spread within the bucket */
+	double within = 0.5;
+	if (value instanceof Number && bounds[i] instanceof Number
+		&& bounds[i + 1] instanceof Number) {
+	    double lo = ((Number) bounds[i]).doubleValue();
+	    double hi = ((Number) bounds[i + 1]).doubleValue();
+	    if (hi > lo) {
+		within = (((Number) value).doubleValue() - lo) / (hi - lo);
+	    }
+	}
+	return (i + within) / buckets;
+    }
+
+}
@@ -1,609 +1,1812 @@
-/* Prequel  A set of simple database APIs in Java SE, similar to SQLite
- * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- *
- * Authors: 
- *   Pr Spjuth (par.spjuth@sonyericsson.com)
- */
-package com.sonyericsson.prequel;
-
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Vector;
-
-public class Table {
-
-    private static final String NULL_TEXT = "NULL";
-
-    final static int NOT_NULL = 0x0100;
-
-    final static int PRIMARY_KEY = 0x0200;
-
-    final static int AUTO_INCREMENT = 0x0400;
-
-    final static int ASCENDING = 0x0800;
-
-    final static int DESCENDING = 0x1000;
-
-    final static int TYPE_MASK = 0xff;
-
-    final static int INTEGER = 0x00;
-
-    final static int TEXT = 0x01;
-
-    final static int REAL = 0x02;
-
-    final static int NONE = 0x03;
-
-    final static int NUMERIC = 0x04;
-
-    private Vector<Row> rows;
-
-    private Database parent;
-
-    Vector<Object> defVals;
-
-    Vector<Long> autoIncr;
-
-    /* NOTE: Keep package private to allow quick access from inner classes. */
-    Vector<String> columns;
-
-    Vector<Integer> flags;
-
-    private interface Row {
-
-	Object set(int columnIdx, Object obj);
-
-	Object get(int columnIdx);
-
-	void addColumn(Object defVal);
-
-	Row makeCopy();
-
-    }
-
-    @SuppressWarnings("serial")
-    private static class VectorRow extends Vector<Object> implements Row {
-
-	public VectorRow(int size) {
-	    super(size);
-	    setSize(size);
-	}
-
-	@Override
-	public void addColumn(Object defVal) {
-	    add(defVal);
-	}
-
-	@Override
-	public Row makeCopy() {
-	    return (Row) clone();
-	}
-
-    }
-
-    class ObjectRow implements Row {
-
-	Object o;
-
-	public ObjectRow(Object obj) {
-	    o = obj;
-	}
-
-	@Override
-	public Object set(int columnIdx, Object obj) {
-	    try {
-		Class<?> clazz = o.getClass();
-		String name = columns.get(columnIdx);
-		Method m = clazz.getMethod(
-			"set" + name.substring(0, 1).toUpperCase()
-				+ name.substring(1), Object.class);
-		m.invoke(o, obj);
-	    } catch (SecurityException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-	    } catch (NoSuchMethodException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-	    } catch (IllegalArgumentException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-	    } catch (IllegalAccessException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-	    } catch (InvocationTargetException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-	    }
-	    return obj;
-	}
-
-	@Override
-	public Object get(int columnIdx) {
-	    try {
-		Class<?> clazz = o.getClass();
-		String name = columns.get(columnIdx);
-		Method m = clazz.getMethod(
-			"get" + name.substring(0, 1).toUpperCase()
-				+ name.substring(1), Object.class);
-		return m.invoke(o);
-	    } catch (SecurityException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-		return null;
-	    } catch (NoSuchMethodException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-		return null;
-	    } catch (IllegalArgumentException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-		return null;
-	    } catch (IllegalAccessException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-		return null;
-	    } catch (InvocationTargetException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-		return null;
-	    }
-	}
-
-	@Override
-	public void addColumn(Object defVal) {
-	    /*
-	     * Attempt to set the default value. This fails if the new column is
-	     * not present on the object.
-	     */
-	    set(columns.size() - 1, defVal);
-	}
-
-	@Override
-	public Row makeCopy() {
-	    return this;
-	}
-
-    }
-
-    Table(Database parent) {
-	this.parent = parent;
-	columns = new Vector<String>();
-	flags = new Vector<Integer>();
-	defVals = new Vector<Object>();
-	rows = new Vector<Row>();
-	autoIncr = new Vector<Long>();
-    }
-
-    Table(Database parent, String name, int type, Object value) {
-	this(parent);
-	addColumn(name, type, null);
-	set(0, 0, value);
-    }
-
-    Object convert(Object o, int type) {
-	if (o == null) {
-	    return null;
-	}
-	switch (type) {
-	case INTEGER:
-	    if (o instanceof Integer) {
-		return o;
-	    } else if (o instanceof Long) {
-		long l = (Long) o;
-		if (l <= Integer.MAX_VALUE && l >= Integer.MIN_VALUE) {
-		    return (int) l;
-		} else {
-		    return l;
-		}
-	    } else if (o instanceof Double) {
-		return convert(((Double) o).intValue(), type);
-	    } else if (o instanceof String) {
-		try {
-		    return convert(Long.valueOf((String) o), type);
-		} catch (NumberFormatException e) {
-		    return 0;
-		}
-	    } else {
-		return 0;
-	    }
-	case REAL:
-	    if (o instanceof Integer) {
-		return Double.valueOf((Integer) o);
-	    } else if (o instanceof Long) {
-		return Double.valueOf((Long) o);
-	    } else if (o instanceof String) {
-		return Double.valueOf((String) o);
-	    } else {
-		return 0d;
-	    }
-	case NUMERIC:
-	case TEXT:
-	case NONE:
-	    return o.toString();
-	default:
-	    throw new IllegalArgumentException("Unknown type");
-	}
-    }
-
-    void addColumn(String name, int flags, Object defVal) {
-	columns.add(name);
-	autoIncr.add(0l);
-	this.flags.add(flags);
-	defVals.add(convert(defVal, flags & TYPE_MASK));
-	for (Row row : rows) {
-	    row.addColumn(defVal);
-	}
-    }
-
-    void addUniquness(int column) {
-	// TODO
-    }
-
-    void set(int row, int column, Object value) {
-	if (row >= rows.size()) {
-	    rows.setSize(row + 1);
-	}
-	if (rows.get(row) == null) {
-	    Row values = new VectorRow(columns.size());
-	    for (int i = 0; i < flags.size(); i++) {
-		if ((flags.get(i) & AUTO_INCREMENT) > 0) {
-		    long incr = autoIncr.get(i);
-		    autoIncr.set(i, incr + 1);
-		    values.set(i, incr);
-		} else if (defVals.get(i) != null) {
-		    values.set(i, defVals.get(i));
-		}
-	    }
-	    rows.set(row, values);
-	}
-	rows.get(row)
-		.set(column, convert(value, flags.get(column) & TYPE_MASK));
-    }
-
-    Vector<Integer> getRowsWhere(Expression where) {
-	Vector<Integer> result = new Vector<Integer>();
-	for (int i = 0; i < rows.size(); i++) {
-	    if (where == null || ((Integer) where.evaluate(this, i)) == 1) {
-		result.add(i);
-	    }
-	}
-	return result;
-    }
-
-    void copyRow(Table source, int idx) {
-	int row = getRowCount();
-	for (int i = 0; i < source.getColumnCount(); i++) {
-	    int colIdx = getColumnIndex(source.getColumnName(i));
-	    if (colIdx != -1) {
-		set(row, colIdx, source.getCell(idx, i));
-	    }
-	}
-    }
-
-    int indexOf(Table other, int idx) {
-	// TODO: Check in this table for a row that can be considered a equal to
-	// the row at idx in the other table.
-	return -1;
-    }
-
-    // Table ensureParent(Database parent) {
-    // if (this.parent == parent) {
-    // return this;
-    // } else {
-    // // TODO: Clone the table and return one that has the new parent!
-    // return null;
-    // }
-    // }
-
-    // void removeRow(int row) {
-    // if (rows.size() > row) {
-    // rows.remove(row);
-    // }
-    // }
-
-    Table exract(Vector<Expression> columns, Expression where) {
-	Table sub = new Table(parent);
-
-	/* Create requested columns */
-	if (columns == null) {
-	    for (int i = 0; i < getColumnCount(); i++) {
-		sub.addColumn(getColumnName(i), getFlags(i), getDefVal(i));
-	    }
-	    for (int row : getRowsWhere(where)) {
-		sub.rows.add(rows.get(row).makeCopy());
-	    }
-	} else {
-	    for (Expression column : columns) {
-		String name = column.toString();
-		name = name.substring(name.startsWith("(") ? 1 : 0,
-			name.length() - (name.startsWith("(") ? 1 : 0));
-		sub.addColumn(name, column.type(this), null);
-	    }
-
-	    /* Evaluate all cells */
-	    int y = 0;
-	    for (int row : getRowsWhere(where)) {
-		int x = 0;
-		for (Expression column : columns) {
-		    sub.set(y, x, column.evaluate(this, row));
-		    x++;
-		}
-		y++;
-	    }
-	}
-	return sub;
-    }
-
-    void union(Table other, boolean allowDuplicates) {
-
-	/* Add columns from other table */
-	for (int i = 0; i < other.getColumnCount(); i++) {
-	    addColumn(other.getColumnName(i), other.getFlags(i),
-		    other.getDefVal(i));
-	}
-
-	/* Add rows from other table */
-	for (int row : other.getRowsWhere(null)) {
-	    if (allowDuplicates || indexOf(other, row) == -1) {
-		copyRow(other, row);
-	    }
-	}
-    }
-
-    Object getDefVal(int idx) {
-	return defVals.get(idx);
-    }
-
-    int getFlags(int idx) {
-	return flags.get(idx);
-    }
-
-    Object getCell(int row, int column) {
-	if (rows.size() > row) {
-	    return rows.get(row).get(column);
-	} else {
-	    return null;
-	}
-    }
-
-    /**
-     * Gets the index of the column with the given name.
-     * 
-     * @param name
-     *            The name of the column.
-     * @return The index of the column, or -1 when there was no column with the
-     *         given name.
-     */
-    public int getColumnIndex(String name) {
-	return columns.indexOf(name);
-    }
-
-    /**
-     * Gets the number of columns in the table.
-     * 
-     * @return The number of columns.
-     */
-    public int getColumnCount() {
-	return columns.size();
-    }
-
-    /**
-     * Gets the name of the specified column.
-     * 
-     * @param idx
-     *            The column index.
-     * @return The name of the column.
-     * @throws IndexOutOfBoundsException
-     *             when the index specifies a column that does not exist in the
-     *             table.
-     */
-    public String getColumnName(int idx) throws IndexOutOfBoundsException {
-	return columns.get(idx);
-    }
-
-    /**
-     * Gets the number of rows in the table.
-     * 
-     * @return The number of table rows.
-     */
-    public int getRowCount() {
-	return rows.size();
-    }
-
-    /**
-     * Indicates whether the table is empty or not. An empty table is defined as
-     * a table with no rows. The number of columns is ignored.
-     * 
-     * @return <code>true</code> when the table has no rows, <code>false</code>
-     *         otherwise.
-     */
-    public boolean isEmpty() {
-	return rows.isEmpty();
-    }
-
-    /**
-     * Indicates whether a cell is set to the NULL value or not.
-     * 
-     * @param row
-     *            The row of the cell.
-     * @param column
-     *            The column of the cell.
-     * @return <code>true</code> when the cell is set to NULL,
-     *         <code>false</code> otherwise.
-     */
-    public boolean isNull(int row, int column) {
-	return (getCell(row, column) == null);
-    }
-
-    public int getCellInt(int row, int column) {
-	Object o = getCell(row, column);
-	if (o == null) {
-	    return 0;
-	} else if (o instanceof Integer) {
-	    return (Integer) o;
-	} else if (o instanceof Long) {
-	    return ((Long) o).intValue();
-	} else if (o instanceof Double) {
-	    return ((Double) o).intValue();
-	} else {
-	    return (int) Long.parseLong(o.toString());
-	}
-    }
-
-    public long getCellLong(int row, int column) {
-	Object o = getCell(row, column);
-	if (o == null) {
-	    return 0;
-	} else if (o instanceof Integer) {
-	    return (Integer) o;
-	} else if (o instanceof Long) {
-	    return (Long) o;
-	} else if (o instanceof Double) {
-	    return ((Double) o).longValue();
-	} else {
-	    return Long.parseLong(o.toString());
-	}
-    }
-
-    public double getCellDouble(int row, int column) {
-	Object o = getCell(row, column);
-	if (o == null) {
-	    return 0;
-	} else if (o instanceof Integer) {
-	    return (Integer) o;
-	} else if (o instanceof Double) {
-	    return (Double) o;
-	} else if (o instanceof Long) {
-	    return (Long) o;
-	} else {
-	    return Double.parseDouble(o.toString());
-	}
-    }
-
-    public String getCellString(int row, int column) {
-	Object o = getCell(row, column);
-	if (o == null) {
-	    return "";
-	} else {
-	    return o.toString();
-	}
-    }
-
-    public boolean getCellBoolean(int row, int column) {
-	return (getCellInt(row, column) == 1);
-    }
-
-    public Class<?> getColumnClass(int column) {
-	switch (flags.get(column) & TYPE_MASK) {
-	case INTEGER:
-	    return Integer.class;
-	case TEXT:
-	    return String.class;
-	default:
-	    return Object.class;
-	}
-    }
-
-    @Override
-    public String toString() {
-	int[] maxWidth = new int[columns.size()];
-	for (int i = 0; i < maxWidth.length; i++) {
-	    maxWidth[i] = columns.get(i).length() + 2;
-	    for (int j = 0; j < getRowCount(); j++) {
-		Object entry = getCell(j, i);
-		if (entry != null) {
-		    maxWidth[i] = Math.max(maxWidth[i], entry.toString()
-			    .length() + 2);
-		} else {
-		    maxWidth[i] = Math.max(maxWidth[i], NULL_TEXT.length() + 2);
-		}
-	    }
-	}
-
-	/* Generate headers */
-	StringBuilder b = new StringBuilder();
-	for (int i = 0; i < maxWidth.length; i++) {
-	    b.append("+");
-	    for (int j = 0; j < maxWidth[i]; j++) {
-		b.append("-");
-	    }
-	}
-	b.append("+\n");
-	for (int i = 0; i < maxWidth.length; i++) {
-	    b.append("| ");
-	    b.append(columns.get(i));
-	    for (int j = 0; j < maxWidth[i] - columns.get(i).length() - 1; j++) {
-		b.append(" ");
-	    }
-	}
-	b.append("|\n");
-	for (int i = 0; i < maxWidth.length; i++) {
-	    b.append("+");
-	    for (int j = 0; j < maxWidth[i]; j++) {
-		b.append("-");
-	    }
-	}
-	b.append("+\n");
-
-	/* Generate rows */
-	for (int i = 0; i < getRowCount(); i++) {
-	    for (int j = 0; j < maxWidth.length; j++) {
-		b.append("| ");
-		Object text = getCell(i, j);
-		if (text == null) {
-		    text = NULL_TEXT;
-		}
-		b.append(text);
-		for (int k = 0; k < maxWidth[j] - text.toString().length() - 1; k++) {
-		    b.append(" ");
-		}
-	    }
-	    b.append("|\n");
-	}
-
-	/* Generate footer */
-	for (int i = 0; i < maxWidth.length; i++) {
-	    b.append("+");
-	    for (int j = 0; j < maxWidth[i]; j++) {
-		b.append("-");
-	    }
-	}
-	b.append("+\n");
-	return b.toString();
-    }
-
-    @SuppressWarnings("unchecked")
-    public <T> Iterator<T> getRows(Class<T> clazz) {
-	ArrayList<T> temp = new ArrayList<T>(rows.size());
-	for (Row row : rows) {
-	    if (row instanceof ObjectRow) {
-		Object o = ((ObjectRow) row).o;
-		if (clazz.isInstance(o)) {
-		    temp.add((T) o);
-		}
-	    }
-	}
-	return temp.iterator();
-    }
-
-}
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class Table {
+
+    private static final String NULL_TEXT = "NULL";
+
+    final static int NOT_NULL = 0x0100;
+
+    final static int PRIMARY_KEY = 0x0200;
+
+    final static int AUTO_INCREMENT = 0x0400;
+
+    final static int ASCENDING = 0x0800;
+
+    final static int DESCENDING = 0x1000;
+
+    final static int TYPE_MASK = 0xff;
+
+    final static int INTEGER = 0x00;
+
+    final static int TEXT = 0x01;
+
+    final static int REAL = 0x02;
+
+    final static int NONE = 0x03;
+
+    final static int NUMERIC = 0x04;
+
+    /* Resolutions of constraint conflicts, see ON CONFLICT */
+    final static int ROLLBACK = 0;
+
+    final static int ABORT = 1;
+
+    final static int FAIL = 2;
+
+    final static int IGNORE = 3;
+
+    final static int REPLACE = 4;
+
+    /* A Row object for each row, unused when the data is kept in columns */
+    private Column rows;
+
+    /* Column storage, or null when the table keeps its data in rows */
+    private Column[] store;
+
+    private int rowCount;
+
+    /* Rows shared with the version this table was forked from */
+    private int frozen;
+
+    /* Deleted rows, null when no row has been deleted */
+    private Tombstones deleted;
+
+    /* The INTEGER PRIMARY KEY column, -1 when there is none */
+    private int rowid = -1;
+
+    private Database parent;
+
+    ArrayList<Object> defVals;
+
+    ArrayList<Long> autoIncr;
+
+    /* NOTE: Keep package private to allow quick access from inner classes. */
+    ArrayList<String> columns;
+
+    /* Index of each column name, the first one when a name is repeated */
+    private HashMap<String, Integer> columnIndex;
+
+    ArrayList<Integer> flags;
+
+    private ArrayList<Index> indexes;
+
+    /* Name of a table stored in a database, null for results */
+    String name;
+
+    /* Held while a transaction writes to a stored table, null for results */
+    ReentrantLock lock;
+
+    /* Tables are always locked in this order, to avoid deadlocks */
+    int lockOrder;
+
+    /* Where the changes to a version being written are logged, or null */
+    WriteAheadLog.Record redo;
+
+    private interface Row {
+
+	Object set(int columnIdx, Object obj);
+
+	Object get(int columnIdx);
+
+	void addColumn(Object defVal);
+
+	Row makeCopy();
+
+    }
+
+    private static class ArrayRow implements Row {
+
+	private Object[] values;
+
+	public ArrayRow(int size) {
+	    values = new Object[size];
+	}
+
+	@Override
+	public Object set(int columnIdx, Object obj) {
+	    Object old = values[columnIdx];
+	    values[columnIdx] = obj;
+	    return old;
+	}
+
+	@Override
+	public Object get(int columnIdx) {
+	    return values[columnIdx];
+	}
+
+	@Override
+	public void addColumn(Object defVal) {
+	    values = Arrays.copyOf(values, values.length + 1);
+	    values[values.length - 1] = defVal;
+	}
+
+	@Override
+	public Row makeCopy() {
+	    ArrayRow copy = new ArrayRow(0);
+	    copy.values = values.clone();
+	    return copy;
+	}
+
+    }
+
+    class ObjectRow implements Row {
+
+	Object o;
+
+	public ObjectRow(Object obj) {
+	    o = obj;
+	}
+
+	@Override
+	public Object set(int columnIdx, Object obj) {
+	    try {
+		Class<?> clazz = o.getClass();
+		String name = columns.get(columnIdx);
+		Method m = clazz.getMethod(
+			"set" + name.substring(0, 1).toUpperCase()
+				+ name.substring(1), Object.class);
+		m.invoke(o, obj);
+	    } catch (SecurityException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+	    } catch (NoSuchMethodException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+	    } catch (IllegalArgumentException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+	    } catch (IllegalAccessException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+	    } catch (InvocationTargetException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+	    }
+	    return obj;
+	}
+
+	@Override
+	public Object get(int columnIdx) {
+	    try {
+		Class<?> clazz = o.getClass();
+		String name = columns.get(columnIdx);
+		Method m = clazz.getMethod(
+			"get" + name.substring(0, 1).toUpperCase()
+				+ name.substring(1), Object.class);
+		return m.invoke(o);
+	    } catch (SecurityException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+		return null;
+	    } catch (NoSuchMethodException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+		return null;
+	    } catch (IllegalArgumentException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+		return null;
+	    } catch (IllegalAccessException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+		return null;
+	    } catch (InvocationTargetException e) {
+		// TODO Auto-generated catch block
+		e.printStackTrace();
+		return null;
+	    }
+	}
+
+	@Override
+	public void addColumn(Object defVal) {
+	    /*
+	     * Attempt to set the default value. This fails if the new column is
+	     * not present on the object.
+	     */
+	    set(columns.size() - 1, defVal);
+	}
+
+	@Override
+	public Row makeCopy() {
+	    return this;
+	}
+
+    }
+
+    Table(Database parent) {
+	this.parent = parent;
+	columns = new ArrayList<String>();
+	columnIndex = new HashMap<String, Integer>();
+	flags = new ArrayList<Integer>();
+	defVals = new ArrayList<Object>();
+	rows = Column.create(TEXT);
+	autoIncr = new ArrayList<Long>();
+	indexes = new ArrayList<Index>();
+    }
+
+    /**
+     * Creates an empty table.
+     * 
+     * @param parent
+     *            The database owning the table.
+     * @param columnar
+     *            <code>true</code> to keep the data in typed columns,
+     *            <code>false</code> to keep it in rows.
+     */
+    Table(Database parent, boolean columnar) {
+	this(parent);
+	if (columnar) {
+	    store = new Column[0];
+	}
+    }
+
+    /**
+     * Creates an empty table with the same columns as this one.
+     * 
+     * @param columnar
+     *            <code>true</code> to keep the data in typed columns,
+     *            <code>false</code> to keep it in rows.
+     * @return The new table.
+     */
+    Table createEmpty(boolean columnar) {
+	Table table = new Table(parent, columnar);
+	for (int i = 0; i < getColumnCount(); i++) {
+	    table.addColumn(getColumnName(i), getFlags(i), getDefVal(i));
+	}
+	return table;
+    }
+
+    Table(Database parent, String name, int type, Object value) {
+	this(parent);
+	addColumn(name, type, null);
+	set(0, 0, value);
+    }
+
+    Object convert(Object o, int type) {
+	if (o == null) {
+	    return null;
+	}
+	switch (type) {
+	case INTEGER:
+	    if (o instanceof Integer) {
+		return o;
+	    } else if (o instanceof Long) {
+		long l = (Long) o;
+		if (l <= Integer.MAX_VALUE && l >= Integer.MIN_VALUE) {
+		    return (int) l;
+		} else {
+		    return l;
+		}
+	    } else if (o instanceof Double) {
+		return convert(((Double) o).intValue(), type);
+	    } else if (o instanceof String) {
+		try {
+		    return convert(Long.valueOf((String) o), type);
+		} catch (NumberFormatException e) {
+		    return 0;
+		}
+	    } else {
+		return 0;
+	    }
+	case REAL:
+	    if (o instanceof Integer) {
+		return Double.valueOf((Integer) o);
+	    } else if (o instanceof Long) {
+		return Double.valueOf((Long) o);
+	    } else if (o instanceof Double) {
+		return o;
+	    } else if (o instanceof String) {
+		return Double.valueOf((String) o);
+	    } else {
+		return 0d;
+	    }
+	case NUMERIC:
+	case TEXT:
+	case NONE:
+	    return o.toString();
+	default:
+	    throw new IllegalArgumentException("Unknown type");
+	}
+    }
+
+    /**
+     * Compares two values in the order used by indexes: NULL first, then
+     * numbers, text and finally blobs.
+     * 
+     * @return A negative number, zero or a positive number when the first
+     *         value is less than, equal to or greater than the second value.
+     */
+    static int compare(Object a, Object b) {
+	if (a == null || b == null) {
+	    return (a == null) ? ((b == null) ? 0 : -1) : 1;
+	}
+	int aClass = valueClass(a);
+	int bClass = valueClass(b);
+	if (aClass != bClass) {
+	    return (aClass < bClass) ? -1 : 1;
+	}
+	switch (aClass) {
+	case 0:
+	    if (a instanceof Double || b instanceof Double) {
+		return Double.compare(((Number) a).doubleValue(),
+			((Number) b).doubleValue());
+	    } else {
+		long l1 = ((Number) a).longValue();
+		long l2 = ((Number) b).longValue();
+		return (l1 < l2) ? -1 : ((l1 == l2) ? 0 : 1);
+	    }
+	case 1:
+	    return ((String) a).compareTo((String) b);
+	case 2:
+	    byte[] x = (byte[]) a;
+	    byte[] y = (byte[]) b;
+	    if (x.length != y.length) {
+		return (x.length < y.length) ? -1 : 1;
+	    }
+	    for (int i = 0; i < x.length; i++) {
+		if (x[i] != y[i]) {
+		    return (x[i] < y[i]) ? -1 : 1;
+		}
+	    }
+	    return 0;
+	default:
+	    return a.toString().compareTo(b.toString());
+	}
+    }
+
+    /**
+     * Hashes a value so that values considered equal by
+     * {@link #compare(Object, Object)} get the same hash.
+     */
+    static int hash(Object o) {
+	if (o == null) {
+	    return 0;
+	} else if (o instanceof Double) {
+	    double d = (Double) o;
+	    if (d == (long) d) {
+		return hash((long) d);
+	    }
+	    return hash(Double.doubleToLongBits(d));
+	} else if (o instanceof Number) {
+	    return hash(((Number) o).longValue());
+	} else if (o instanceof byte[]) {
+	    return Arrays.hashCode((byte[]) o);
+	} else {
+	    return o.hashCode();
+	}
+    }
+
+    static int hash(long l) {
+	int h = (int) (l ^ (l >>> 32)) * 0x9e3779b9;
+	return h ^ (h >>> 16);
+    }
+
+    private static int valueClass(Object o) {
+	if (o instanceof Number) {
+	    return 0;
+	} else if (o instanceof String) {
+	    return 1;
+	} else if (o instanceof byte[]) {
+	    return 2;
+	} else {
+	    return 3;
+	}
+    }
+
+    void addColumn(String name, int flags, Object defVal) {
+	columns.add(name);
+	if (!columnIndex.containsKey(name)) {
+	    columnIndex.put(name, columns.size() - 1);
+	}
+	autoIncr.add(0l);
+	this.flags.add(flags);
+	defVals.add(convert(defVal, flags & TYPE_MASK));
+	if (store != null) {
+	    Column column = Column.create(flags & TYPE_MASK);
+	    column.ensureCapacity(rowCount);
+	    Object value = convert(defVal, flags & TYPE_MASK);
+	    for (int i = 0; i < rowCount; i++) {
+		column = column.set(i, value);
+	    }
+	    store = Arrays.copyOf(store, store.length + 1);
+	    store[store.length - 1] = column;
+	} else {
+	    for (int i = 0; i < rowCount; i++) {
+		((Row) rows.get(i)).addColumn(defVal);
+	    }
+	}
+    }
+
+    /**
+     * Creates a new version of this stored table, for a transaction to write
+     * to. The versions share their storage, which is copied in chunks as the
+     * new version is changed. Anyone reading this version is therefore not
+     * affected, but this version must not be changed any more.
+     * 
+     * @return The new version.
+     */
+    Table fork() {
+	Table copy = new Table(parent);
+	copy.name = name;
+	copy.lock = lock;
+	copy.lockOrder = lockOrder;
+	copy.columns = columns;
+	copy.columnIndex = columnIndex;
+	copy.flags = flags;
+	copy.defVals = defVals;
+	copy.autoIncr = new ArrayList<Long>(autoIncr);
+	copy.rows = rows.fork(rowCount);
+	if (store != null) {
+	    copy.store = new Column[store.length];
+	    for (int i = 0; i < store.length; i++) {
+		copy.store[i] = store[i].fork(rowCount);
+	    }
+	}
+	copy.rowCount = rowCount;
+	copy.frozen = rowCount;
+	copy.deleted = (deleted != null) ? deleted.fork() : null;
+	copy.rowid = rowid;
+	for (Index index : indexes) {
+	    copy.indexes.add(index.fork());
+	}
+	return copy;
+    }
+
+    /**
+     * Adds rows to a columnar table, up to the given row count. Each new row
+     * gets default and auto increment values, just like a new row in a row
+     * based table.
+     */
+    private void addColumnarRows(int count) {
+	for (int i = 0; i < store.length; i++) {
+	    store[i].ensureCapacity(count);
+	}
+	for (int row = rowCount; row < count; row++) {
+	    initRow(row);
+	}
+	rowCount = count;
+    }
+
+    /**
+     * Gives a row the default and auto increment values of a new row. The
+     * storage must already have room for it.
+     */
+    private void initRow(int row) {
+	if (store != null) {
+	    for (int i = 0; i < store.length; i++) {
+		if ((flags.get(i) & AUTO_INCREMENT) > 0 && i != rowid) {
+		    long incr = autoIncr.get(i);
+		    autoIncr.set(i, incr + 1);
+		    store[i] = store[i].set(row,
+			    convert(incr, flags.get(i) & TYPE_MASK));
+		} else {
+		    /* The row may hold old data */
+		    store[i] = store[i].set(row, defVals.get(i));
+		}
+	    }
+	    return;
+	}
+	Row values = new ArrayRow(columns.size());
+	for (int j = 0; j < flags.size(); j++) {
+	    if ((flags.get(j) & AUTO_INCREMENT) > 0 && j != rowid) {
+		long incr = autoIncr.get(j);
+		autoIncr.set(j, incr + 1);
+		values.set(j, incr);
+	    } else if (defVals.get(j) != null) {
+		values.set(j, defVals.get(j));
+	    }
+	}
+	rows = rows.set(row, values);
+    }
+
+    /**
+     * Makes sure that the given row exists, creating it with default and auto
+     * increment values if needed.
+     * 
+     * @return <code>true</code> when the row was created.
+     */
+    private boolean ensureRow(int row) {
+	if (row < rowCount) {
+	    return false;
+	}
+	if (store != null) {
+	    addColumnarRows(row + 1);
+	    return true;
+	}
+	rows.ensureCapacity(row + 1);
+	for (int i = rowCount; i <= row; i++) {
+	    initRow(i);
+	}
+	rowCount = row + 1;
+	return true;
+    }
+
+    /**
+     * Writes a cell without maintaining the indexes.
+     */
+    private void write(int row, int column, Object value) {
+	put(row, column, convert(value, flags.get(column) & TYPE_MASK));
+    }
+
+    /**
+     * Writes a cell as it is, without converting it to the type of the
+     * column or maintaining the indexes.
+     */
+    private void put(int row, int column, Object value) {
+	if (store != null) {
+	    store[column] = store[column].set(row, value);
+	} else {
+	    Row values = (Row) rows.get(row);
+	    if (row < frozen) {
+		/* The row is shared with other versions of the table */
+		values = values.makeCopy();
+		rows = rows.set(row, values);
+	    }
+	    values.set(column, value);
+	}
+    }
+
+    void set(int row, int column, Object value) {
+	if (redo != null) {
+	    redo.set(this, row, column, value);
+	}
+	if (ensureRow(row)) {
+	    write(row, column, value);
+	    for (Index index : indexes) {
+		index.insert(index.keyOf(this, row), row);
+	    }
+	    return;
+	}
+	Vector<Index> affected = null;
+	for (Index index : indexes) {
+	    if (index.covers(column)) {
+		if (affected == null) {
+		    affected = new Vector<Index>();
+		}
+		index.remove(index.keyOf(this, row), row);
+		affected.add(index);
+	    }
+	}
+	write(row, column, value);
+	if (affected != null) {
+	    for (Index index : affected) {
+		index.insert(index.keyOf(this, row), row);
+	    }
+	}
+    }
+
+    /**
+     * Adds a new row to the table, without checking the unique indexes. Used
+     * for results, which have no constraints.
+     * 
+     * @param columns
+     *            Indices of the columns to set, other columns get their
+     *            default values.
+     * @param values
+     *            The values for the columns.
+     * @return The index of the new row.
+     */
+    int insert(int[] columns, Object[] values) {
+	int row = createRow(columns, values);
+	for (Index index : indexes) {
+	    index.insert(index.keyOf(this, row), row);
+	}
+	if (redo != null) {
+	    redo.insert(this, row);
+	}
+	return row;
+    }
+
+    /**
+     * Adds a new row to the table. A deleted row is used for it when there
+     * is one, otherwise the row is added last.
+     * 
+     * @param columns
+     *            Indices of the columns to set, other columns get their
+     *            default values.
+     * @param values
+     *            The values for the columns.
+     * @param conflict
+     *            What to do when the row has the same key as another row in
+     *            a unique index, or -1 to do what the index says, see
+     *            {@link #ROLLBACK}.
+     * @return The index of the new row, or -1 when it was ignored.
+     * @throws ProcessingException
+     *             when the row conflicts with another row and is not
+     *             ignored or replacing it.
+     */
+    int insert(int[] columns, Object[] values, int conflict)
+	    throws ProcessingException {
+	boolean reused = getDeletedRowCount() > 0;
+	int row = createRow(columns, values);
+	if (rowid != -1) {
+	    if (getCell(row, rowid) == null) {
+		write(row, rowid, autoIncr.get(rowid));
+	    }
+	    useRowid(getCell(row, rowid));
+	}
+	boolean added = false;
+	try {
+	    added = resolve(row, uniqueKeys(row, null, null), conflict);
+	} finally {
+	    if (!added) {
+		/* Give the row back */
+		if (reused) {
+		    deleted.add(row);
+		} else {
+		    rowCount--;
+		}
+	    }
+	}
+	if (!added) {
+	    return -1;
+	}
+	for (Index index : indexes) {
+	    index.insert(index.keyOf(this, row), row);
+	}
+	if (redo != null) {
+	    redo.insert(this, row);
+	}
+	return row;
+    }
+
+    /**
+     * Puts a row back where a logged insert put it, see
+     * {@link WriteAheadLog}. The row must be deleted, or come right after the
+     * last row.
+     * 
+     * @param values
+     *            The values of all columns.
+     */
+    void insertAt(int row, Object[] values) {
+	if (row < rowCount) {
+	    deleted.remove(row);
+	    initRow(row);
+	} else {
+	    ensureRow(row);
+	}
+	for (int i = 0; i < values.length; i++) {
+	    write(row, i, values[i]);
+	}
+	for (Index index : indexes) {
+	    index.insert(index.keyOf(this, row), row);
+	}
+    }
+
+    /**
+     * Adds new rows to the table, see {@link #insert(int[], Object[], int)}.
+     * The storage is grown for all of the rows before the first one is
+     * added, instead of one chunk at a time.
+     * 
+     * @param rows
+     *            The values of the columns, by row.
+     * @return The number of rows added, which is less than the number of
+     *         rows given when some of them were ignored.
+     * @throws ProcessingException
+     *             when a row conflicts with another row, in which case the
+     *             rows before it have been added.
+     */
+    int insert(int[] columns, List<Object[]> rows, int conflict)
+	    throws ProcessingException {
+	int added = rowCount + rows.size() - getDeletedRowCount();
+	if (store != null) {
+	    for (int i = 0; i < store.length; i++) {
+		store[i].ensureCapacity(added);
+	    }
+	} else {
+	    this.rows.ensureCapacity(added);
+	}
+	added = 0;
+	for (Object[] values : rows) {
+	    if (insert(columns, values, conflict) != -1) {
+		added++;
+	    }
+	}
+	return added;
+    }
+
+    /**
+     * Creates a row, in the lowest deleted row if there is one, without
+     * adding it to the indexes.
+     */
+    private int createRow(int[] columns, Object[] values) {
+	int row = (deleted != null) ? deleted.reuse() : -1;
+	if (row != -1) {
+	    initRow(row);
+	} else {
+	    row = getRowCount();
+	    ensureRow(row);
+	}
+	for (int i = 0; i < columns.length; i++) {
+	    write(row, columns[i], values[i]);
+	}
+	return row;
+    }
+
+    /**
+     * Changes values of a row, unless they would give the row the same key
+     * as another row in a unique index.
+     * 
+     * @param conflict
+     *            What to do on such a conflict, see
+     *            {@link #insert(int[], Object[], int)}.
+     * @return <code>false</code> when the row was left unchanged since the
+     *         conflict was ignored.
+     * @throws ProcessingException
+     *             when the row conflicts with another row.
+     */
+    boolean update(int row, int[] columns, Object[] values, int conflict)
+	    throws ProcessingException {
+	for (int i = 0; i < columns.length; i++) {
+	    if (columns[i] == rowid && values[i] == null) {
+		throw new ProcessingException("Column \""
+			+ getColumnName(rowid) + "\" of table \"" + name
+			+ "\" may not be NULL");
+	    }
+	}
+	if (!resolve(row, uniqueKeys(row, columns, values), conflict)) {
+	    return false;
+	}
+	for (int i = 0; i < columns.length; i++) {
+	    set(row, columns[i], values[i]);
+	    if (columns[i] == rowid) {
+		useRowid(getCell(row, rowid));
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Makes a column the <code>INTEGER PRIMARY KEY</code> of the table, see
+     * {@link Index#rowid(String, int, int)}. A row inserted without a key
+     * gets one more than the largest key the table has held, starting with
+     * 1, so keys are never used twice.
+     */
+    void addRowid(int column, String indexName, int conflict) {
+	rowid = column;
+	autoIncr.set(column, 1l);
+	addIndex(Index.rowid(indexName, column, conflict));
+    }
+
+    /**
+     * Notes that a key has been used, so that it is not given to a new row.
+     */
+    private void useRowid(Object key) {
+	long next = ((Number) key).longValue() + 1;
+	if (next > autoIncr.get(rowid)) {
+	    autoIncr.set(rowid, next);
+	}
+    }
+
+    /**
+     * Gets the keys that a row would have in the unique indexes after some
+     * of its values were changed. Keys that would not change are left out,
+     * as are keys with NULL values since they never conflict.
+     * 
+     * @param columns
+     *            The columns to change, or <code>null</code> for a new row
+     *            that has all its values written already.
+     * @return The keys by index, or <code>null</code> when no unique index
+     *         is affected.
+     */
+    private Object[][] uniqueKeys(int row, int[] columns, Object[] values) {
+	Object[][] keys = null;
+	for (int i = 0; i < indexes.size(); i++) {
+	    Index index = indexes.get(i);
+	    if (!index.unique) {
+		continue;
+	    }
+	    Object[] key = (columns == null) ? index.keyOf(this, row) : null;
+	    for (int j = 0; columns != null && j < columns.length; j++) {
+		for (int k = 0; k < index.columns.length; k++) {
+		    if (index.columns[k] == columns[j]) {
+			if (key == null) {
+			    key = index.keyOf(this, row);
+			}
+			key[k] = convert(values[j],
+				flags.get(columns[j]) & TYPE_MASK);
+		    }
+		}
+	    }
+	    if (key != null && !Index.hasNull(key)) {
+		if (keys == null) {
+		    keys = new Object[indexes.size()][];
+		}
+		keys[i] = key;
+	    }
+	}
+	return keys;
+    }
+
+    /**
+     * Resolves the conflicts that a row would have in the unique indexes
+     * with the given keys. Rows conflicting with it are deleted when they
+     * are to be replaced, but only once it is clear that no other conflict
+     * fails or ignores the change.
+     * 
+     * @param keys
+     *            The keys by index, see
+     *            {@link #uniqueKeys(int, int[], Object[])}.
+     * @param conflict
+     *            The resolution to use, or -1 for the one of each index.
+     * @return <code>false</code> when the change is to be ignored.
+     * @throws ProcessingException
+     *             when the change is to fail.
+     */
+    private boolean resolve(int row, Object[][] keys, int conflict)
+	    throws ProcessingException {
+	if (keys == null) {
+	    return true;
+	}
+	boolean replace = false;
+	for (int i = 0; i < keys.length; i++) {
+	    Index index = indexes.get(i);
+	    if (keys[i] == null || index.find(keys[i], row) == -1) {
+		continue;
+	    }
+	    int action = (conflict != -1) ? conflict : index.conflict;
+	    if (action == IGNORE) {
+		return false;
+	    } else if (action == REPLACE) {
+		replace = true;
+	    } else {
+		StringBuilder b = new StringBuilder(
+			"UNIQUE constraint failed: ");
+		for (int j = 0; j < index.columns.length; j++) {
+		    b.append((j > 0) ? ", " : "");
+		    b.append(name + "." + getColumnName(index.columns[j]));
+		}
+		throw new ConstraintException(b.toString(),
+			action == ROLLBACK);
+	    }
+	}
+	for (int i = 0; replace && i < keys.length; i++) {
+	    if (keys[i] != null) {
+		int other;
+		while ((other = indexes.get(i).find(keys[i], row)) != -1) {
+		    delete(other);
+		}
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Deletes a row. The rows after it keep their numbers, and the row is
+     * skipped by scans until a new row is put in it, see
+     * {@link #isDeleted(int)}.
+     * 
+     * @return <code>false</code> when the row was already deleted.
+     */
+    boolean delete(int row) {
+	if (deleted == null) {
+	    deleted = new Tombstones();
+	} else if (deleted.contains(row)) {
+	    return false;
+	}
+	for (Index index : indexes) {
+	    index.remove(index.keyOf(this, row), row);
+	}
+	deleted.add(row);
+	if (redo != null) {
+	    redo.delete(this, row);
+	}
+	return true;
+    }
+
+    /**
+     * Checks if a row has been deleted. Deleted rows are still counted by
+     * {@link #getRowCount()}, so anything going through all rows of a stored
+     * table must skip them.
+     */
+    boolean isDeleted(int row) {
+	return deleted != null && deleted.contains(row);
+    }
+
+    /**
+     * Gets the number of rows that have not been deleted.
+     */
+    int getLiveRowCount() {
+	return rowCount - getDeletedRowCount();
+    }
+
+    /**
+     * Gets the number of deleted rows waiting to be used again.
+     */
+    int getDeletedRowCount() {
+	return (deleted != null) ? deleted.size() : 0;
+    }
+
+    /**
+     * Removes all rows of the table.
+     */
+    void clear() {
+	if (redo != null) {
+	    redo.clear(this);
+	}
+	replaceStorage(0);
+	rowCount = 0;
+	frozen = 0;
+	deleted = null;
+	for (Index index : indexes) {
+	    index.build(this, 0);
+	}
+    }
+
+    /**
+     * Moves the rows that have not been deleted together, into new storage
+     * with room for just them, and rebuilds the indexes. The storage of the
+     * version this table was forked from is left as it is, so anyone reading
+     * that version is not affected.
+     * <p>
+     * The rows get new numbers, so this must only be done to a version that
+     * a transaction writes to, see <code>VACUUM</code>.
+     * 
+     * @return The number of deleted rows that were dropped.
+     */
+    int compact() {
+	if (redo != null) {
+	    redo.compact(this);
+	}
+	Column oldRows = rows;
+	Column[] oldStore = store;
+	int live = getLiveRowCount();
+	replaceStorage(live);
+	int row = 0;
+	for (int i = 0; i < rowCount; i++) {
+	    if (deleted != null && deleted.contains(i)) {
+		continue;
+	    }
+	    if (store != null) {
+		for (int j = 0; j < store.length; j++) {
+		    store[j] = store[j].copy(row, oldStore[j], i);
+		}
+	    } else {
+		rows = rows.set(row, oldRows.get(i));
+	    }
+	    row++;
+	}
+	int dropped = rowCount - live;
+	rowCount = live;
+
+	/* The row objects are still shared with the old version */
+	frozen = live;
+	deleted = null;
+	for (Index index : indexes) {
+	    index.build(this, live);
+	}
+	return dropped;
+    }
+
+    /**
+     * Checks if compacting the table would be worthwhile, see
+     * {@link #compact()}. Storage is allocated in chunks, so nothing is
+     * gained until at least a chunk worth of rows has been deleted.
+     * 
+     * @param percent
+     *            The part of the rows that must be deleted, in percent.
+     */
+    boolean needsCompaction(int percent) {
+	int dead = getDeletedRowCount();
+	return dead >= Column.CHUNK_SIZE
+		&& (long) dead * 100 >= (long) rowCount * percent;
+    }
+
+    /**
+     * Replaces the storage with new, empty, columns.
+     * 
+     * @param capacity
+     *            The number of rows to make room for.
+     */
+    private void replaceStorage(int capacity) {
+	rows = Column.create(TEXT);
+	if (store != null) {
+	    store = new Column[store.length];
+	    for (int i = 0; i < store.length; i++) {
+		store[i] = Column.create(flags.get(i) & TYPE_MASK);
+		store[i].ensureCapacity(capacity);
+	    }
+	} else {
+	    rows.ensureCapacity(capacity);
+	}
+    }
+
+    /**
+     * Adds an index and fills it with the current contents of the table.
+     */
+    void addIndex(Index index) {
+	index.build(this, getRowCount());
+	indexes.add(index);
+    }
+
+    Index getIndex(String name) {
+	for (Index index : indexes) {
+	    if (index.name.equals(name)) {
+		return index;
+	    }
+	}
+	return null;
+    }
+
+    void removeIndex(Index index) {
+	indexes.remove(index);
+    }
+
+    /**
+     * Gets the indexes of the table, in the order they were added.
+     */
+    List<Index> getIndexes() {
+	return indexes;
+    }
+
+    /**
+     * Writes the given rows of a column to a snapshot, see
+     * {@link Column#write(DataOutputStream, int[])}. The values of tables
+     * stored by row are written with their types.
+     * 
+     * @return The kind of column written.
+     */
+    int write(DataOutputStream out, int column, int[] rows)
+	    throws IOException {
+	if (store != null) {
+	    return store[column].write(out, rows);
+	}
+	for (int row : rows) {
+	    WriteAheadLog.writeValue(out, ((Row) this.rows.get(row))
+		    .get(column));
+	}
+	return Column.VALUES;
+    }
+
+    /**
+     * Fills an empty table with the columns of a snapshot, see
+     * {@link Snapshot}. A columnar table uses the columns as they are, so
+     * that each column is read when it is first used, while a table stored
+     * by row reads all of them at once.
+     * 
+     * @param data
+     *            The columns, one for each column of the table.
+     * @param count
+     *            The number of rows in the columns.
+     */
+    void load(Column[] data, int count) {
+	if (store != null) {
+	    store = data;
+	} else {
+	    rows.ensureCapacity(count);
+	    for (int i = 0; i < count; i++) {
+		Row row = new ArrayRow(data.length);
+		for (int j = 0; j < data.length; j++) {
+		    row.set(j, data[j].get(i));
+		}
+		rows = rows.set(i, row);
+	    }
+	}
+	rowCount = count;
+    }
+
+    /**
+     * Adds an index of a snapshot, see {@link Index#build(Table, int[])}.
+     */
+    void loadIndex(Index index, int[] sorted) {
+	if (index.isRowid()) {
+	    rowid = index.columns[0];
+	}
+	index.build(this, sorted);
+	indexes.add(index);
+    }
+
+    /**
+     * Gets an index that has the given column first in its key.
+     * 
+     * @return The index, or <code>null</code> when there is none.
+     */
+    Index getIndexOn(int column) {
+	for (Index index : indexes) {
+	    if (index.columns[0] == column) {
+		return index;
+	    }
+	}
+	return null;
+    }
+
+    Database getParent() {
+	return parent;
+    }
+
+    Vector<Integer> getRowsWhere(Frame frame, Expression where) {
+	return getRowsWhere(frame, where, -1);
+    }
+
+    /**
+     * Gets the rows matching a WHERE clause. The rows are filtered in
+     * batches, see {@link Filter#select(int[], int, int[])}.
+     * 
+     * @param where
+     *            The clause, or <code>null</code> for all rows.
+     * @param limit
+     *            The number of rows needed, the scan stops once this many
+     *            rows have been found. Use -1 for all rows.
+     * @return The row numbers in the order they were found.
+     */
+    Vector<Integer> getRowsWhere(Frame frame, Expression where, int limit) {
+	Vector<Integer> result = new Vector<Integer>();
+	if (limit == 0) {
+	    return result;
+	}
+	Index.Range range = Index.choose(frame, this, indexes, where);
+	Plan node = Plan.enter(frame);
+	if (node != null) {
+	    node.detail = ((range != null) ? "SEARCH " : "SCAN ")
+		    + ((name != null) ? name : "(result)")
+		    + ((range != null) ? " " + range.describe(this) : "");
+	    node.readsResult = name == null;
+	}
+	Filter filter = Filter.compile(frame, this, where);
+	if (frame != null && frame.planOnly) {
+	    Plan.exit(frame, node, 0, 0);
+	    return result;
+	}
+	int[] batch = new int[Filter.BATCH_SIZE];
+	int count = 0;
+	int scanned = 0;
+	if (range != null) {
+	    boolean more = true;
+	    for (int row : range.getRows()) {
+		batch[count++] = row;
+		if (count == batch.length) {
+		    scanned += count;
+		    more = select(filter, batch, count, limit, result);
+		    count = 0;
+		    if (!more) {
+			break;
+		    }
+		}
+	    }
+	    if (more) {
+		scanned += count;
+		select(filter, batch, count, limit, result);
+	    }
+	} else {
+	    int end = getRowCount();
+	    for (int start = 0; start < end; start += batch.length) {
+		int stop = Math.min(start + batch.length, end);
+		count = 0;
+		for (int row = start; row < stop; row++) {
+		    if (deleted == null || !deleted.contains(row)) {
+			batch[count++] = row;
+		    }
+		}
+		scanned += count;
+		if (!select(filter, batch, count, limit, result)) {
+		    break;
+		}
+	    }
+	}
+	Plan.exit(frame, node, scanned, result.size());
+	return result;
+    }
+
+    /**
+     * Adds the rows of a batch that match a filter to the result.
+     * 
+     * @return <code>false</code> when the limit has been reached.
+     */
+    private static boolean select(Filter filter, int[] batch, int count,
+	    int limit, Vector<Integer> result) {
+	int n = filter.select(batch, count, batch);
+	for (int i = 0; i < n; i++) {
+	    result.add(batch[i]);
+	    if (result.size() == limit) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    // Table ensureParent(Database parent) {
+    // if (this.parent == parent) {
+    // return this;
+    // } else {
+    // // TODO: Clone the table and return one that has the new parent!
+    // return null;
+    // }
+    // }
+
+    // void removeRow(int row) {
+    // if (rows.size() > row) {
+    // rows.remove(row);
+    // }
+    // }
+
+    Table exract(Frame frame, Vector<Expression> columns, Expression where) {
+	return exract(frame, columns, getRowsWhere(frame, where));
+    }
+
+    /**
+     * Creates a table from the given rows of this table.
+     * 
+     * @param columns
+     *            The columns to select, or <code>null</code> for all.
+     * @param selected
+     *            The rows to include, in order.
+     * @return The new table.
+     */
+    Table exract(Frame frame, Vector<Expression> columns,
+	    Vector<Integer> selected) {
+	Table sub = new Table(parent, store != null);
+
+	/* Create requested columns */
+	if (columns == null) {
+	    for (int i = 0; i < getColumnCount(); i++) {
+		sub.addColumn(getColumnName(i), getFlags(i), getDefVal(i));
+	    }
+	    if (store != null) {
+		sub.addColumnarRows(selected.size());
+		for (int i = 0; i < store.length; i++) {
+		    for (int y = 0; y < selected.size(); y++) {
+			sub.store[i] = sub.store[i].copy(y, store[i],
+				selected.get(y));
+		    }
+		}
+	    } else {
+		sub.rows.ensureCapacity(selected.size());
+		for (int y = 0; y < selected.size(); y++) {
+		    Row row = (Row) rows.get(selected.get(y));
+		    sub.rows = sub.rows.set(y, row.makeCopy());
+		}
+		sub.rowCount = selected.size();
+	    }
+	} else {
+	    for (Expression column : columns) {
+		sub.addColumn(getColumnName(column), column.type(this), null);
+	    }
+
+	    /* Columns are copied directly, other expressions evaluated */
+	    int[] sources = new int[columns.size()];
+	    for (int x = 0; x < sources.length; x++) {
+		Expression column = columns.get(x);
+		if (column instanceof ColumnExpression) {
+		    sources[x] = ((ColumnExpression) column).getIndex(this);
+		} else {
+		    sources[x] = -1;
+		}
+	    }
+	    if (store != null) {
+		sub.addColumnarRows(selected.size());
+	    }
+	    int y = 0;
+	    for (int row : selected) {
+		for (int x = 0; x < sources.length; x++) {
+		    int idx = sources[x];
+		    if (idx == -1) {
+			Expression column = columns.get(x);
+			sub.set(y, x, column.evaluate(frame, this, row));
+		    } else if (store != null) {
+			sub.store[x] = sub.store[x].copy(y, store[idx], row);
+		    } else {
+			sub.set(y, x, getCell(row, idx));
+		    }
+		}
+		y++;
+	    }
+	}
+	return sub;
+    }
+
+    /**
+     * Groups the rows matching a WHERE clause and computes aggregates for each
+     * group, see {@link HashAggregate}.
+     * 
+     * @param columns
+     *            The columns to select, or <code>null</code> for all.
+     * @param groupBy
+     *            The expressions to group by, or <code>null</code> to treat
+     *            all rows as one group.
+     * @param having
+     *            Condition for including a group, or <code>null</code>.
+     * @param aggregates
+     *            The aggregate functions used by the columns, the HAVING
+     *            clause and the ORDER BY clause.
+     * @param order
+     *            The order of the groups, or <code>null</code> for the order
+     *            they were found in.
+     * @param offset
+     *            The number of groups to skip.
+     * @param limit
+     *            The maximum number of groups, or -1 for all.
+     * @return One row for each group.
+     * @throws ProcessingException
+     *             when an aggregate could not be computed.
+     */
+    Table aggregate(Frame frame, Vector<Expression> columns,
+	    Expression where, Vector<Expression> groupBy, Expression having,
+	    Vector<AggregateExpression> aggregates, Sort order, int offset,
+	    int limit) throws ProcessingException {
+	if (columns == null) {
+	    columns = new Vector<Expression>();
+	    for (int i = 0; i < getColumnCount(); i++) {
+		columns.add(new ColumnExpression(getColumnName(i)));
+	    }
+	}
+	Plan node = Plan.enter(frame);
+	if (node != null) {
+	    node.detail = (groupBy != null) ? "GROUP BY" : "AGGREGATE";
+	}
+	HashAggregate groups = new HashAggregate(frame, this, groupBy,
+		aggregates);
+	Vector<Integer> matching = getRowsWhere(frame, where);
+	for (int row : matching) {
+	    groups.add(row);
+	}
+
+	/*
+	 * Find the groups to output, and the rows to evaluate them on. A group
+	 * without rows uses an empty table, so that plain columns are NULL.
+	 */
+	int count = groups.getGroupCount();
+	int[] selected = new int[count];
+	final Frame[] frames = new Frame[count];
+	final Table[] sources = new Table[count];
+	final int[] rows = new int[count];
+	int n = 0;
+	for (int group = 0; group < count; group++) {
+	    frames[group] = new Frame(frame, groups.getResults(group));
+	    sources[group] = this;
+	    rows[group] = groups.getFirstRow(group);
+	    if (rows[group] == -1) {
+		sources[group] = createEmpty(false);
+		rows[group] = 0;
+	    }
+	    if (having == null
+		    || ((Integer) having.evaluate(frames[group], sources[group],
+			    rows[group])) == 1) {
+		selected[n++] = group;
+	    }
+	}
+	selected = Arrays.copyOf(selected, n);
+	int end = (limit < 0) ? n : Math.min(Select.end(offset, limit), n);
+	if (order != null) {
+	    Sort sort = order.resolve(columns, this);
+	    final Expression[] terms = sort.getTerms();
+	    selected = sort.sort(selected, end, new Sort.Keys() {
+
+		@Override
+		public void get(int group, Object[] keys) {
+		    for (int i = 0; i < terms.length; i++) {
+			keys[i] = terms[i].evaluate(frames[group],
+				sources[group], rows[group]);
+		    }
+		}
+
+	    });
+	}
+
+	Table sub = new Table(parent, store != null);
+	for (Expression column : columns) {
+	    sub.addColumn(getColumnName(column), column.type(this), null);
+	}
+	int y = 0;
+	for (int i = offset; i < end; i++) {
+	    int group = selected[i];
+	    int x = 0;
+	    for (Expression column : columns) {
+		sub.set(y, x, column.evaluate(frames[group], sources[group],
+			rows[group]));
+		x++;
+	    }
+	    y++;
+	}
+	Plan.exit(frame, node, matching.size(), y);
+	return sub;
+    }
+
+    /**
+     * Gets the name of a selected column.
+     */
+    static String getColumnName(Expression column) {
+	String name = column.toString();
+	return name.substring(name.startsWith("(") ? 1 : 0, name.length()
+		- (name.startsWith("(") ? 1 : 0));
+    }
+
+    /**
+     * Adds all rows of another table with as many columns, matching the
+     * columns by position. The cells are copied as they are, so a column
+     * given values of another type than its own loses its type, see
+     * {@link #NONE}. Used for the results of compound queries.
+     */
+    void append(Table other) {
+	for (int i = 0; i < getColumnCount(); i++) {
+	    int type = getFlags(i) & TYPE_MASK;
+	    if ((other.getFlags(i) & TYPE_MASK) != type) {
+		untype(i);
+	    }
+	}
+	for (int row = 0; row < other.getRowCount(); row++) {
+	    int added = rowCount;
+	    ensureRow(added);
+	    for (int i = 0; i < getColumnCount(); i++) {
+		put(added, i, other.getCell(row, i));
+	    }
+	    for (Index index : indexes) {
+		index.insert(index.keyOf(this, added), added);
+	    }
+	}
+    }
+
+    /**
+     * Drops the type of a column, so that it can hold values of any type.
+     */
+    private void untype(int column) {
+	flags = new ArrayList<Integer>(flags);
+	flags.set(column, (flags.get(column) & ~TYPE_MASK) | NONE);
+	if (store != null) {
+	    Column untyped = Column.create(NONE);
+	    untyped.ensureCapacity(rowCount);
+	    for (int row = 0; row < rowCount; row++) {
+		untyped = untyped.set(row, store[column].get(row));
+	    }
+	    store[column] = untyped;
+	}
+    }
+
+    Object getDefVal(int idx) {
+	return defVals.get(idx);
+    }
+
+    int getFlags(int idx) {
+	return flags.get(idx);
+    }
+
+    /**
+     * Indicates whether the table keeps its data in typed columns.
+     */
+    boolean isColumnar() {
+	return store != null;
+    }
+
+    /**
+     * Gets the storage of a column of a columnar table.
+     * 
+     * @return The column, or <code>null</code> for tables stored by row.
+     */
+    Column getColumn(int column) {
+	return (store != null) ? store[column].load() : null;
+    }
+
+    Object getCell(int row, int column) {
+	if (rowCount <= row) {
+	    return null;
+	} else if (store != null) {
+	    return store[column].get(row);
+	} else {
+	    return ((Row) rows.get(row)).get(column);
+	}
+    }
+
+    /**
+     * Gets the index of the column with the given name.
+     * 
+     * @param name
+     *            The name of the column.
+     * @return The index of the column, or -1 when there was no column with the
+     *         given name.
+     */
+    public int getColumnIndex(String name) {
+	Integer idx = columnIndex.get(name);
+	return (idx != null) ? idx : -1;
+    }
+
+    /**
+     * Gets an object identifying the columns of the table. Column indices
+     * found for a table are valid for any table with the same layout, as
+     * long as it has the same number of columns. Versions of a stored table
+     * share the layout.
+     */
+    Object getLayout() {
+	return columns;
+    }
+
+    /**
+     * Finds the column referred to by a name in an expression. Joined tables
+     * have columns named <code>table.column</code>, and these can also be
+     * referred to by the column name alone when it is not ambiguous. A
+     * qualified name can refer to a column of a table that was not joined,
+     * since the parser has checked that the name is that of the table.
+     * 
+     * @param name
+     *            The name, with or without a table name.
+     * @return The index of the column, or -1 when there was no such column.
+     * @throws IllegalArgumentException
+     *             when the name matched more than one column.
+     */
+    int findColumn(String name) {
+	return findColumn(columns, name);
+    }
+
+    /**
+     * Finds a column by name among the given column names, as
+     * {@link #findColumn(String)} does for the columns of a table. Used to
+     * check the columns of a statement when it is parsed.
+     */
+    static int findColumn(List<String> columns, String name) {
+	int idx = columns.indexOf(name);
+	if (idx != -1) {
+	    return idx;
+	}
+	int dot = name.lastIndexOf('.');
+	if (dot != -1) {
+	    return columns.indexOf(name.substring(dot + 1));
+	}
+	String suffix = "." + name;
+	for (int i = 0; i < columns.size(); i++) {
+	    if (columns.get(i).endsWith(suffix)) {
+		if (idx != -1) {
+		    throw new IllegalArgumentException(
+			    "Ambiguous column name \"" + name + "\"");
+		}
+		idx = i;
+	    }
+	}
+	return idx;
+    }
+
+    /**
+     * Gets the number of columns in the table.
+     * 
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+	return columns.size();
+    }
+
+    /**
+     * Gets the name of the specified column.
+     * 
+     * @param idx
+     *            The column index.
+     * @return The name of the column.
+     * @throws IndexOutOfBoundsException
+     *             when the index specifies a column that does not exist in the
+     *             table.
+     */
+    public String getColumnName(int idx) throws IndexOutOfBoundsException {
+	return columns.get(idx);
+    }
+
+    /**
+     * Gets the number of rows in the table.
+     * 
+     * @return The number of table rows.
+     */
+    public int getRowCount() {
+	return rowCount;
+    }
+
+    /**
+     * Indicates whether the table is empty or not. An empty table is defined as
+     * a table with no rows. The number of columns is ignored.
+     * 
+     * @return <code>true</code> when the table has no rows, <code>false</code>
+     *         otherwise.
+     */
+    public boolean isEmpty() {
+	return getRowCount() == 0;
+    }
+
+    /**
+     * Indicates whether a cell is set to the NULL value or not.
+     * 
+     * @param row
+     *            The row of the cell.
+     * @param column
+     *            The column of the cell.
+     * @return <code>true</code> when the cell is set to NULL,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isNull(int row, int column) {
+	if (store != null && rowCount > row) {
+	    return store[column].isNull(row);
+	}
+	return (getCell(row, column) == null);
+    }
+
+    public int getCellInt(int row, int column) {
+	if (store != null && rowCount > row && store[column].isNumeric()) {
+	    return store[column].getInt(row);
+	}
+	Object o = getCell(row, column);
+	if (o == null) {
+	    return 0;
+	} else if (o instanceof Integer) {
+	    return (Integer) o;
+	} else if (o instanceof Long) {
+	    return ((Long) o).intValue();
+	} else if (o instanceof Double) {
+	    return ((Double) o).intValue();
+	} else {
+	    return (int) Long.parseLong(o.toString());
+	}
+    }
+
+    public long getCellLong(int row, int column) {
+	if (store != null && rowCount > row && store[column].isNumeric()) {
+	    return store[column].getLong(row);
+	}
+	Object o = getCell(row, column);
+	if (o == null) {
+	    return 0;
+	} else if (o instanceof Integer) {
+	    return (Integer) o;
+	} else if (o instanceof Long) {
+	    return (Long) o;
+	} else if (o instanceof Double) {
+	    return ((Double) o).longValue();
+	} else {
+	    return Long.parseLong(o.toString());
+	}
+    }
+
+    public double getCellDouble(int row, int column) {
+	if (store != null && rowCount > row && store[column].isNumeric()) {
+	    return store[column].getDouble(row);
+	}
+	Object o = getCell(row, column);
+	if (o == null) {
+	    return 0;
+	} else if (o instanceof Integer) {
+	    return (Integer) o;
+	} else if (o instanceof Double) {
+	    return (Double) o;
+	} else if (o instanceof Long) {
+	    return (Long) o;
+	} else {
+	    return Double.parseDouble(o.toString());
+	}
+    }
+
+    public String getCellString(int row, int column) {
+	Object o = getCell(row, column);
+	if (o == null) {
+	    return "";
+	} else {
+	    return o.toString();
+	}
+    }
+
+    public boolean getCellBoolean(int row, int column) {
+	return (getCellInt(row, column) == 1);
+    }
+
+    public Class<?> getColumnClass(int column) {
+	switch (flags.get(column) & TYPE_MASK) {
+	case INTEGER:
+	    return Integer.class;
+	case TEXT:
+	    return String.class;
+	default:
+	    return Object.class;
+	}
+    }
+
+    @Override
+    public String toString() {
+	int[] maxWidth = new int[columns.size()];
+	for (int i = 0; i < maxWidth.length; i++) {
+	    maxWidth[i] = columns.get(i).length() + 2;
+	    for (int j = 0; j < getRowCount(); j++) {
+		Object entry = getCell(j, i);
+		if (entry != null) {
+		    maxWidth[i] = Math.max(maxWidth[i], entry.toString()
+			    .length() + 2);
+		} else {
+		    maxWidth[i] = Math.max(maxWidth[i], NULL_TEXT.length() + 2);
+		}
+	    }
+	}
+
+	/* Generate headers */
+	StringBuilder b = new StringBuilder();
+	for (int i = 0; i < maxWidth.length; i++) {
+	    b.append("+");
+	    for (int j = 0; j < maxWidth[i]; j++) {
+		b.append("-");
+	    }
+	}
+	b.append("+\n");
+	for (int i = 0; i < maxWidth.length; i++) {
+	    b.append("| ");
+	    b.append(columns.get(i));
+	    for (int j = 0; j < maxWidth[i] - columns.get(i).length() - 1; j++) {
+		b.append(" ");
+	    }
+	}
+	b.append("|\n");
+	for (int i = 0; i < maxWidth.length; i++) {
+	    b.append("+");
+	    for (int j = 0; j < maxWidth[i]; j++) {
+		b.append("-");
+	    }
+	}
+	b.append("+\n");
+
+	/* Generate rows */
+	for (int i = 0; i < getRowCount(); i++) {
+	    for (int j = 0; j < maxWidth.length; j++) {
+		b.append("| ");
+		Object text = getCell(i, j);
+		if (text == null) {
+		    text = NULL_TEXT;
+		}
+		b.append(text);
+		for (int k = 0; k < maxWidth[j] - text.toString().length() - 1; k++) {
+		    b.append(" ");
+		}
+	    }
+	    b.append("|\n");
+	}
+
+	/* Generate footer */
+	for (int i = 0; i < maxWidth.length; i++) {
+	    b.append("+");
+	    for (int j = 0; j < maxWidth[i]; j++) {
+		b.append("-");
+	    }
+	}
+	b.append("+\n");
+	return b.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Iterator<T> getRows(Class<T> clazz) {
+	ArrayList<T> temp = new ArrayList<T>(rowCount);
+	for (int i = 0; store == null && i < rowCount; i++) {
+	    Row row = (Row) rows.get(i);
+	    if (row instanceof ObjectRow) {
+		Object o = ((ObjectRow) row).o;
+		if (clazz.isInstance(o)) {
+		    temp.add((T) o);
+		}
+	    }
+	}
+	return temp.iterator();
+    }
+
+}
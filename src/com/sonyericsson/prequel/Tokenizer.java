@@ -1,159 +1,399 @@
-/* Prequel  A set of simple database APIs in Java SE, similar to SQLite
- * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- *
- * Authors: 
- *   Pr Spjuth (par.spjuth@sonyericsson.com)
- */
-package com.sonyericsson.prequel;
-
-class Tokenizer {
-
-    private static final char EOL = (char) -1;
-
-    private String data;
-
-    private int pos;
-
-    private String current;
-
-    private int currentPos;
-
-    private String next;
-
-    private char nextChar() {
-	pos++;
-	if (pos == data.length()) {
-	    return EOL;
-	} else {
-	    return data.charAt(pos);
-	}
-    }
-
-    private char currentChar() {
-	if (pos == data.length()) {
-	    return EOL;
-	} else {
-	    return data.charAt(pos);
-	}
-    }
-
-    // private void putBack() {
-    // pos--;
-    // }
-
-    public Tokenizer(String source) {
-	// System.out.println("SOURCE: " + source);
-	data = source;
-	pos = -1;
-	current = null;
-	while (Character.isWhitespace(nextChar())) {
-	}
-    }
-
-    public void next() {
-	if (next != null) {
-	    current = next;
-	    next = null;
-	} else {
-	    int startPos = pos;
-	    if (currentChar() == EOL) {
-		current = null;
-	    } else {
-		if (",;()?:@$|&*%+-".indexOf(currentChar()) != -1) {
-		    nextChar();
-		} else if (currentChar() == '!' || currentChar() == '='
-			|| currentChar() == '>' || currentChar() == '<') {
-		    if (nextChar() == '=') {
-			nextChar();
-		    }
-		} else if (currentChar() == '\'') {
-		    while (nextChar() != '\'') {
-		    }
-		    nextChar();
-		} else if (currentChar() == '\"') {
-		    while (nextChar() != '\"') {
-		    }
-		    nextChar();
-		} else if (Character.isJavaIdentifierStart(currentChar())) {
-		    // TODO: Should refactor parser so that it can handle "." to
-		    // separate database from table!
-		    while (Character.isJavaIdentifierPart(nextChar())
-			    || currentChar() == '.') {
-		    }
-		} else if (Character.isDigit(currentChar())) {
-		    while (Character.isDigit(nextChar())) {
-		    }
-		} else {
-		    throw new IllegalArgumentException("Unexpected character '"
-			    + currentChar() + "' at " + pos);
-		}
-		current = data.substring(startPos, pos);
-		if (Character.isWhitespace(currentChar())) {
-		    while (Character.isWhitespace(nextChar())) {
-		    }
-		}
-	    }
-	    currentPos = startPos;
-	}
-	// System.out.println("Token: '" + current + "'");
-    }
-
-    public String current() {
-	return current;
-    }
-
-    public boolean currentIsString() {
-	return current.charAt(0) == '\'';
-    }
-
-    public boolean currentIsNumber() {
-	return Character.isDigit(current.charAt(0));
-    }
-
-    public boolean currentIsIdentifier() {
-	return Character.isJavaIdentifierStart(current.charAt(0));
-    }
-
-    public void currentAsNext() {
-	next = current;
-    }
-
-    public int getPos() {
-	if (next != null) {
-	    return currentPos;
-	} else {
-	    return pos;
-	}
-    }
-
-    @Override
-    public String toString() {
-	StringBuilder res = new StringBuilder(data + "\n");
-	for (int i = 0; i < pos; i++) {
-	    res.append(' ');
-	}
-	res.append("^\n");
-	res.append("current: " + current + "\n");
-	res.append("next: " + next + "\n");
-	return res.toString();
-    }
-
-}
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Arrays;
+
+/**
+ * Splits SQL into tokens. A token is only a span of the SQL together with its
+ * id, see {@link Keywords}, and its text is not extracted until asked for by
+ * {@link #current()}. Keywords are found by a perfect hash of their text, so
+ * that no keyword ever has to be compared with more than one candidate.
+ */
+class Tokenizer implements Keywords {
+
+    private static final char EOL = (char) -1;
+
+    /* Bits of the keyword hash, with room enough to spread the keywords */
+    private static final int HASH_BITS = 12;
+
+    private static final int MAX_KEYWORD_LENGTH;
+
+    /* Keyword id plus one by hash, or zero */
+    private static final short[] KEYWORD_HASH = new short[1 << HASH_BITS];
+
+    /* Seed giving a different hash for each keyword */
+    private static final int KEYWORD_SEED;
+
+    static {
+	int length = 0;
+	for (int id = 0; id < KEYWORD_COUNT; id++) {
+	    length = Math.max(length, NAMES[id].length());
+	}
+	MAX_KEYWORD_LENGTH = length;
+	int seed = 0;
+	while (!fillKeywordHash(seed)) {
+	    seed++;
+	}
+	KEYWORD_SEED = seed;
+    }
+
+    private final String data;
+
+    private int pos;
+
+    /* Span and id of the current token */
+    private int start;
+
+    private int end;
+
+    private int id;
+
+    /* Text of the current token, once asked for */
+    private String text;
+
+    /* true when the current token is to be returned again by next() */
+    private boolean pushedBack;
+
+    private static boolean fillKeywordHash(int seed) {
+	Arrays.fill(KEYWORD_HASH, (short) 0);
+	for (int id = 0; id < KEYWORD_COUNT; id++) {
+	    int hash = hash(NAMES[id], 0, NAMES[id].length(), seed);
+	    if (KEYWORD_HASH[hash] != 0) {
+		return false;
+	    }
+	    KEYWORD_HASH[hash] = (short) (id + 1);
+	}
+	return true;
+    }
+
+    private static int hash(String text, int start, int end, int seed) {
+	int h = seed;
+	for (int i = start; i < end; i++) {
+	    int c = text.charAt(i);
+	    if (c >= 'a' && c <= 'z') {
+		c -= 'a' - 'A';
+	    }
+	    h = (h ^ c) * 0x01000193;
+	}
+	return (h ^ (h >>> 16)) & ((1 << HASH_BITS) - 1);
+    }
+
+    /**
+     * Gets the keyword with the given text, in any case.
+     * 
+     * @return The id of the keyword, or {@link Keywords#NONE}.
+     */
+    private static int lookup(String text, int start, int end) {
+	int length = end - start;
+	if (length > MAX_KEYWORD_LENGTH) {
+	    return NONE;
+	}
+	int id = KEYWORD_HASH[hash(text, start, end, KEYWORD_SEED)] - 1;
+	if (id != NONE && NAMES[id].length() == length
+		&& text.regionMatches(true, start, NAMES[id], 0, length)) {
+	    return id;
+	}
+	return NONE;
+    }
+
+    private char nextChar() {
+	pos++;
+	return currentChar();
+    }
+
+    private char currentChar() {
+	if (pos >= data.length()) {
+	    return EOL;
+	} else {
+	    return data.charAt(pos);
+	}
+    }
+
+    private void skipDigits() {
+	while (Character.isDigit(currentChar())) {
+	    nextChar();
+	}
+    }
+
+    private void skipQuoted(char quote) {
+	char c = nextChar();
+	while (c != quote) {
+	    if (c == EOL) {
+		throw new IllegalArgumentException("Unterminated " + quote
+			+ " at " + start);
+	    }
+	    c = nextChar();
+	}
+	nextChar();
+    }
+
+    public Tokenizer(String source) {
+	// System.out.println("SOURCE: " + source);
+	data = source;
+	pos = 0;
+	while (Character.isWhitespace(currentChar())) {
+	    nextChar();
+	}
+    }
+
+    public void next() {
+	if (pushedBack) {
+	    pushedBack = false;
+	    return;
+	}
+	text = null;
+	start = pos;
+	id = NONE;
+	char c = currentChar();
+	switch (c) {
+	case EOL:
+	    id = EOF;
+	    break;
+	case ',':
+	    id = COMMA;
+	    nextChar();
+	    break;
+	case '(':
+	    id = LEFT_PAREN;
+	    nextChar();
+	    break;
+	case ')':
+	    id = RIGHT_PAREN;
+	    nextChar();
+	    break;
+	case ';':
+	    id = SEMICOLON;
+	    nextChar();
+	    break;
+	case '+':
+	    id = PLUS;
+	    nextChar();
+	    break;
+	case '-':
+	    id = MINUS;
+	    nextChar();
+	    break;
+	case '*':
+	    id = STAR;
+	    nextChar();
+	    break;
+	case '/':
+	    id = SLASH;
+	    nextChar();
+	    break;
+	case '%':
+	    id = PERCENT;
+	    nextChar();
+	    break;
+	case '?':
+	    id = QUESTION;
+	    nextChar();
+	    break;
+	case ':':
+	    id = COLON;
+	    nextChar();
+	    break;
+	case '@':
+	    id = AT;
+	    nextChar();
+	    break;
+	case '$':
+	    id = DOLLAR;
+	    nextChar();
+	    break;
+	case '&':
+	    id = AMPERSAND;
+	    nextChar();
+	    break;
+	case '|':
+	    id = (nextChar() == '|') ? CONCAT : PIPE;
+	    if (id == CONCAT) {
+		nextChar();
+	    }
+	    break;
+	case '=':
+	    id = EQUALS;
+	    if (nextChar() == '=') {
+		id = DOUBLE_EQUALS;
+		nextChar();
+	    }
+	    break;
+	case '!':
+	    if (nextChar() == '=') {
+		id = NOT_EQUALS;
+		nextChar();
+	    }
+	    break;
+	case '<':
+	    id = LESSER;
+	    switch (nextChar()) {
+	    case '=':
+		id = LESSER_EQUALS;
+		nextChar();
+		break;
+	    case '>':
+		id = NOT_EQUALS;
+		nextChar();
+		break;
+	    case '<':
+		id = SHIFT_LEFT;
+		nextChar();
+		break;
+	    default:
+		break;
+	    }
+	    break;
+	case '>':
+	    id = GREATER;
+	    switch (nextChar()) {
+	    case '=':
+		id = GREATER_EQUALS;
+		nextChar();
+		break;
+	    case '>':
+		id = SHIFT_RIGHT;
+		nextChar();
+		break;
+	    default:
+		break;
+	    }
+	    break;
+	case '\'':
+	    /* Fall through */
+	case '\"':
+	    skipQuoted(c);
+	    break;
+	default:
+	    if (Character.isJavaIdentifierStart(c)) {
+		// TODO: Should refactor parser so that it can handle "." to
+		// separate database from table!
+		while (Character.isJavaIdentifierPart(nextChar())
+			|| currentChar() == '.') {
+		}
+		id = lookup(data, start, pos);
+	    } else if (Character.isDigit(c)) {
+		skipDigits();
+		if (currentChar() == '.') {
+		    nextChar();
+		    skipDigits();
+		}
+		if (currentChar() == 'e' || currentChar() == 'E') {
+		    c = nextChar();
+		    if (c == '+' || c == '-') {
+			nextChar();
+		    }
+		    skipDigits();
+		}
+	    } else {
+		throw new IllegalArgumentException("Unexpected character '"
+			+ c + "' at " + pos);
+	    }
+	    break;
+	}
+	end = pos;
+	while (Character.isWhitespace(currentChar())) {
+	    nextChar();
+	}
+	// System.out.println("Token: '" + current() + "'");
+    }
+
+    /**
+     * Gets the id of the current token.
+     * 
+     * @return The keyword or symbol, see {@link Keywords}, or
+     *         {@link Keywords#NONE} for identifiers and literals.
+     */
+    public int id() {
+	return id;
+    }
+
+    /**
+     * Gets the text of the current token.
+     * 
+     * @return The text, or <code>null</code> at the end of the SQL.
+     */
+    public String current() {
+	if (id == EOF) {
+	    return null;
+	} else if (text == null) {
+	    text = data.substring(start, end);
+	}
+	return text;
+    }
+
+    public boolean currentIsString() {
+	return id != EOF && data.charAt(start) == '\'';
+    }
+
+    public boolean currentIsNumber() {
+	return id != EOF && Character.isDigit(data.charAt(start));
+    }
+
+    /**
+     * Checks if the current number has a fraction or an exponent.
+     */
+    public boolean currentIsReal() {
+	if (!currentIsNumber()) {
+	    return false;
+	}
+	for (int i = start; i < end; i++) {
+	    char c = data.charAt(i);
+	    if (c == '.' || c == 'e' || c == 'E') {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    public boolean currentIsIdentifier() {
+	return id != EOF && Character.isJavaIdentifierStart(data.charAt(start));
+    }
+
+    public void currentAsNext() {
+	pushedBack = true;
+    }
+
+    public int getPos() {
+	if (pushedBack) {
+	    return start;
+	} else {
+	    return pos;
+	}
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder res = new StringBuilder(data + "\n");
+	for (int i = 0; i < pos; i++) {
+	    res.append(' ');
+	}
+	res.append("^\n");
+	res.append("current: " + current() + "\n");
+	res.append("pushed back: " + pushedBack + "\n");
+	return res.toString();
+    }
+
+}
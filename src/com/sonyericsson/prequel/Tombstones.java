@@ -0,0 +1,167 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Arrays;
+
+/**
+ * The deleted rows of a table. Deleting a row only sets its bit here, so the
+ * rows after it keep their numbers and nothing has to be moved. Scans skip
+ * the deleted rows, and new rows are put in them before the table grows.
+ * <p>
+ * The bitmap is split into chunks of {@link Column#CHUNK_SIZE} rows, like the
+ * columns. A forked version shares the chunks with the version it was forked
+ * from, and copies a chunk the first time it changes it.
+ */
+class Tombstones {
+
+    private static final int WORDS = Column.CHUNK_SIZE / 64;
+
+    private long[][] chunks = new long[0][];
+
+    /* Deleted rows in each chunk */
+    private int[] counts = new int[0];
+
+    /* Chunks that this version may change */
+    private boolean[] owned = new boolean[0];
+
+    private int count;
+
+    /* No chunk before this one has any deleted rows */
+    private int first;
+
+    /**
+     * Creates a version that can be changed without affecting this one.
+     */
+    Tombstones fork() {
+	Tombstones copy = new Tombstones();
+	copy.chunks = chunks.clone();
+	copy.counts = counts.clone();
+	copy.owned = new boolean[chunks.length];
+	copy.count = count;
+	copy.first = first;
+	return copy;
+    }
+
+    boolean contains(int row) {
+	int chunk = row >>> Column.CHUNK_BITS;
+	if (chunk >= chunks.length || counts[chunk] == 0) {
+	    return false;
+	}
+	int bit = row & Column.CHUNK_MASK;
+	return (chunks[chunk][bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Gets the number of deleted rows.
+     */
+    int size() {
+	return count;
+    }
+
+    /**
+     * Marks a row as deleted.
+     * 
+     * @return <code>false</code> when the row was already deleted.
+     */
+    boolean add(int row) {
+	if (contains(row)) {
+	    return false;
+	}
+	int chunk = row >>> Column.CHUNK_BITS;
+	if (chunk >= chunks.length) {
+	    int length = Math.max(chunk + 1, chunks.length * 2);
+	    chunks = Arrays.copyOf(chunks, length);
+	    counts = Arrays.copyOf(counts, length);
+	    owned = Arrays.copyOf(owned, length);
+	}
+	long[] words = own(chunk);
+	int bit = row & Column.CHUNK_MASK;
+	words[bit >>> 6] |= 1L << bit;
+	counts[chunk]++;
+	count++;
+	first = Math.min(first, chunk);
+	return true;
+    }
+
+    /**
+     * Takes a deleted row to be used again, the one with the lowest number.
+     * 
+     * @return The row, or -1 when no row is deleted.
+     */
+    int reuse() {
+	if (count == 0) {
+	    return -1;
+	}
+	int chunk = first;
+	while (counts[chunk] == 0) {
+	    chunk++;
+	}
+	first = chunk;
+	long[] words = own(chunk);
+	int word = 0;
+	while (words[word] == 0) {
+	    word++;
+	}
+	int bit = Long.numberOfTrailingZeros(words[word]);
+	words[word] &= ~(1L << bit);
+	counts[chunk]--;
+	count--;
+	return (chunk << Column.CHUNK_BITS) + word * 64 + bit;
+    }
+
+    /**
+     * Takes a given deleted row to be used again, see {@link #reuse()}.
+     * 
+     * @return <code>false</code> when the row was not deleted.
+     */
+    boolean remove(int row) {
+	if (!contains(row)) {
+	    return false;
+	}
+	int chunk = row >>> Column.CHUNK_BITS;
+	long[] words = own(chunk);
+	int bit = row & Column.CHUNK_MASK;
+	words[bit >>> 6] &= ~(1L << bit);
+	counts[chunk]--;
+	count--;
+	return true;
+    }
+
+    /**
+     * Gets a chunk that may be changed, copying it if it is shared.
+     */
+    private long[] own(int chunk) {
+	if (chunks[chunk] == null) {
+	    chunks[chunk] = new long[WORDS];
+	    owned[chunk] = true;
+	} else if (!owned[chunk]) {
+	    chunks[chunk] = chunks[chunk].clone();
+	    owned[chunk] = true;
+	}
+	return chunks[chunk];
+    }
+
+}
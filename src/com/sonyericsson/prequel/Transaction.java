@@ -0,0 +1,291 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * The statements run between <code>BEGIN</code> and <code>COMMIT</code>, or a
+ * single statement run on its own. A transaction reads the tables as they were
+ * committed when it first used them, and is not affected by other transactions
+ * committing after that. Writes go to private versions of the tables, see
+ * {@link Table#fork()}, which replace the committed tables on commit. Rolling
+ * back simply drops them.
+ * <p>
+ * Only one transaction at a time may write to a table. The lock of the table is
+ * taken before the first write and is held until the transaction ends, while
+ * reading never waits for anything.
+ * <p>
+ * Statements hold the lock of the schema while waiting for tables, so a
+ * transaction holding tables between statements must not wait for the schema
+ * for long, see {@link #lockSchema(Lock)}.
+ */
+class Transaction {
+
+    /* Milliseconds to wait for a table written by a BEGIN transaction */
+    private static final long LOCK_TIMEOUT = 5000;
+
+    private final Database database;
+
+    /* true for transactions started by BEGIN */
+    final boolean explicit;
+
+    /* The committed tables when the transaction first read, or null */
+    private Map<String, Table> snapshot;
+
+    /* The versions written, and the versions they were forked from */
+    private final HashMap<String, Table> written = new HashMap<String, Table>();
+
+    private final HashMap<String, Table> bases = new HashMap<String, Table>();
+
+    /* The changes to log, null until a table is written */
+    private WriteAheadLog.Record redo;
+
+    private boolean ended;
+
+    Transaction(Database database, boolean explicit) {
+	this.database = database;
+	this.explicit = explicit;
+    }
+
+    /**
+     * Gets the version of a stored table that the transaction sees.
+     * 
+     * @param table
+     *            Any version of the table.
+     * @return The version.
+     * @throws ProcessingException
+     *             when the table has been dropped.
+     */
+    Table read(Table table) throws ProcessingException {
+	Table version = written.get(table.name);
+	if (version != null) {
+	    return version;
+	}
+	if (snapshot == null) {
+	    snapshot = database.getTables();
+	}
+	version = snapshot.get(table.name);
+	if (version == null || version.lock != table.lock) {
+	    /* The table was created after the snapshot was taken */
+	    version = database.getTableSafe(table.name);
+	}
+	return version;
+    }
+
+    /**
+     * Gets the version of a table that the transaction writes to. The table
+     * must have been locked by {@link #lock(Vector)}.
+     */
+    Table write(Table table) {
+	return written.get(table.name);
+    }
+
+    /**
+     * Locks tables for writing and creates the versions to write to. Tables
+     * are locked in a fixed order, so that two single statements never wait
+     * for each other. Transactions started by <code>BEGIN</code> may lock
+     * more tables later on, so they give up after a while instead, which
+     * rolls them back.
+     * 
+     * @param tables
+     *            The tables to write, any version of them.
+     * @throws ProcessingException
+     *             when a table could not be locked, or when it has been
+     *             changed since the transaction read it.
+     */
+    void lock(Vector<Table> tables) throws ProcessingException {
+	Table[] sorted = tables.toArray(new Table[tables.size()]);
+	Arrays.sort(sorted, new Comparator<Table>() {
+
+	    @Override
+	    public int compare(Table a, Table b) {
+		return (a.lockOrder < b.lockOrder) ? -1
+			: ((a.lockOrder == b.lockOrder) ? 0 : 1);
+	    }
+
+	});
+	for (Table table : sorted) {
+	    if (written.containsKey(table.name)) {
+		continue;
+	    }
+	    if (!acquire(table)) {
+		rollback();
+		throw new ProcessingException("Table \"" + table.name
+			+ "\" is locked by another transaction, rolled back");
+	    }
+	    Table committed;
+	    try {
+		committed = database.getTableSafe(table.name);
+	    } catch (ProcessingException e) {
+		table.lock.unlock();
+		throw e;
+	    }
+	    bases.put(table.name, committed);
+	    Table version = committed.fork();
+	    version.redo = redo();
+	    written.put(table.name, version);
+
+	    /* Writing over changes that were never seen would lose them */
+	    Table seen = (snapshot != null) ? snapshot.get(table.name) : null;
+	    if (seen != null && seen != committed) {
+		rollback();
+		throw new ProcessingException("Table \"" + table.name
+			+ "\" was changed by another transaction, rolled back");
+	    }
+	}
+    }
+
+    /**
+     * Takes a lock of the database schema before running a statement. A
+     * transaction started by <code>BEGIN</code> keeps its tables locked
+     * between statements, while another statement may be waiting for one of
+     * them holding the schema lock, so a transaction holding tables gives up
+     * after a while, which rolls it back.
+     * 
+     * @param lock
+     *            The read or write lock of the schema.
+     * @return <code>true</code> when the lock was taken,
+     *         <code>false</code> when the transaction was rolled back.
+     */
+    boolean lockSchema(Lock lock) {
+	if (bases.isEmpty()) {
+	    lock.lock();
+	    return true;
+	}
+	boolean locked;
+	try {
+	    locked = lock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    locked = false;
+	}
+	if (!locked) {
+	    rollback();
+	}
+	return locked;
+    }
+
+    /**
+     * Checks if the transaction holds the lock of any table.
+     */
+    boolean hasLocks() {
+	return !bases.isEmpty();
+    }
+
+    private boolean acquire(Table table) {
+	if (!explicit) {
+	    table.lock.lock();
+	    return true;
+	}
+	try {
+	    return table.lock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    return false;
+	}
+    }
+
+    /**
+     * Gets the record that the changes of the transaction are logged in, see
+     * {@link WriteAheadLog}.
+     * 
+     * @return The record, or <code>null</code> when the database keeps no
+     *         log.
+     */
+    private WriteAheadLog.Record redo() {
+	if (redo == null && database.getLog() != null) {
+	    redo = new WriteAheadLog.Record();
+	}
+	return redo;
+    }
+
+    /**
+     * Makes the changes of the transaction visible to others, and ends it.
+     * 
+     * @throws ProcessingException
+     *             when a written table was changed by a schema change, in
+     *             which case the transaction is rolled back, or when the
+     *             changes could not be logged.
+     */
+    void commit() throws ProcessingException {
+	long position = -1;
+	try {
+	    if (redo != null) {
+		for (Table version : written.values()) {
+		    Table base = bases.get(version.name);
+		    if (!version.autoIncr.equals(base.autoIncr)) {
+			redo.counters(version);
+		    }
+		}
+	    }
+	    if (!written.isEmpty()) {
+		position = database.commit(bases, written, redo);
+	    }
+	} finally {
+	    rollback();
+	}
+
+	/*
+	 * Wait for the log after unlocking the tables, so that transactions
+	 * writing the same tables can commit meanwhile and share the write.
+	 */
+	if (position != -1) {
+	    database.sync(position);
+	}
+    }
+
+    /**
+     * Drops the changes of the transaction, unless already committed, and
+     * ends it. Does nothing when the transaction has already ended.
+     */
+    void rollback() {
+	if (ended) {
+	    return;
+	}
+	ended = true;
+	for (Table version : written.values()) {
+	    version.redo = null;
+	}
+	for (Table table : bases.values()) {
+	    table.lock.unlock();
+	}
+	written.clear();
+	bases.clear();
+	snapshot = null;
+	redo = null;
+    }
+
+    boolean isEnded() {
+	return ended;
+    }
+
+}
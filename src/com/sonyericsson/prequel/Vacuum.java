@@ -0,0 +1,111 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Compacts tables in the background, see <code>PRAGMA auto_vacuum</code>.
+ * Tables are scheduled as they are committed with enough deleted rows, and
+ * compacted one at a time by running <code>VACUUM</code> on them. The table
+ * is locked for writing meanwhile, while readers keep using the version they
+ * already have.
+ * <p>
+ * The thread refers to the database until it is stopped, so the database is
+ * not garbage collected before that.
+ */
+class Vacuum implements Runnable {
+
+    private final Database database;
+
+    /* Names of the tables to compact, in the order they were scheduled */
+    private final LinkedHashSet<String> pending = new LinkedHashSet<String>();
+
+    private boolean stopped;
+
+    private Vacuum(Database database) {
+	this.database = database;
+    }
+
+    /**
+     * Starts compacting tables for a database.
+     * 
+     * @return The running compaction, to schedule tables with.
+     */
+    static Vacuum start(Database database) {
+	Vacuum vacuum = new Vacuum(database);
+	Thread thread = new Thread(vacuum, "Prequel vacuum");
+	thread.setDaemon(true);
+	thread.start();
+	return vacuum;
+    }
+
+    /**
+     * Schedules a table to be compacted, unless it already is.
+     */
+    synchronized void schedule(String table) {
+	if (pending.add(table)) {
+	    notify();
+	}
+    }
+
+    /**
+     * Stops compacting tables. A table being compacted is finished first.
+     */
+    synchronized void stop() {
+	stopped = true;
+	pending.clear();
+	notify();
+    }
+
+    @Override
+    public void run() {
+	while (true) {
+	    String table;
+	    synchronized (this) {
+		while (pending.isEmpty() && !stopped) {
+		    try {
+			wait();
+		    } catch (InterruptedException e) {
+			return;
+		    }
+		}
+		if (stopped) {
+		    return;
+		}
+		Iterator<String> first = pending.iterator();
+		table = first.next();
+		first.remove();
+	    }
+	    try {
+		database.query("VACUUM " + table);
+	    } catch (InvalidSqlQueryException e) {
+		/* The table has been dropped since it was scheduled */
+	    }
+	}
+    }
+
+}
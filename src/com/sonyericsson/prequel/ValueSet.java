@@ -0,0 +1,220 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+
+/**
+ * A set of values, used for the right operand of <code>IN</code>. Values are
+ * equal when they compare as equal with <code>=</code>, so 1 equals 1.0.
+ * Whole numbers are kept in an open addressing table of primitive longs, and
+ * so are the bits of other real numbers, so a numeric column can be checked
+ * against the set without boxing its cells. Text and blobs are kept in hash
+ * sets of their own.
+ */
+class ValueSet {
+
+    /**
+     * An open addressing hash set of longs. The value 0 marks an empty slot,
+     * so whether 0 itself is in the set is kept aside.
+     */
+    private static class LongSet {
+
+	private long[] slots = new long[16];
+
+	private boolean zero;
+
+	private int size;
+
+	boolean contains(long l) {
+	    if (l == 0) {
+		return zero;
+	    }
+	    int mask = slots.length - 1;
+	    int pos = Table.hash(l) & mask;
+	    while (slots[pos] != 0) {
+		if (slots[pos] == l) {
+		    return true;
+		}
+		pos = (pos + 1) & mask;
+	    }
+	    return false;
+	}
+
+	void add(long l) {
+	    if (l == 0) {
+		zero = true;
+		return;
+	    }
+	    int mask = slots.length - 1;
+	    int pos = Table.hash(l) & mask;
+	    while (slots[pos] != 0) {
+		if (slots[pos] == l) {
+		    return;
+		}
+		pos = (pos + 1) & mask;
+	    }
+	    slots[pos] = l;
+	    if (++size * 2 > slots.length) {
+		grow();
+	    }
+	}
+
+	private void grow() {
+	    long[] old = slots;
+	    slots = new long[old.length * 2];
+	    int mask = slots.length - 1;
+	    for (long l : old) {
+		if (l != 0) {
+		    int pos = Table.hash(l) & mask;
+		    while (slots[pos] != 0) {
+			pos = (pos + 1) & mask;
+		    }
+		    slots[pos] = l;
+		}
+	    }
+	}
+
+    }
+
+    private final LongSet integers = new LongSet();
+
+    /* Real numbers with a fraction, by their bits */
+    private final LongSet reals = new LongSet();
+
+    private final HashSet<String> strings = new HashSet<String>();
+
+    private final HashSet<ByteBuffer> blobs = new HashSet<ByteBuffer>();
+
+    private boolean hasNull;
+
+    private boolean empty = true;
+
+    /**
+     * Adds a value to the set.
+     * 
+     * @param value
+     *            The value, or <code>null</code>.
+     */
+    void add(Object value) {
+	empty = false;
+	if (value == null) {
+	    hasNull = true;
+	} else if (value instanceof Integer || value instanceof Long) {
+	    integers.add(((Number) value).longValue());
+	} else if (value instanceof Double) {
+	    addDouble((Double) value);
+	} else if (value instanceof byte[]) {
+	    blobs.add(ByteBuffer.wrap((byte[]) value));
+	} else {
+	    strings.add(value.toString());
+	}
+    }
+
+    private void addDouble(double d) {
+	empty = false;
+	if (d == (long) d) {
+	    integers.add((long) d);
+	} else {
+	    reals.add(Double.doubleToLongBits(d));
+	}
+    }
+
+    /**
+     * Adds all values of a column. Numeric columns of columnar tables are
+     * read without boxing.
+     * 
+     * @param nulls
+     *            <code>false</code> to leave out the NULL values.
+     */
+    void addAll(Table table, int column, boolean nulls) {
+	Column stored = table.getColumn(column);
+	int rows = table.getRowCount();
+	if (stored != null && stored.isNumeric()) {
+	    boolean real = stored instanceof Column.RealColumn;
+	    for (int row = 0; row < rows; row++) {
+		if (stored.isNull(row)) {
+		    if (nulls) {
+			add(null);
+		    }
+		} else if (real) {
+		    addDouble(stored.getDouble(row));
+		} else {
+		    empty = false;
+		    integers.add(stored.getLong(row));
+		}
+	    }
+	    return;
+	}
+	for (int row = 0; row < rows; row++) {
+	    Object value = table.getCell(row, column);
+	    if (value != null || nulls) {
+		add(value);
+	    }
+	}
+    }
+
+    /**
+     * Checks if a value is in the set. NULL is never found, see
+     * {@link #hasNull()}.
+     */
+    boolean contains(Object value) {
+	if (value == null) {
+	    return false;
+	} else if (value instanceof Integer || value instanceof Long) {
+	    return integers.contains(((Number) value).longValue());
+	} else if (value instanceof Double) {
+	    return containsDouble((Double) value);
+	} else if (value instanceof byte[]) {
+	    return blobs.contains(ByteBuffer.wrap((byte[]) value));
+	} else {
+	    return strings.contains(value.toString());
+	}
+    }
+
+    boolean containsLong(long l) {
+	return integers.contains(l);
+    }
+
+    boolean containsDouble(double d) {
+	if (d == (long) d) {
+	    return integers.contains((long) d);
+	}
+	return reals.contains(Double.doubleToLongBits(d));
+    }
+
+    /**
+     * Checks if NULL has been added to the set.
+     */
+    boolean hasNull() {
+	return hasNull;
+    }
+
+    boolean isEmpty() {
+	return empty;
+    }
+
+}
@@ -0,0 +1,777 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+/**
+ * The log that a database stored in a file writes its changes to, see
+ * {@link Database#Database(File)}. Each committed transaction is appended as
+ * a record holding the changes it made to the rows of its tables, as they were
+ * made, see {@link Table#redo}. Rows are referred to by their numbers, which
+ * are the same when the changes are made again in the same order. Statements
+ * changing the schema, or settings, get records of their own holding their SQL
+ * and parameters. Opening the database makes the changes again, in the order
+ * they were committed.
+ * <p>
+ * The changes are logged rather than the statements making them, since a
+ * statement reading tables in a transaction sees them as they were when the
+ * transaction started, which running the statement again would not.
+ * <p>
+ * Records are appended to a buffer while the committed tables are replaced,
+ * so they are in the order of the commits, and written to the file after
+ * that. When a commit is to wait for the disk, see
+ * <code>PRAGMA synchronous</code>, the first one to wait writes all buffered
+ * records and syncs them at once, while the others wait for it. The other
+ * commits return at once, leaving the records to a thread that writes them.
+ * <p>
+ * Each record starts with its length and checksum, so a record that was only
+ * partly written when the process died is detected, and dropped, when the
+ * log is opened.
+ * <p>
+ * The log starts with a random number, its epoch, which changes when the log
+ * is emptied by {@link Database#checkpoint(File)}. A snapshot notes the epoch
+ * and the end of the log when it is written, so that opening it together with
+ * a log that was not emptied yet only runs the records added after it.
+ */
+class WriteAheadLog implements Runnable {
+
+    /* Values of PRAGMA synchronous */
+    static final int OFF = 0;
+
+    static final int NORMAL = 1;
+
+    static final int FULL = 2;
+
+    /* Kinds of entries in a record */
+    private static final int SQL = 1;
+
+    /* The table that the changes after it are made to */
+    private static final int TABLE = 2;
+
+    private static final int INSERT = 3;
+
+    private static final int SET = 4;
+
+    private static final int DELETE = 5;
+
+    private static final int CLEAR = 6;
+
+    private static final int COMPACT = 7;
+
+    /* The auto increment values of the table */
+    private static final int COUNTERS = 8;
+
+    /* Types of values */
+    private static final int NULL = 0;
+
+    private static final int INTEGER = 1;
+
+    private static final int LONG = 2;
+
+    private static final int REAL = 3;
+
+    private static final int TEXT = 4;
+
+    /* Bytes before the first record, holding the epoch */
+    private static final int HEADER = 8;
+
+    private static final Random EPOCHS = new Random();
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private long epoch;
+
+    /* Records appended but not yet written */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    /* Ends of the records appended, written to the file and synced */
+    private long appended;
+
+    private long written;
+
+    private long synced;
+
+    /* true while a thread writes to the file */
+    private boolean writing;
+
+    private int synchronous = FULL;
+
+    /* Milliseconds between writes by the thread, synced in NORMAL mode */
+    private int interval = 100;
+
+    /* Why the thread failed to write, thrown by the next commit */
+    private IOException failure;
+
+    private boolean closed;
+
+    /**
+     * The changes of a transaction, appended to the log when it commits, or
+     * a statement that is logged as SQL.
+     */
+    static class Record {
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+	private final DataOutputStream out = new DataOutputStream(bytes);
+
+	private int entries;
+
+	/* The table of the last change, so that it is only named once */
+	private String table;
+
+	/**
+	 * Adds a statement that was run with the given parameters.
+	 */
+	void sql(String sql, Object[] params) {
+	    try {
+		out.writeByte(SQL);
+		writeText(out, sql);
+		out.writeInt(params.length);
+		for (Object param : params) {
+		    writeValue(out, param);
+		}
+	    } catch (IOException e) {
+		throw new IllegalStateException(e);
+	    }
+	    entries++;
+	}
+
+	/**
+	 * Adds a row that was added to a table, with the values of all its
+	 * columns.
+	 */
+	void insert(Table table, int row) {
+	    try {
+		begin(table, INSERT);
+		out.writeInt(row);
+		for (int i = 0; i < table.getColumnCount(); i++) {
+		    writeValue(out, table.getCell(row, i));
+		}
+	    } catch (IOException e) {
+		throw new IllegalStateException(e);
+	    }
+	}
+
+	/**
+	 * Adds a value that was written to a row.
+	 */
+	void set(Table table, int row, int column, Object value) {
+	    try {
+		begin(table, SET);
+		out.writeInt(row);
+		out.writeInt(column);
+		writeValue(out, value);
+	    } catch (IOException e) {
+		throw new IllegalStateException(e);
+	    }
+	}
+
+	void delete(Table table, int row) {
+	    try {
+		begin(table, DELETE);
+		out.writeInt(row);
+	    } catch (IOException e) {
+		throw new IllegalStateException(e);
+	    }
+	}
+
+	void clear(Table table) {
+	    try {
+		begin(table, CLEAR);
+	    } catch (IOException e) {
+		throw new IllegalStateException(e);
+	    }
+	}
+
+	void compact(Table table) {
+	    try {
+		begin(table, COMPACT);
+	    } catch (IOException e) {
+		throw new IllegalStateException(e);
+	    }
+	}
+
+	/**
+	 * Adds the auto increment values of a table, which also change when
+	 * a row is given back, see {@link Table#insert(int[], Object[], int)}.
+	 */
+	void counters(Table table) {
+	    try {
+		begin(table, COUNTERS);
+		for (long value : table.autoIncr) {
+		    out.writeLong(value);
+		}
+	    } catch (IOException e) {
+		throw new IllegalStateException(e);
+	    }
+	}
+
+	/**
+	 * Starts an entry, naming the table first when the previous change
+	 * was made to another one.
+	 */
+	private void begin(Table table, int kind) throws IOException {
+	    if (!table.name.equals(this.table)) {
+		out.writeByte(TABLE);
+		writeText(out, table.name);
+		this.table = table.name;
+		entries++;
+	    }
+	    out.writeByte(kind);
+	    entries++;
+	}
+
+	boolean isEmpty() {
+	    return entries == 0;
+	}
+
+    }
+
+    private WriteAheadLog(RandomAccessFile file, long epoch, long end)
+	    throws IOException {
+	this.file = file;
+	this.epoch = epoch;
+	channel = file.getChannel();
+	channel.position(end);
+	appended = end;
+	written = end;
+	synced = end;
+    }
+
+    /**
+     * Opens the log of a database, running the records already in it.
+     * Anything after the last complete record is cut off.
+     * 
+     * @param database
+     *            The database, which must not have a log yet.
+     * @param path
+     *            The log, which is created if it does not exist.
+     * @param epoch
+     *            The epoch of the log when the contents of the database were
+     *            written to a snapshot, or 0 when they were not.
+     * @param position
+     *            The end of the log at that time. Records before it are
+     *            already in the database and are skipped, if the log still
+     *            has the same epoch.
+     * @return The log, to append to.
+     * @throws IOException
+     *             when the log could not be read, or a record could not be
+     *             run again.
+     */
+    static WriteAheadLog open(Database database, File path, long epoch,
+	    long position) throws IOException {
+	long current = 0;
+	long end = 0;
+	if (path.length() >= HEADER) {
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(
+		    new FileInputStream(path), 1 << 16));
+	    try {
+		current = in.readLong();
+		long skip = (current == epoch) ? position : HEADER;
+		end = HEADER;
+		byte[] record;
+		while ((record = read(in)) != null) {
+		    if (end >= skip) {
+			replay(database, record);
+		    }
+		    end += 8 + record.length;
+		}
+
+		/* Records would be appended where they are skipped */
+		if (end < skip) {
+		    end = 0;
+		}
+	    } finally {
+		in.close();
+	    }
+	}
+	RandomAccessFile file = new RandomAccessFile(path, "rw");
+	if (end == 0) {
+	    current = startEpoch(file.getChannel());
+	    end = HEADER;
+	} else {
+	    file.setLength(end);
+	}
+	WriteAheadLog log = new WriteAheadLog(file, current, end);
+	Thread thread = new Thread(log, "Prequel log");
+	thread.setDaemon(true);
+	thread.start();
+	return log;
+    }
+
+    /**
+     * Empties a log and gives it a new epoch, see {@link #reset()}.
+     * 
+     * @return The epoch.
+     */
+    private static long startEpoch(FileChannel channel) throws IOException {
+	long epoch = 0;
+	while (epoch == 0) {
+	    epoch = EPOCHS.nextLong();
+	}
+	channel.truncate(HEADER);
+	ByteBuffer header = ByteBuffer.allocate(HEADER).putLong(0, epoch);
+	while (header.hasRemaining()) {
+	    channel.write(header, header.position());
+	}
+	channel.force(false);
+	channel.position(HEADER);
+	return epoch;
+    }
+
+    /**
+     * Reads the next record.
+     * 
+     * @return The record, or <code>null</code> at the end of the log or
+     *         when the record is incomplete.
+     */
+    private static byte[] read(DataInputStream in) throws IOException {
+	try {
+	    int length = in.readInt();
+	    int checksum = in.readInt();
+	    if (length < 0) {
+		return null;
+	    }
+	    byte[] record = new byte[length];
+	    in.readFully(record);
+	    CRC32 crc = new CRC32();
+	    crc.update(record);
+	    return ((int) crc.getValue() == checksum) ? record : null;
+	} catch (EOFException e) {
+	    return null;
+	}
+    }
+
+    /**
+     * Runs the entries of a record. Statements logged as SQL are run again,
+     * while the changes of a transaction are made in a transaction of their
+     * own, see {@link Changes}.
+     */
+    private static void replay(Database database, byte[] record)
+	    throws IOException {
+	DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+		record));
+	int entries = in.readInt();
+	try {
+	    if (entries > 0 && record[4] != SQL) {
+		database.run(new Changes(database, in, entries), "log");
+		return;
+	    }
+	    for (int i = 0; i < entries; i++) {
+		in.readByte();
+		String sql = readText(in);
+		Object[] params = new Object[in.readInt()];
+		for (int j = 0; j < params.length; j++) {
+		    params[j] = readValue(in);
+		}
+		database.query(sql, params);
+	    }
+	} catch (InvalidSqlQueryException e) {
+	    throw new IOException("Cannot run the log again: "
+		    + e.getMessage());
+	}
+    }
+
+    /**
+     * Makes the changes of a record again. The tables are written in the
+     * order they are named, so they are locked as they come.
+     */
+    private static class Changes extends Statement {
+
+	private final Database database;
+
+	private final DataInputStream in;
+
+	private final int entries;
+
+	Changes(Database database, DataInputStream in, int entries) {
+	    this.database = database;
+	    this.in = in;
+	    this.entries = entries;
+	}
+
+	@Override
+	Table execute(Frame frame) throws ProcessingException {
+	    try {
+		Table version = null;
+		for (int i = 0; i < entries; i++) {
+		    int kind = in.readByte();
+		    if (kind == TABLE) {
+			Vector<Table> tables = new Vector<Table>();
+			tables.add(database.getTableSafe(readText(in)));
+			frame.transaction.lock(tables);
+			version = frame.transaction.write(tables.get(0));
+			continue;
+		    }
+		    int row = (kind == INSERT || kind == SET
+			    || kind == DELETE) ? in.readInt() : -1;
+		    switch (kind) {
+		    case INSERT:
+			Object[] values = new Object[version.getColumnCount()];
+			for (int j = 0; j < values.length; j++) {
+			    values[j] = readValue(in);
+			}
+			version.insertAt(row, values);
+			break;
+		    case SET:
+			int column = in.readInt();
+			version.set(row, column, readValue(in));
+			break;
+		    case DELETE:
+			version.delete(row);
+			break;
+		    case CLEAR:
+			version.clear();
+			break;
+		    case COMPACT:
+			version.compact();
+			break;
+		    default:
+			for (int j = 0; j < version.autoIncr.size(); j++) {
+			    version.autoIncr.set(j, in.readLong());
+			}
+			break;
+		    }
+		}
+	    } catch (IOException e) {
+		throw new ProcessingException("Cannot read the log: "
+			+ e.getMessage());
+	    }
+	    return null;
+	}
+
+    }
+
+    static void writeText(DataOutputStream out, String text)
+	    throws IOException {
+	byte[] bytes = text.getBytes("UTF-8");
+	out.writeInt(bytes.length);
+	out.write(bytes);
+    }
+
+    static String readText(DataInputStream in) throws IOException {
+	byte[] bytes = new byte[in.readInt()];
+	in.readFully(bytes);
+	return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Writes a value. Values that are neither numbers that a column may
+     * hold nor text are written as text, like a <code>TEXT</code> column
+     * would hold them.
+     */
+    static void writeValue(DataOutputStream out, Object value)
+	    throws IOException {
+	if (value == null) {
+	    out.writeByte(NULL);
+	} else if (value instanceof Integer) {
+	    out.writeByte(INTEGER);
+	    out.writeInt((Integer) value);
+	} else if (value instanceof Long) {
+	    out.writeByte(LONG);
+	    out.writeLong((Long) value);
+	} else if (value instanceof Double) {
+	    out.writeByte(REAL);
+	    out.writeDouble((Double) value);
+	} else {
+	    out.writeByte(TEXT);
+	    writeText(out, value.toString());
+	}
+    }
+
+    static Object readValue(DataInputStream in) throws IOException {
+	switch (in.readByte()) {
+	case NULL:
+	    return null;
+	case INTEGER:
+	    return in.readInt();
+	case LONG:
+	    return in.readLong();
+	case REAL:
+	    return in.readDouble();
+	default:
+	    return readText(in);
+	}
+    }
+
+    /**
+     * Appends a record to the buffer. The caller must hold the lock used
+     * when the committed tables are replaced, so that the records are in the
+     * order of the commits.
+     * 
+     * @return The position after the record, to wait for, see
+     *         {@link #commit(long)}.
+     */
+    synchronized long append(Record record) {
+	byte[] payload = record.bytes.toByteArray();
+	CRC32 crc = new CRC32();
+	crc.update(ByteBuffer.allocate(4).putInt(record.entries).array());
+	crc.update(payload);
+	DataOutputStream out = new DataOutputStream(pending);
+	try {
+	    out.writeInt(4 + payload.length);
+	    out.writeInt((int) crc.getValue());
+	    out.writeInt(record.entries);
+	    out.write(payload);
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+	appended += 12 + payload.length;
+	return appended;
+    }
+
+    /**
+     * Waits for a record to reach the disk, when
+     * <code>PRAGMA synchronous</code> says so.
+     * 
+     * @param position
+     *            The position after the record, see {@link #append(Record)}.
+     * @throws IOException
+     *             when the log could not be written, now or earlier.
+     */
+    void commit(long position) throws IOException {
+	synchronized (this) {
+	    if (failure != null) {
+		throw failure;
+	    } else if (synchronous != FULL) {
+		return;
+	    }
+	}
+	flush(position, true);
+    }
+
+    /**
+     * Writes the buffered records to the file, unless another thread already
+     * is. A thread finding another one writing waits for it, and writes the
+     * records buffered meanwhile when it is done, so that each sync covers
+     * as many commits as possible.
+     * 
+     * @param position
+     *            The position to write up to, at least.
+     * @param sync
+     *            <code>true</code> to also sync the file.
+     */
+    private void flush(long position, boolean sync) throws IOException {
+	while (true) {
+	    byte[] batch;
+	    long end;
+	    synchronized (this) {
+		while (writing && (sync ? synced : written) < position) {
+		    try {
+			wait();
+		    } catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing log");
+		    }
+		}
+		if ((sync ? synced : written) >= position) {
+		    return;
+		} else if (closed) {
+		    throw new IOException("The log is closed");
+		}
+		writing = true;
+		batch = pending.toByteArray();
+		pending = new ByteArrayOutputStream();
+		end = appended;
+	    }
+	    boolean done = false;
+	    try {
+		ByteBuffer buffer = ByteBuffer.wrap(batch);
+		while (buffer.hasRemaining()) {
+		    channel.write(buffer);
+		}
+		if (sync) {
+		    channel.force(false);
+		}
+		done = true;
+	    } finally {
+		synchronized (this) {
+		    writing = false;
+		    if (done) {
+			written = end;
+			synced = sync ? end : synced;
+		    }
+		    notifyAll();
+		}
+	    }
+	}
+    }
+
+    /**
+     * Writes and syncs all records appended so far.
+     * 
+     * @return The position after them, see {@link #open(Database, File,
+     *         long, long)}.
+     */
+    long flush() throws IOException {
+	long position;
+	synchronized (this) {
+	    position = appended;
+	}
+	flush(position, true);
+	return position;
+    }
+
+    /**
+     * Drops all records, since the changes in them have been written to a
+     * snapshot, and gives the log a new epoch. The log must have been flushed,
+     * and no records may be appended meanwhile.
+     */
+    void reset() throws IOException {
+	synchronized (this) {
+	    while (writing) {
+		try {
+		    wait();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    throw new IOException("Interrupted while writing log");
+		}
+	    }
+	    writing = true;
+	}
+	long next = 0;
+	try {
+	    next = startEpoch(channel);
+	} finally {
+	    synchronized (this) {
+		writing = false;
+		if (next != 0) {
+		    epoch = next;
+		    pending = new ByteArrayOutputStream();
+		    appended = HEADER;
+		    written = HEADER;
+		    synced = HEADER;
+		}
+		notifyAll();
+	    }
+	}
+    }
+
+    synchronized long getEpoch() {
+	return epoch;
+    }
+
+    /**
+     * Sets when commits wait for the disk, see
+     * <code>PRAGMA synchronous</code>.
+     * 
+     * @param mode
+     *            {@link #FULL} to wait for each commit, {@link #NORMAL} to
+     *            write and sync the log every few milliseconds, or
+     *            {@link #OFF} to only write it and leave syncing to the
+     *            operating system.
+     */
+    synchronized void setSynchronous(int mode) {
+	synchronous = mode;
+	notifyAll();
+    }
+
+    synchronized int getSynchronous() {
+	return synchronous;
+    }
+
+    /**
+     * Sets the milliseconds between writes of commits that do not wait for
+     * the disk, see <code>PRAGMA sync_interval</code>.
+     */
+    synchronized void setInterval(int interval) {
+	this.interval = interval;
+	notifyAll();
+    }
+
+    synchronized int getInterval() {
+	return interval;
+    }
+
+    /**
+     * Writes the records of commits that do not wait for the disk.
+     */
+    @Override
+    public void run() {
+	while (true) {
+	    long position;
+	    boolean sync;
+	    synchronized (this) {
+		if (closed) {
+		    return;
+		}
+		try {
+		    wait(interval);
+		} catch (InterruptedException e) {
+		    return;
+		}
+		if (closed) {
+		    return;
+		}
+		position = appended;
+		sync = synchronous != OFF;
+	    }
+	    try {
+		flush(position, sync);
+	    } catch (IOException e) {
+		synchronized (this) {
+		    failure = e;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Writes and syncs all records, and closes the log.
+     */
+    void close() throws IOException {
+	long position;
+	synchronized (this) {
+	    position = appended;
+	}
+	try {
+	    flush(position, true);
+	} finally {
+	    synchronized (this) {
+		closed = true;
+		notifyAll();
+	    }
+	    file.close();
+	}
+    }
+
+}
@@ -0,0 +1,172 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+import com.sonyericsson.prequel.Table;
+
+public class TestAggregate extends TestCase {
+
+    private static final int ROWS = 10000;
+
+    private Database d;
+
+    private void fill(String storage) throws InvalidSqlQueryException {
+	d = new Database();
+	d.query("PRAGMA storage = " + storage);
+	d.query("CREATE TABLE t (a INTEGER, b INTEGER, c TEXT, r REAL)");
+	Query insert = d.prepare("INSERT INTO t VALUES (?, ?, ?, ?)");
+	for (int i = 0; i < ROWS; i++) {
+	    insert.execute(i % 100, i, "x" + (i % 3), i / 2.0);
+	}
+	insert.execute(null, -1, null, null);
+    }
+
+    @Override
+    public void setUp() throws InvalidSqlQueryException {
+	fill("row");
+    }
+
+    private void assertGroups() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT a, COUNT(*), SUM(b), MIN(b), MAX(b), AVG(b) "
+		+ "FROM t GROUP BY a");
+	assertEquals(101, t.getRowCount());
+	long total = 0;
+	for (int i = 0; i < t.getRowCount(); i++) {
+	    if (t.isNull(i, 0)) {
+		assertEquals(1, t.getCellInt(i, 1));
+		assertEquals(-1, t.getCellInt(i, 2));
+		continue;
+	    }
+	    int a = t.getCellInt(i, 0);
+	    assertEquals(100, t.getCellInt(i, 1));
+	    assertEquals(a, t.getCellInt(i, 3));
+	    assertEquals(9900 + a, t.getCellInt(i, 4));
+	    assertEquals(4950.0 + a, t.getCellDouble(i, 5), 0.0001);
+	    total += t.getCellLong(i, 2);
+	}
+	assertEquals((long) ROWS * (ROWS - 1) / 2, total);
+    }
+
+    public void testIntegerKey() throws InvalidSqlQueryException {
+	assertGroups();
+    }
+
+    public void testColumnar() throws InvalidSqlQueryException {
+	fill("columnar");
+	assertGroups();
+    }
+
+    public void testTextKey() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT c, COUNT(c), MAX(c), TOTAL(r) FROM t "
+		+ "GROUP BY c");
+	assertEquals(4, t.getRowCount());
+	int rows = 0;
+	for (int i = 0; i < t.getRowCount(); i++) {
+	    if (t.isNull(i, 0)) {
+		assertEquals(0, t.getCellInt(i, 1));
+		assertEquals(0.0, t.getCellDouble(i, 3), 0.0);
+	    } else {
+		assertEquals(t.getCellString(i, 0), t.getCellString(i, 2));
+		rows += t.getCellInt(i, 1);
+	    }
+	}
+	assertEquals(ROWS, rows);
+    }
+
+    public void testCompositeKey() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT a, c, COUNT(*) FROM t WHERE b >= 0 "
+		+ "GROUP BY a, c");
+	assertEquals(300, t.getRowCount());
+	for (int i = 0; i < t.getRowCount(); i++) {
+	    assertEquals(ROWS / 300, t.getCellInt(i, 2), 1);
+	}
+    }
+
+    public void testHaving() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT a FROM t GROUP BY a HAVING MAX(b) > 9989");
+	assertEquals(10, t.getRowCount());
+	t = d.prepare("SELECT a, COUNT(*) FROM t GROUP BY a "
+		+ "HAVING COUNT(*) < ?").execute(50);
+	assertEquals(1, t.getRowCount());
+	assertTrue(t.isNull(0, 0));
+    }
+
+    public void testWithoutGroupBy() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT COUNT(*), COUNT(a), SUM(r), MIN(c) FROM t");
+	assertEquals(1, t.getRowCount());
+	assertEquals(ROWS + 1, t.getCellInt(0, 0));
+	assertEquals(ROWS, t.getCellInt(0, 1));
+	assertEquals((double) ROWS * (ROWS - 1) / 4, t.getCellDouble(0, 2),
+		0.0001);
+	assertEquals("x0", t.getCellString(0, 3));
+
+	t = d.query("SELECT COUNT(*), SUM(b), TOTAL(b), a FROM t WHERE b < -1");
+	assertEquals(1, t.getRowCount());
+	assertEquals(0, t.getCellInt(0, 0));
+	assertTrue(t.isNull(0, 1));
+	assertEquals(0.0, t.getCellDouble(0, 2), 0.0);
+	assertTrue(t.isNull(0, 3));
+    }
+
+    public void testOverflow() throws InvalidSqlQueryException {
+	/* Typed columns are summed directly, untyped ones evaluated */
+	d.query("CREATE TABLE big (a INTEGER, b)");
+	d.query("INSERT INTO big VALUES (9223372036854775807, "
+		+ "9223372036854775807)");
+	d.query("INSERT INTO big VALUES (1, 1)");
+	String[] columns = { "a", "b" };
+	for (String column : columns) {
+	    try {
+		d.query("SELECT SUM(" + column + ") FROM big");
+		fail("Overflow accepted");
+	    } catch (InvalidSqlQueryException e) {
+		assertTrue(e.getMessage().startsWith("integer overflow"));
+	    }
+	    Table t = d.query("SELECT AVG(" + column + "), TOTAL(" + column
+		    + ") FROM big");
+	    assertEquals(4.611686018427388E18, t.getCellDouble(0, 0), 1E4);
+	    assertEquals(9.223372036854776E18, t.getCellDouble(0, 1), 1E4);
+	}
+    }
+
+    public void testMisuse() {
+	try {
+	    d.query("SELECT * FROM t WHERE COUNT(*) > 1");
+	    fail("Aggregate accepted in WHERE");
+	} catch (InvalidSqlQueryException e) {
+	}
+	try {
+	    d.query("SELECT SUM(COUNT(*)) FROM t");
+	    fail("Nested aggregate accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+}
@@ -0,0 +1,165 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+import com.sonyericsson.prequel.Table;
+
+public class TestCompound extends TestCase {
+
+    private Database d;
+
+    /**
+     * Gets the rows of a result as sorted strings, so that results can be
+     * compared regardless of row order.
+     */
+    private ArrayList<String> rows(String sql) throws InvalidSqlQueryException {
+	Table t = d.query(sql);
+	ArrayList<String> result = new ArrayList<String>();
+	for (int i = 0; i < t.getRowCount(); i++) {
+	    StringBuilder b = new StringBuilder();
+	    for (int j = 0; j < t.getColumnCount(); j++) {
+		b.append(t.getCellString(i, j));
+		b.append("|");
+	    }
+	    result.add(b.toString());
+	}
+	Collections.sort(result);
+	return result;
+    }
+
+    private static ArrayList<String> range(int from, int to, int step) {
+	ArrayList<String> result = new ArrayList<String>();
+	for (int i = from; i < to; i += step) {
+	    result.add(i + "|");
+	}
+	Collections.sort(result);
+	return result;
+    }
+
+    @Override
+    public void setUp() throws InvalidSqlQueryException {
+	d = new Database();
+	d.query("CREATE TABLE t (a INTEGER, b TEXT)");
+	d.query("CREATE TABLE u (a INTEGER, b TEXT)");
+	Query insert = d.prepare("INSERT INTO t VALUES (?, ?)");
+	for (int i = 0; i < 1000; i++) {
+	    insert.execute(i % 100, (i % 3 == 0) ? null : "b" + (i % 2));
+	}
+	insert = d.prepare("INSERT INTO u VALUES (?, ?)");
+	for (int i = 50; i < 150; i++) {
+	    insert.execute(i, "b" + (i % 2));
+	}
+    }
+
+    public void testDistinct() throws InvalidSqlQueryException {
+	assertEquals(1000, d.query("SELECT ALL a FROM t").getRowCount());
+	assertEquals(range(0, 100, 1), rows("SELECT DISTINCT a FROM t"));
+	assertEquals(3, d.query("SELECT DISTINCT b FROM t").getRowCount());
+	assertEquals(200, d.query("SELECT DISTINCT a, b FROM t")
+		.getRowCount());
+
+	/* Duplicates are removed before the limit is applied */
+	Table t = d.query("SELECT DISTINCT a FROM t ORDER BY a DESC "
+		+ "LIMIT 3 OFFSET 1");
+	assertEquals(3, t.getRowCount());
+	assertEquals(98, t.getCellInt(0, 0));
+	assertEquals(96, t.getCellInt(2, 0));
+    }
+
+    public void testUnion() throws InvalidSqlQueryException {
+	assertEquals(1100, d.query("SELECT a FROM t UNION ALL SELECT a FROM u")
+		.getRowCount());
+	assertEquals(range(0, 150, 1),
+		rows("SELECT a FROM t UNION SELECT a FROM u"));
+	Table t = d.query("SELECT a FROM u UNION SELECT a FROM t "
+		+ "ORDER BY a LIMIT 2");
+	assertEquals("a", t.getColumnName(0));
+	assertEquals(1, t.getColumnCount());
+	assertEquals(1, t.getCellInt(1, 0));
+    }
+
+    public void testIntersectAndExcept() throws InvalidSqlQueryException {
+	assertEquals(range(50, 100, 1),
+		rows("SELECT a FROM t INTERSECT SELECT a FROM u"));
+	assertEquals(range(0, 50, 1),
+		rows("SELECT a FROM t EXCEPT SELECT a FROM u"));
+	assertEquals(range(100, 150, 1),
+		rows("SELECT a FROM u EXCEPT SELECT a FROM t"));
+
+	/* NULL values are equal to each other in set operations */
+	assertEquals(1, d.query("SELECT b FROM t WHERE a = 0 "
+		+ "INTERSECT SELECT b FROM t WHERE a = 3").getRowCount());
+
+	/* Operators are applied from left to right */
+	assertEquals(range(0, 150, 2),
+		rows("SELECT a FROM t EXCEPT SELECT a FROM u "
+			+ "UNION SELECT a FROM u WHERE b = 'b0' "
+			+ "EXCEPT SELECT a FROM t WHERE b = 'b1'"));
+    }
+
+    public void testMixedTypes() throws InvalidSqlQueryException {
+	for (String storage : new String[] { "row", "columnar" }) {
+	    d = new Database();
+	    d.query("PRAGMA storage = " + storage);
+	    d.query("CREATE TABLE m (a INTEGER, b TEXT, c REAL)");
+	    d.query("INSERT INTO m VALUES (1, 'x', 1.5)");
+	    d.query("INSERT INTO m VALUES (2, 'y', 2.5)");
+
+	    /* Values keep their types, not those of the left column */
+	    assertEquals(Arrays.asList("1.5|", "1|", "2.5|", "2|"),
+		    rows("SELECT a FROM m UNION ALL SELECT c FROM m"));
+	    assertEquals(Arrays.asList("1.5|", "1|", "2.5|", "2|"),
+		    rows("SELECT a FROM m UNION SELECT c FROM m"));
+	    assertEquals(Arrays.asList("1|", "2|", "x|", "y|"),
+		    rows("SELECT a FROM m UNION ALL SELECT b FROM m"));
+	    assertEquals(Arrays.asList("1.5|", "2.5|", "x|", "y|"),
+		    rows("SELECT c FROM m UNION SELECT b FROM m"));
+
+	    /* The other operators agree */
+	    assertEquals(0, d.query("SELECT a FROM m INTERSECT SELECT c FROM m")
+		    .getRowCount());
+	    assertEquals(2, d.query("SELECT a FROM m EXCEPT SELECT c FROM m")
+		    .getRowCount());
+	}
+    }
+
+    public void testColumnCount() {
+	try {
+	    d.query("SELECT a FROM t UNION SELECT a, b FROM u");
+	    fail("Different column counts accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+}
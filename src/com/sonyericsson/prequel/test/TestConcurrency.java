@@ -0,0 +1,182 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+
+public class TestConcurrency extends TestCase {
+
+    private static final int THREADS = 8;
+
+    private Database d;
+
+    /* Failures in the worker threads */
+    private final Vector<Throwable> failures = new Vector<Throwable>();
+
+    private abstract class Worker extends Thread {
+
+	abstract void work(int id) throws InvalidSqlQueryException;
+
+	private final int id;
+
+	Worker(int id) {
+	    this.id = id;
+	}
+
+	@Override
+	public void run() {
+	    try {
+		work(id);
+	    } catch (Throwable t) {
+		failures.add(t);
+	    }
+	}
+
+    }
+
+    private void runAll(Worker[] workers) throws InterruptedException {
+	for (Worker worker : workers) {
+	    worker.start();
+	}
+	for (Worker worker : workers) {
+	    worker.join();
+	}
+	if (!failures.isEmpty()) {
+	    failures.get(0).printStackTrace();
+	    fail(failures.size() + " workers failed: " + failures.get(0));
+	}
+    }
+
+    @Override
+    public void setUp() throws InvalidSqlQueryException {
+	d = new Database();
+	d.query("CREATE TABLE t (a INTEGER, b TEXT)");
+	Query insert = d.prepare("INSERT INTO t VALUES (?, ?)");
+	for (int i = 0; i < 1000; i++) {
+	    insert.execute(i % 100, "row" + i);
+	}
+    }
+
+    public void testParallelReads() throws InterruptedException {
+	Worker[] workers = new Worker[THREADS];
+	for (int i = 0; i < workers.length; i++) {
+	    workers[i] = new Worker(i) {
+
+		@Override
+		void work(int id) throws InvalidSqlQueryException {
+		    for (int j = 0; j < 100; j++) {
+			int a = (id * 100 + j) % 100;
+			assertEquals(10, d.query("SELECT b FROM t WHERE a = ?",
+				a).getRowCount());
+		    }
+		}
+
+	    };
+	}
+	runAll(workers);
+    }
+
+    public void testWritesToSameTable() throws InterruptedException,
+	    InvalidSqlQueryException {
+	Worker[] workers = new Worker[THREADS];
+	for (int i = 0; i < workers.length; i++) {
+	    workers[i] = new Worker(i) {
+
+		@Override
+		void work(int id) throws InvalidSqlQueryException {
+		    Query insert = d.prepare("INSERT INTO t VALUES (?, ?)");
+		    for (int j = 0; j < 100; j++) {
+			insert.execute(1000 + id, "worker" + id);
+		    }
+		}
+
+	    };
+	}
+	runAll(workers);
+	assertEquals(1000 + THREADS * 100, d.query("SELECT * FROM t")
+		.getRowCount());
+	for (int i = 0; i < THREADS; i++) {
+	    assertEquals(100, d.query("SELECT * FROM t WHERE a = ?", 1000 + i)
+		    .getRowCount());
+	}
+    }
+
+    public void testReadersAndWriters() throws InterruptedException,
+	    InvalidSqlQueryException {
+	Worker[] workers = new Worker[THREADS];
+	for (int i = 0; i < workers.length; i++) {
+	    d.query("CREATE TABLE t" + i + " (a INTEGER)");
+	    workers[i] = new Worker(i) {
+
+		@Override
+		void work(int id) throws InvalidSqlQueryException {
+		    for (int j = 0; j < 200; j++) {
+			d.query("INSERT INTO t" + id + " VALUES (?)", j);
+			int count = d.query("SELECT t.b FROM t" + id + ", t "
+				+ "WHERE t" + id + ".a = t.a").getRowCount();
+			assertEquals(Math.min(j + 1, 100) * 10, count);
+		    }
+		}
+
+	    };
+	}
+	runAll(workers);
+	for (int i = 0; i < THREADS; i++) {
+	    assertEquals(200, d.query("SELECT * FROM t" + i).getRowCount());
+	}
+    }
+
+    public void testSchemaChanges() throws InterruptedException {
+	Worker[] workers = new Worker[THREADS];
+	for (int i = 0; i < workers.length; i++) {
+	    workers[i] = new Worker(i) {
+
+		@Override
+		void work(int id) throws InvalidSqlQueryException {
+		    for (int j = 0; j < 50; j++) {
+			if (id % 2 == 0) {
+			    d.query("CREATE TABLE s" + id + " (a INTEGER)");
+			    d.query("INSERT INTO s" + id + " VALUES (1)");
+			    d.query("DROP TABLE s" + id);
+			} else {
+			    assertEquals(10, d.query(
+				    "SELECT * FROM t WHERE a = 5")
+				    .getRowCount());
+			}
+		    }
+		}
+
+	    };
+	}
+	runAll(workers);
+    }
+
+}
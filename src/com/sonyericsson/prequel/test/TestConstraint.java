@@ -0,0 +1,266 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+import com.sonyericsson.prequel.Table;
+
+public class TestConstraint extends TestCase {
+
+    private Database d;
+
+    private int count(String sql, Object... params)
+	    throws InvalidSqlQueryException {
+	return d.query(sql, params).getCellInt(0, 0);
+    }
+
+    private void fails(String sql, Object... params) {
+	try {
+	    d.query(sql, params);
+	    fail("Conflict accepted: " + sql);
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+    @Override
+    public void setUp() {
+	d = new Database();
+    }
+
+    private void checkPrimaryKey() throws InvalidSqlQueryException {
+	d.query("CREATE TABLE t (id INTEGER PRIMARY KEY, name TEXT)");
+	for (int i = 0; i < 100; i++) {
+	    assertEquals(1, count("INSERT INTO t VALUES (?, ?)", i, "n" + i));
+	}
+	fails("INSERT INTO t VALUES (5, 'five')");
+	fails("INSERT INTO t VALUES (5.0, 'five')");
+	assertEquals(0, count("INSERT OR IGNORE INTO t VALUES (5, 'five')"));
+	assertEquals("n5", d.query("SELECT name FROM t WHERE id = 5")
+		.getCellString(0, 0));
+	assertEquals(1, count("INSERT OR REPLACE INTO t VALUES (5, 'five')"));
+	assertEquals(1, count("REPLACE INTO t VALUES (6, 'six')"));
+	assertEquals(100, count("SELECT COUNT(*) FROM t"));
+	assertEquals("five", d.query("SELECT name FROM t WHERE id = 5")
+		.getCellString(0, 0));
+	assertEquals("six", d.query("SELECT name FROM t WHERE id = 6")
+		.getCellString(0, 0));
+
+	/* Rows may change as long as they keep their keys unique */
+	assertEquals(1, count("UPDATE t SET id = 200 WHERE id = 7"));
+	assertEquals(1, count("INSERT INTO t VALUES (7, 'seven')"));
+	fails("UPDATE t SET id = 8 WHERE id = 9");
+	assertEquals(0, count("UPDATE OR IGNORE t SET id = 8 WHERE id = 9"));
+	assertEquals(1, count("UPDATE t SET name = 'nine' WHERE id = 9"));
+	assertEquals(1, count("UPDATE OR REPLACE t SET id = 8 WHERE id = 9"));
+	assertEquals(100, count("SELECT COUNT(*) FROM t"));
+	assertEquals("nine", d.query("SELECT name FROM t WHERE id = 8")
+		.getCellString(0, 0));
+
+	/* Keys of deleted rows may be used again */
+	d.query("DELETE FROM t WHERE id < 50");
+	assertEquals(1, count("INSERT INTO t VALUES (10, 'ten')"));
+	assertEquals(52, count("SELECT COUNT(*) FROM t"));
+    }
+
+    public void testPrimaryKey() throws InvalidSqlQueryException {
+	checkPrimaryKey();
+    }
+
+    public void testPrimaryKeyColumnar() throws InvalidSqlQueryException {
+	d.query("PRAGMA storage = columnar");
+	checkPrimaryKey();
+    }
+
+    public void testUnique() throws InvalidSqlQueryException {
+	d.query("CREATE TABLE t (id INTEGER, "
+		+ "code TEXT UNIQUE ON CONFLICT IGNORE)");
+	assertEquals(1, count("INSERT INTO t VALUES (1, 'a')"));
+	assertEquals(0, count("INSERT INTO t VALUES (2, 'a')"));
+	assertEquals(1, count("INSERT INTO t VALUES (3, 'b')"));
+
+	/* NULL is never equal to anything */
+	assertEquals(1, count("INSERT INTO t VALUES (4, NULL)"));
+	assertEquals(1, count("INSERT INTO t VALUES (5, NULL)"));
+
+	/* The statement overrides the constraint */
+	fails("INSERT OR ABORT INTO t VALUES (6, 'a')");
+	assertEquals(4, count("SELECT COUNT(*) FROM t"));
+	assertEquals(1, count("SELECT id FROM t WHERE code = 'a'"));
+    }
+
+    public void testTableConstraints() throws InvalidSqlQueryException {
+	d.query("CREATE TABLE t (a INTEGER, b INTEGER, c TEXT, "
+		+ "PRIMARY KEY (a, b), UNIQUE (c) ON CONFLICT REPLACE)");
+	assertEquals(1, count("INSERT INTO t VALUES (1, 1, 'x')"));
+	assertEquals(1, count("INSERT INTO t VALUES (1, 2, 'y')"));
+	fails("INSERT INTO t VALUES (1, 2, 'z')");
+
+	/* The row holding 'x' is replaced */
+	assertEquals(1, count("INSERT INTO t VALUES (2, 1, 'x')"));
+	assertEquals(2, count("SELECT COUNT(*) FROM t"));
+	assertEquals(2, count("SELECT a FROM t WHERE c = 'x'"));
+
+	try {
+	    d.query("CREATE TABLE u (a INTEGER PRIMARY KEY, b, "
+		    + "PRIMARY KEY (b))");
+	    fail("Two primary keys accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+	try {
+	    d.query("DROP INDEX sqlite_autoindex_t_1");
+	    fail("Index of a constraint dropped");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+    public void testUniqueIndex() throws InvalidSqlQueryException {
+	d.query("CREATE TABLE t (a INTEGER, b INTEGER)");
+	for (int i = 0; i < 10; i++) {
+	    d.query("INSERT INTO t VALUES (?, ?)", i, i % 5);
+	}
+	try {
+	    d.query("CREATE UNIQUE INDEX t_b ON t (b)");
+	    fail("Unique index on duplicates created");
+	} catch (InvalidSqlQueryException e) {
+	}
+	d.query("CREATE UNIQUE INDEX t_a ON t (a)");
+	fails("INSERT INTO t VALUES (3, 0)");
+	d.query("DROP INDEX t_a");
+	assertEquals(1, count("INSERT INTO t VALUES (3, 0)"));
+    }
+
+    public void testTransactions() throws InvalidSqlQueryException {
+	d.query("CREATE TABLE t (id INTEGER PRIMARY KEY ON CONFLICT ROLLBACK, "
+		+ "name TEXT)");
+	d.query("CREATE TABLE u (id INTEGER PRIMARY KEY)");
+
+	/* Only the failing statement is undone */
+	d.query("BEGIN");
+	d.query("INSERT INTO u VALUES (1)");
+	fails("INSERT INTO u VALUES (1)");
+	d.query("INSERT INTO u VALUES (2)");
+	d.query("COMMIT");
+	assertEquals(2, count("SELECT COUNT(*) FROM u"));
+
+	/* The whole transaction is undone */
+	d.query("BEGIN");
+	d.query("INSERT INTO u VALUES (3)");
+	d.query("INSERT INTO t VALUES (1, 'a')");
+	fails("INSERT INTO t VALUES (1, 'b')");
+	fails("COMMIT");
+	assertEquals(2, count("SELECT COUNT(*) FROM u"));
+	assertEquals(0, count("SELECT COUNT(*) FROM t"));
+    }
+
+    /**
+     * Checks that the rows with keys in a range are found, in key order.
+     */
+    private void checkRange(String table, int low, int high)
+	    throws InvalidSqlQueryException {
+	Table t = d.query("SELECT id FROM " + table
+		+ " WHERE id >= ? AND id <= ?", low, high);
+	assertEquals(high - low + 1, t.getRowCount());
+	for (int i = 0; i < t.getRowCount(); i++) {
+	    assertEquals(low + i, t.getCellInt(i, 0));
+	}
+    }
+
+    public void testIntegerPrimaryKey() throws InvalidSqlQueryException {
+	d.query("CREATE TABLE t (id INTEGER PRIMARY KEY, name TEXT)");
+	d.query("INSERT INTO t (name) VALUES ('a')");
+	d.query("INSERT INTO t VALUES (NULL, 'b')");
+	d.query("INSERT INTO t VALUES (10, 'c')");
+	d.query("INSERT INTO t (name) VALUES ('d')");
+	assertEquals(11, count("SELECT id FROM t WHERE name = 'd'"));
+
+	/* Keys are never given out twice */
+	d.query("DELETE FROM t WHERE id = 11");
+	d.query("INSERT INTO t (name) VALUES ('e')");
+	assertEquals(12, count("SELECT id FROM t WHERE name = 'e'"));
+	fails("UPDATE t SET id = NULL WHERE id = 12");
+
+	Query insert = d.prepare("INSERT INTO t (name) VALUES (?)");
+	for (int i = 0; i < 5000; i++) {
+	    insert.execute("n" + i);
+	}
+	assertEquals("n99", d.query("SELECT name FROM t WHERE id = 112")
+		.getCellString(0, 0));
+	assertEquals("SEARCH t USING INTEGER PRIMARY KEY (id=?)", d
+		.query("EXPLAIN QUERY PLAN SELECT * FROM t WHERE id = 5")
+		.getCellString(1, 2));
+	checkRange("t", 100, 3000);
+
+	/* Keys far from the others, and below zero */
+	d.query("INSERT INTO t VALUES (-5, 'negative')");
+	d.query("INSERT INTO t VALUES (1000000, 'far')");
+	assertEquals("far", d.query("SELECT name FROM t WHERE id = 1000000")
+		.getCellString(0, 0));
+	Table t = d.query("SELECT id FROM t WHERE id > 5010");
+	assertEquals(3, t.getRowCount());
+	assertEquals(5011, t.getCellInt(0, 0));
+	assertEquals(1000000, t.getCellInt(2, 0));
+	t = d.query("SELECT id FROM t WHERE id < 3");
+	assertEquals(3, t.getRowCount());
+	assertEquals(-5, t.getCellInt(0, 0));
+	t = d.query("SELECT id FROM t WHERE id <= 2.5");
+	assertEquals(3, t.getRowCount());
+	assertEquals(2, t.getCellInt(2, 0));
+	assertEquals(0, d.query("SELECT id FROM t WHERE id > 'a'")
+		.getRowCount());
+
+	d.query("DELETE FROM t WHERE id > 10 AND id < 4000");
+	d.query("VACUUM t");
+	checkRange("t", 4000, 5012);
+	assertEquals(1, count("SELECT COUNT(*) FROM t WHERE id = 10"));
+    }
+
+    public void testIntegerPrimaryKeyOrder() throws InvalidSqlQueryException {
+	d.query("PRAGMA storage = columnar");
+	d.query("CREATE TABLE t (id INTEGER PRIMARY KEY AUTOINCREMENT)");
+	d.query("CREATE TABLE u (id INTEGER, PRIMARY KEY (id))");
+
+	/* Keys are kept apart until the ones in between arrive */
+	Query insert = d.prepare("INSERT INTO t VALUES (?)");
+	for (int i = 4999; i >= 0; i--) {
+	    insert.execute(i);
+	}
+	insert = d.prepare("INSERT INTO u VALUES (?)");
+	insert.execute(3000);
+	for (int i = 0; i < 3000; i++) {
+	    insert.execute(i);
+	}
+	checkRange("t", 0, 4999);
+	checkRange("t", 2000, 2100);
+	checkRange("u", 0, 3000);
+	fails("INSERT INTO u VALUES (3000)");
+	fails("INSERT INTO t VALUES (4000)");
+	assertEquals(3001, count("SELECT COUNT(*) FROM u"));
+    }
+
+}
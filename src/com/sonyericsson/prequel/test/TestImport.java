@@ -0,0 +1,237 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Table;
+
+public class TestImport extends TestCase {
+
+    private Database d;
+
+    private File file;
+
+    private int count(String sql, Object... params)
+	    throws InvalidSqlQueryException {
+	return d.query(sql, params).getCellInt(0, 0);
+    }
+
+    private void write(String text) throws IOException {
+	Writer out = new OutputStreamWriter(new FileOutputStream(file),
+		"UTF-8");
+	try {
+	    out.write(text);
+	} finally {
+	    out.close();
+	}
+    }
+
+    @Override
+    public void setUp() throws IOException, InvalidSqlQueryException {
+	d = new Database();
+	d.query("CREATE TABLE t (id INTEGER, x REAL, name TEXT)");
+	file = File.createTempFile("prequel", ".csv");
+    }
+
+    @Override
+    public void tearDown() {
+	file.delete();
+    }
+
+    public void testValues() throws IOException, InvalidSqlQueryException {
+	write("id,x,name\n1,2.5,plain\n-2,,\"quoted, \"\"twice\"\"\"\r\n"
+		+ "\n3,1e3,räksmörgås\n,-0.125,\n12345678901,7,\"\"");
+	assertEquals(5, d.importCsv(file, "t", ',', true));
+	Table t = d.query("SELECT id, x, name FROM t");
+	assertEquals(1, t.getCellInt(0, 0));
+	assertEquals(2.5, t.getCellDouble(0, 1));
+	assertEquals("plain", t.getCellString(0, 2));
+	assertTrue(t.isNull(1, 1));
+	assertEquals("quoted, \"twice\"", t.getCellString(1, 2));
+	assertEquals(1000.0, t.getCellDouble(2, 1));
+	assertEquals("räksmörgås", t.getCellString(2, 2));
+	assertTrue(t.isNull(3, 0));
+	assertEquals(-0.125, t.getCellDouble(3, 1));
+	assertEquals("", t.getCellString(3, 2));
+	assertEquals(12345678901L, t.getCellLong(4, 0));
+    }
+
+    public void testStatement() throws IOException, InvalidSqlQueryException {
+	file.delete();
+	file = File.createTempFile("prequel", ".tsv");
+	write("1\t0.5\ta\n2\t1.5\tb, c\n");
+	assertEquals(2, count("IMPORT '" + file + "' INTO t"));
+	assertEquals("b, c", d.query("SELECT name FROM t WHERE id = 2")
+		.getCellString(0, 0));
+
+	write("id;x;name\n3;0;c\n");
+	assertEquals(1, count("IMPORT '" + file + "' INTO t SEPARATOR ';' "
+		+ "HEADER"));
+	assertEquals(3, count("SELECT COUNT(*) FROM t"));
+    }
+
+    public void testParts() throws IOException, InvalidSqlQueryException {
+	d.query("CREATE TABLE u (id INTEGER PRIMARY KEY, x INTEGER, "
+		+ "name TEXT)");
+	d.query("CREATE INDEX u_x ON u (x)");
+	StringBuilder b = new StringBuilder();
+	for (int i = 0; i < 200000; i++) {
+	    b.append(i).append(',').append(i % 7).append(",name of row ");
+	    b.append(i).append('\n');
+	}
+	write(b.toString());
+	assertTrue(file.length() > 4 << 20);
+	assertEquals(200000, d.importCsv(file, "u", ',', false));
+
+	/* The rows are added in the order of the file */
+	Table t = d.query("SELECT id, name FROM u");
+	for (int i = 0; i < t.getRowCount(); i += 997) {
+	    assertEquals(i, t.getCellInt(i, 0));
+	    assertEquals("name of row " + i, t.getCellString(i, 1));
+	}
+	assertEquals(28571, count("SELECT COUNT(*) FROM u WHERE x = 6"));
+    }
+
+    public void testIntegers() throws IOException,
+	    InvalidSqlQueryException {
+	write("1.5,0,a\n-2.9,0,b\n1234567890123456789,0,c\n"
+		+ "12345678901234567890,0,d\n1e3,0,e\n");
+	assertEquals(5, d.importCsv(file, "t", ',', false));
+	Table t = d.query("SELECT id FROM t");
+	assertEquals(1, t.getCellInt(0, 0));
+	assertEquals(-2, t.getCellInt(1, 0));
+	assertEquals(1234567890123456789L, t.getCellLong(2, 0));
+	assertEquals(Long.MAX_VALUE, t.getCellLong(3, 0));
+	assertEquals(1000, t.getCellInt(4, 0));
+
+	/* Reals are truncated as when they are inserted */
+	d.query("INSERT INTO t (id) VALUES (1.5)");
+	assertEquals(2, count("SELECT COUNT(*) FROM t WHERE id = 1"));
+
+	String[] invalid = { "abc", "-", "\"\"", "1.5x" };
+	for (String value : invalid) {
+	    write("7,0,a\n" + value + ",0,b\n");
+	    try {
+		d.importCsv(file, "t", ',', false);
+		fail(value + " accepted as an integer");
+	    } catch (InvalidSqlQueryException e) {
+		String message = e.getMessage();
+		assertTrue(message, message.startsWith("Line 2 "));
+		assertTrue(message, message.contains("is not a number"));
+	    }
+	}
+	assertEquals(6, count("SELECT COUNT(*) FROM t"));
+    }
+
+    /**
+     * Writes a file of more than one part, with a line break in a quoted
+     * value at the given offset, and checks that the line is invalid.
+     */
+    private void checkQuotedBreak(int offset) throws IOException {
+	StringBuilder b = new StringBuilder();
+	int lines = 0;
+	while (b.length() < offset - 200) {
+	    b.append("1,1,a\n");
+	    lines++;
+	}
+	b.append("2,2,\"");
+	while (b.length() < offset) {
+	    b.append('p');
+	}
+	b.append("\nq\"\n");
+	while (b.length() < 5 << 19) {
+	    b.append("3,3,c\n");
+	}
+	write(b.toString());
+	try {
+	    d.importCsv(file, "t", ',', false);
+	    fail("Line break in quoted value accepted at " + offset);
+	} catch (InvalidSqlQueryException e) {
+	    assertTrue(e.getMessage(), e.getMessage().startsWith("Line "
+		    + (lines + 1) + " "));
+	    assertTrue(e.getMessage(), e.getMessage().contains("Line break"));
+	}
+    }
+
+    public void testQuotedLineBreak() throws IOException,
+	    InvalidSqlQueryException {
+	write("1,1,a\n2,2,\"b\nc\"\n");
+	try {
+	    d.importCsv(file, "t", ',', false);
+	    fail("Line break in quoted value accepted");
+	} catch (InvalidSqlQueryException e) {
+	    assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2 "));
+	}
+
+	/*
+	 * The file is split into parts of 1 MB, at the first line break from
+	 * the last byte of a part. The quoted line break is found the same
+	 * way before that line break, on it and after it.
+	 */
+	int part = 1 << 20;
+	checkQuotedBreak(part - 4);
+	checkQuotedBreak(part - 1);
+	checkQuotedBreak(part + 100);
+	assertEquals(0, count("SELECT COUNT(*) FROM t"));
+    }
+
+    public void testInvalid() throws IOException, InvalidSqlQueryException {
+	write("1,1,a\n2,2,b\n3,3\n4,4,d\n");
+	try {
+	    d.importCsv(file, "t", ',', false);
+	    fail("Short line accepted");
+	} catch (InvalidSqlQueryException e) {
+	    assertTrue(e.getMessage(), e.getMessage().startsWith("Line 3 "));
+	}
+	assertEquals(0, count("SELECT COUNT(*) FROM t"));
+
+	write("1,one,a\n");
+	try {
+	    d.importCsv(file, "t", ',', false);
+	    fail("Text accepted as a real");
+	} catch (InvalidSqlQueryException e) {
+	}
+	try {
+	    d.importCsv(new File(file + ".missing"), "t", ',', false);
+	    fail("Missing file accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+	try {
+	    d.importCsv(file, "v", ',', false);
+	    fail("Missing table accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+}
@@ -0,0 +1,161 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Table;
+
+public class TestIndex extends TestCase {
+
+    private static final String[] WHERE = { "a = 42", "42 = a", "a < 3",
+	    "a <= 3", "a > 97", "a >= 97", "a > 10 AND a < 13",
+	    "a >= 10 AND a <= 13 AND b > 4000", "a = 7 AND b < 500",
+	    "b = 1234", "a = 1000", "c = 'x3'", "c > 'x5'",
+	    "a = 3 AND b >= 2003 AND b <= 2503" };
+
+    private Database d;
+
+    /**
+     * Gets the rows of a result as sorted strings, so that results can be
+     * compared regardless of row order.
+     */
+    private ArrayList<String> rows(String sql) throws InvalidSqlQueryException {
+	Table t = d.query(sql);
+	ArrayList<String> result = new ArrayList<String>();
+	for (int i = 0; i < t.getRowCount(); i++) {
+	    StringBuilder b = new StringBuilder();
+	    for (int j = 0; j < t.getColumnCount(); j++) {
+		b.append(t.getCellString(i, j));
+		b.append("|");
+	    }
+	    result.add(b.toString());
+	}
+	Collections.sort(result);
+	return result;
+    }
+
+    private void assertSameResults(String index)
+	    throws InvalidSqlQueryException {
+	ArrayList<ArrayList<String>> expected;
+	expected = new ArrayList<ArrayList<String>>();
+	for (String where : WHERE) {
+	    expected.add(rows("SELECT * FROM t WHERE " + where));
+	}
+	d.query(index);
+	for (int i = 0; i < WHERE.length; i++) {
+	    String sql = "SELECT * FROM t WHERE " + WHERE[i];
+	    assertEquals(WHERE[i], expected.get(i), rows(sql));
+	}
+    }
+
+    @Override
+    public void setUp() throws InvalidSqlQueryException {
+	d = new Database();
+	d.query("CREATE TABLE t (a INTEGER, b INTEGER, c TEXT)");
+	for (int i = 0; i < 5000; i++) {
+	    d.query("INSERT INTO t VALUES (?, ?, ?)", (i * 7919) % 100, i, "x"
+		    + (i % 7));
+	}
+    }
+
+    public void testSingleColumn() throws InvalidSqlQueryException {
+	assertSameResults("CREATE INDEX t_a ON t (a)");
+    }
+
+    public void testComposite() throws InvalidSqlQueryException {
+	assertSameResults("CREATE INDEX t_ab ON t (a, b)");
+    }
+
+    public void testText() throws InvalidSqlQueryException {
+	assertSameResults("CREATE INDEX t_c ON t (c)");
+    }
+
+    public void testMaintainedOnInsert() throws InvalidSqlQueryException {
+	d.query("CREATE INDEX t_ab ON t (a, b)");
+	for (int i = 5000; i < 6000; i++) {
+	    d.query("INSERT INTO t VALUES (?, ?, ?)", 1000, i, "y");
+	}
+	assertEquals(1000, rows("SELECT * FROM t WHERE a = 1000").size());
+	assertEquals(10, rows("SELECT * FROM t WHERE a = 1000 AND b < 5010")
+		.size());
+    }
+
+    public void testDropIndex() throws InvalidSqlQueryException {
+	d.query("CREATE INDEX t_a ON t (a)");
+	d.query("CREATE INDEX IF NOT EXISTS t_a ON t (b)");
+	try {
+	    d.query("CREATE INDEX t_a ON t (b)");
+	    fail("Duplicate index name accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+	d.query("DROP INDEX t_a");
+	d.query("DROP INDEX IF EXISTS t_a");
+	try {
+	    d.query("DROP INDEX t_a");
+	    fail("Dropped index twice");
+	} catch (InvalidSqlQueryException e) {
+	}
+	assertEquals(50, rows("SELECT * FROM t WHERE a = 42").size());
+    }
+
+    public void testAnalyze() throws InvalidSqlQueryException {
+	d.query("ANALYZE");
+	assertEquals("5000", d.query("SELECT stat FROM sqlite_stat1 "
+		+ "WHERE tbl = 't' AND stat = '5000'").getCellString(0, 0));
+	Table t = d.query("SELECT stat FROM sqlite_stat1 WHERE idx = 'a'");
+	assertEquals(1, t.getRowCount());
+	assertTrue(t.getCellString(0, 0).startsWith("100 0.0 0 "));
+	t = d.query("SELECT stat FROM sqlite_stat1 WHERE idx = 'c'");
+	assertTrue(t.getCellString(0, 0).startsWith("7 0.0 'x0' "));
+
+	/* Analyzing again replaces the statistics */
+	d.query("ANALYZE t");
+	assertEquals(4, d.query("SELECT * FROM sqlite_stat1").getRowCount());
+	try {
+	    d.query("ANALYZE x");
+	    fail("Unknown table analyzed");
+	} catch (InvalidSqlQueryException e) {
+	}
+
+	/* The plans chosen from the statistics give the same rows */
+	d.query("CREATE INDEX t_c ON t (c)");
+	assertSameResults("CREATE INDEX t_ab ON t (a, b)");
+    }
+
+    public void testUnknownColumn() {
+	try {
+	    d.query("CREATE INDEX t_x ON t (x)");
+	    fail("Index on unknown column accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+}
@@ -0,0 +1,301 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+import com.sonyericsson.prequel.Table;
+
+public class TestJoin extends TestCase {
+
+    private Database d;
+
+    /**
+     * Gets the rows of a result as sorted strings, so that results can be
+     * compared regardless of row order.
+     */
+    private ArrayList<String> rows(String sql) throws InvalidSqlQueryException {
+	Table t = d.query(sql);
+	ArrayList<String> result = new ArrayList<String>();
+	for (int i = 0; i < t.getRowCount(); i++) {
+	    StringBuilder b = new StringBuilder();
+	    for (int j = 0; j < t.getColumnCount(); j++) {
+		b.append(t.getCellString(i, j));
+		b.append("|");
+	    }
+	    result.add(b.toString());
+	}
+	Collections.sort(result);
+	return result;
+    }
+
+    /**
+     * Fills a with ids 0 to left - 1, and b with right rows where every
+     * seventh row has no matching id.
+     */
+    private void fill(int left, int right) throws InvalidSqlQueryException {
+	d.query("CREATE TABLE a (id INTEGER, x TEXT)");
+	d.query("CREATE TABLE b (aid INTEGER, y INTEGER)");
+	Query insert = d.prepare("INSERT INTO a VALUES (?, ?)");
+	for (int i = 0; i < left; i++) {
+	    insert.execute(i, "x" + i);
+	}
+	insert.execute(null, "none");
+	insert = d.prepare("INSERT INTO b VALUES (?, ?)");
+	for (int i = 0; i < right; i++) {
+	    insert.execute((i % 7 == 0) ? -1 : (i * 31) % left, i);
+	}
+    }
+
+    /**
+     * Computes the expected result of joining a and b on a.id = b.aid.
+     */
+    private ArrayList<String> expected(boolean outer, int maxY)
+	    throws InvalidSqlQueryException {
+	Table a = d.query("SELECT * FROM a");
+	Table b = d.query("SELECT * FROM b");
+	ArrayList<String> result = new ArrayList<String>();
+	for (int i = 0; i < a.getRowCount(); i++) {
+	    boolean matched = false;
+	    for (int j = 0; j < b.getRowCount(); j++) {
+		if (!a.isNull(i, 0) && a.getCellInt(i, 0) == b.getCellInt(j, 0)
+			&& b.getCellInt(j, 1) < maxY) {
+		    result.add(a.getCellString(i, 0) + "|"
+			    + a.getCellString(i, 1) + "|"
+			    + b.getCellString(j, 0) + "|"
+			    + b.getCellString(j, 1) + "|");
+		    matched = true;
+		}
+	    }
+	    if (outer && !matched) {
+		Table nulls = d.query("SELECT * FROM b WHERE y < 0");
+		result.add(a.getCellString(i, 0) + "|" + a.getCellString(i, 1)
+			+ "|" + nulls.getCellString(0, 0) + "|"
+			+ nulls.getCellString(0, 1) + "|");
+	    }
+	}
+	Collections.sort(result);
+	return result;
+    }
+
+    private void assertJoins() throws InvalidSqlQueryException {
+	assertEquals(expected(false, Integer.MAX_VALUE),
+		rows("SELECT * FROM a JOIN b ON a.id = b.aid"));
+	assertEquals(expected(false, Integer.MAX_VALUE),
+		rows("SELECT * FROM a INNER JOIN b ON aid = id"));
+	assertEquals(expected(false, 100),
+		rows("SELECT * FROM a, b WHERE id = aid AND y < 100"));
+	assertEquals(expected(true, Integer.MAX_VALUE),
+		rows("SELECT * FROM a LEFT JOIN b ON a.id = b.aid"));
+	assertEquals(expected(true, 100),
+		rows("SELECT * FROM a LEFT OUTER JOIN b ON a.id = b.aid "
+			+ "AND b.y < 100"));
+    }
+
+    @Override
+    public void setUp() {
+	d = new Database();
+    }
+
+    public void testHashJoin() throws InvalidSqlQueryException {
+	fill(100, 1000);
+	assertJoins();
+    }
+
+    public void testMergeJoin() throws InvalidSqlQueryException {
+	fill(500, 600);
+	d.query("CREATE INDEX a_id ON a (id)");
+	d.query("CREATE INDEX b_aid ON b (aid)");
+	assertJoins();
+    }
+
+    public void testIndexJoin() throws InvalidSqlQueryException {
+	fill(10, 2000);
+	d.query("CREATE INDEX b_aid ON b (aid)");
+	assertJoins();
+    }
+
+    public void testReverseIndexJoin() throws InvalidSqlQueryException {
+	fill(2000, 10);
+	d.query("CREATE INDEX a_id ON a (id)");
+	assertJoins();
+    }
+
+    public void testCrossJoin() throws InvalidSqlQueryException {
+	fill(5, 7);
+	assertEquals(6 * 7, d.query("SELECT * FROM a CROSS JOIN b")
+		.getRowCount());
+	assertEquals(6 * 7, d.query("SELECT * FROM a, b").getRowCount());
+	assertEquals(7, d.query("SELECT * FROM a, b WHERE id = 3")
+		.getRowCount());
+    }
+
+    public void testAliases() throws InvalidSqlQueryException {
+	fill(10, 20);
+	Table t = d.query("SELECT p.x, q.y FROM a AS p JOIN b q "
+		+ "ON p.id = q.aid WHERE q.y = 5");
+	assertEquals(1, t.getRowCount());
+	assertEquals("x5", t.getCellString(0, 0));
+	assertEquals(5, t.getCellInt(0, 1));
+
+	t = d.query("SELECT s.x FROM (SELECT * FROM a WHERE id < 3) AS s "
+		+ "JOIN b ON s.id = b.aid WHERE b.y = 19");
+	assertEquals(0, t.getRowCount());
+	assertEquals(1, d.query("SELECT a.x FROM a WHERE a.id = 3")
+		.getRowCount());
+    }
+
+    public void testUnknownQualifier() throws InvalidSqlQueryException {
+	fill(10, 20);
+	assertEquals(1, d.query("SELECT p.x FROM a AS p WHERE p.id = 3")
+		.getRowCount());
+	String[] queries = { "SELECT * FROM a WHERE zzz.id = 1",
+		"SELECT zzz.x FROM a",
+		"SELECT * FROM a AS p WHERE a.id = 1",
+		"SELECT * FROM a JOIN b ON a.id = c.aid",
+		"SELECT * FROM a, (SELECT * FROM b WHERE b.aid = a.id)",
+		"SELECT * FROM a ORDER BY b.id",
+		"UPDATE a SET x = b.x WHERE id = 1",
+		"DELETE FROM a WHERE b.id = 1" };
+	for (String sql : queries) {
+	    try {
+		d.query(sql);
+		fail("Unknown table accepted: " + sql);
+	    } catch (InvalidSqlQueryException e) {
+		assertColumn("No such column: ", e);
+	    }
+	}
+	assertEquals(1, d.query("DELETE FROM a WHERE a.id = 1")
+		.getCellInt(0, 0));
+    }
+
+    public void testUnknownColumn() throws InvalidSqlQueryException {
+	fill(10, 20);
+	assertEquals(1, d.query("SELECT x FROM (SELECT a.x FROM a JOIN b "
+		+ "ON id = aid WHERE y = 1)").getRowCount());
+	assertEquals(12, d.query("SELECT id FROM a UNION SELECT aid FROM b "
+		+ "ORDER BY id").getRowCount());
+	String[] queries = { "SELECT zzz FROM a",
+		"SELECT * FROM a WHERE zzz = 1",
+		"SELECT * FROM a ORDER BY zzz",
+		"SELECT COUNT(*) FROM a GROUP BY zzz",
+		"SELECT * FROM a JOIN b ON id = zzz",
+		"SELECT * FROM a JOIN b ON a.aid = b.aid",
+		"SELECT id FROM a UNION SELECT aid FROM b ORDER BY aid",
+		"SELECT * FROM a WHERE id IN (SELECT zzz FROM b)",
+		"SELECT * FROM (SELECT x FROM a) WHERE id = 1",
+		"INSERT INTO b SELECT id, zzz FROM a",
+		"UPDATE a SET x = zzz WHERE id = 1",
+		"DELETE FROM a WHERE zzz = 1" };
+	for (String sql : queries) {
+	    try {
+		d.query(sql);
+		fail("Unknown column accepted: " + sql);
+	    } catch (InvalidSqlQueryException e) {
+		assertColumn("No such column: ", e);
+	    }
+	}
+    }
+
+    public void testAmbiguousColumn() throws InvalidSqlQueryException {
+	fill(10, 20);
+	d.query("CREATE TABLE c (id INTEGER)");
+	String[] queries = { "SELECT id FROM a JOIN c ON a.id = c.id",
+		"SELECT * FROM a JOIN c ON a.id = c.id WHERE id > 1",
+		"SELECT * FROM a JOIN c ON id = 1",
+		"SELECT * FROM b WHERE aid IN (SELECT id FROM a, c)" };
+	for (String sql : queries) {
+	    try {
+		d.query(sql);
+		fail("Ambiguous column accepted: " + sql);
+	    } catch (InvalidSqlQueryException e) {
+		assertColumn("Ambiguous column name: ", e);
+	    }
+	}
+	assertEquals(0, d.query("SELECT a.id FROM a JOIN c ON a.id = c.id")
+		.getRowCount());
+    }
+
+    /**
+     * Asserts that an error names a column and is positioned on it.
+     */
+    private static void assertColumn(String reason,
+	    InvalidSqlQueryException e) {
+	String message = e.getMessage();
+	assertTrue(message, message.startsWith(reason));
+	String column = message.substring(reason.length(), message
+		.indexOf(" at "));
+	assertTrue(message, message.contains("<<here>>" + column));
+    }
+
+    public void testThreeTables() throws InvalidSqlQueryException {
+	fill(10, 20);
+	d.query("CREATE TABLE c (y INTEGER, z TEXT)");
+	for (int i = 0; i < 20; i += 2) {
+	    d.query("INSERT INTO c VALUES (?, ?)", i, "z" + i);
+	}
+	Table t = d.query("SELECT x, z FROM a JOIN b ON id = aid "
+		+ "JOIN c ON b.y = c.y");
+	int expected = 0;
+	for (int i = 0; i < 20; i += 2) {
+	    if (i % 7 != 0) {
+		expected++;
+	    }
+	}
+	assertEquals(expected, t.getRowCount());
+    }
+
+
+    public void testJoinOrder() throws InvalidSqlQueryException {
+	fill(10, 2000);
+	d.query("CREATE TABLE c (y INTEGER, z TEXT)");
+	for (int i = 0; i < 2000; i += 200) {
+	    d.query("INSERT INTO c VALUES (?, ?)", i, "z" + i);
+	}
+	String[] queries = {
+		"SELECT * FROM b JOIN a ON a.id = b.aid JOIN c ON b.y = c.y",
+		"SELECT * FROM a, b, c WHERE id = aid AND b.y = c.y "
+			+ "AND z > 'z1000'",
+		"SELECT a.x, z FROM a JOIN b ON a.id = aid JOIN c ON b.y = c.y "
+			+ "JOIN a AS d ON d.id = a.id" };
+	ArrayList<ArrayList<String>> expected;
+	expected = new ArrayList<ArrayList<String>>();
+	for (String sql : queries) {
+	    expected.add(rows(sql));
+	}
+	d.query("ANALYZE");
+	for (int i = 0; i < queries.length; i++) {
+	    assertEquals(queries[i], expected.get(i), rows(queries[i]));
+	}
+	assertEquals(8, expected.get(0).size());
+    }
+
+}
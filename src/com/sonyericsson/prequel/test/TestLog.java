@@ -0,0 +1,261 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+import com.sonyericsson.prequel.Table;
+
+public class TestLog extends TestCase {
+
+    private File file;
+
+    private Database d;
+
+    private int count(String sql) throws InvalidSqlQueryException {
+	return d.query(sql).getCellInt(0, 0);
+    }
+
+    private void reopen() throws IOException {
+	d.close();
+	d = new Database(file);
+    }
+
+    @Override
+    public void setUp() throws IOException {
+	file = File.createTempFile("prequel", ".log");
+	file.delete();
+	d = new Database(file);
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+	d.close();
+	file.delete();
+    }
+
+    public void testReplay() throws IOException, InvalidSqlQueryException {
+	d.query("PRAGMA storage = columnar");
+	d.query("PRAGMA user_version = 7");
+	d.query("CREATE TABLE t (id INTEGER PRIMARY KEY, x REAL, "
+		+ "name TEXT UNIQUE)");
+	d.query("CREATE INDEX t_x ON t (x)");
+	Query insert = d.prepare("INSERT INTO t (x, name) VALUES (?, ?)");
+	for (int i = 0; i < 100; i++) {
+	    insert.execute(i / 4.0, "n" + i);
+	}
+	d.query("DELETE FROM t WHERE id > 90");
+	d.query("UPDATE t SET name = 'changed' WHERE id = 5");
+	d.query("BEGIN");
+	d.query("INSERT INTO t VALUES (1000, NULL, 'kept')");
+	d.query("DELETE FROM t WHERE id = 1");
+	d.query("COMMIT");
+	d.query("BEGIN");
+	d.query("INSERT INTO t VALUES (2000, NULL, 'dropped')");
+	d.query("ROLLBACK");
+	try {
+	    d.query("INSERT INTO t (name) VALUES ('n3')");
+	    fail("Duplicate accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+	d.query("CREATE TABLE gone (a)");
+	d.query("DROP TABLE gone");
+
+	reopen();
+	assertEquals(7, count("PRAGMA user_version"));
+	assertEquals("columnar", d.query("PRAGMA storage").getCellString(0, 0));
+	assertEquals(90, count("SELECT COUNT(*) FROM t"));
+	assertEquals("changed", d.query("SELECT name FROM t WHERE id = 5")
+		.getCellString(0, 0));
+	assertEquals(1, count("SELECT COUNT(*) FROM t WHERE name = 'kept'"));
+	assertEquals(0, count("SELECT COUNT(*) FROM t WHERE id IN (1, 2000)"));
+	assertEquals(20, count("SELECT COUNT(*) FROM t WHERE x < 5"));
+
+	/* Keys are given out as before, and the log is appended to */
+	assertEquals(1, count("INSERT INTO t (name) VALUES ('next')"));
+	assertEquals(1001, count("SELECT id FROM t WHERE name = 'next'"));
+	reopen();
+	assertEquals(91, count("SELECT COUNT(*) FROM t"));
+	try {
+	    d.query("CREATE TABLE gone (a)");
+	} catch (InvalidSqlQueryException e) {
+	    fail("Dropped table still there");
+	}
+    }
+
+    public void testConcurrentReadThenWrite() throws Exception {
+	d.query("CREATE TABLE a (x INTEGER)");
+	d.query("CREATE TABLE b (x INTEGER)");
+	d.query("BEGIN");
+	assertEquals(0, d.query("SELECT * FROM a").getRowCount());
+	final Exception[] failure = new Exception[1];
+	Thread writer = new Thread() {
+
+	    @Override
+	    public void run() {
+		try {
+		    d.query("INSERT INTO a VALUES (1)");
+		} catch (Exception e) {
+		    failure[0] = e;
+		}
+	    }
+
+	};
+	writer.start();
+	writer.join();
+	assertNull(failure[0]);
+
+	/* The transaction still reads a as it was when it began */
+	d.query("INSERT INTO b SELECT x FROM a");
+	d.query("COMMIT");
+	assertEquals(0, count("SELECT COUNT(*) FROM b"));
+	reopen();
+	assertEquals(0, count("SELECT COUNT(*) FROM b"));
+	assertEquals(1, count("SELECT COUNT(*) FROM a"));
+
+	/* Rows keep their numbers through deletes, reuse and VACUUM */
+	d.query("INSERT INTO a VALUES (2)");
+	d.query("INSERT INTO a VALUES (3)");
+	d.query("DELETE FROM a WHERE x = 1");
+	d.query("VACUUM a");
+	d.query("DELETE FROM a WHERE x = 2");
+	d.query("INSERT INTO a VALUES (4)");
+	d.query("UPDATE a SET x = 5 WHERE x = 3");
+	reopen();
+	Table t = d.query("SELECT x FROM a ORDER BY x");
+	assertEquals(2, t.getRowCount());
+	assertEquals(4, t.getCellInt(0, 0));
+	assertEquals(5, t.getCellInt(1, 0));
+    }
+
+    public void testBulkInsert() throws IOException,
+	    InvalidSqlQueryException {
+	d.query("CREATE TABLE t (id INTEGER, x INTEGER, name TEXT)");
+	Vector<Object[]> rows = new Vector<Object[]>();
+	for (int i = 0; i < 3000; i++) {
+	    rows.add(new Object[] { i, 1L << 40, (i % 2 == 0) ? null : "n" });
+	}
+	d.bulkInsert("t", rows);
+	File csv = File.createTempFile("prequel", ".csv");
+	FileOutputStream out = new FileOutputStream(csv);
+	out.write("5000,1,imported\n".getBytes("UTF-8"));
+	out.close();
+	d.importCsv(csv, "t", ',', false);
+	csv.delete();
+
+	reopen();
+	assertEquals(3001, count("SELECT COUNT(*) FROM t"));
+	assertEquals(1500, count("SELECT COUNT(*) FROM t WHERE name = 'n'"));
+	assertEquals(1L << 40, d.query("SELECT x FROM t WHERE id = 7")
+		.getCellLong(0, 0));
+	assertEquals("imported", d.query("SELECT name FROM t WHERE id = 5000")
+		.getCellString(0, 0));
+    }
+
+    public void testTornRecord() throws IOException,
+	    InvalidSqlQueryException {
+	d.query("CREATE TABLE t (a INTEGER)");
+	d.query("INSERT INTO t VALUES (1)");
+	d.query("INSERT INTO t VALUES (2)");
+	d.close();
+
+	/* The last record was only partly written */
+	long length = file.length();
+	FileOutputStream out = new FileOutputStream(file, true);
+	out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+	out.close();
+	d = new Database(file);
+	assertEquals(2, count("SELECT COUNT(*) FROM t"));
+	assertEquals(length, file.length());
+	d.query("INSERT INTO t VALUES (3)");
+	reopen();
+	assertEquals(3, count("SELECT COUNT(*) FROM t"));
+    }
+
+    public void testSynchronous() throws IOException,
+	    InvalidSqlQueryException {
+	assertEquals(2, count("PRAGMA synchronous"));
+	d.query("CREATE TABLE t (a INTEGER)");
+	Query insert = d.prepare("INSERT INTO t VALUES (?)");
+	String[] modes = { "OFF", "NORMAL", "FULL" };
+	for (int i = 0; i < modes.length; i++) {
+	    d.query("PRAGMA synchronous = " + modes[i]);
+	    assertEquals(i, count("PRAGMA synchronous"));
+	    for (int j = 0; j < 100; j++) {
+		insert.execute(j);
+	    }
+	}
+	d.query("PRAGMA sync_interval = 5");
+	assertEquals(5, count("PRAGMA sync_interval"));
+	reopen();
+	assertEquals(300, count("SELECT COUNT(*) FROM t"));
+	try {
+	    new Database().query("PRAGMA synchronous = FULL");
+	    fail("Synchronous without log accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+    public void testGroupCommit() throws Exception {
+	d.query("CREATE TABLE t (thread INTEGER, i INTEGER)");
+	Thread[] threads = new Thread[8];
+	final Exception[] failure = new Exception[1];
+	for (int i = 0; i < threads.length; i++) {
+	    final int thread = i;
+	    threads[i] = new Thread() {
+
+		@Override
+		public void run() {
+		    try {
+			for (int j = 0; j < 50; j++) {
+			    d.query("INSERT INTO t VALUES (?, ?)", thread, j);
+			}
+		    } catch (Exception e) {
+			failure[0] = e;
+		    }
+		}
+
+	    };
+	    threads[i].start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	assertNull(failure[0]);
+	reopen();
+	assertEquals(400, count("SELECT COUNT(*) FROM t"));
+	Table t = d.query("SELECT COUNT(*) FROM t WHERE thread = 3");
+	assertEquals(50, t.getCellInt(0, 0));
+    }
+
+}
@@ -0,0 +1,319 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+import com.sonyericsson.prequel.Table;
+
+public class TestModify extends TestCase {
+
+    private Database d;
+
+    private int count(String sql) throws InvalidSqlQueryException {
+	return d.query(sql).getCellInt(0, 0);
+    }
+
+    private void fill(String storage) throws InvalidSqlQueryException {
+	fill(storage, 1000);
+    }
+
+    private void fill(String storage, int rows)
+	    throws InvalidSqlQueryException {
+	d.query("PRAGMA storage = " + storage);
+	d.query("CREATE TABLE t (id INTEGER, x INTEGER, name TEXT)");
+	d.query("CREATE INDEX t_id ON t (id)");
+	Query insert = d.prepare("INSERT INTO t VALUES (?, ?, ?)");
+	for (int i = 0; i < rows; i++) {
+	    insert.execute(i, i % 10, "n" + i);
+	}
+    }
+
+    @Override
+    public void setUp() {
+	d = new Database();
+    }
+
+    @Override
+    public void tearDown() throws InvalidSqlQueryException {
+	d.query("PRAGMA auto_vacuum = 0");
+    }
+
+    private void checkUpdate() throws InvalidSqlQueryException {
+	assertEquals(100, count("UPDATE t SET name = 'five' WHERE x = 5"));
+	assertEquals(100, count("SELECT COUNT(*) FROM t WHERE name = 'five'"));
+	assertEquals("n6", d.query("SELECT name FROM t WHERE id = 6")
+		.getCellString(0, 0));
+
+	/* All values of a row are computed from its old values */
+	assertEquals(1, count("UPDATE t SET id = x, x = id WHERE id = 17"));
+	Table t = d.query("SELECT id, x FROM t WHERE name = 'n17'");
+	assertEquals(7, t.getCellInt(0, 0));
+	assertEquals(17, t.getCellInt(0, 1));
+
+	/* The index follows the new values */
+	assertEquals(0, d.query("SELECT * FROM t WHERE id = 17").getRowCount());
+	assertEquals(2, d.query("SELECT * FROM t WHERE id = 7").getRowCount());
+
+	assertEquals(1000, count("UPDATE t SET x = NULL"));
+	assertEquals(0, count("SELECT COUNT(*) FROM t WHERE x NOT NULL"));
+	try {
+	    d.query("UPDATE t SET y = 1");
+	    fail("Unknown column accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+    public void testUpdate() throws InvalidSqlQueryException {
+	fill("row");
+	checkUpdate();
+    }
+
+    public void testUpdateColumnar() throws InvalidSqlQueryException {
+	fill("columnar");
+	checkUpdate();
+    }
+
+    private void checkDelete() throws InvalidSqlQueryException {
+	assertEquals(100, count("DELETE FROM t WHERE x = 3"));
+	assertEquals(0, count("DELETE FROM t WHERE x = 3"));
+	assertEquals(900, count("SELECT COUNT(*) FROM t"));
+	assertEquals(0, d.query("SELECT * FROM t WHERE id = 13").getRowCount());
+	assertEquals(0, d.query("SELECT * FROM t WHERE name = 'n13'")
+		.getRowCount());
+
+	/* Deleted rows are used again, and found through the index */
+	Query insert = d.prepare("INSERT INTO t VALUES (?, ?, ?)");
+	for (int i = 0; i < 150; i++) {
+	    insert.execute(2000 + i, 3, "m" + i);
+	}
+	assertEquals(1050, count("SELECT COUNT(*) FROM t"));
+	assertEquals(150, count("SELECT COUNT(*) FROM t WHERE x = 3"));
+	assertEquals(1, d.query("SELECT * FROM t WHERE id = 2042")
+		.getRowCount());
+
+	/* Joins skip deleted rows on both sides */
+	d.query("CREATE TABLE u (id INTEGER)");
+	for (int i = 0; i < 20; i++) {
+	    d.query("INSERT INTO u VALUES (?)", i);
+	}
+	d.query("DELETE FROM u WHERE id < 10");
+	assertEquals(9, d.query("SELECT * FROM t JOIN u ON t.id = u.id")
+		.getRowCount());
+	assertEquals(9, d.query("SELECT * FROM u JOIN t ON u.id = t.id")
+		.getRowCount());
+
+	assertEquals(1050, count("DELETE FROM t"));
+	assertEquals(0, count("SELECT COUNT(*) FROM t"));
+	insert.execute(1, 1, "one");
+	assertEquals(1, count("SELECT COUNT(*) FROM t WHERE id = 1"));
+    }
+
+    public void testDelete() throws InvalidSqlQueryException {
+	fill("row");
+	checkDelete();
+    }
+
+    public void testDeleteColumnar() throws InvalidSqlQueryException {
+	fill("columnar");
+	checkDelete();
+    }
+
+    public void testRollback() throws InvalidSqlQueryException {
+	fill("columnar");
+	d.query("BEGIN");
+	d.query("DELETE FROM t WHERE id < 500");
+	d.query("UPDATE t SET name = 'changed'");
+	d.query("INSERT INTO t VALUES (5000, 0, 'new')");
+	assertEquals(501, count("SELECT COUNT(*) FROM t"));
+	d.query("ROLLBACK");
+	assertEquals(1000, count("SELECT COUNT(*) FROM t"));
+	assertEquals(0, count("SELECT COUNT(*) FROM t WHERE name = 'changed'"));
+	assertEquals("n3", d.query("SELECT name FROM t WHERE id = 3")
+		.getCellString(0, 0));
+    }
+
+    public void testAnalyze() throws InvalidSqlQueryException {
+	fill("row");
+	d.query("DELETE FROM t WHERE x > 0");
+	d.query("ANALYZE t");
+	assertEquals("100", d.query("SELECT stat FROM sqlite_stat1 "
+		+ "WHERE tbl = 't'").getCellString(0, 0));
+    }
+
+    private void checkVacuum() throws InvalidSqlQueryException,
+	    InterruptedException {
+	d.query("DELETE FROM t WHERE x < 5");
+	assertEquals(500, count("PRAGMA freelist_count"));
+
+	/* A transaction that has read the table keeps its version */
+	d.query("BEGIN");
+	assertEquals(500, count("SELECT COUNT(*) FROM t"));
+	Thread vacuum = new Thread() {
+
+	    @Override
+	    public void run() {
+		try {
+		    d.query("VACUUM t");
+		} catch (InvalidSqlQueryException e) {
+		    fail(e.getMessage());
+		}
+	    }
+
+	};
+	vacuum.start();
+	vacuum.join();
+	assertEquals(500, count("PRAGMA freelist_count"));
+	assertEquals("n8", d.query("SELECT name FROM t WHERE id = 8")
+		.getCellString(0, 0));
+	d.query("COMMIT");
+
+	assertEquals(0, count("PRAGMA freelist_count"));
+	assertEquals(500, count("SELECT COUNT(*) FROM t"));
+	assertEquals(1, d.query("SELECT * FROM t WHERE id = 8").getRowCount());
+	assertEquals(0, d.query("SELECT * FROM t WHERE id = 3").getRowCount());
+
+	/* New rows go last, since there are no deleted rows to use */
+	d.query("INSERT INTO t VALUES (-1, 0, 'last')");
+	Table t = d.query("SELECT id FROM t");
+	assertEquals(5, t.getCellInt(0, 0));
+	assertEquals(-1, t.getCellInt(500, 0));
+
+	assertEquals(1, count("UPDATE t SET name = 'eight' WHERE id = 8"));
+	assertEquals(1, count("SELECT COUNT(*) FROM t WHERE name = 'eight'"));
+	d.query("VACUUM");
+	assertEquals(501, count("SELECT COUNT(*) FROM t"));
+    }
+
+    public void testVacuum() throws InvalidSqlQueryException,
+	    InterruptedException {
+	fill("row");
+	checkVacuum();
+    }
+
+    public void testVacuumColumnar() throws InvalidSqlQueryException,
+	    InterruptedException {
+	fill("columnar");
+	checkVacuum();
+    }
+
+    public void testAutoVacuum() throws InvalidSqlQueryException,
+	    InterruptedException {
+	fill("columnar", 2000);
+	d.query("PRAGMA auto_vacuum = 50");
+	assertEquals(50, count("PRAGMA auto_vacuum"));
+
+	/* Too few rows deleted to be worth it */
+	d.query("DELETE FROM t WHERE id < 1000");
+	Thread.sleep(100);
+	assertEquals(1000, count("PRAGMA freelist_count"));
+
+	d.query("DELETE FROM t WHERE id < 1500");
+	long timeout = System.currentTimeMillis() + 5000;
+	while (count("PRAGMA freelist_count") > 0) {
+	    assertTrue(System.currentTimeMillis() < timeout);
+	    Thread.sleep(10);
+	}
+	assertEquals(500, count("SELECT COUNT(*) FROM t"));
+	assertEquals(1, d.query("SELECT * FROM t WHERE id = 1700")
+		.getRowCount());
+    }
+
+    public void testInsertValues() throws InvalidSqlQueryException {
+	fill("row", 0);
+	assertEquals(3, count("INSERT INTO t VALUES (1, 1, 'a'), (2, 2, 'b'), "
+		+ "(3, 3, 'c')"));
+	assertEquals(2, d.query("INSERT INTO t (name, id) VALUES ('d', 4), "
+		+ "(?, 5)", "e").getCellInt(0, 0));
+	assertEquals(5, count("SELECT COUNT(*) FROM t"));
+	assertEquals("e", d.query("SELECT name FROM t WHERE id = 5")
+		.getCellString(0, 0));
+	try {
+	    d.query("INSERT INTO t (id, x) VALUES (6, 6), (7)");
+	    fail("Short tuple accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+    public void testInsertSelect() throws InvalidSqlQueryException {
+	fill("columnar");
+	d.query("CREATE TABLE u (id INTEGER PRIMARY KEY, name TEXT)");
+	assertEquals(100, count("INSERT INTO u SELECT id, name FROM t "
+		+ "WHERE x = 4"));
+	assertEquals(100, count("SELECT COUNT(*) FROM u"));
+	assertEquals("n14", d.query("SELECT name FROM u WHERE id = 14")
+		.getCellString(0, 0));
+
+	/* The rows are selected before any of them is added */
+	assertEquals(100, count("INSERT INTO u (name) SELECT name FROM u"));
+	assertEquals(200, count("SELECT COUNT(*) FROM u"));
+	assertEquals(0, count("INSERT OR IGNORE INTO u SELECT id, name "
+		+ "FROM t WHERE x = 4"));
+	try {
+	    d.query("INSERT INTO u SELECT * FROM t");
+	    fail("Too many values accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+    public void testBulkInsert() throws InvalidSqlQueryException {
+	fill("columnar", 0);
+	Vector<Object[]> rows = new Vector<Object[]>();
+	for (int i = 0; i < 5000; i++) {
+	    rows.add(new Object[] { i, (long) (i % 10), "n" + i });
+	}
+	assertEquals(5000, d.bulkInsert("t", rows));
+	assertEquals(500, count("SELECT COUNT(*) FROM t WHERE x = 7"));
+	assertEquals("n4321", d.query("SELECT name FROM t WHERE id = 4321")
+		.getCellString(0, 0));
+
+	/* Nothing is added when a row fails */
+	d.query("CREATE TABLE u (id INTEGER PRIMARY KEY, name TEXT)");
+	rows.clear();
+	rows.add(new Object[] { null, "a" });
+	rows.add(new Object[] { 7, "b" });
+	rows.add(new Object[] { 7, "c" });
+	try {
+	    d.bulkInsert("u", rows);
+	    fail("Duplicate key accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+	assertEquals(0, count("SELECT COUNT(*) FROM u"));
+	rows.remove(2);
+	assertEquals(2, d.bulkInsert("u", rows));
+	assertEquals(7, count("SELECT MAX(id) FROM u"));
+	try {
+	    d.bulkInsert("v", rows);
+	    fail("Unknown table accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+}
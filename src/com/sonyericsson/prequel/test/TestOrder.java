@@ -0,0 +1,161 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+import com.sonyericsson.prequel.Table;
+
+public class TestOrder extends TestCase {
+
+    private static final int ROWS = 5000;
+
+    private Database d;
+
+    private static int a(int i) {
+	return (i * 7919) % 1000;
+    }
+
+    @Override
+    public void setUp() throws InvalidSqlQueryException {
+	d = new Database();
+	d.query("CREATE TABLE t (a INTEGER, b INTEGER, c TEXT)");
+	Query insert = d.prepare("INSERT INTO t VALUES (?, ?, ?)");
+	for (int i = 0; i < ROWS; i++) {
+	    insert.execute(a(i), i, "c" + (i % 10));
+	}
+    }
+
+    /**
+     * Gets the expected values of b when ordering by a and then b
+     * descending.
+     */
+    private ArrayList<Integer> expected() {
+	ArrayList<Long> keys = new ArrayList<Long>();
+	for (int i = 0; i < ROWS; i++) {
+	    keys.add(a(i) * 100000L + (ROWS - i));
+	}
+	Collections.sort(keys);
+	ArrayList<Integer> result = new ArrayList<Integer>();
+	for (long key : keys) {
+	    result.add(ROWS - (int) (key % 100000));
+	}
+	return result;
+    }
+
+    private static ArrayList<Integer> column(Table t, int column) {
+	ArrayList<Integer> result = new ArrayList<Integer>();
+	for (int i = 0; i < t.getRowCount(); i++) {
+	    result.add(t.getCellInt(i, column));
+	}
+	return result;
+    }
+
+    public void testOrderBy() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT b FROM t ORDER BY a, b DESC");
+	assertEquals(expected(), column(t, 0));
+	t = d.query("SELECT a, b FROM t ORDER BY 1 ASC, 2 DESC");
+	assertEquals(expected(), column(t, 1));
+    }
+
+    public void testOrdinalOutOfRange() throws InvalidSqlQueryException {
+	assertEquals(ROWS, d.query("SELECT * FROM t ORDER BY 3").getRowCount());
+	String[] queries = { "SELECT b FROM t ORDER BY 0",
+		"SELECT b FROM t ORDER BY 2",
+		"SELECT * FROM t ORDER BY a, 4",
+		"SELECT a FROM t UNION SELECT b FROM t ORDER BY 2" };
+	for (String sql : queries) {
+	    try {
+		d.query(sql);
+		fail("Ordinal out of range accepted: " + sql);
+	    } catch (InvalidSqlQueryException e) {
+		assertTrue(e.getMessage(), e.getMessage().startsWith(
+			"ORDER BY term "));
+		assertTrue(e.getMessage(), e.getMessage().endsWith(
+			"<<here>>" + sql.substring(sql.length() - 1)));
+	    }
+	}
+    }
+
+    public void testTopN() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT b FROM t ORDER BY a, b DESC LIMIT 50");
+	assertEquals(expected().subList(0, 50), column(t, 0));
+	t = d.query("SELECT b FROM t ORDER BY a, b DESC LIMIT 50 OFFSET 20");
+	assertEquals(expected().subList(20, 70), column(t, 0));
+	t = d.query("SELECT b FROM t ORDER BY a, b DESC LIMIT 20, 50");
+	assertEquals(expected().subList(20, 70), column(t, 0));
+	t = d.prepare("SELECT b FROM t ORDER BY a, b DESC LIMIT ? OFFSET ?")
+		.execute(10, ROWS - 5);
+	assertEquals(expected().subList(ROWS - 5, ROWS), column(t, 0));
+    }
+
+    public void testLimitWithoutOrder() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT b FROM t WHERE c = 'c3' LIMIT 5 OFFSET 2");
+	assertEquals(5, t.getRowCount());
+	assertEquals(23, t.getCellInt(0, 0));
+	assertEquals(63, t.getCellInt(4, 0));
+	assertEquals(0, d.query("SELECT * FROM t LIMIT 0").getRowCount());
+	assertEquals(ROWS, d.query("SELECT * FROM t LIMIT -1").getRowCount());
+    }
+
+    public void testGroups() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT c, MAX(b) FROM t GROUP BY c "
+		+ "ORDER BY MAX(b) DESC LIMIT 3");
+	assertEquals(3, t.getRowCount());
+	assertEquals("c9", t.getCellString(0, 0));
+	assertEquals("c8", t.getCellString(1, 0));
+	assertEquals("c7", t.getCellString(2, 0));
+	t = d.query("SELECT c FROM t GROUP BY c ORDER BY c DESC LIMIT 2, 1");
+	assertEquals(1, t.getRowCount());
+	assertEquals("c7", t.getCellString(0, 0));
+    }
+
+    public void testNulls() throws InvalidSqlQueryException {
+	d.query("INSERT INTO t (b) VALUES (-1)");
+	Table t = d.query("SELECT b, a FROM t ORDER BY a LIMIT 2");
+	assertEquals(-1, t.getCellInt(0, 0));
+	assertTrue(t.isNull(0, 1));
+	t = d.query("SELECT b FROM t ORDER BY a DESC");
+	assertEquals(-1, t.getCellInt(ROWS, 0));
+    }
+
+    public void testCompound() throws InvalidSqlQueryException {
+	Table t = d.query("SELECT b FROM t WHERE b < 3 UNION ALL "
+		+ "SELECT b FROM t WHERE b > 4996 ORDER BY 1 DESC LIMIT 4");
+	ArrayList<Integer> expected = new ArrayList<Integer>();
+	expected.add(4999);
+	expected.add(4998);
+	expected.add(4997);
+	expected.add(2);
+	assertEquals(expected, column(t, 0));
+    }
+
+}
@@ -0,0 +1,251 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+import com.sonyericsson.prequel.Table;
+
+public class TestQuery extends TestCase {
+
+    private Database d;
+
+    @Override
+    public void setUp() throws InvalidSqlQueryException {
+	d = new Database();
+	d.query("CREATE TABLE t (a INTEGER, b TEXT)");
+    }
+
+    public void testExecuteTwice() throws InvalidSqlQueryException {
+	Query insert = d.prepare("INSERT INTO t VALUES (1, 'one')");
+	Query select = d.prepare("SELECT * FROM t");
+	assertEquals(0, select.execute().getRowCount());
+	insert.execute();
+	assertEquals(1, select.execute().getRowCount());
+	insert.execute();
+	assertEquals(2, select.execute().getRowCount());
+    }
+
+    public void testParameters() throws InvalidSqlQueryException {
+	Query insert = d.prepare("INSERT INTO t VALUES (?, ?)");
+	for (int i = 0; i < 10; i++) {
+	    insert.execute(i, "row" + i);
+	}
+	Query select = d.prepare("SELECT b FROM t WHERE a = ?");
+	assertEquals("row3", select.execute(3).getCellString(0, 0));
+	assertEquals("row7", select.execute(7).getCellString(0, 0));
+	assertEquals(0, select.execute().getRowCount());
+    }
+
+    public void testNumberedParameters() throws InvalidSqlQueryException {
+	Query insert = d.prepare("INSERT INTO t (b, a) VALUES (?1, ?0)");
+	insert.execute(1, "one");
+	insert.execute(2, "two");
+	Query select = d.prepare("SELECT b FROM t WHERE a = ?0 OR b = ?0");
+	assertEquals("two", select.execute(2).getCellString(0, 0));
+	assertEquals("one", select.execute(1).getCellString(0, 0));
+    }
+
+    public void testIndexedParameter() throws InvalidSqlQueryException {
+	d.query("CREATE INDEX t_a ON t (a)");
+	Query insert = d.prepare("INSERT INTO t VALUES (?, ?)");
+	for (int i = 0; i < 100; i++) {
+	    insert.execute(i % 10, "row" + i);
+	}
+	Query select = d.prepare("SELECT b FROM t WHERE a = ? AND b = ?");
+	assertEquals(1, select.execute(3, "row13").getRowCount());
+	assertEquals(0, select.execute(4, "row13").getRowCount());
+	assertEquals(10, d.prepare("SELECT * FROM t WHERE a >= ?").execute(9)
+		.getRowCount());
+    }
+
+    public void testCache() throws InvalidSqlQueryException {
+	assertSame(d.prepare("SELECT * FROM t"), d.prepare("SELECT * FROM t"));
+	for (int i = 0; i < 1000; i++) {
+	    d.prepare("SELECT a FROM t WHERE a = " + i);
+	}
+	assertEquals(0, d.prepare("SELECT * FROM t").execute().getRowCount());
+    }
+
+    public void testSchemaChange() throws InvalidSqlQueryException {
+	Query select = d.prepare("SELECT * FROM t");
+	d.query("INSERT INTO t VALUES (1, 'one')");
+	d.query("DROP TABLE t");
+	try {
+	    select.execute();
+	    fail("Query on dropped table succeeded");
+	} catch (InvalidSqlQueryException e) {
+	}
+	d.query("CREATE TABLE t (a INTEGER, b TEXT)");
+	assertEquals(0, select.execute().getRowCount());
+    }
+
+    public void testCreateIfNotExists() throws InvalidSqlQueryException {
+	d.query("INSERT INTO t VALUES (1, 'one')");
+	d.query("CREATE TABLE IF NOT EXISTS t (c INTEGER)");
+	Table t = d.query("SELECT * FROM t");
+	assertEquals(2, t.getColumnCount());
+	assertEquals(1, t.getRowCount());
+	try {
+	    d.query("CREATE TABLE t (c INTEGER)");
+	    fail("Created table twice");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+    public void testTokens() throws InvalidSqlQueryException {
+	d.query("create table r (x real, y Text)");
+	Query insert = d.prepare("insert INTO r values (?, 'a')");
+	insert.execute(1.5);
+	insert.execute(2.25);
+	insert.execute(1000.0);
+	assertEquals(1, d.query("SELECT * FROM r WHERE x = 1.5").getRowCount());
+	assertEquals(2, d.query("Select * From r Where x>2.0").getRowCount());
+	assertEquals(1, d.query("SELECT * FROM r WHERE x >= 1e3")
+		.getRowCount());
+	assertEquals(2, d.query("SELECT * FROM r WHERE x <> 1.5")
+		.getRowCount());
+	assertEquals(3, d.query("SELECT y FROM r WHERE y=='a';")
+		.getRowCount());
+    }
+
+    public void testWideTable() throws InvalidSqlQueryException {
+	StringBuilder create = new StringBuilder("CREATE TABLE w (");
+	StringBuilder insert = new StringBuilder("INSERT INTO w VALUES (");
+	Object[] values = new Object[80];
+	for (int i = 0; i < values.length; i++) {
+	    create.append((i > 0) ? ", c" : "c").append(i).append(" INTEGER");
+	    insert.append((i > 0) ? ", ?" : "?");
+	}
+	d.query(create.append(")").toString());
+	Query query = d.prepare(insert.append(")").toString());
+	for (int row = 0; row < 100; row++) {
+	    for (int i = 0; i < values.length; i++) {
+		values[i] = row * i;
+	    }
+	    query.execute(values);
+	}
+	Table t = d.query("SELECT c79, c1 FROM w WHERE c79 > 7800 AND c2 <= 198");
+	assertEquals(1, t.getRowCount());
+	assertEquals(7821, t.getCellInt(0, 0));
+	assertEquals(99, t.getCellInt(0, 1));
+
+	/* The same expressions on tables with other layouts */
+	d.query("INSERT INTO t VALUES (99, 'last')");
+	t = d.query("SELECT w.c79, t.b FROM w, t WHERE w.c1 = t.a");
+	assertEquals(1, t.getRowCount());
+	assertEquals(99 * 79, t.getCellInt(0, 0));
+	assertEquals("last", t.getCellString(0, 1));
+    }
+
+    public void testExplain() throws InvalidSqlQueryException {
+	Query insert = d.prepare("INSERT INTO t VALUES (?, ?)");
+	for (int i = 0; i < 100; i++) {
+	    insert.execute(i, "row" + (i % 10));
+	}
+	d.query("CREATE INDEX t_a ON t (a)");
+	Table t = d.query("EXPLAIN QUERY PLAN SELECT b FROM t "
+		+ "WHERE a > ? ORDER BY b", 90);
+	assertEquals(3, t.getColumnCount());
+	assertEquals(3, t.getRowCount());
+	assertEquals("SELECT", t.getCellString(0, 2));
+	assertEquals(0, t.getCellInt(0, 1));
+	assertEquals("SEARCH t USING INDEX t_a (a>?)", t.getCellString(1, 2));
+	assertEquals(1, t.getCellInt(1, 1));
+	assertEquals("SORT", t.getCellString(2, 2));
+
+	t = d.query("EXPLAIN ANALYZE SELECT * FROM t WHERE b = 'row3'");
+	assertEquals(7, t.getColumnCount());
+	assertEquals("SCAN t", t.getCellString(1, 2));
+	assertEquals(100, t.getCellInt(1, 3));
+	assertEquals(10, t.getCellInt(1, 4));
+	assertEquals(10, t.getCellInt(0, 4));
+	assertTrue(t.getCellLong(0, 5) >= t.getCellLong(1, 5));
+
+	/* The inputs of a join are its children, and its result is scanned */
+	t = d.query("EXPLAIN SELECT * FROM t AS p JOIN t AS q ON p.a = q.a");
+	assertEquals(5, t.getRowCount());
+	assertEquals("SCAN (result)", t.getCellString(1, 2));
+	assertEquals(1, t.getCellInt(1, 1));
+	assertEquals("MERGE JOIN p AND q", t.getCellString(2, 2));
+	assertEquals(2, t.getCellInt(2, 1));
+	assertEquals("SCAN p", t.getCellString(3, 2));
+	assertEquals(3, t.getCellInt(3, 1));
+	assertEquals("SCAN q", t.getCellString(4, 2));
+	assertEquals(3, t.getCellInt(4, 1));
+
+	/* Each join of a chain reads the join before it */
+	t = d.query("EXPLAIN SELECT * FROM t AS p JOIN t AS q ON p.a = q.a "
+		+ "JOIN (SELECT a FROM t) AS r ON q.a = r.a");
+	assertEquals(9, t.getRowCount());
+	assertEquals("JOIN ORDER p, q, r", t.getCellString(2, 2));
+	assertEquals("HASH JOIN (result) AND r", t.getCellString(3, 2));
+	assertEquals(3, t.getCellInt(3, 1));
+	assertEquals("MERGE JOIN p AND q", t.getCellString(4, 2));
+	assertEquals(4, t.getCellInt(4, 1));
+	assertEquals("SCAN p", t.getCellString(5, 2));
+	assertEquals(5, t.getCellInt(5, 1));
+	assertEquals("SCAN q", t.getCellString(6, 2));
+	assertEquals(5, t.getCellInt(6, 1));
+	assertEquals("SUBQUERY r", t.getCellString(7, 2));
+	assertEquals(4, t.getCellInt(7, 1));
+	assertEquals("SCAN t", t.getCellString(8, 2));
+	assertEquals(8, t.getCellInt(8, 1));
+
+	/* Only EXPLAIN ANALYZE runs statements that change something */
+	d.query("EXPLAIN QUERY PLAN INSERT INTO t VALUES (1, 'x')");
+	assertEquals(100, d.query("SELECT * FROM t").getRowCount());
+
+	/* The plan of a write shows how the rows are found */
+	t = d.query("EXPLAIN QUERY PLAN DELETE FROM t WHERE a = 5");
+	assertEquals(2, t.getRowCount());
+	assertEquals("DELETE", t.getCellString(0, 2));
+	assertEquals("SEARCH t USING INDEX t_a (a=?)", t.getCellString(1, 2));
+	t = d.query("EXPLAIN QUERY PLAN UPDATE t SET b = 'x' WHERE b = 'row1'");
+	assertEquals("UPDATE", t.getCellString(0, 2));
+	assertEquals("SCAN t", t.getCellString(1, 2));
+	t = d.query("EXPLAIN QUERY PLAN INSERT INTO t SELECT * FROM t");
+	assertEquals("SCAN t", t.getCellString(1, 2));
+	assertEquals(100, d.query("SELECT * FROM t").getRowCount());
+	assertEquals(1, d.query("SELECT * FROM t WHERE a = 5").getRowCount());
+	assertEquals(0, d.query("SELECT * FROM t WHERE b = 'x'").getRowCount());
+
+	t = d.query("EXPLAIN ANALYZE INSERT INTO t VALUES (1, 'x')");
+	assertEquals("INSERT", t.getCellString(0, 2));
+	assertEquals(101, d.query("SELECT * FROM t").getRowCount());
+    }
+
+    public void testInvalidSql() {
+	try {
+	    d.prepare("SELECT * FROM");
+	    fail("Invalid query prepared");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+}
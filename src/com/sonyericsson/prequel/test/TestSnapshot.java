@@ -0,0 +1,191 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+
+public class TestSnapshot extends TestCase {
+
+    private File snapshot;
+
+    private File log;
+
+    private Database d;
+
+    private int count(String sql) throws InvalidSqlQueryException {
+	return d.query(sql).getCellInt(0, 0);
+    }
+
+    private void reopen() throws IOException {
+	d.checkpoint(snapshot);
+	d.close();
+	d = Database.open(snapshot);
+    }
+
+    @Override
+    public void setUp() throws IOException {
+	snapshot = File.createTempFile("prequel", ".snapshot");
+	snapshot.delete();
+	log = File.createTempFile("prequel", ".log");
+	log.delete();
+	d = new Database();
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+	d.close();
+	snapshot.delete();
+	log.delete();
+    }
+
+    private void fill(String storage) throws InvalidSqlQueryException {
+	d.query("PRAGMA storage = " + storage);
+	d.query("CREATE TABLE t (id INTEGER PRIMARY KEY, n INTEGER, "
+		+ "big INTEGER, x REAL, name TEXT UNIQUE, any)");
+	d.query("CREATE INDEX t_x ON t (x, n)");
+	Vector<Object[]> rows = new Vector<Object[]>();
+	for (int i = 0; i < 3000; i++) {
+	    rows.add(new Object[] { null, (i % 3 == 0) ? null : i,
+		    (1L << 40) + i, i / 4.0, "n" + i,
+		    (i % 2 == 0) ? (Object) i : "a" + i });
+	}
+	d.bulkInsert("t", rows);
+	d.query("DELETE FROM t WHERE id <= 1100");
+    }
+
+    private void check() throws InvalidSqlQueryException {
+	assertEquals(1900, count("SELECT COUNT(*) FROM t"));
+	assertEquals(1267, count("SELECT COUNT(n) FROM t"));
+	assertEquals(1100, count("SELECT MIN(n) FROM t"));
+	assertEquals((1L << 40) + 2999, d.query("SELECT MAX(big) FROM t")
+		.getCellLong(0, 0));
+	assertEquals(12, count("SELECT COUNT(*) FROM t WHERE x < 278"));
+	assertEquals("n1500", d.query("SELECT name FROM t WHERE id = 1501")
+		.getCellString(0, 0));
+	assertEquals(2000, count("SELECT id FROM t WHERE name = 'n1999'"));
+	assertEquals(2000, count("SELECT any FROM t WHERE id = 2001"));
+	assertEquals("a2001", d.query("SELECT any FROM t WHERE id = 2002")
+		.getCellString(0, 0));
+
+	/* Keys and constraints are kept */
+	try {
+	    d.query("INSERT INTO t (name) VALUES ('n2000')");
+	    fail("Duplicate accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+	assertEquals(1, count("INSERT INTO t (name) VALUES ('next')"));
+	assertEquals(3001, count("SELECT id FROM t WHERE name = 'next'"));
+    }
+
+    public void testColumnar() throws IOException, InvalidSqlQueryException {
+	fill("columnar");
+	d.query("PRAGMA user_version = 7");
+	reopen();
+	assertEquals(7, count("PRAGMA user_version"));
+	assertEquals("columnar", d.query("PRAGMA storage").getCellString(0, 0));
+	check();
+    }
+
+    public void testRows() throws IOException, InvalidSqlQueryException {
+	fill("row");
+	reopen();
+	assertEquals("row", d.query("PRAGMA storage").getCellString(0, 0));
+	check();
+    }
+
+    public void testChanges() throws IOException, InvalidSqlQueryException {
+	fill("columnar");
+	d.query("CREATE TABLE empty (a TEXT DEFAULT 'x', b INTEGER)");
+	reopen();
+	d.query("UPDATE t SET n = -1 WHERE id > 2990");
+	d.query("DELETE FROM t WHERE id <= 2000");
+	d.query("INSERT INTO empty (b) VALUES (1)");
+	assertEquals(10, count("SELECT COUNT(*) FROM t WHERE n = -1"));
+	assertEquals(1000, count("SELECT COUNT(*) FROM t"));
+	assertEquals("x", d.query("SELECT a FROM empty").getCellString(0, 0));
+
+	/* The changes are written to the next snapshot */
+	reopen();
+	assertEquals(10, count("SELECT COUNT(*) FROM t WHERE n = -1"));
+	assertEquals(1000, count("SELECT COUNT(*) FROM t"));
+	assertEquals(1, count("SELECT COUNT(*) FROM empty"));
+    }
+
+    public void testLog() throws IOException, InvalidSqlQueryException {
+	d.close();
+	d = Database.open(snapshot, log);
+	d.query("CREATE TABLE t (id INTEGER PRIMARY KEY, a INTEGER)");
+	d.query("INSERT INTO t (a) VALUES (1)");
+	long length = log.length();
+	d.checkpoint(snapshot);
+	assertTrue(log.length() < length);
+
+	/* Only the changes after the checkpoint are in the log */
+	d.query("INSERT INTO t (a) VALUES (2)");
+	d.close();
+	d = Database.open(snapshot, log);
+	assertEquals(2, count("SELECT COUNT(*) FROM t"));
+	assertEquals(3, count("SELECT SUM(a) FROM t"));
+	d.query("INSERT INTO t (a) VALUES (3)");
+	d.close();
+	d = Database.open(snapshot, log);
+	assertEquals(3, count("SELECT COUNT(*) FROM t"));
+	assertEquals(3, count("SELECT MAX(id) FROM t"));
+
+	/* Deleted rows are kept, so the log refers to the same rows */
+	d.query("DELETE FROM t WHERE a = 1");
+	d.checkpoint(snapshot);
+	d.query("INSERT INTO t (a) VALUES (4)");
+	d.query("UPDATE t SET a = 20 WHERE a = 2");
+	d.close();
+	d = Database.open(snapshot, log);
+	assertEquals(3, count("SELECT COUNT(*) FROM t"));
+	assertEquals(27, count("SELECT SUM(a) FROM t"));
+	assertEquals(4, count("SELECT id FROM t WHERE a = 4"));
+    }
+
+    public void testInvalid() throws IOException, InvalidSqlQueryException {
+	d.close();
+	d = Database.open(snapshot);
+	assertEquals(0, count("PRAGMA user_version"));
+	FileOutputStream out = new FileOutputStream(snapshot);
+	out.write("CREATE TABLE t (a)".getBytes("UTF-8"));
+	out.close();
+	try {
+	    Database.open(snapshot);
+	    fail("Invalid snapshot opened");
+	} catch (IOException e) {
+	}
+    }
+
+}
@@ -0,0 +1,132 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Table;
+
+public class TestStorage extends TestCase {
+
+    private Database d;
+
+    @Override
+    public void setUp() throws InvalidSqlQueryException {
+	d = new Database();
+	d.query("PRAGMA storage = columnar");
+	d.query("CREATE TABLE bank (name TEXT, money INTEGER, rate REAL)");
+    }
+
+    public void testPragma() throws InvalidSqlQueryException {
+	assertEquals("columnar", d.query("PRAGMA storage").getCellString(0, 0));
+	d.query("PRAGMA storage = row");
+	assertEquals("row", d.query("PRAGMA storage").getCellString(0, 0));
+    }
+
+    public void testPrimitiveCells() throws InvalidSqlQueryException {
+	d.query("INSERT INTO bank VALUES ('Donald Duck', 100, ?)", 1.5);
+	d.query("INSERT INTO bank VALUES ('Scrooge McDuck', 1000000, ?)", 0.25);
+	Table t = d.query("SELECT * FROM bank WHERE money > 500");
+	assertEquals(1, t.getRowCount());
+	assertEquals("Scrooge McDuck", t.getCellString(0, 0));
+	assertEquals(1000000, t.getCellInt(0, 1));
+	assertEquals(0.25, t.getCellDouble(0, 2), 0);
+    }
+
+    public void testNulls() throws InvalidSqlQueryException {
+	d.query("INSERT INTO bank VALUES (NULL, NULL, NULL)");
+	d.query("INSERT INTO bank (name) VALUES ('Gladstone Gander')");
+	Table t = d.query("SELECT * FROM bank");
+	assertEquals(2, t.getRowCount());
+	for (int i = 0; i < 3; i++) {
+	    assertTrue(t.isNull(0, i));
+	}
+	assertFalse(t.isNull(1, 0));
+	assertTrue(t.isNull(1, 1));
+	assertEquals(0, t.getCellInt(1, 1));
+    }
+
+    public void testWideIntegers() throws InvalidSqlQueryException {
+	d.query("INSERT INTO bank VALUES ('Donald Duck', 100, 0)");
+	d.query("INSERT INTO bank VALUES ('Scrooge McDuck', 10000000000, 0)");
+	Table t = d.query("SELECT money FROM bank");
+	assertEquals(100, t.getCellLong(0, 0));
+	assertEquals(10000000000L, t.getCellLong(1, 0));
+    }
+
+    public void testManyRows() throws InvalidSqlQueryException {
+	for (int i = 0; i < 3000; i++) {
+	    d.query("INSERT INTO bank VALUES (?, ?, ?)", "Duck " + i, i,
+		    i / 2d);
+	}
+	Table t = d.query("SELECT * FROM bank WHERE money >= 2500");
+	assertEquals(500, t.getRowCount());
+	assertEquals(2999, t.getCellInt(499, 1));
+	assertEquals(1499.5, t.getCellDouble(499, 2), 0);
+
+	/* Conditions spanning several batches */
+	t = d.query("SELECT money FROM bank WHERE (money < 10 OR money >= 2990"
+		+ " OR name = 'Duck 1500') AND rate != 1");
+	assertEquals(20, t.getRowCount());
+	assertEquals(1500, t.getCellInt(9, 0));
+	assertEquals(2999, t.getCellInt(19, 0));
+	t = d.query("SELECT money FROM bank WHERE money >= 1000 OR rate < 1"
+		+ " LIMIT 5 OFFSET 1000");
+	assertEquals(5, t.getRowCount());
+	assertEquals(1998, t.getCellInt(0, 0));
+    }
+
+    public void testFilters() throws InvalidSqlQueryException {
+	d.query("PRAGMA storage = row");
+	d.query("CREATE TABLE other (name TEXT, money INTEGER, rate REAL)");
+	for (String table : new String[] { "bank", "other" }) {
+	    String insert = "INSERT INTO " + table + " VALUES (?, ?, ?)";
+	    for (int i = 0; i < 100; i++) {
+		d.query(insert, "Duck " + i, i, i / 4d);
+	    }
+	    d.query(insert, null, null, null);
+	    String select = "SELECT name, rate FROM " + table + " WHERE ";
+	    assertEquals(1, d.query(select + "money = 10").getRowCount());
+	    assertEquals(100, d.query(select + "money != 10").getRowCount());
+	    assertEquals(11, d.query(select + "money < 10").getRowCount());
+	    assertEquals(11, d.query(select + "10 > money").getRowCount());
+	    assertEquals(89, d.query(select + "money > 10.5").getRowCount());
+	    assertEquals(6, d.query(select + "rate <= 1").getRowCount());
+	    assertEquals(20, d.query(select + "rate >= ? AND money < ?", 20,
+		    100).getRowCount());
+	    assertEquals(3, d.query(
+		    select + "money = 1 OR money = 2 OR name = 'Duck 3'")
+		    .getRowCount());
+	    assertEquals(1, d.query(select + "name = 'Duck 42'").getRowCount());
+	    assertEquals(13, d.query(select + "name < 'Duck 2'").getRowCount());
+	    Table t = d.query(select + "money = 99");
+	    assertEquals("Duck 99", t.getCellString(0, 0));
+	    assertEquals(24.75, t.getCellDouble(0, 1), 0);
+	}
+    }
+
+}
@@ -0,0 +1,215 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+import com.sonyericsson.prequel.Query;
+import com.sonyericsson.prequel.Table;
+
+public class TestSubquery extends TestCase {
+
+    private Database d;
+
+    private int count(String sql, Object... params)
+	    throws InvalidSqlQueryException {
+	return d.query(sql, params).getRowCount();
+    }
+
+    @Override
+    public void setUp() throws InvalidSqlQueryException {
+	d = new Database();
+
+	/* One table of each storage, to check both ways of filtering */
+	d.query("PRAGMA storage = columnar");
+	d.query("CREATE TABLE a (id INTEGER, r REAL, name TEXT)");
+	d.query("PRAGMA storage = row");
+	d.query("CREATE TABLE b (id INTEGER, aid INTEGER, tag TEXT)");
+	Query insert = d.prepare("INSERT INTO a VALUES (?, ?, ?)");
+	for (int i = 0; i < 100; i++) {
+	    insert.execute(i, i / 2.0, "n" + (i % 10));
+	}
+	insert.execute(null, null, null);
+	insert = d.prepare("INSERT INTO b VALUES (?, ?, ?)");
+	for (int i = 0; i < 50; i++) {
+	    insert.execute(i, i * 3, (i % 2 == 0) ? "even" : "odd");
+	}
+    }
+
+    public void testList() throws InvalidSqlQueryException {
+	assertEquals(3, count("SELECT * FROM a WHERE id IN (1, 5, 7, 500)"));
+	assertEquals(97, count("SELECT * FROM a WHERE id NOT IN (1, 5, 7)"));
+	assertEquals(20, count("SELECT * FROM a WHERE name IN ('n1', 'n2')"));
+	assertEquals(0, count("SELECT * FROM a WHERE id IN ()"));
+	assertEquals(101, count("SELECT * FROM a WHERE id NOT IN ()"));
+
+	/* Numbers are equal regardless of their type */
+	assertEquals(2, count("SELECT * FROM a WHERE r IN (1, 2.5)"));
+	assertEquals(2, count("SELECT * FROM a WHERE id IN (2.0, 3.0, 3.5)"));
+	assertEquals(2, count("SELECT * FROM b WHERE aid IN (3.0, 6)"));
+
+	/* Parameters are evaluated once per execution */
+	Query q = d.prepare("SELECT * FROM a WHERE id IN (?, ?)");
+	assertEquals(2, q.execute(1, 2).getRowCount());
+	assertEquals(1, q.execute(3, null).getRowCount());
+
+	/* Lists depending on the row are compared with each value */
+	assertEquals(100, count("SELECT * FROM a WHERE id IN (r, id)"));
+	assertEquals(2, count("SELECT * FROM b WHERE 3 IN (id, aid)"));
+    }
+
+    public void testNullValues() throws InvalidSqlQueryException {
+	assertEquals(0, count("SELECT * FROM a WHERE id IN (NULL)"));
+	assertEquals(1, count("SELECT * FROM a WHERE id IN (NULL, 1)"));
+
+	/* A value that may equal NULL is not known to be NOT IN the list */
+	assertEquals(0, count("SELECT * FROM a WHERE id NOT IN (NULL, 1)"));
+	assertEquals(0, count("SELECT * FROM a WHERE id NOT IN "
+		+ "(SELECT id FROM a)"));
+	assertEquals(98, count("SELECT * FROM a WHERE id NOT IN (0, 1)"));
+    }
+
+    public void testPrecedence() throws InvalidSqlQueryException {
+	assertEquals(2, count("SELECT * FROM a WHERE id IN (1, 2, 11) "
+		+ "AND name = 'n1'"));
+	assertEquals(2, count("SELECT * FROM a WHERE name = 'n1' "
+		+ "AND id IN (1, 2, 11)"));
+	assertEquals(11, count("SELECT * FROM a WHERE name = 'n1' "
+		+ "OR id IN (2, 11)"));
+	assertEquals(2, count("SELECT * FROM a WHERE id NOT NULL "
+		+ "AND id NOT IN (SELECT aid FROM b) AND id < 3"));
+    }
+
+    public void testInSubquery() throws InvalidSqlQueryException {
+	assertEquals(34, count("SELECT * FROM a WHERE id IN "
+		+ "(SELECT aid FROM b)"));
+	assertEquals(66, count("SELECT * FROM a WHERE id NOT IN "
+		+ "(SELECT aid FROM b)"));
+	assertEquals(17, count("SELECT * FROM a WHERE id IN "
+		+ "(SELECT aid FROM b WHERE tag = 'even')"));
+	assertEquals(20, count("SELECT * FROM b WHERE aid IN "
+		+ "(SELECT id FROM a WHERE id > 40)"));
+	Table t = d.query("SELECT a.name, b.tag FROM a JOIN b ON a.id = b.id "
+		+ "WHERE a.id IN (SELECT aid FROM b) ORDER BY a.id");
+	assertEquals(17, t.getRowCount());
+	assertEquals("n3", t.getCellString(1, 0));
+	assertEquals("odd", t.getCellString(1, 1));
+	String[] queries = {
+		"SELECT * FROM a WHERE id IN (SELECT id, aid FROM b)",
+		"SELECT * FROM a WHERE id NOT IN (SELECT * FROM b)",
+		"SELECT * FROM a WHERE id IN (SELECT id, aid FROM b "
+			+ "UNION SELECT id, name FROM a)" };
+	for (String sql : queries) {
+	    try {
+		d.query(sql);
+		fail("Subquery with several columns accepted: " + sql);
+	    } catch (InvalidSqlQueryException e) {
+		assertTrue(e.getMessage(), e.getMessage().startsWith(
+			"Subquery of IN returns "));
+	    }
+	}
+    }
+
+    public void testExists() throws InvalidSqlQueryException {
+	assertEquals(101, count("SELECT * FROM a WHERE "
+		+ "EXISTS (SELECT * FROM b WHERE tag = 'odd')"));
+	assertEquals(0, count("SELECT * FROM a WHERE "
+		+ "EXISTS (SELECT * FROM b WHERE tag = 'none')"));
+	assertEquals(101, count("SELECT * FROM a WHERE "
+		+ "NOT EXISTS (SELECT * FROM b WHERE tag = 'none')"));
+	assertEquals(0, count("SELECT * FROM a WHERE "
+		+ "NOT EXISTS (SELECT * FROM b WHERE tag = 'odd')"));
+    }
+
+    public void testCorrelatedExists() throws InvalidSqlQueryException {
+	assertEquals(34, count("SELECT * FROM a WHERE "
+		+ "EXISTS (SELECT * FROM b WHERE b.aid = a.id)"));
+	assertEquals(17, count("SELECT * FROM a WHERE "
+		+ "EXISTS (SELECT * FROM b WHERE a.id = b.aid "
+		+ "AND b.tag = 'odd')"));
+
+	/* Unlike NOT IN, NOT EXISTS is true for NULL */
+	assertEquals(67, count("SELECT * FROM a WHERE "
+		+ "NOT EXISTS (SELECT * FROM b WHERE b.aid = a.id)"));
+	assertEquals(42, count("SELECT * FROM a x WHERE "
+		+ "NOT EXISTS (SELECT * FROM b WHERE b.aid = x.id "
+		+ "AND b.tag = 'odd') AND x.id < 50 AND x.id NOT NULL"));
+	try {
+	    d.query("SELECT * FROM a WHERE EXISTS (SELECT * FROM b "
+		    + "WHERE b.aid > a.id)");
+	    fail("Unsupported correlation accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+    public void testCorrelatedIn() throws InvalidSqlQueryException {
+	d.query("CREATE TABLE t (a INTEGER, b INTEGER)");
+	d.query("CREATE TABLE s (a INTEGER, b INTEGER)");
+	d.query("INSERT INTO t VALUES (1, 1)");
+	d.query("INSERT INTO t VALUES (2, 2)");
+	d.query("INSERT INTO s VALUES (1, 2)");
+	d.query("INSERT INTO s VALUES (2, 2)");
+	assertEquals(2, count("SELECT * FROM t WHERE a IN (SELECT a FROM s)"));
+
+	/* The subquery is run once, so it may not depend on the row */
+	try {
+	    d.query("SELECT * FROM t WHERE a IN "
+		    + "(SELECT a FROM s WHERE s.b = t.b)");
+	    fail("Correlated IN accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+	try {
+	    d.query("SELECT * FROM t WHERE a NOT IN "
+		    + "(SELECT a FROM s WHERE s.b = t.b)");
+	    fail("Correlated NOT IN accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+
+	/* EXISTS may only refer to the outer query in its condition */
+	try {
+	    d.query("SELECT * FROM t WHERE EXISTS (SELECT t.b FROM s)");
+	    fail("Correlated EXISTS without condition accepted");
+	} catch (InvalidSqlQueryException e) {
+	}
+    }
+
+    public void testExplain() throws InvalidSqlQueryException {
+	Table t = d.query("EXPLAIN ANALYZE SELECT * FROM a WHERE "
+		+ "EXISTS (SELECT * FROM b WHERE b.aid = a.id)");
+	int semiJoins = 0;
+	for (int i = 0; i < t.getRowCount(); i++) {
+	    if (t.getCellString(i, 2).startsWith("HASH SEMI JOIN")) {
+		semiJoins++;
+
+		/* The subquery is run once */
+		assertEquals(50, t.getCellInt(i, 3));
+	    }
+	}
+	assertEquals(1, semiJoins);
+    }
+
+}
@@ -0,0 +1,255 @@
+/* Prequel – A set of simple database APIs in Java SE, similar to SQLite
+ * Copyright (c) 2011 Sony Ericsson Mobile Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * Authors: 
+ *   Pär Spjuth (par.spjuth@sonyericsson.com)
+ */
+package com.sonyericsson.prequel.test;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import com.sonyericsson.prequel.Database;
+import com.sonyericsson.prequel.InvalidSqlQueryException;
+
+public class TestTransaction extends TestCase {
+
+    private Database d;
+
+    @Override
+    public void setUp() throws InvalidSqlQueryException {
+	d = new Database();
+	d.query("CREATE TABLE t (a INTEGER, b TEXT)");
+	d.query("CREATE INDEX t_a ON t (a)");
+	for (int i = 0; i < 100; i++) {
+	    d.query("INSERT INTO t VALUES (?, ?)", i, "row" + i);
+	}
+    }
+
+    private int count(String where, Object... params)
+	    throws InvalidSqlQueryException {
+	return d.query("SELECT * FROM t WHERE " + where, params).getRowCount();
+    }
+
+    public void testCommit() throws InvalidSqlQueryException {
+	d.query("BEGIN");
+	d.query("INSERT INTO t VALUES (1000, 'a')");
+	d.query("INSERT INTO t VALUES (1001, 'b')");
+	assertEquals(102, d.query("SELECT * FROM t").getRowCount());
+	d.query("COMMIT");
+	assertEquals(102, d.query("SELECT * FROM t").getRowCount());
+	assertEquals(1, count("a = 1001"));
+    }
+
+    public void testRollback() throws InvalidSqlQueryException {
+	d.query("BEGIN TRANSACTION");
+	for (int i = 0; i < 50; i++) {
+	    d.query("INSERT INTO t VALUES (?, 'new')", i);
+	}
+	assertEquals(2, count("a = 10"));
+	d.query("ROLLBACK");
+	assertEquals(100, d.query("SELECT * FROM t").getRowCount());
+	assertEquals(1, count("a = 10"));
+	assertEquals(0, count("b = 'new'"));
+
+	/* Rows written after the rollback must not show the dropped ones */
+	d.query("INSERT INTO t VALUES (10, 'after')");
+	assertEquals(2, count("a = 10"));
+	assertEquals(101, d.query("SELECT * FROM t").getRowCount());
+    }
+
+    public void testRollbackColumnar() throws InvalidSqlQueryException {
+	d.query("PRAGMA storage = columnar");
+	d.query("CREATE TABLE c (a INTEGER, b REAL)");
+	for (int i = 0; i < 10; i++) {
+	    d.query("INSERT INTO c VALUES (?, ?)", i, 1.5);
+	}
+	d.query("BEGIN");
+	for (int i = 0; i < 3000; i++) {
+	    d.query("INSERT INTO c VALUES (?, ?)", i, 2.5);
+	}
+	d.query("ROLLBACK");
+	assertEquals(0, d.query("SELECT * FROM c WHERE b = ?", 2.5)
+		.getRowCount());
+	d.query("INSERT INTO c (a) VALUES (-1)");
+	assertEquals(11, d.query("SELECT * FROM c").getRowCount());
+	assertTrue(d.query("SELECT b FROM c WHERE a = -1").isNull(0, 0));
+    }
+
+    public void testErrors() throws InvalidSqlQueryException {
+	try {
+	    d.query("COMMIT");
+	    fail("COMMIT without BEGIN");
+	} catch (InvalidSqlQueryException e) {
+	    // Expected
+	}
+	try {
+	    d.query("ROLLBACK");
+	    fail("ROLLBACK without BEGIN");
+	} catch (InvalidSqlQueryException e) {
+	    // Expected
+	}
+	d.query("BEGIN IMMEDIATE");
+	try {
+	    d.query("BEGIN");
+	    fail("Nested BEGIN");
+	} catch (InvalidSqlQueryException e) {
+	    // Expected
+	}
+	d.query("END");
+    }
+
+    public void testSnapshot() throws Exception {
+	final Vector<Throwable> failures = new Vector<Throwable>();
+	d.query("BEGIN");
+	assertEquals(100, d.query("SELECT * FROM t").getRowCount());
+	Thread writer = new Thread() {
+
+	    @Override
+	    public void run() {
+		try {
+		    d.query("INSERT INTO t VALUES (5, 'other')");
+		} catch (Throwable t) {
+		    failures.add(t);
+		}
+	    }
+
+	};
+	writer.start();
+	writer.join();
+	assertTrue(failures.isEmpty());
+
+	/* Committed by the other thread, but not seen by this transaction */
+	assertEquals(100, d.query("SELECT * FROM t").getRowCount());
+	assertEquals(1, count("a = 5"));
+	d.query("COMMIT");
+	assertEquals(101, d.query("SELECT * FROM t").getRowCount());
+	assertEquals(2, count("a = 5"));
+    }
+
+    public void testWriteConflict() throws Exception {
+	d.query("BEGIN");
+	assertEquals(1, count("a = 5"));
+	Thread writer = new Thread() {
+
+	    @Override
+	    public void run() {
+		try {
+		    d.query("INSERT INTO t VALUES (5, 'other')");
+		} catch (InvalidSqlQueryException e) {
+		    // Checked below
+		}
+	    }
+
+	};
+	writer.start();
+	writer.join();
+	try {
+	    d.query("INSERT INTO t VALUES (5, 'mine')");
+	    fail("Wrote over a change that was never read");
+	} catch (InvalidSqlQueryException e) {
+	    // Expected, and rolled back
+	}
+	d.query("INSERT INTO t VALUES (6, 'after')");
+	assertEquals(102, d.query("SELECT * FROM t").getRowCount());
+	assertEquals(0, count("b = 'mine'"));
+    }
+
+    public void testLongReader() throws Exception {
+	final Vector<Throwable> failures = new Vector<Throwable>();
+	Thread[] writers = new Thread[4];
+	for (int i = 0; i < writers.length; i++) {
+	    final int id = i;
+	    writers[i] = new Thread() {
+
+		@Override
+		public void run() {
+		    try {
+			for (int j = 0; j < 100; j++) {
+			    d.query("INSERT INTO t VALUES (?, 'w')", 1000 + id);
+			}
+		    } catch (Throwable t) {
+			failures.add(t);
+		    }
+		}
+
+	    };
+	}
+	d.query("BEGIN");
+	assertEquals(100, d.query("SELECT * FROM t").getRowCount());
+	for (Thread writer : writers) {
+	    writer.start();
+	}
+	for (int i = 0; i < 50; i++) {
+	    assertEquals(100, d.query("SELECT * FROM t").getRowCount());
+	    assertEquals(0, count("a >= 1000"));
+	}
+	for (Thread writer : writers) {
+	    writer.join();
+	}
+	assertEquals(100, d.query("SELECT * FROM t").getRowCount());
+	d.query("COMMIT");
+	assertTrue(failures.isEmpty());
+	assertEquals(500, d.query("SELECT * FROM t").getRowCount());
+	for (int i = 0; i < writers.length; i++) {
+	    assertEquals(100, count("a = ?", 1000 + i));
+	}
+    }
+
+    public void testSchemaChangeWhileWaitedFor() throws Exception {
+	d.query("BEGIN");
+	d.query("INSERT INTO t VALUES (1000, 'mine')");
+	final Vector<Throwable> failures = new Vector<Throwable>();
+	Thread writer = new Thread() {
+
+	    @Override
+	    public void run() {
+		try {
+		    d.query("INSERT INTO t VALUES (1001, 'other')");
+		} catch (Throwable t) {
+		    failures.add(t);
+		}
+	    }
+
+	};
+	writer.start();
+
+	/* The other statement waits for the table */
+	while (writer.getState() != Thread.State.WAITING) {
+	    Thread.sleep(10);
+	}
+
+	/* Waiting for it to end would never end, so give up and roll back */
+	try {
+	    d.query("CREATE TABLE z (x INTEGER)");
+	    fail("Schema changed while waited for");
+	} catch (InvalidSqlQueryException e) {
+	    // Expected, and rolled back
+	}
+	writer.join();
+	assertTrue(failures.isEmpty());
+	assertEquals(0, count("a = 1000"));
+	assertEquals(1, count("a = 1001"));
+	d.query("CREATE TABLE z (x INTEGER)");
+    }
+
+}